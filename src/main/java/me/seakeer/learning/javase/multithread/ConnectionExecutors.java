@@ -0,0 +1,94 @@
+package me.seakeer.learning.javase.multithread;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * ConnectionExecutors;
+ * 为阻塞I/O的服务端创建处理连接的线程池，运行时选择线程模式
+ * 1. PLATFORM：平台线程，由各服务端指定线程池（每个连接一个线程或有界线程池）
+ * 2. VIRTUAL：每个连接一个虚拟线程，阻塞读写时虚拟线程让出载体线程，少量平台线程即可支撑上万个并发连接，业务代码仍是简单的阻塞写法
+ * 编译目标为 Java 8，虚拟线程（Java 21）的API通过反射调用；不支持时打印日志并退化为 PLATFORM
+ * 注意：Java 24 之前，虚拟线程在 synchronized 块中阻塞会占住载体线程（pinning），同步块中只应有短暂的阻塞
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class ConnectionExecutors {
+
+    public static final String CONNECTION_EXECUTORS_LOG = "[ConnectionExecutors] ";
+
+    public enum ThreadMode {
+        PLATFORM, VIRTUAL
+    }
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY_PROBE = newVirtualThreadFactory("probe-");
+
+    private ConnectionExecutors() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return null != VIRTUAL_THREAD_FACTORY_PROBE;
+    }
+
+    /**
+     * 按线程模式创建线程池，VIRTUAL 不支持时使用平台线程池
+     *
+     * @param namePrefix              线程名前缀，线程名为 前缀+序号
+     * @param platformExecutorSupplier 平台线程模式使用的线程池
+     */
+    public static ExecutorService newExecutor(ThreadMode threadMode, String namePrefix, Supplier<ExecutorService> platformExecutorSupplier) {
+        if (threadMode == ThreadMode.VIRTUAL) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor(namePrefix);
+            if (null != executor) {
+                return executor;
+            }
+            System.out.println(CONNECTION_EXECUTORS_LOG + "[VirtualThreadUnavailable] [JavaVersion: " + System.getProperty("java.version") + "] [Fallback: " + ThreadMode.PLATFORM + "]");
+        }
+        return platformExecutorSupplier.get();
+    }
+
+    /**
+     * 每个任务一个平台线程，空闲线程保留60秒以便复用
+     */
+    public static ExecutorService newPlatformThreadPerTaskExecutor(String namePrefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> new Thread(runnable, namePrefix + threadIndex.getAndIncrement()));
+    }
+
+    /**
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())
+     *
+     * @return 不支持虚拟线程时返回 null
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = newVirtualThreadFactory(namePrefix);
+        if (null == threadFactory) {
+            return null;
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thread.ofVirtual().name(namePrefix, 0).factory()
+     *
+     * @return 不支持虚拟线程（Java 21 以下，或 Java 19/20 没有开启预览特性）时返回 null
+     */
+    public static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package me.seakeer.learning.javase.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * MsgDecoderBenchmark;
+ * 对比两种解码方式在拆包场景下的耗时
+ * 1. Legacy：原 MsgEnDecoder.decodeMsg 的实现，CharsetDecoder.decode(buffer) 每次新建CharBuffer，遇到被截断的多字节字符时抛异常再递归解码
+ * 2. Stream：MsgStreamDecoder，endOfInput=false 流式解码到复用的CharBuffer，不抛异常
+ * 每轮把同一段中英文混合消息按固定大小切片写入缓冲区，模拟多字节字符被拆包截断的情况
+ * 简单的预热 + 计时，不依赖JMH，结果仅用于相对比较
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class MsgDecoderBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2_000;
+
+    private static final int MEASURE_ROUNDS = 10_000;
+
+    private static final int[] CHUNK_SIZES = {7, 64, 1024};
+
+    private static final CharsetDecoder LEGACY_DECODER = MsgEnDecoder.CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private static final MsgStreamDecoder STREAM_DECODER = new MsgStreamDecoder();
+
+    public static void main(String[] args) {
+        StringBuilder msgBuilder = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            msgBuilder.append("Hello, 世界! 第").append(i).append("条消息 😀;");
+        }
+        byte[] bytes = msgBuilder.toString().getBytes(MsgEnDecoder.CHARSET);
+        System.out.printf("[MsgDecoderBenchmark] [MsgBytes: %d] [Rounds: %d]\n", bytes.length, MEASURE_ROUNDS);
+
+        for (int chunkSize : CHUNK_SIZES) {
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            StringBuilder out = new StringBuilder(bytes.length);
+
+            run(bytes, chunkSize, buffer, out, true, WARMUP_ROUNDS);
+            long legacyNanos = run(bytes, chunkSize, buffer, out, true, MEASURE_ROUNDS);
+            verify(msgBuilder, out);
+
+            run(bytes, chunkSize, buffer, out, false, WARMUP_ROUNDS);
+            long streamNanos = run(bytes, chunkSize, buffer, out, false, MEASURE_ROUNDS);
+            verify(msgBuilder, out);
+
+            System.out.printf("[MsgDecoderBenchmark] [ChunkSize: %d] [Legacy: %d ns/msg] [Stream: %d ns/msg] [Speedup: %.2fx]\n",
+                    chunkSize, legacyNanos / MEASURE_ROUNDS, streamNanos / MEASURE_ROUNDS, (double) legacyNanos / streamNanos);
+        }
+    }
+
+    private static long run(byte[] bytes, int chunkSize, ByteBuffer buffer, StringBuilder out, boolean legacy, int rounds) {
+        long startNanos = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            out.setLength(0);
+            buffer.clear();
+            for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                buffer.put(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+                buffer.flip();
+                if (legacy) {
+                    out.append(legacyDecode(buffer));
+                } else {
+                    STREAM_DECODER.decode(buffer, out);
+                }
+            }
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private static void verify(CharSequence expected, StringBuilder actual) {
+        if (!expected.toString().contentEquals(actual)) {
+            throw new IllegalStateException("decode result mismatch");
+        }
+    }
+
+    /**
+     * 原 MsgEnDecoder.decodeMsg 的实现
+     */
+    private static String legacyDecode(ByteBuffer buffer) {
+        StringBuilder decodedString = new StringBuilder();
+        int initPosition = buffer.position();
+        int initLimit = buffer.limit();
+        try {
+            CharBuffer charBuffer = LEGACY_DECODER.decode(buffer);
+            decodedString.append(charBuffer);
+        } catch (CharacterCodingException e) {
+            int errorPosition = buffer.position();
+            buffer.position(initPosition);
+            buffer.limit(errorPosition);
+            decodedString.append(legacyDecode(buffer));
+            buffer.position(errorPosition);
+            buffer.limit(initLimit);
+        }
+        if (buffer.hasRemaining()) {
+            buffer.compact();
+        } else {
+            buffer.clear();
+        }
+        return decodedString.toString();
+    }
+}
@@ -1,8 +1,10 @@
 package me.seakeer.learning.javase.network;
 
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * MsgEnDecoder;
@@ -12,63 +14,56 @@ import java.nio.charset.*;
  */
 public class MsgEnDecoder {
 
-    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
 
-    private static final CharsetDecoder DECODER = CHARSET.newDecoder()
-            .onMalformedInput(CodingErrorAction.REPORT)
-            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    /**
+     * 静态解码方法没有连接上下文，每个线程复用一个流式解码器
+     * 未解码完的字节保留在调用方的ByteBuffer中，所以解码器本身不持有连接状态
+     */
+    private static final ThreadLocal<MsgStreamDecoder> STREAM_DECODER = ThreadLocal.withInitial(MsgStreamDecoder::new);
 
     /**
      * 将ByteBuffer中可解码的字节解码为字符串
      * 无法解码的字节保留在ByteBuffer中
+     * 有连接上下文时优先使用每连接一个的 {@link MsgStreamDecoder}
      *
      * @param buffer
      * @return
      */
     public static String decodeMsg(ByteBuffer buffer) {
+        return STREAM_DECODER.get().decode(buffer);
+    }
 
-        StringBuilder decodedString = new StringBuilder();
-
-        // 初始位置和限制
-        int initPosition = buffer.position();
-        int initLimit = buffer.limit();
-
-        try {
-            // 尝试解码整个缓冲区
-            CharBuffer charBuffer = DECODER.decode(buffer);
-            decodedString.append(charBuffer);
-        } catch (CharacterCodingException e) {
-
-            // 记录发生错误的位置
-            // initPosition --- errorPosition 为可解码的区间
-            // errorPosition --- limit 为未解码的区间
-            int errorPosition = buffer.position();
-
-            // 设置为可解码的区间
-            buffer.position(initPosition);
-            buffer.limit(errorPosition);
-            // 处理可正常解码的字节
-            decodedString.append(decodeMsg(buffer));
-
-            // 设置为未解码的区间
-            buffer.position(errorPosition);
-            buffer.limit(initLimit);
-        }
-
-        if (buffer.hasRemaining()) {
-            // 还有未成功解码的字节，则将缓冲区 compact，方便写入新的字节
-            buffer.compact();
+    /**
+     * 将ByteBuffer中从position开始的length个字节解码为字符串，并将position后移length
+     * 用于解码一个完整的帧，调用方需保证这些字节是完整的UTF-8序列
+     *
+     * @param buffer
+     * @param length
+     * @return
+     */
+    public static String decodeMsg(ByteBuffer buffer, int length) {
+        String msg;
+        if (buffer.hasArray()) {
+            msg = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, CHARSET);
         } else {
-            // 所有字节都解码完成，则清空缓冲区
-            buffer.clear();
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            msg = new String(bytes, CHARSET);
         }
-
-        return decodedString.toString();
+        buffer.position(buffer.position() + length);
+        return msg;
     }
 
+    /**
+     * 将字符串编码到从ByteBufferPool申请的缓冲区中，使用完后需要归还到ByteBufferPool
+     *
+     * @param msg
+     * @return
+     */
     public static ByteBuffer encodeMsg(String msg) {
         byte[] bytes = msg.getBytes(CHARSET);
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
+        ByteBuffer byteBuffer = ByteBufferPool.DEFAULT.acquire(bytes.length);
         byteBuffer.put(bytes);
         byteBuffer.flip();
         return byteBuffer;
@@ -0,0 +1,90 @@
+package me.seakeer.learning.javase.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * MsgStreamDecoder;
+ * 有状态的流式UTF-8解码器，每个连接一个实例，非多线程安全
+ * 1. 以 endOfInput=false 调用 CharsetDecoder，被拆包截断的多字节字符不会抛异常，而是留在ByteBuffer中等待下次读取
+ * 2. 解码到复用的CharBuffer，再追加到调用方的StringBuilder，不为每次读取创建新的CharBuffer
+ * 3. 非法的字节序列替换为 U+FFFD，避免非法字节一直留在缓冲区中导致后续数据无法解码
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class MsgStreamDecoder {
+
+    public static final int DEFAULT_CHAR_BUFFER_SIZE = 1024;
+
+    private final CharsetDecoder decoder;
+
+    private final CharBuffer charBuffer;
+
+    public MsgStreamDecoder() {
+        this(DEFAULT_CHAR_BUFFER_SIZE);
+    }
+
+    public MsgStreamDecoder(int charBufferSize) {
+        this.decoder = MsgEnDecoder.CHARSET.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // 至少能容纳一个代理对，否则解码补充平面字符时会一直溢出
+        this.charBuffer = CharBuffer.allocate(Math.max(charBufferSize, 2));
+    }
+
+    /**
+     * 将ByteBuffer（读模式）中可解码的字节解码并追加到out
+     * 不完整的多字节字符保留在ByteBuffer中，解码后ByteBuffer切换为写模式（compact/clear）
+     *
+     * @param buffer
+     * @param out
+     * @return 本次解码的字符数
+     */
+    public int decode(ByteBuffer buffer, StringBuilder out) {
+        int decodedChars = 0;
+        while (true) {
+            CoderResult result = decoder.decode(buffer, charBuffer, false);
+            charBuffer.flip();
+            decodedChars += charBuffer.remaining();
+            out.append(charBuffer);
+            charBuffer.clear();
+            // UNDERFLOW：输入已消费完，或者剩余的是不完整的多字节字符
+            // OVERFLOW：CharBuffer已满，清空后继续解码
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (buffer.hasRemaining()) {
+            // 还有未解码的字节，则将缓冲区 compact，方便写入新的字节
+            buffer.compact();
+        } else {
+            // 所有字节都解码完成，则清空缓冲区
+            buffer.clear();
+        }
+        return decodedChars;
+    }
+
+    /**
+     * 将ByteBuffer（读模式）中可解码的字节解码为字符串
+     *
+     * @param buffer
+     * @return
+     */
+    public String decode(ByteBuffer buffer) {
+        StringBuilder out = new StringBuilder(buffer.remaining());
+        decode(buffer, out);
+        return out.toString();
+    }
+
+    /**
+     * 连接复用或重连时重置解码器
+     */
+    public void reset() {
+        decoder.reset();
+        charBuffer.clear();
+    }
+}
@@ -0,0 +1,390 @@
+package me.seakeer.learning.javase.network.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ByteBufferPool;
+ * 按容量分级的直接缓冲区池，避免在读写路径上频繁 ByteBuffer.allocateDirect()
+ * 1. 容量分级：256B ~ 64KB，按2的幂向上取整，超过最大级别的不池化
+ * 2. 两级缓存：线程本地缓存（无锁） + 全局缓存（线程间共享），都满了则交给GC回收
+ * 线程本地缓存每个级别最多缓存 threadLocalCacheSize 个且不超过 MAX_THREAD_LOCAL_CACHE_BYTES_PER_CLASS 字节，大缓冲区只缓存少量；
+ * 线程结束前可调用 trimThreadLocalCache() 将本线程缓存的缓冲区移到全局缓存
+ * 3. 归属检查：始终按identity记录已借出的缓冲区，归还时检查，重复归还、非本池申请的缓冲区及其slice/duplicate都会被拒绝，
+ * 否则同一个缓冲区会被两个使用者同时持有，导致数据错乱
+ * 4. 泄漏检测：在归属记录上附加申请时间、线程和调用栈，可输出超过一定时间未归还的缓冲区；
+ * 记录这些信息有额外的对象分配，默认关闭，排查问题时通过 -Dseakeer.byteBufferPool.leakDetection=SIMPLE 开启
+ * 5. 指标：命中次数，未命中次数，未归还数量
+ * <p>
+ * 使用约定：acquire()得到的缓冲区使用完后必须release()，release()后不能再使用
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class ByteBufferPool {
+
+    public static final String BYTE_BUFFER_POOL_LOG = "[ByteBufferPool] ";
+
+    /**
+     * 最小级别 256B
+     */
+    private static final int MIN_SIZE_CLASS_SHIFT = 8;
+
+    /**
+     * 最大级别 64KB
+     */
+    private static final int MAX_SIZE_CLASS_SHIFT = 16;
+
+    private static final int SIZE_CLASS_COUNT = MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1;
+
+    public static final int MAX_POOLED_CAPACITY = 1 << MAX_SIZE_CLASS_SHIFT;
+
+    /**
+     * 线程本地缓存每个级别最多缓存的字节数，64KB级别每个线程只缓存1个
+     */
+    private static final int MAX_THREAD_LOCAL_CACHE_BYTES_PER_CLASS = 64 * 1024;
+
+    public static final String LEAK_DETECTION_PROPERTY = "seakeer.byteBufferPool.leakDetection";
+
+    /**
+     * 全局共享的缓冲区池，泄漏检测默认关闭
+     */
+    public static final ByteBufferPool DEFAULT = new ByteBufferPool(16, 512, leakDetectionOfProperty());
+
+    public enum LeakDetection {
+
+        /**
+         * 不进行泄漏检测
+         */
+        DISABLED,
+
+        /**
+         * 记录每个未归还的缓冲区的申请时间和线程
+         */
+        SIMPLE,
+
+        /**
+         * 在SIMPLE基础上记录申请时的调用栈，开销较大，用于排查问题
+         */
+        PARANOID;
+    }
+
+    /**
+     * 每个线程每个级别最多缓存的缓冲区数量
+     */
+    private final int threadLocalCacheSize;
+
+    /**
+     * 全局缓存中每个级别最多缓存的缓冲区数量
+     */
+    private final int arenaSize;
+
+    private final LeakDetection leakDetection;
+
+    private final ThreadLocal<ThreadLocalCache> threadLocalCache;
+
+    private final Arena[] arenas;
+
+    /**
+     * 泄漏检测关闭时所有借出的缓冲区共用的记录，不包含申请信息
+     */
+    private static final LeakRecord UNTRACKED_RECORD = new LeakRecord(0, null);
+
+    /**
+     * 已借出未归还的缓冲区，key为缓冲区的identity，ByteBuffer的equals和hashCode与内容相关不能直接作为key
+     */
+    private final Map<IdentityKey, LeakRecord> OUTSTANDING_BUFFER_MAP = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    public ByteBufferPool(int threadLocalCacheSize, int arenaSize, LeakDetection leakDetection) {
+        this.threadLocalCacheSize = threadLocalCacheSize;
+        this.arenaSize = arenaSize;
+        this.leakDetection = leakDetection;
+        this.threadLocalCache = ThreadLocal.withInitial(ThreadLocalCache::new);
+        this.arenas = new Arena[SIZE_CLASS_COUNT];
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            arenas[i] = new Arena();
+        }
+    }
+
+    /**
+     * 申请容量不小于capacity的直接缓冲区，返回的缓冲区已clear()
+     *
+     * @param capacity
+     * @return
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer;
+        if (sizeClass < 0) {
+            // 超过最大级别，不池化
+            unpooled.increment();
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            buffer = threadLocalCache.get().buffersOf(sizeClass).pollFirst();
+            if (null == buffer) {
+                buffer = arenas[sizeClass].poll();
+            }
+            if (null == buffer) {
+                misses.increment();
+                buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_CLASS_SHIFT));
+            } else {
+                hits.increment();
+                buffer.clear();
+            }
+        }
+        outstanding.incrementAndGet();
+        OUTSTANDING_BUFFER_MAP.put(new IdentityKey(buffer), leakDetection == LeakDetection.DISABLED ? UNTRACKED_RECORD
+                : new LeakRecord(buffer.capacity(), leakDetection == LeakDetection.PARANOID ? new Throwable("Acquired here") : null));
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，null和堆缓冲区会被忽略；重复归还、非本池申请的直接缓冲区及其slice/duplicate会被拒绝
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (null == buffer || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        // 本池只借出正好是级别大小或超过最大级别的缓冲区，其他容量的是slice或非本池申请的缓冲区
+        if (sizeClass >= 0 && capacity != 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT)) {
+            System.out.println(BYTE_BUFFER_POOL_LOG + "[Release Ignored] [Capacity not match size class] [Capacity: " + capacity + "]");
+            return;
+        }
+        if (null == OUTSTANDING_BUFFER_MAP.remove(new IdentityKey(buffer))) {
+            // 重复归还的缓冲区如果再次入池，会被两个使用者同时持有，导致数据错乱
+            System.out.println(BYTE_BUFFER_POOL_LOG + "[Release Ignored] [Buffer not acquired or already released] [Capacity: " + capacity + "]");
+            return;
+        }
+        outstanding.decrementAndGet();
+        if (sizeClass < 0) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> cache = threadLocalCache.get().buffersOf(sizeClass);
+        if (cache.size() < threadLocalCacheSize(sizeClass)) {
+            cache.offerFirst(buffer);
+            return;
+        }
+        // 全局缓存已满则交给GC回收
+        arenas[sizeClass].offer(buffer, arenaSize);
+    }
+
+    /**
+     * 将当前线程缓存的缓冲区移到全局缓存并清除线程本地缓存，线程结束前调用，避免缓冲区随线程一起被回收
+     */
+    public void trimThreadLocalCache() {
+        ThreadLocalCache cache = threadLocalCache.get();
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            ByteBuffer buffer;
+            while ((buffer = cache.buffersOf(i).pollFirst()) != null) {
+                arenas[i].offer(buffer, arenaSize);
+            }
+        }
+        threadLocalCache.remove();
+    }
+
+    /**
+     * 扩容：申请新的缓冲区并复制原缓冲区中的数据，然后归还原缓冲区
+     * 原缓冲区需处于写模式，即[0, position)为已有数据
+     *
+     * @param buffer
+     * @param newCapacity
+     * @return 处于写模式的新缓冲区
+     */
+    public ByteBuffer enlarge(ByteBuffer buffer, int newCapacity) {
+        ByteBuffer newBuffer = acquire(newCapacity);
+        if (buffer.position() > 0) {
+            buffer.flip();
+            newBuffer.put(buffer);
+        }
+        release(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * 输出超过thresholdMillis仍未归还的缓冲区
+     *
+     * @param thresholdMillis
+     * @return 疑似泄漏的缓冲区数量
+     */
+    public int reportLeaks(long thresholdMillis) {
+        long now = System.currentTimeMillis();
+        int leakCount = 0;
+        for (LeakRecord leakRecord : OUTSTANDING_BUFFER_MAP.values()) {
+            if (leakRecord == UNTRACKED_RECORD) {
+                continue;
+            }
+            long ageMillis = now - leakRecord.acquireTimeMillis;
+            if (ageMillis < thresholdMillis) {
+                continue;
+            }
+            leakCount++;
+            System.out.printf(BYTE_BUFFER_POOL_LOG + "[Leak Suspected] [Capacity: %d] [Age: %dms] [Thread: %s]\n",
+                    leakRecord.capacity, ageMillis, leakRecord.threadName);
+            if (null != leakRecord.acquireTrace) {
+                leakRecord.acquireTrace.printStackTrace(System.out);
+            }
+        }
+        return leakCount;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getUnpooled() {
+        return unpooled.sum();
+    }
+
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Hits: %d, Misses: %d, Unpooled: %d, Outstanding: %d]",
+                getHits(), getMisses(), getUnpooled(), getOutstanding());
+    }
+
+    /**
+     * 读取泄漏检测级别的系统属性，不合法时使用默认的DISABLED，避免类初始化失败导致整个池不可用
+     */
+    private static LeakDetection leakDetectionOfProperty() {
+        String value = System.getProperty(LEAK_DETECTION_PROPERTY);
+        if (null == value) {
+            return LeakDetection.DISABLED;
+        }
+        try {
+            return LeakDetection.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println(BYTE_BUFFER_POOL_LOG + "[Invalid Property] [" + LEAK_DETECTION_PROPERTY + ": " + value + "] [Fallback: " + LeakDetection.DISABLED + "]");
+            return LeakDetection.DISABLED;
+        }
+    }
+
+    /**
+     * 计算容量对应的级别
+     *
+     * @param capacity
+     * @return 超过最大级别则返回-1
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity > MAX_POOLED_CAPACITY) {
+            return -1;
+        }
+        if (capacity <= 1 << MIN_SIZE_CLASS_SHIFT) {
+            return 0;
+        }
+        // 向上取整到2的幂
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    /**
+     * 线程本地缓存每个级别最多缓存的缓冲区数量
+     */
+    private int threadLocalCacheSize(int sizeClass) {
+        int maxCountByBytes = MAX_THREAD_LOCAL_CACHE_BYTES_PER_CLASS >> (sizeClass + MIN_SIZE_CLASS_SHIFT);
+        return Math.min(threadLocalCacheSize, Math.max(1, maxCountByBytes));
+    }
+
+    private static class ThreadLocalCache {
+
+        private final List<ArrayDeque<ByteBuffer>> sizeClassBuffers = new ArrayList<>(SIZE_CLASS_COUNT);
+
+        ThreadLocalCache() {
+            for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+                sizeClassBuffers.add(new ArrayDeque<>());
+            }
+        }
+
+        ArrayDeque<ByteBuffer> buffersOf(int sizeClass) {
+            return sizeClassBuffers.get(sizeClass);
+        }
+    }
+
+    /**
+     * 全局缓存中的一个级别
+     */
+    private static class Arena {
+
+        private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = buffers.poll();
+            if (null != buffer) {
+                count.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        /**
+         * @return false表示已满，缓冲区没有入池
+         */
+        boolean offer(ByteBuffer buffer, int maxCount) {
+            if (count.incrementAndGet() > maxCount) {
+                count.decrementAndGet();
+                return false;
+            }
+            buffers.offer(buffer);
+            return true;
+        }
+    }
+
+    private static class IdentityKey {
+
+        private final ByteBuffer buffer;
+
+        IdentityKey(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).buffer == buffer;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(buffer);
+        }
+    }
+
+    private static class LeakRecord {
+
+        private final int capacity;
+
+        private final long acquireTimeMillis = System.currentTimeMillis();
+
+        private final String threadName = Thread.currentThread().getName();
+
+        private final Throwable acquireTrace;
+
+        LeakRecord(int capacity, Throwable acquireTrace) {
+            this.capacity = capacity;
+            this.acquireTrace = acquireTrace;
+        }
+    }
+}
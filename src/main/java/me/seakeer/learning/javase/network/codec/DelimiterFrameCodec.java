@@ -0,0 +1,84 @@
+package me.seakeer.learning.javase.network.codec;
+
+import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * DelimiterFrameCodec;
+ * 分隔符帧编解码器：帧 = 消息体 + 分隔符
+ * 兼容原有的分隔符协议，直接在ByteBuffer中按字节查找分隔符，不再经过StringBuilder
+ * 消息体中不能包含分隔符；帧不完整时下次解码需要重新扫描，大消息建议使用LengthFieldFrameCodec
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class DelimiterFrameCodec implements FrameCodec {
+
+    private final byte[] delimiter;
+
+    private final int maxFrameLength;
+
+    public DelimiterFrameCodec(String delimiter) {
+        this(delimiter, LengthFieldFrameCodec.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public DelimiterFrameCodec(String delimiter, int maxFrameLength) {
+        this.delimiter = delimiter.getBytes(MsgEnDecoder.CHARSET);
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    @Override
+    public void decode(ByteBuffer buffer, List<String> msgList) throws FrameException {
+        int delimiterIndex;
+        while ((delimiterIndex = indexOfDelimiter(buffer)) != -1) {
+            int frameLength = delimiterIndex - buffer.position();
+            if (frameLength > maxFrameLength) {
+                throw new FrameException("Frame length " + frameLength + " exceeds max frame length " + maxFrameLength);
+            }
+            msgList.add(MsgEnDecoder.decodeMsg(buffer, frameLength));
+            // 跳过分隔符
+            buffer.position(buffer.position() + delimiter.length);
+        }
+        if (buffer.remaining() > maxFrameLength + delimiter.length) {
+            throw new FrameException("No delimiter found within max frame length " + maxFrameLength);
+        }
+    }
+
+    @Override
+    public ByteBuffer encode(String msg) {
+        byte[] bytes = msg.getBytes(MsgEnDecoder.CHARSET);
+        ByteBuffer byteBuffer = ByteBufferPool.DEFAULT.acquire(bytes.length + delimiter.length);
+        byteBuffer.put(bytes);
+        byteBuffer.put(delimiter);
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    /**
+     * 在buffer的[position, limit)中查找分隔符的绝对位置
+     *
+     * @param buffer
+     * @return 未找到则返回-1
+     */
+    private int indexOfDelimiter(ByteBuffer buffer) {
+        int last = buffer.limit() - delimiter.length;
+        outer:
+        for (int i = buffer.position(); i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer.get(i + j) != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,55 @@
+package me.seakeer.learning.javase.network.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * FrameCodec;
+ * 帧编解码器，用于处理TCP粘包拆包问题
+ * 1. 编码：将一条消息编码为一个完整的帧
+ * 2. 解码：直接从ByteBuffer中解码出完整的帧，不完整的帧保留在ByteBuffer中等待后续数据
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public interface FrameCodec {
+
+    /**
+     * 单个帧允许的最大长度（字节），超过则视为非法帧
+     *
+     * @return
+     */
+    int getMaxFrameLength();
+
+    /**
+     * 从ByteBuffer中解码出所有完整的帧
+     * 调用前buffer处于读模式；调用后buffer的position指向第一个不完整帧的起始位置
+     *
+     * @param buffer
+     * @param msgList 解码出的消息
+     * @throws FrameException 帧格式错误或超过最大长度
+     */
+    void decode(ByteBuffer buffer, List<String> msgList) throws FrameException;
+
+    /**
+     * 将消息编码为一个完整的帧，返回的ByteBuffer处于读模式
+     * 返回的ByteBuffer从ByteBufferPool申请，写完后需要归还到ByteBufferPool
+     *
+     * @param msg
+     * @return
+     */
+    ByteBuffer encode(String msg);
+
+    /**
+     * 帧格式错误或超过最大长度，出现该异常后连接中的数据已无法继续解码，应关闭连接
+     */
+    class FrameException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public FrameException(String message) {
+            super(message);
+        }
+    }
+}
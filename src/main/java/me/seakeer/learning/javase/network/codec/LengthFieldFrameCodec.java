@@ -0,0 +1,152 @@
+package me.seakeer.learning.javase.network.codec;
+
+import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * LengthFieldFrameCodec;
+ * 长度前缀帧编解码器：帧 = 长度字段 + 消息体
+ * 1. FIXED_INT32：固定4字节大端长度字段
+ * 2. VARINT：变长长度字段，每个字节低7位为数据，最高位为1表示后面还有字节，最多5个字节
+ * 解码时只需读取长度字段即可判断帧是否完整，无需扫描消息体
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class LengthFieldFrameCodec implements FrameCodec {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * varint长度字段最多5个字节，可表示int的所有非负值
+     */
+    private static final int VARINT_MAX_BYTES = 5;
+
+    public enum LengthField {
+
+        /**
+         * 固定4字节长度字段
+         */
+        FIXED_INT32,
+
+        /**
+         * 变长长度字段
+         */
+        VARINT;
+    }
+
+    private final LengthField lengthField;
+
+    private final int maxFrameLength;
+
+    public LengthFieldFrameCodec(LengthField lengthField, int maxFrameLength) {
+        this.lengthField = lengthField;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public static LengthFieldFrameCodec varint() {
+        return new LengthFieldFrameCodec(LengthField.VARINT, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public static LengthFieldFrameCodec fixedInt32() {
+        return new LengthFieldFrameCodec(LengthField.FIXED_INT32, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    @Override
+    public void decode(ByteBuffer buffer, List<String> msgList) throws FrameException {
+        while (buffer.hasRemaining()) {
+            int frameStart = buffer.position();
+            int frameLength = readLength(buffer);
+            // 长度字段不完整
+            if (frameLength < 0) {
+                buffer.position(frameStart);
+                return;
+            }
+            if (frameLength > maxFrameLength) {
+                throw new FrameException("Frame length " + frameLength + " exceeds max frame length " + maxFrameLength);
+            }
+            // 消息体不完整，回退到帧起始位置，等待后续数据
+            if (buffer.remaining() < frameLength) {
+                buffer.position(frameStart);
+                return;
+            }
+            msgList.add(MsgEnDecoder.decodeMsg(buffer, frameLength));
+        }
+    }
+
+    @Override
+    public ByteBuffer encode(String msg) {
+        byte[] bytes = msg.getBytes(MsgEnDecoder.CHARSET);
+        ByteBuffer byteBuffer = ByteBufferPool.DEFAULT.acquire(lengthFieldBytes(bytes.length) + bytes.length);
+        writeLength(byteBuffer, bytes.length);
+        byteBuffer.put(bytes);
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    /**
+     * 读取长度字段
+     *
+     * @param buffer
+     * @return 长度字段不完整则返回-1
+     * @throws FrameException
+     */
+    private int readLength(ByteBuffer buffer) throws FrameException {
+        if (lengthField == LengthField.FIXED_INT32) {
+            if (buffer.remaining() < 4) {
+                return -1;
+            }
+            int length = buffer.getInt();
+            if (length < 0) {
+                throw new FrameException("Negative frame length " + length);
+            }
+            return length;
+        }
+        int length = 0;
+        for (int i = 0; i < VARINT_MAX_BYTES; i++) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                if (length < 0) {
+                    throw new FrameException("Varint frame length overflow");
+                }
+                return length;
+            }
+        }
+        throw new FrameException("Varint frame length exceeds " + VARINT_MAX_BYTES + " bytes");
+    }
+
+    private int lengthFieldBytes(int length) {
+        if (lengthField == LengthField.FIXED_INT32) {
+            return 4;
+        }
+        int bytes = 1;
+        while ((length >>>= 7) != 0) {
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private void writeLength(ByteBuffer buffer, int length) {
+        if (lengthField == LengthField.FIXED_INT32) {
+            buffer.putInt(length);
+            return;
+        }
+        while ((length & ~0x7F) != 0) {
+            buffer.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        buffer.put((byte) length);
+    }
+}
@@ -0,0 +1,130 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ChunkedInputStream;
+ * 读取 Transfer-Encoding: chunked 格式的报文体，返回解码后的数据，忽略分块扩展和trailer
+ * 读到结束分块后返回-1，close() 不关闭底层输入流，以便连接继续复用
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class ChunkedInputStream extends FilterInputStream {
+
+    private static final int MAX_CHUNK_LINE_BYTES = 1024;
+
+    /**
+     * 当前分块剩余未读取的字节数
+     */
+    private int chunkRemaining = 0;
+
+    private boolean eof = false;
+
+    public ChunkedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int readBytes = read(b, 0, 1);
+        return readBytes < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (chunkRemaining == 0 && !nextChunk()) {
+            return -1;
+        }
+        int readBytes = in.read(b, off, Math.min(len, chunkRemaining));
+        if (readBytes < 0) {
+            throw new IOException("Unexpected End Of Chunk");
+        }
+        chunkRemaining -= readBytes;
+        if (chunkRemaining == 0) {
+            // 分块数据之后的CRLF
+            readLine();
+        }
+        return readBytes;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(chunkRemaining, in.available());
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        long skipped = 0;
+        int readBytes;
+        while (skipped < n && (readBytes = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+            skipped += readBytes;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // 不关闭底层输入流
+    }
+
+    /**
+     * 读取下一个分块的大小
+     *
+     * @return 是否还有数据
+     */
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        String sizeLine = readLine();
+        int extensionIndex = sizeLine.indexOf(';');
+        String size = (extensionIndex < 0 ? sizeLine : sizeLine.substring(0, extensionIndex)).trim();
+        try {
+            chunkRemaining = Integer.parseInt(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Chunk Size: " + sizeLine);
+        }
+        if (chunkRemaining < 0) {
+            throw new IOException("Invalid Chunk Size: " + sizeLine);
+        }
+        if (chunkRemaining == 0) {
+            // 忽略trailer，读到空行结束
+            while (!readLine().isEmpty()) {
+                continue;
+            }
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder lineBuilder = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return lineBuilder.toString();
+            }
+            if (c != '\r') {
+                lineBuilder.append((char) c);
+            }
+            if (lineBuilder.length() > MAX_CHUNK_LINE_BYTES) {
+                throw new IOException("Chunk Line Too Long");
+            }
+        }
+        throw new IOException("Unexpected End Of Chunk");
+    }
+}
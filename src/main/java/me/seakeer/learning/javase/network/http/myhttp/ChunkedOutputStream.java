@@ -0,0 +1,64 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ChunkedOutputStream;
+ * 以 Transfer-Encoding: chunked 格式写出报文体，每次write写出一个分块
+ * close()/finish() 只写出结束分块，不关闭底层输出流，以便连接继续复用
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private boolean finished = false;
+
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Chunked Stream Finished");
+        }
+        // 长度为0的分块表示结束，不能写出
+        if (len == 0) {
+            return;
+        }
+        out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * 写出结束分块
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        out.write(LAST_CHUNK);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+}
@@ -0,0 +1,71 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * FixedLengthInputStream;
+ * 读取 Content-Length 指定长度的报文体，读完后返回-1
+ * close() 不关闭底层输入流，以便连接继续复用
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class FixedLengthInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    public FixedLengthInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new IOException("Unexpected End Of Body");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int readBytes = in.read(b, off, (int) Math.min(len, remaining));
+        if (readBytes < 0) {
+            throw new IOException("Unexpected End Of Body");
+        }
+        remaining -= readBytes;
+        return readBytes;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // 不关闭底层输入流
+    }
+}
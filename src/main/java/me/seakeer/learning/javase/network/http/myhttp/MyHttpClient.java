@@ -1,16 +1,88 @@
 package me.seakeer.learning.javase.network.http.myhttp;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MyHttpClient;
+ * 1. 静态方法 send：每次请求新建Socket，请求完成后关闭
+ * 2. 实例方法：基于持久连接的连接池
+ * 2.1 按 host:port 维护连接池，限制每个主机的最大连接数，获取连接超时则请求失败
+ * 2.2 请求完成后，若双方都没有声明 Connection: close，连接归还连接池复用，否则关闭
+ * 2.3 后台线程定期关闭空闲超过 idleTimeoutMillis 的连接
+ * 2.4 连接超时和读取超时均为 reqTimeoutMillis
+ * 2.5 复用的连接可能已被服务端关闭，此时幂等的请求新建连接重试一次；非幂等的请求（如POST）可能已被服务端处理，不重试
+ * 2.6 sendAsync 在线程池中执行请求，返回 CompletableFuture
  *
  * @author Seakeer;
  * @date 2024/12/25;
  */
-public class MyHttpClient {
+public class MyHttpClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+
+    public static final int DEFAULT_REQ_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * 幂等的请求方法，重复执行与执行一次的效果相同，连接失败时可以安全地重试
+     */
+    private static final Set<String> IDEMPOTENT_METHOD_SET = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+    private final int maxConnectionsPerHost;
+
+    private final long idleTimeoutMillis;
+
+    private final int reqTimeoutMillis;
+
+    private final Map<String, HostPool> HOST_POOL_MAP = new ConcurrentHashMap<>();
+
+    private final ExecutorService asyncExecutor;
+
+    private final ScheduledExecutorService evictExecutor;
+
+    /**
+     * 响应体最大字节数，默认不限制
+     */
+    private volatile int maxRespBodyBytes = MyHttpParser.UNLIMITED_BODY_BYTES;
+
+    private volatile boolean closed = false;
+
+    public MyHttpClient() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_REQ_TIMEOUT_MILLIS);
+    }
+
+    public MyHttpClient(int maxConnectionsPerHost, long idleTimeoutMillis, int reqTimeoutMillis) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.reqTimeoutMillis = reqTimeoutMillis;
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxConnectionsPerHost, maxConnectionsPerHost,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> daemonThread(r, "MyHttpClient-Async-" + threadIndex.getAndIncrement()));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.asyncExecutor = threadPoolExecutor;
+        this.evictExecutor = Executors.newSingleThreadScheduledExecutor(r -> daemonThread(r, "MyHttpClient-Evict"));
+        long evictPeriodMillis = Math.max(idleTimeoutMillis / 2, 100);
+        this.evictExecutor.scheduleWithFixedDelay(this::evictIdleConnection, evictPeriodMillis, evictPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public MyHttpClient setMaxRespBodyBytes(int maxRespBodyBytes) {
+        this.maxRespBodyBytes = maxRespBodyBytes;
+        return this;
+    }
 
     public static void main(String[] args) {
         try {
@@ -19,6 +91,13 @@ public class MyHttpClient {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        try (MyHttpClient myHttpClient = new MyHttpClient()) {
+            for (int i = 0; i < 3; i++) {
+                System.out.println(myHttpClient.sendAsync("http://127.0.0.1:8080/test", "Seakeer" + i, "POST")
+                        .thenApply(MyHttpResp::getBody)
+                        .join());
+            }
+        }
     }
 
     public static MyHttpResp send(String fullUrl, String data, String method) throws IOException {
@@ -31,4 +110,229 @@ public class MyHttpClient {
         socket.close();
         return myHttpResp;
     }
+
+    /**
+     * 使用连接池发送请求
+     *
+     * @param fullUrl
+     * @param data
+     * @param method
+     * @return
+     * @throws IOException
+     */
+    public MyHttpResp execute(String fullUrl, String data, String method) throws IOException {
+        return execute(new MyHttpReq(method.toUpperCase()).parseFullUrl(fullUrl).setBody(data));
+    }
+
+    /**
+     * 使用连接池发送请求，请求的Host头部决定目标主机
+     *
+     * @param myHttpReq
+     * @return
+     * @throws IOException
+     */
+    public MyHttpResp execute(MyHttpReq myHttpReq) throws IOException {
+        if (closed) {
+            throw new IOException("Client Closed");
+        }
+        String host = myHttpReq.getHeader("Host");
+        if (null == host || host.isEmpty()) {
+            throw new IOException("Missing Host");
+        }
+        HostPool hostPool = HOST_POOL_MAP.computeIfAbsent(host, HostPool::new);
+        hostPool.acquirePermit();
+        try {
+            PooledConnection connection = hostPool.pollIdle();
+            if (null != connection) {
+                try {
+                    return exchange(hostPool, connection, myHttpReq);
+                } catch (SocketTimeoutException e) {
+                    // 超时说明服务端可能已处理请求，不重试
+                    throw e;
+                } catch (MyHttpParser.ParseException e) {
+                    // 响应格式错误或超过大小限制，重试也会得到同样的响应
+                    throw e;
+                } catch (IOException e) {
+                    // 复用的连接可能已被服务端关闭，新建连接重试一次
+                    // 非幂等的请求可能已发送并被服务端处理，重试会导致重复执行；流式请求体已被读取，无法重试
+                    if (!IDEMPOTENT_METHOD_SET.contains(myHttpReq.getMethod()) || null != myHttpReq.getBodyStream()) {
+                        throw e;
+                    }
+                }
+            }
+            return exchange(hostPool, hostPool.connect(), myHttpReq);
+        } finally {
+            hostPool.releasePermit();
+        }
+    }
+
+    /**
+     * 在线程池中使用连接池发送请求
+     *
+     * @param myHttpReq
+     * @return
+     */
+    public CompletableFuture<MyHttpResp> sendAsync(MyHttpReq myHttpReq) {
+        CompletableFuture<MyHttpResp> future = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    future.complete(execute(myHttpReq));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<MyHttpResp> sendAsync(String fullUrl, String data, String method) {
+        return sendAsync(new MyHttpReq(method.toUpperCase()).parseFullUrl(fullUrl).setBody(data));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        asyncExecutor.shutdown();
+        evictExecutor.shutdownNow();
+        for (HostPool hostPool : HOST_POOL_MAP.values()) {
+            PooledConnection connection;
+            while ((connection = hostPool.IDLE_CONNECTION_DEQUE.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+        HOST_POOL_MAP.clear();
+    }
+
+    private MyHttpResp exchange(HostPool hostPool, PooledConnection connection, MyHttpReq myHttpReq) throws IOException {
+        boolean reusable = false;
+        try {
+            MyHttpProtHandler.sendReq(connection.socket.getOutputStream(), myHttpReq);
+            MyHttpResp myHttpResp = MyHttpProtHandler.readResp(connection.socket.getInputStream(), maxRespBodyBytes);
+            if (null == myHttpResp) {
+                throw new IOException("Connection Closed By Peer");
+            }
+            reusable = !MyHttpProtHandler.CLOSE.equalsIgnoreCase(myHttpReq.getHeader(MyHttpProtHandler.CONNECTION))
+                    && !MyHttpProtHandler.CLOSE.equalsIgnoreCase(myHttpResp.getHeader(MyHttpProtHandler.CONNECTION));
+            return myHttpResp;
+        } finally {
+            if (reusable && !closed) {
+                hostPool.offerIdle(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    private void evictIdleConnection() {
+        long nowMillis = System.currentTimeMillis();
+        for (HostPool hostPool : HOST_POOL_MAP.values()) {
+            Iterator<PooledConnection> iterator = hostPool.IDLE_CONNECTION_DEQUE.iterator();
+            while (iterator.hasNext()) {
+                PooledConnection connection = iterator.next();
+                if (nowMillis - connection.lastUsedMillis > idleTimeoutMillis
+                        && hostPool.IDLE_CONNECTION_DEQUE.removeFirstOccurrence(connection)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private static Thread daemonThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 单个主机的连接池
+     */
+    private class HostPool {
+
+        private final String hostName;
+
+        private final int port;
+
+        /**
+         * 限制该主机的连接数（使用中 + 新建中）
+         */
+        private final Semaphore permits = new Semaphore(maxConnectionsPerHost);
+
+        /**
+         * 空闲连接，后进先出，优先复用最近使用的连接
+         */
+        private final ConcurrentLinkedDeque<PooledConnection> IDLE_CONNECTION_DEQUE = new ConcurrentLinkedDeque<>();
+
+        private HostPool(String host) {
+            int colonIndex = host.lastIndexOf(':');
+            this.hostName = colonIndex < 0 ? host : host.substring(0, colonIndex);
+            this.port = colonIndex < 0 ? 80 : Integer.parseInt(host.substring(colonIndex + 1));
+        }
+
+        private void acquirePermit() throws IOException {
+            try {
+                if (!permits.tryAcquire(reqTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Acquire Connection Timeout: " + hostName + ":" + port);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Acquire Connection Interrupted", e);
+            }
+        }
+
+        private void releasePermit() {
+            permits.release();
+        }
+
+        private PooledConnection pollIdle() {
+            PooledConnection connection;
+            while ((connection = IDLE_CONNECTION_DEQUE.pollFirst()) != null) {
+                if (!connection.socket.isClosed() && System.currentTimeMillis() - connection.lastUsedMillis <= idleTimeoutMillis) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return null;
+        }
+
+        private void offerIdle(PooledConnection connection) {
+            connection.lastUsedMillis = System.currentTimeMillis();
+            IDLE_CONNECTION_DEQUE.offerFirst(connection);
+        }
+
+        private PooledConnection connect() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(hostName, port), reqTimeoutMillis);
+                socket.setSoTimeout(reqTimeoutMillis);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return new PooledConnection(socket);
+        }
+    }
+
+    private static class PooledConnection {
+
+        private final Socket socket;
+
+        private volatile long lastUsedMillis = System.currentTimeMillis();
+
+        private PooledConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MyHttpClientBenchmark;
+ * 对比每次请求新建Socket（MyHttpClient.send）与连接池（MyHttpClient实例）的吞吐量
+ * 服务端为本地的 MyHttpNioServer，支持持久连接，阻塞的 MyHttpServer 每个连接只处理一个请求，无法体现连接复用
+ * 简单的预热 + 计时，结果仅用于相对比较
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class MyHttpClientBenchmark {
+
+    private static final int PORT = 18090;
+
+    private static final String URL = "http://127.0.0.1:" + PORT + "/benchmark";
+
+    private static final int WARMUP_REQUESTS = 1_000;
+
+    private static final int REQUESTS = 5_000;
+
+    private static final int CONCURRENCY = 8;
+
+    public static void main(String[] args) throws Exception {
+        MyHttpNioServer myHttpNioServer = new MyHttpNioServer(PORT, 2);
+        Thread serverThread = new Thread(myHttpNioServer::start, "MyHttpNioServer-Acceptor");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        // 每次请求新建Socket
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            MyHttpClient.send(URL, "Seakeer", "POST");
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            MyHttpClient.send(URL, "Seakeer", "POST");
+        }
+        print("PerCallSocket", 1, System.nanoTime() - startNanos);
+
+        try (MyHttpClient myHttpClient = new MyHttpClient(CONCURRENCY, MyHttpClient.DEFAULT_IDLE_TIMEOUT_MILLIS,
+                MyHttpClient.DEFAULT_REQ_TIMEOUT_MILLIS)) {
+            // 连接池，串行
+            for (int i = 0; i < WARMUP_REQUESTS; i++) {
+                myHttpClient.execute(URL, "Seakeer", "POST");
+            }
+            startNanos = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                myHttpClient.execute(URL, "Seakeer", "POST");
+            }
+            print("Pooled", 1, System.nanoTime() - startNanos);
+
+            // 连接池，异步并发
+            startNanos = System.nanoTime();
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[REQUESTS];
+            for (int i = 0; i < REQUESTS; i++) {
+                futures[i] = myHttpClient.sendAsync(URL, "Seakeer", "POST");
+            }
+            CompletableFuture.allOf(futures).join();
+            print("PooledAsync", CONCURRENCY, System.nanoTime() - startNanos);
+        }
+        myHttpNioServer.stop();
+    }
+
+    private static void print(String name, int concurrency, long costNanos) {
+        System.out.printf("[MyHttpClientBenchmark] [%s] [Concurrency: %d] [Requests: %d] [Cost: %dms] [Throughput: %.0f req/s]\n",
+                name, concurrency, REQUESTS, costNanos / 1_000_000, REQUESTS * 1e9 / costNanos);
+    }
+}
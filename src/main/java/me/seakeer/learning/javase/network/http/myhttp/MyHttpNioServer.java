@@ -0,0 +1,751 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * MyHttpNioServer;
+ * 基于Selector的非阻塞HTTP/1.1服务端，与 {@link MyHttpServer} 使用同样的 MyHttpReq/MyHttpResp
+ * 1. 一个接收线程 + 若干Worker线程，每个Worker一个Selector，负责分配给它的连接的读写
+ * 2. 持久连接：HTTP/1.1默认保持连接，Connection: close 或 HTTP/1.0 未声明 keep-alive 时响应后关闭
+ * 3. 管道化：一次读取到的多个请求按顺序处理，响应按请求顺序写回；
+ *    有响应未写完时暂停读取和解析新请求，写完后再继续，避免只发不收的客户端使服务端无限堆积响应
+ * 4. 空闲超时：连接超过 idleTimeoutMillis 没有读写则关闭，idleTimeoutMillis 不大于0表示不超时
+ * 5. 连接数限制：超过 maxConnections 时响应503并关闭新连接
+ * 6. 文件响应体通过 FileChannel.transferTo 零拷贝发送，流式响应体在可写时逐块读取发送，内存占用与响应体大小无关
+ * 流式响应体的读取可能阻塞（如来自网络或管道），在 bodyStreamExecutor 中读取，读取到一块后交回Worker线程写出
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class MyHttpNioServer {
+
+    public static final String MY_HTTP_NIO_SERVER_LOG = "[MyHttpNioServer] ";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    private static final int READ_BUFFER_INIT_SIZE = 4096;
+
+    private static final int BODY_BLOCK_SIZE = 8192;
+
+    /**
+     * 空闲检查的最大间隔
+     */
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 一次最多排队的待写出响应片段数，达到后暂停解析缓冲区中剩余的管道化请求
+     */
+    private static final int MAX_PENDING_OUTBOUNDS = 16;
+
+    /**
+     * 读取流式响应体的线程数，每个流式响应同时最多只有一个读取任务
+     */
+    private static final int BODY_STREAM_THREADS = 16;
+
+    private final int port;
+
+    private final int workerCount;
+
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private volatile int maxHeadBytes = MyHttpParser.DEFAULT_MAX_HEAD_BYTES;
+
+    private volatile int maxBodyBytes = MyHttpParser.DEFAULT_MAX_BODY_BYTES;
+
+    /**
+     * 请求处理器，在Worker线程中执行，不能阻塞
+     */
+    private volatile Function<MyHttpReq, MyHttpResp> handler = myHttpReq -> MyHttpResp.success(myHttpReq.getBody());
+
+    private volatile boolean running = false;
+
+    private ServerSocketChannel serverSocketChannel;
+
+    private Worker[] workers;
+
+    private ThreadPoolExecutor bodyStreamExecutor;
+
+    private final AtomicInteger nextWorkerIndex = new AtomicInteger();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    public MyHttpNioServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MyHttpNioServer(int port, int workerCount) {
+        this.port = port;
+        this.workerCount = Math.max(workerCount, 1);
+    }
+
+    public MyHttpNioServer setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public MyHttpNioServer setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public MyHttpNioServer setMaxHeadBytes(int maxHeadBytes) {
+        this.maxHeadBytes = maxHeadBytes;
+        return this;
+    }
+
+    public MyHttpNioServer setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+        return this;
+    }
+
+    public MyHttpNioServer setHandler(Function<MyHttpReq, MyHttpResp> handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public static void main(String[] args) {
+        new MyHttpNioServer(8080).start();
+    }
+
+    private void init() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port), 1024);
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("MyHttpNioServer-Worker-" + i);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        bodyStreamExecutor = new ThreadPoolExecutor(BODY_STREAM_THREADS, BODY_STREAM_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "MyHttpNioServer-BodyStream-" + threadIndex.getAndIncrement()));
+        bodyStreamExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 在当前线程中接收连接，直到调用stop()
+     */
+    public void start() {
+        try {
+            init();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        running = true;
+        for (Worker worker : workers) {
+            new Thread(worker, worker.name).start();
+        }
+        System.out.println(MY_HTTP_NIO_SERVER_LOG + "[Running] [Port: " + port + "] [Workers: " + workerCount + "]");
+        while (running) {
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                handleAccept(socketChannel);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(MY_HTTP_NIO_SERVER_LOG + "[Stopped]");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (null != serverSocketChannel) {
+                serverSocketChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (null != workers) {
+            for (Worker worker : workers) {
+                worker.selector.wakeup();
+            }
+        }
+        if (null != bodyStreamExecutor) {
+            bodyStreamExecutor.shutdownNow();
+        }
+    }
+
+    private void handleAccept(SocketChannel socketChannel) throws IOException {
+        if (connectionCount.incrementAndGet() > maxConnections) {
+            connectionCount.decrementAndGet();
+            // 连接数已满，尽力写出503后关闭，不分配给Worker
+            socketChannel.configureBlocking(false);
+            socketChannel.write(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(serviceUnavailable())));
+            socketChannel.close();
+            return;
+        }
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        Worker worker = workers[Math.abs(nextWorkerIndex.getAndIncrement() % workers.length)];
+        worker.register(socketChannel);
+    }
+
+    /**
+     * select的超时时间，idleTimeoutMillis不大于0时不检查空闲，但仍按固定间隔醒来，避免select(0)永久阻塞
+     */
+    private long idleCheckIntervalMillis() {
+        long idleTimeoutMillis = this.idleTimeoutMillis;
+        return idleTimeoutMillis > 0 ? Math.min(idleTimeoutMillis, IDLE_CHECK_INTERVAL_MILLIS) : IDLE_CHECK_INTERVAL_MILLIS;
+    }
+
+    private static MyHttpResp serviceUnavailable() {
+        return new MyHttpResp(503, "Service Unavailable")
+                .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE)
+                .setBody("Too Many Connections");
+    }
+
+    /**
+     * 连接状态，作为SelectionKey的附件，只由所属Worker线程访问
+     */
+    private static class HttpConnection {
+
+        private final SocketChannel socketChannel;
+
+        private final MyHttpParser parser;
+
+        private ByteBuffer readBuffer = ByteBufferPool.DEFAULT.acquire(READ_BUFFER_INIT_SIZE);
+
+        private final ArrayDeque<Outbound> writeQueue = new ArrayDeque<>();
+
+        private long lastActiveMillis = System.currentTimeMillis();
+
+        /**
+         * 写完已排队的响应后关闭连接
+         */
+        private boolean closeAfterWrite = false;
+
+        private HttpConnection(SocketChannel socketChannel, MyHttpParser parser) {
+            this.socketChannel = socketChannel;
+            this.parser = parser;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final String name;
+
+        private final Selector selector;
+
+        private final ConcurrentLinkedQueue<SocketChannel> PENDING_SOCKET_CHANNEL_QUEUE = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 流式响应体读取到数据后需要继续写出的连接，由读取线程放入
+         */
+        private final ConcurrentLinkedQueue<SelectionKey> FLUSHING_SELECTION_KEY_QUEUE = new ConcurrentLinkedQueue<>();
+
+        private long lastIdleCheckMillis = System.currentTimeMillis();
+
+        private Worker(String name) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+        }
+
+        private void register(SocketChannel socketChannel) {
+            PENDING_SOCKET_CHANNEL_QUEUE.offer(socketChannel);
+            selector.wakeup();
+        }
+
+        /**
+         * 请求在Worker线程中继续写出连接的响应，可在任意线程调用
+         */
+        private void requestFlush(SelectionKey selectionKey) {
+            FLUSHING_SELECTION_KEY_QUEUE.offer(selectionKey);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(idleCheckIntervalMillis());
+                    registerPendingSocketChannel();
+                    flushPendingSelectionKey();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        if (selectionKey.isValid() && selectionKey.isReadable()) {
+                            handleRead(selectionKey);
+                        }
+                        if (selectionKey.isValid() && selectionKey.isWritable()) {
+                            handleWrite(selectionKey);
+                        }
+                    }
+                    closeIdleConnection();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey selectionKey : selector.keys()) {
+                close(selectionKey);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void registerPendingSocketChannel() {
+            SocketChannel socketChannel;
+            while ((socketChannel = PENDING_SOCKET_CHANNEL_QUEUE.poll()) != null) {
+                HttpConnection connection = null;
+                try {
+                    connection = new HttpConnection(socketChannel,
+                            new MyHttpParser(MyHttpParser.Type.REQUEST, maxHeadBytes, maxBodyBytes));
+                    socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException | RuntimeException e) {
+                    // 注册失败时归还读缓冲区，否则池中的缓冲区泄漏
+                    if (null != connection) {
+                        ByteBufferPool.DEFAULT.release(connection.readBuffer);
+                    }
+                    connectionCount.decrementAndGet();
+                    try {
+                        socketChannel.close();
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void flushPendingSelectionKey() {
+            SelectionKey selectionKey;
+            while ((selectionKey = FLUSHING_SELECTION_KEY_QUEUE.poll()) != null) {
+                flush(selectionKey);
+            }
+        }
+
+        private void handleRead(SelectionKey selectionKey) {
+            HttpConnection connection = (HttpConnection) selectionKey.attachment();
+            try {
+                int readBytes = connection.socketChannel.read(connection.readBuffer);
+                if (readBytes < 0) {
+                    close(selectionKey);
+                    return;
+                }
+                connection.lastActiveMillis = System.currentTimeMillis();
+                if (connection.closeAfterWrite) {
+                    // 已决定关闭连接，丢弃之后的请求
+                    connection.readBuffer.clear();
+                    return;
+                }
+            } catch (IOException e) {
+                close(selectionKey);
+                return;
+            }
+            // 解析请求并写出响应
+            flush(selectionKey);
+        }
+
+        /**
+         * 管道化：依次处理缓冲区中完整的请求，待写出的响应达到 MAX_PENDING_OUTBOUNDS 时暂停，剩余请求留在缓冲区中
+         */
+        private void processBufferedReqs(HttpConnection connection) {
+            connection.readBuffer.flip();
+            try {
+                MyHttpReq myHttpReq;
+                while (!connection.closeAfterWrite && connection.writeQueue.size() < MAX_PENDING_OUTBOUNDS
+                        && (myHttpReq = connection.parser.parseReq(connection.readBuffer)) != null) {
+                    handleReq(connection, myHttpReq);
+                }
+                connection.readBuffer.compact();
+                // 没有待写出的响应而缓冲区已满，说明单个请求超过了缓冲区大小
+                if (!connection.readBuffer.hasRemaining() && connection.writeQueue.isEmpty()) {
+                    connection.readBuffer = ByteBufferPool.DEFAULT.enlarge(connection.readBuffer, connection.readBuffer.capacity() * 2);
+                }
+            } catch (MyHttpParser.ParseException e) {
+                // 请求格式错误或超过大小限制，响应对应的状态码后关闭
+                connection.readBuffer.clear();
+                enqueueResp(connection, new MyHttpResp(e.getStatusCode(), e.getMessage()).setBody(e.getMessage()), false);
+            }
+        }
+
+        private void handleReq(HttpConnection connection, MyHttpReq myHttpReq) {
+            MyHttpResp myHttpResp;
+            try {
+                myHttpResp = handler.apply(myHttpReq);
+            } catch (Exception e) {
+                e.printStackTrace();
+                myHttpResp = MyHttpResp.serverError(String.valueOf(e.getMessage()));
+            }
+            enqueueResp(connection, myHttpResp, MyHttpProtHandler.isKeepAlive(myHttpReq));
+        }
+
+        private void enqueueResp(HttpConnection connection, MyHttpResp myHttpResp, boolean keepAlive) {
+            if (keepAlive) {
+                myHttpResp.addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.KEEP_ALIVE);
+            } else {
+                myHttpResp.addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE);
+                connection.closeAfterWrite = true;
+            }
+            try {
+                if (null != myHttpResp.getBodyFile()) {
+                    FileChannel fileChannel = FileChannel.open(myHttpResp.getBodyFile(), StandardOpenOption.READ);
+                    connection.writeQueue.offer(new BufferOutbound(ByteBuffer.wrap(MyHttpProtHandler.encodeRespHead(myHttpResp))));
+                    connection.writeQueue.offer(new FileOutbound(fileChannel));
+                    return;
+                }
+                if (null != myHttpResp.getBodyStream()) {
+                    connection.writeQueue.offer(new BufferOutbound(ByteBuffer.wrap(MyHttpProtHandler.encodeRespHead(myHttpResp))));
+                    SelectionKey selectionKey = connection.socketChannel.keyFor(selector);
+                    connection.writeQueue.offer(new StreamOutbound(myHttpResp.getBodyStream(), myHttpResp.getBodyLength() < 0,
+                            bodyStreamExecutor, () -> requestFlush(selectionKey)));
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                myHttpResp = MyHttpResp.serverError(String.valueOf(e.getMessage()))
+                        .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE);
+                connection.closeAfterWrite = true;
+            }
+            connection.writeQueue.offer(new BufferOutbound(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(myHttpResp))));
+        }
+
+        private void handleWrite(SelectionKey selectionKey) {
+            flush(selectionKey);
+        }
+
+        /**
+         * 按顺序写出排队的响应，连续的内存缓冲区合并为一次聚集写，写不完时关注OP_WRITE，写完后取消关注；
+         * 队列写空后继续处理缓冲区中剩余的请求。队列非空时不关注OP_READ，客户端不读取响应时服务端也不再读取请求，
+         * 积压留在TCP接收窗口中，而不是在服务端内存中
+         */
+        private void flush(SelectionKey selectionKey) {
+            HttpConnection connection = (HttpConnection) selectionKey.attachment();
+            if (!selectionKey.isValid()) {
+                return;
+            }
+            try {
+                while (true) {
+                    while (!connection.writeQueue.isEmpty()) {
+                        Outbound outbound = connection.writeQueue.peek();
+                        connection.lastActiveMillis = System.currentTimeMillis();
+                        if (outbound instanceof BufferOutbound) {
+                            if (!writeBuffers(connection)) {
+                                break;
+                            }
+                        } else if (outbound.writeTo(connection.socketChannel)) {
+                            connection.writeQueue.poll().close();
+                        } else {
+                            break;
+                        }
+                    }
+                    if (!connection.writeQueue.isEmpty() || connection.closeAfterWrite
+                            || connection.readBuffer.position() == 0) {
+                        break;
+                    }
+                    processBufferedReqs(connection);
+                    if (connection.writeQueue.isEmpty()) {
+                        // 缓冲区中只剩不完整的请求
+                        break;
+                    }
+                }
+            } catch (IOException | RejectedExecutionException e) {
+                close(selectionKey);
+                return;
+            }
+            if (connection.writeQueue.isEmpty()) {
+                if (connection.closeAfterWrite) {
+                    close(selectionKey);
+                    return;
+                }
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            } else if (connection.writeQueue.peek().isWaitingData()) {
+                // 等待流式响应体读取数据，Socket可写也无数据可写，读取到数据后由requestFlush继续写出
+                selectionKey.interestOps(0);
+            } else {
+                selectionKey.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * 聚集写出队列头部连续的内存缓冲区
+         *
+         * @return 是否全部写出
+         */
+        private boolean writeBuffers(HttpConnection connection) throws IOException {
+            ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+            for (Outbound outbound : connection.writeQueue) {
+                if (!(outbound instanceof BufferOutbound)) {
+                    break;
+                }
+                buffers.add(((BufferOutbound) outbound).buffer);
+            }
+            connection.socketChannel.write(buffers.toArray(new ByteBuffer[0]));
+            while (!connection.writeQueue.isEmpty() && connection.writeQueue.peek() instanceof BufferOutbound) {
+                if (((BufferOutbound) connection.writeQueue.peek()).buffer.hasRemaining()) {
+                    return false;
+                }
+                connection.writeQueue.poll();
+            }
+            return true;
+        }
+
+        private void closeIdleConnection() {
+            long idleTimeoutMillis = MyHttpNioServer.this.idleTimeoutMillis;
+            long nowMillis = System.currentTimeMillis();
+            if (idleTimeoutMillis <= 0 || nowMillis - lastIdleCheckMillis < idleCheckIntervalMillis()) {
+                return;
+            }
+            lastIdleCheckMillis = nowMillis;
+            for (SelectionKey selectionKey : selector.keys()) {
+                HttpConnection connection = (HttpConnection) selectionKey.attachment();
+                if (null != connection && nowMillis - connection.lastActiveMillis > idleTimeoutMillis) {
+                    close(selectionKey);
+                }
+            }
+        }
+
+        private void close(SelectionKey selectionKey) {
+            HttpConnection connection = (HttpConnection) selectionKey.attachment();
+            selectionKey.cancel();
+            if (null == connection || null == connection.readBuffer) {
+                return;
+            }
+            ByteBufferPool.DEFAULT.release(connection.readBuffer);
+            connection.readBuffer = null;
+            Outbound outbound;
+            while ((outbound = connection.writeQueue.poll()) != null) {
+                outbound.close();
+            }
+            connectionCount.decrementAndGet();
+            try {
+                connection.socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 待写出的响应数据
+     */
+    private interface Outbound {
+
+        /**
+         * @return 是否已全部写出
+         */
+        boolean writeTo(SocketChannel socketChannel) throws IOException;
+
+        /**
+         * @return 是否正在等待数据，此时不需要关注OP_WRITE
+         */
+        default boolean isWaitingData() {
+            return false;
+        }
+
+        default void close() {
+        }
+    }
+
+    /**
+     * 内存中的响应行、响应头或字符串响应体
+     */
+    private static class BufferOutbound implements Outbound {
+
+        private final ByteBuffer buffer;
+
+        private BufferOutbound(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel socketChannel) throws IOException {
+            socketChannel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+    }
+
+    /**
+     * 文件响应体，FileChannel.transferTo 由内核直接拷贝到Socket
+     */
+    private static class FileOutbound implements Outbound {
+
+        private final FileChannel fileChannel;
+
+        private long position = 0;
+
+        private FileOutbound(FileChannel fileChannel) {
+            this.fileChannel = fileChannel;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel socketChannel) throws IOException {
+            long size = fileChannel.size();
+            while (position < size) {
+                long transferBytes = fileChannel.transferTo(position, size - position, socketChannel);
+                if (transferBytes <= 0) {
+                    return false;
+                }
+                position += transferBytes;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 流式响应体，每次读取一块，写完后再读取下一块；长度未知时按分块编码发送
+     * 读取在 executor 中进行，读取完成后调用 onFilled 通知Worker线程继续写出，Worker线程不会因为读取响应体而阻塞
+     */
+    private static class StreamOutbound implements Outbound {
+
+        private static final byte[] CRLF = {'\r', '\n'};
+
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        private final InputStream bodyStream;
+
+        private final boolean chunked;
+
+        private final Executor executor;
+
+        private final Runnable onFilled;
+
+        /**
+         * 正在写出的数据，只在Worker线程中访问
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        /**
+         * 是否有读取任务未被Worker线程取走结果，只在Worker线程中访问
+         */
+        private boolean filling = false;
+
+        private boolean end = false;
+
+        /**
+         * 读取线程读取到的数据，由Worker线程取走；先写filledEnd和fillException再写filledBuffer
+         */
+        private volatile ByteBuffer filledBuffer;
+
+        private volatile boolean filledEnd = false;
+
+        private volatile IOException fillException;
+
+        private StreamOutbound(InputStream bodyStream, boolean chunked, Executor executor, Runnable onFilled) {
+            this.bodyStream = bodyStream;
+            this.chunked = chunked;
+            this.executor = executor;
+            this.onFilled = onFilled;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel socketChannel) throws IOException {
+            while (true) {
+                if (buffer.hasRemaining()) {
+                    socketChannel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return false;
+                    }
+                }
+                if (end) {
+                    return true;
+                }
+                if (!filling) {
+                    filling = true;
+                    executor.execute(this::fill);
+                    return false;
+                }
+                ByteBuffer filled = filledBuffer;
+                if (null == filled) {
+                    return false;
+                }
+                if (null != fillException) {
+                    throw fillException;
+                }
+                filledBuffer = null;
+                filling = false;
+                end = filledEnd;
+                buffer = filled;
+            }
+        }
+
+        @Override
+        public boolean isWaitingData() {
+            return filling;
+        }
+
+        /**
+         * 在读取线程中执行，读取一块并编码
+         */
+        private void fill() {
+            byte[] block = new byte[BODY_BLOCK_SIZE];
+            // 分块大小行（最多8位十六进制数字） + 数据 + CRLF
+            ByteBuffer filled = ByteBuffer.allocate(BODY_BLOCK_SIZE + 16);
+            try {
+                int readBytes = bodyStream.read(block);
+                if (readBytes < 0) {
+                    filledEnd = true;
+                    if (chunked) {
+                        filled.put(LAST_CHUNK);
+                    }
+                } else if (chunked) {
+                    if (readBytes > 0) {
+                        filled.put(Integer.toHexString(readBytes).getBytes(StandardCharsets.US_ASCII))
+                                .put(CRLF)
+                                .put(block, 0, readBytes)
+                                .put(CRLF);
+                    }
+                } else {
+                    filled.put(block, 0, readBytes);
+                }
+            } catch (IOException e) {
+                fillException = e;
+            }
+            filled.flip();
+            filledBuffer = filled;
+            onFilled.run();
+        }
+
+        @Override
+        public void close() {
+            try {
+                bodyStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
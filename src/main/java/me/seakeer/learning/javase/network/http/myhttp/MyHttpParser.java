@@ -0,0 +1,564 @@
+package me.seakeer.learning.javase.network.http.myhttp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MyHttpParser;
+ * 基于ByteBuffer的增量HTTP报文解析器（状态机），每个连接一个实例，非多线程安全
+ * 1. 逐字节扫描起始行和头部，只记录各部分相对报文开始位置的偏移，报文完整后才创建字符串
+ * 2. 报文不完整时返回null且不移动ByteBuffer的position，记录已扫描的位置，读到更多字节后从该位置继续解析
+ *    调用方可以 compact 缓冲区，因为偏移是相对报文开始位置（即position）的
+ * 3. 限制头部字节数、头部数量和请求体字节数，超过时抛出 ParseException
+ * 4. 支持 Transfer-Encoding: chunked，完整解析时合并所有分块为请求体
+ * 5. 流式场景只解析头部（parseReqHead/parseRespHead），请求体由调用方按 Content-Length 或分块编码自行读取
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class MyHttpParser {
+
+    public static final int DEFAULT_MAX_HEAD_BYTES = 8 * 1024;
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+
+    /**
+     * 不限制报文体大小，客户端解析响应时默认使用，响应体大小由所请求的服务端决定
+     */
+    public static final int UNLIMITED_BODY_BYTES = Integer.MAX_VALUE;
+
+    public static final int MAX_HEADER_COUNT = 100;
+
+    /**
+     * 分块大小行和trailer行的最大字节数
+     */
+    private static final int MAX_CHUNK_LINE_BYTES = 1024;
+
+    private static final byte[] CONTENT_LENGTH_BYTES = MyHttpProtHandler.CONTENT_LENGTH.getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TRANSFER_ENCODING_BYTES = MyHttpProtHandler.TRANSFER_ENCODING.getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CHUNKED_BYTES = MyHttpProtHandler.CHUNKED.getBytes(StandardCharsets.US_ASCII);
+
+    public enum Type {
+        REQUEST, RESPONSE
+    }
+
+    private enum State {
+        START_LINE, HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, TRAILER, DONE
+    }
+
+    private final Type type;
+
+    private final int maxHeadBytes;
+
+    private final int maxBodyBytes;
+
+    private State state = State.START_LINE;
+
+    /**
+     * 以下偏移均相对报文开始位置
+     * scanOffset：下次从该位置继续查找换行符
+     * lineStart：当前行的开始位置
+     */
+    private int scanOffset;
+
+    private int lineStart;
+
+    /**
+     * 起始行的三个部分，每部分[start, end)
+     * 请求：方法 路径 版本；响应：版本 状态码 状态描述
+     */
+    private final int[] startLineOffsets = new int[6];
+
+    /**
+     * 每个头部4个偏移：名称[start, end)，值[start, end)
+     */
+    private int[] headerOffsets = new int[16 * 4];
+
+    private int headerCount;
+
+    private int bodyStart;
+
+    private int contentLength;
+
+    /**
+     * 分块编码的各分块数据[start, end)
+     */
+    private int[] chunkOffsets = new int[16 * 2];
+
+    private int chunkCount;
+
+    private int chunkSize;
+
+    private int chunkedBodyBytes;
+
+    private int messageEnd;
+
+    public MyHttpParser(Type type) {
+        this(type, DEFAULT_MAX_HEAD_BYTES, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public MyHttpParser(Type type, int maxHeadBytes, int maxBodyBytes) {
+        this.type = type;
+        this.maxHeadBytes = maxHeadBytes;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * 从ByteBuffer（读模式）中解析一个请求
+     *
+     * @param buffer
+     * @return 请求不完整时返回null，完整时position后移到下一个报文的开始
+     * @throws ParseException
+     */
+    public MyHttpReq parseReq(ByteBuffer buffer) throws ParseException {
+        checkType(Type.REQUEST);
+        if (!parse(buffer, false)) {
+            return null;
+        }
+        MyHttpReq myHttpReq = buildReq(buffer);
+        myHttpReq.setBody(body(buffer));
+        consume(buffer);
+        return myHttpReq;
+    }
+
+    /**
+     * 从ByteBuffer（读模式）中只解析请求行和请求头，不限制请求体大小
+     *
+     * @param buffer
+     * @return 请求头不完整时返回null，完整时position后移到请求体的开始
+     * @throws ParseException
+     */
+    public MyHttpReq parseReqHead(ByteBuffer buffer) throws ParseException {
+        checkType(Type.REQUEST);
+        if (!parse(buffer, true)) {
+            return null;
+        }
+        MyHttpReq myHttpReq = buildReq(buffer);
+        messageEnd = bodyStart;
+        consume(buffer);
+        return myHttpReq;
+    }
+
+    /**
+     * 从ByteBuffer（读模式）中解析一个响应
+     *
+     * @param buffer
+     * @return 响应不完整时返回null，完整时position后移到下一个报文的开始
+     * @throws ParseException
+     */
+    public MyHttpResp parseResp(ByteBuffer buffer) throws ParseException {
+        checkType(Type.RESPONSE);
+        if (!parse(buffer, false)) {
+            return null;
+        }
+        MyHttpResp myHttpResp = buildResp(buffer);
+        myHttpResp.setBody(body(buffer));
+        consume(buffer);
+        return myHttpResp;
+    }
+
+    /**
+     * 从ByteBuffer（读模式）中只解析响应行和响应头，不限制响应体大小
+     *
+     * @param buffer
+     * @return 响应头不完整时返回null，完整时position后移到响应体的开始
+     * @throws ParseException
+     */
+    public MyHttpResp parseRespHead(ByteBuffer buffer) throws ParseException {
+        checkType(Type.RESPONSE);
+        if (!parse(buffer, true)) {
+            return null;
+        }
+        MyHttpResp myHttpResp = buildResp(buffer);
+        messageEnd = bodyStart;
+        consume(buffer);
+        return myHttpResp;
+    }
+
+    /**
+     * 丢弃当前解析状态，用于出错后复用解析器
+     */
+    public void reset() {
+        state = State.START_LINE;
+        scanOffset = 0;
+        lineStart = 0;
+        headerCount = 0;
+        bodyStart = 0;
+        contentLength = 0;
+        chunkCount = 0;
+        chunkSize = 0;
+        chunkedBodyBytes = 0;
+        messageEnd = 0;
+    }
+
+    /**
+     * @param headOnly 是否只解析到头部结束
+     * @return 报文（或头部）是否完整
+     */
+    private boolean parse(ByteBuffer buffer, boolean headOnly) throws ParseException {
+        int base = buffer.position();
+        int available = buffer.limit() - base;
+        while (state != State.DONE) {
+            if (state == State.BODY) {
+                if (available - bodyStart < contentLength) {
+                    return false;
+                }
+                messageEnd = bodyStart + contentLength;
+                state = State.DONE;
+                break;
+            }
+            if (state == State.CHUNK_DATA) {
+                // 分块数据之后紧跟CRLF
+                int chunkEnd = scanOffset + chunkSize;
+                if (available < chunkEnd + 2) {
+                    return false;
+                }
+                if (buffer.get(base + chunkEnd) != '\r' || buffer.get(base + chunkEnd + 1) != '\n') {
+                    throw new ParseException(400, "Invalid Chunk");
+                }
+                addChunk(scanOffset, chunkEnd);
+                scanOffset = chunkEnd + 2;
+                lineStart = scanOffset;
+                state = State.CHUNK_SIZE;
+                continue;
+            }
+            // 其余状态按行解析
+            int lineEnd = -1;
+            for (int i = scanOffset; i < available; i++) {
+                if (buffer.get(base + i) == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if (lineEnd < 0) {
+                scanOffset = available;
+                checkLineLimit(available);
+                return false;
+            }
+            scanOffset = lineEnd + 1;
+            checkLineLimit(scanOffset);
+            int contentEnd = lineEnd > lineStart && buffer.get(base + lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            switch (state) {
+                case START_LINE:
+                    // 忽略起始行之前的空行
+                    if (contentEnd > lineStart) {
+                        parseStartLine(buffer, base, lineStart, contentEnd);
+                        state = State.HEADER;
+                    }
+                    break;
+                case HEADER:
+                    if (contentEnd > lineStart) {
+                        parseHeaderLine(buffer, base, lineStart, contentEnd);
+                        break;
+                    }
+                    // 空行，头部结束
+                    bodyStart = scanOffset;
+                    if (headOnly) {
+                        return true;
+                    }
+                    if (isChunked(buffer, base)) {
+                        state = State.CHUNK_SIZE;
+                    } else {
+                        contentLength = parseContentLength(buffer, base);
+                        state = State.BODY;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    chunkSize = parseChunkSize(buffer, base + lineStart, base + contentEnd);
+                    if (chunkSize < 0) {
+                        throw new ParseException(400, "Invalid Chunk Size");
+                    }
+                    if ((long) chunkedBodyBytes + chunkSize > maxBodyBytes) {
+                        throw new ParseException(413, "Body Too Large");
+                    }
+                    // 大小为0的分块表示结束，之后是trailer
+                    state = chunkSize == 0 ? State.TRAILER : State.CHUNK_DATA;
+                    break;
+                case TRAILER:
+                    // 忽略trailer，空行表示报文结束
+                    if (contentEnd == lineStart) {
+                        messageEnd = scanOffset;
+                        state = State.DONE;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            lineStart = scanOffset;
+        }
+        return true;
+    }
+
+    private void checkLineLimit(int scannedOffset) throws ParseException {
+        if (state == State.START_LINE || state == State.HEADER) {
+            if (scannedOffset > maxHeadBytes) {
+                throw new ParseException(431, "Head Too Large");
+            }
+        } else if (scannedOffset - lineStart > MAX_CHUNK_LINE_BYTES) {
+            throw new ParseException(400, "Chunk Line Too Long");
+        }
+    }
+
+    private void addChunk(int start, int end) {
+        if (chunkOffsets.length < (chunkCount + 1) * 2) {
+            int[] newChunkOffsets = new int[chunkOffsets.length * 2];
+            System.arraycopy(chunkOffsets, 0, newChunkOffsets, 0, chunkOffsets.length);
+            chunkOffsets = newChunkOffsets;
+        }
+        chunkOffsets[chunkCount * 2] = start;
+        chunkOffsets[chunkCount * 2 + 1] = end;
+        chunkCount++;
+        chunkedBodyBytes += end - start;
+    }
+
+    private MyHttpReq buildReq(ByteBuffer buffer) {
+        int base = buffer.position();
+        MyHttpReq myHttpReq = new MyHttpReq(part(buffer, base, 0, StandardCharsets.US_ASCII))
+                .setPath(part(buffer, base, 1, StandardCharsets.UTF_8));
+        if (startLineOffsets[5] > startLineOffsets[4]) {
+            myHttpReq.setVersion(part(buffer, base, 2, StandardCharsets.US_ASCII));
+        }
+        for (int i = 0; i < headerCount; i++) {
+            myHttpReq.addHeader(headerName(buffer, base, i), headerValue(buffer, base, i));
+        }
+        return myHttpReq;
+    }
+
+    private MyHttpResp buildResp(ByteBuffer buffer) throws ParseException {
+        int base = buffer.position();
+        int statusCode = parseInt(buffer, base + startLineOffsets[2], base + startLineOffsets[3]);
+        if (statusCode < 0) {
+            throw new ParseException(400, "Invalid Status Code");
+        }
+        MyHttpResp myHttpResp = new MyHttpResp(statusCode, part(buffer, base, 2, StandardCharsets.UTF_8))
+                .setVersion(part(buffer, base, 0, StandardCharsets.US_ASCII));
+        for (int i = 0; i < headerCount; i++) {
+            myHttpResp.addHeader(headerName(buffer, base, i), headerValue(buffer, base, i));
+        }
+        return myHttpResp;
+    }
+
+    private String body(ByteBuffer buffer) {
+        int base = buffer.position();
+        if (chunkCount == 0) {
+            return contentLength > 0 ? string(buffer, base + bodyStart, base + bodyStart + contentLength, StandardCharsets.UTF_8) : null;
+        }
+        // 合并所有分块
+        byte[] bodyBytes = new byte[chunkedBodyBytes];
+        int bodyIndex = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            for (int j = chunkOffsets[i * 2]; j < chunkOffsets[i * 2 + 1]; j++) {
+                bodyBytes[bodyIndex++] = buffer.get(base + j);
+            }
+        }
+        return new String(bodyBytes, StandardCharsets.UTF_8);
+    }
+
+    private void parseStartLine(ByteBuffer buffer, int base, int start, int end) throws ParseException {
+        int firstSpace = indexOf(buffer, base, start, end, (byte) ' ');
+        if (firstSpace < 0) {
+            throw new ParseException(400, "Invalid Start Line");
+        }
+        int secondSpace = indexOf(buffer, base, firstSpace + 1, end, (byte) ' ');
+        startLineOffsets[0] = start;
+        startLineOffsets[1] = firstSpace;
+        startLineOffsets[2] = firstSpace + 1;
+        startLineOffsets[3] = secondSpace < 0 ? end : secondSpace;
+        startLineOffsets[4] = secondSpace < 0 ? end : secondSpace + 1;
+        startLineOffsets[5] = end;
+    }
+
+    private void parseHeaderLine(ByteBuffer buffer, int base, int start, int end) throws ParseException {
+        int colon = indexOf(buffer, base, start, end, (byte) ':');
+        if (colon < 0) {
+            // 与原实现一致，忽略格式错误的头部行
+            return;
+        }
+        if (headerCount >= MAX_HEADER_COUNT) {
+            throw new ParseException(431, "Too Many Headers");
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && isWhitespace(buffer.get(base + valueStart))) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhitespace(buffer.get(base + valueEnd - 1))) {
+            valueEnd--;
+        }
+        if (headerOffsets.length < (headerCount + 1) * 4) {
+            int[] newHeaderOffsets = new int[headerOffsets.length * 2];
+            System.arraycopy(headerOffsets, 0, newHeaderOffsets, 0, headerOffsets.length);
+            headerOffsets = newHeaderOffsets;
+        }
+        int index = headerCount * 4;
+        headerOffsets[index] = start;
+        headerOffsets[index + 1] = colon;
+        headerOffsets[index + 2] = valueStart;
+        headerOffsets[index + 3] = valueEnd;
+        headerCount++;
+    }
+
+    private int parseContentLength(ByteBuffer buffer, int base) throws ParseException {
+        for (int i = 0; i < headerCount; i++) {
+            int index = i * 4;
+            if (!equalsIgnoreCase(buffer, base + headerOffsets[index], base + headerOffsets[index + 1], CONTENT_LENGTH_BYTES)) {
+                continue;
+            }
+            int length = parseInt(buffer, base + headerOffsets[index + 2], base + headerOffsets[index + 3]);
+            if (length < 0) {
+                throw new ParseException(400, "Invalid Content-Length");
+            }
+            if (length > maxBodyBytes) {
+                throw new ParseException(413, "Body Too Large");
+            }
+            return length;
+        }
+        return 0;
+    }
+
+    private boolean isChunked(ByteBuffer buffer, int base) {
+        for (int i = 0; i < headerCount; i++) {
+            int index = i * 4;
+            if (equalsIgnoreCase(buffer, base + headerOffsets[index], base + headerOffsets[index + 1], TRANSFER_ENCODING_BYTES)) {
+                // chunked 必须是最后一个编码，如 gzip, chunked
+                int valueEnd = base + headerOffsets[index + 3];
+                int valueStart = valueEnd - CHUNKED_BYTES.length;
+                return valueStart >= base + headerOffsets[index + 2]
+                        && equalsIgnoreCase(buffer, valueStart, valueEnd, CHUNKED_BYTES);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析十六进制的分块大小，忽略分号之后的分块扩展，格式错误或溢出时返回-1
+     */
+    private static int parseChunkSize(ByteBuffer buffer, int start, int end) {
+        long value = 0;
+        int i = start;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            int digit = Character.digit(b, 16);
+            if (digit < 0) {
+                break;
+            }
+            value = value * 16 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        if (i == start || (i < end && buffer.get(i) != ';' && !isWhitespace(buffer.get(i)))) {
+            return -1;
+        }
+        return (int) value;
+    }
+
+    private void consume(ByteBuffer buffer) {
+        buffer.position(buffer.position() + messageEnd);
+        reset();
+    }
+
+    private void checkType(Type expectedType) {
+        if (type != expectedType) {
+            throw new IllegalStateException("Parser Type: " + type);
+        }
+    }
+
+    private String part(ByteBuffer buffer, int base, int partIndex, Charset charset) {
+        return string(buffer, base + startLineOffsets[partIndex * 2], base + startLineOffsets[partIndex * 2 + 1], charset);
+    }
+
+    private String headerName(ByteBuffer buffer, int base, int headerIndex) {
+        int index = headerIndex * 4;
+        return string(buffer, base + headerOffsets[index], base + headerOffsets[index + 1], StandardCharsets.US_ASCII);
+    }
+
+    private String headerValue(ByteBuffer buffer, int base, int headerIndex) {
+        int index = headerIndex * 4;
+        return string(buffer, base + headerOffsets[index + 2], base + headerOffsets[index + 3], StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer, int start, int end, Charset charset) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, charset);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, charset);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int base, int start, int end, byte target) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(base + i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int start, int end, byte[] target) {
+        if (end - start != target.length) {
+            return false;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (toLowerCase(buffer.get(start + i)) != toLowerCase(target[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析非负十进制整数，格式错误或溢出时返回-1
+     */
+    private static int parseInt(ByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * 报文格式错误或超过限制，statusCode为应当响应的状态码
+     */
+    public static class ParseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public ParseException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package me.seakeer.learning.javase.network.http.myhttp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.function.Consumer;
 
 
 /**
@@ -17,53 +24,114 @@ public class MyHttpProtHandler {
     public static final String GET = "GET";
     public static final String POST = "POST";
     public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONNECTION = "Connection";
+    public static final String KEEP_ALIVE = "keep-alive";
+    public static final String CLOSE = "close";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String CHUNKED = "chunked";
 
+    private static final int STREAM_BUFFER_SIZE = 4096;
+
+    /**
+     * 流式发送报文体时的缓冲区大小，内存占用与报文体大小无关
+     */
+    private static final int BODY_BUFFER_SIZE = 8192;
+
+    /**
+     * 从InputStream中解析一个请求，基于 {@link MyHttpParser} 的适配
+     * 可能会多读取请求之后的字节，适用于一个连接只有一个请求或请求-响应交替的场景
+     *
+     * @param inputStream
+     * @return 解析失败或连接关闭时返回null
+     */
     public static MyHttpReq parseReq(InputStream inputStream) {
-        try {
-            BufferedInputStream bis = new BufferedInputStream(inputStream);
-            String reqLine;
-            // 如果使用BufferedReader读取请求行，则再使用bis将无法读取请求体
-            while ((reqLine = readLine(bis)) != null) {
-                if (reqLine.isEmpty()) {
-                    continue;
-                }
-                if (!reqLine.startsWith(GET) && !reqLine.startsWith(POST)) {
-                    continue;
-                }
-                String[] firstLineParts = reqLine.split(" ");
-                if (firstLineParts.length < 2) {
-                    continue;
-                }
-                // 请求行
-                MyHttpReq myHttpReq = new MyHttpReq(firstLineParts[0])
-                        .setPath(firstLineParts[1]);
-                if (firstLineParts.length == 3) {
-                    myHttpReq.setVersion(firstLineParts[2]);
-                }
-                // 请求头
-                String headerLine;
-                while ((headerLine = readLine(bis)) != null && !headerLine.isEmpty()) {
-                    String[] headerParts = headerLine.split(":\\s*", 2);
-                    if (headerParts.length == 2) {
-                        myHttpReq.addHeader(headerParts[0], headerParts[1]);
-                    }
-                }
-                // 请求体
-                if (myHttpReq.containsHeader(CONTENT_LENGTH)) {
-                    int contentLength = Integer.parseInt(myHttpReq.getHeader(CONTENT_LENGTH));
-                    myHttpReq.setBody(readBody(bis, contentLength));
-                }
-                return myHttpReq;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.REQUEST);
+        return parse(inputStream, parser::parseReq, null);
+    }
+
+    /**
+     * 从InputStream中解析请求行和请求头，请求体通过 MyHttpReq.getBodyStream() 流式读取
+     * 支持 Content-Length 和 Transfer-Encoding: chunked，内存占用与请求体大小无关
+     *
+     * @param inputStream
+     * @return 解析失败或连接关闭时返回null
+     */
+    public static MyHttpReq parseReqStreaming(InputStream inputStream) {
+        MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.REQUEST);
+        ByteBuffer[] leftover = new ByteBuffer[1];
+        MyHttpReq myHttpReq = parse(inputStream, parser::parseReqHead, buffer -> leftover[0] = buffer);
+        if (null == myHttpReq) {
+            return null;
         }
-        return null;
+        long bodyLength = bodyLength(myHttpReq.getHeader(TRANSFER_ENCODING), myHttpReq.getHeader(CONTENT_LENGTH), 0);
+        return myHttpReq.setBodyStream(bodyStream(inputStream, leftover[0], bodyLength, false), bodyLength);
     }
 
 
+    /**
+     * 是否保持连接：HTTP/1.1默认保持，除非Connection: close；HTTP/1.0默认关闭，除非Connection: keep-alive
+     *
+     * @param myHttpReq
+     * @return
+     */
+    public static boolean isKeepAlive(MyHttpReq myHttpReq) {
+        String connection = myHttpReq.getHeader(CONNECTION);
+        if ("HTTP/1.0".equals(myHttpReq.getVersion())) {
+            return KEEP_ALIVE.equalsIgnoreCase(connection);
+        }
+        return !CLOSE.equalsIgnoreCase(connection);
+    }
+
+    /**
+     * 发送响应，文件响应体和流式响应体边读边写，内存占用与响应体大小无关
+     *
+     * @param out
+     * @param myHttpResp
+     * @throws IOException
+     */
     public static void sendResp(OutputStream out, MyHttpResp myHttpResp) throws IOException {
+        if (null != myHttpResp.getBodyFile()) {
+            out.write(encodeRespHead(myHttpResp));
+            try (FileChannel fileChannel = FileChannel.open(myHttpResp.getBodyFile(), StandardOpenOption.READ)) {
+                transferFile(fileChannel, Channels.newChannel(out));
+            }
+        } else if (null != myHttpResp.getBodyStream()) {
+            out.write(encodeRespHead(myHttpResp));
+            writeBodyStream(out, myHttpResp.getBodyStream(), myHttpResp.getBodyLength());
+        } else {
+            out.write(encodeResp(myHttpResp));
+        }
+        out.flush();
+    }
+
+    /**
+     * 编码字符串响应体的完整响应
+     *
+     * @param myHttpResp
+     * @return
+     */
+    public static byte[] encodeResp(MyHttpResp myHttpResp) {
+        byte[] bodyBytes = null == myHttpResp.getBody() ? new byte[0] : myHttpResp.getBody().getBytes(StandardCharsets.UTF_8);
+        byte[] headBytes = encodeRespHead(myHttpResp, bodyBytes.length);
+        byte[] respBytes = new byte[headBytes.length + bodyBytes.length];
+        System.arraycopy(headBytes, 0, respBytes, 0, headBytes.length);
+        System.arraycopy(bodyBytes, 0, respBytes, headBytes.length, bodyBytes.length);
+        return respBytes;
+    }
+
+    /**
+     * 编码文件响应体或流式响应体的响应行和响应头，长度未知的流式响应体使用 Transfer-Encoding: chunked
+     *
+     * @param myHttpResp
+     * @return
+     * @throws IOException
+     */
+    public static byte[] encodeRespHead(MyHttpResp myHttpResp) throws IOException {
+        long bodyLength = null != myHttpResp.getBodyFile() ? Files.size(myHttpResp.getBodyFile()) : myHttpResp.getBodyLength();
+        return encodeRespHead(myHttpResp, bodyLength);
+    }
 
+    private static byte[] encodeRespHead(MyHttpResp myHttpResp, long bodyLength) {
         StringBuilder responseBuilder = new StringBuilder();
         // 响应行
         responseBuilder.append(myHttpResp.getVersion())
@@ -74,30 +142,17 @@ public class MyHttpProtHandler {
                 .append("\r\n");
 
         // 响应头
-        for (Map.Entry<String, String> entry : myHttpResp.getHeaders().entrySet()) {
-            responseBuilder.append(entry.getKey())
-                    .append(": ")
-                    .append(entry.getValue()).append("\r\n");
-        }
-        if (myHttpResp.getBody() != null && !myHttpResp.getBody().isEmpty() && !myHttpResp.getHeaders().containsKey(CONTENT_LENGTH)) {
-            responseBuilder
-                    .append(CONTENT_LENGTH)
-                    .append(": ")
-                    .append(myHttpResp.getBody().getBytes(StandardCharsets.UTF_8).length)
-                    .append("\r\n");
-        }
-        responseBuilder.append("\r\n");
-
-        // 响应体
-        if (myHttpResp.getBody() != null) {
-            responseBuilder.append(myHttpResp.getBody());
-        }
-
-        out.write(responseBuilder.toString().getBytes(StandardCharsets.UTF_8));
-        out.flush();
+        // 持久连接下客户端依赖Content-Length确定响应边界，没有响应体时也需要 Content-Length: 0
+        // 204/304 按规范不能携带 Content-Length: 0（304 的 Content-Length 应为对应实体长度）
+        int statusCode = myHttpResp.getStatusCode();
+        boolean emptyContentLength = statusCode != 204 && statusCode != 304;
+        appendHeaders(responseBuilder, myHttpResp.getHeaders(), bodyLength, emptyContentLength);
+        return responseBuilder.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     public static void sendReq(OutputStream out, MyHttpReq myHttpReq) throws IOException {
+        byte[] bodyBytes = null == myHttpReq.getBody() ? new byte[0] : myHttpReq.getBody().getBytes(StandardCharsets.UTF_8);
+        boolean streaming = null != myHttpReq.getBodyStream();
         StringBuilder reqStrBuilder = new StringBuilder();
 
         // 请求行
@@ -110,65 +165,162 @@ public class MyHttpProtHandler {
                 .append("\r\n");
 
         // 请求头
-        for (Map.Entry<String, String> entry : myHttpReq.getHeaders().entrySet()) {
-            reqStrBuilder.append(entry.getKey())
+        appendHeaders(reqStrBuilder, myHttpReq.getHeaders(), streaming ? myHttpReq.getBodyLength() : bodyBytes.length, false);
+
+        out.write(reqStrBuilder.toString().getBytes(StandardCharsets.UTF_8));
+        // 请求体
+        if (streaming) {
+            writeBodyStream(out, myHttpReq.getBodyStream(), myHttpReq.getBodyLength());
+        } else {
+            out.write(bodyBytes);
+        }
+        out.flush();
+    }
+
+    /**
+     * 写出头部及空行，未设置 Content-Length/Transfer-Encoding 时按bodyLength补充
+     *
+     * @param builder
+     * @param headers
+     * @param bodyLength         -1表示长度未知，使用分块编码
+     * @param emptyContentLength 报文体为空时是否写出 Content-Length: 0
+     */
+    private static void appendHeaders(StringBuilder builder, Map<String, String> headers, long bodyLength, boolean emptyContentLength) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            builder.append(entry.getKey())
                     .append(": ")
                     .append(entry.getValue()).append("\r\n");
         }
-        if (myHttpReq.getBody() != null && !myHttpReq.getBody().isEmpty() && !myHttpReq.containsHeader(CONTENT_LENGTH)) {
-            reqStrBuilder.append(CONTENT_LENGTH)
-                    .append(": ")
-                    .append(myHttpReq.getBody().getBytes(StandardCharsets.UTF_8).length)
-                    .append("\r\n");
+        if (!headers.containsKey(CONTENT_LENGTH) && !headers.containsKey(TRANSFER_ENCODING)) {
+            if (bodyLength < 0) {
+                builder.append(TRANSFER_ENCODING).append(": ").append(CHUNKED).append("\r\n");
+            } else if (bodyLength > 0 || emptyContentLength) {
+                builder.append(CONTENT_LENGTH).append(": ").append(bodyLength).append("\r\n");
+            }
         }
         // 空行
-        reqStrBuilder.append("\r\n");
+        builder.append("\r\n");
+    }
 
-        // 请求体
-        if (myHttpReq.getBody() != null) {
-            reqStrBuilder.append(myHttpReq.getBody());
+    /**
+     * 边读边写报文体，bodyLength为-1时使用分块编码，写完后关闭bodyStream
+     */
+    private static void writeBodyStream(OutputStream out, InputStream bodyStream, long bodyLength) throws IOException {
+        byte[] buffer = new byte[BODY_BUFFER_SIZE];
+        OutputStream bodyOut = bodyLength < 0 ? new ChunkedOutputStream(out) : out;
+        try (InputStream in = bodyStream) {
+            int readBytes;
+            while ((readBytes = in.read(buffer)) != -1) {
+                bodyOut.write(buffer, 0, readBytes);
+            }
         }
+        if (bodyOut instanceof ChunkedOutputStream) {
+            ((ChunkedOutputStream) bodyOut).finish();
+        }
+    }
 
-        out.write(reqStrBuilder.toString().getBytes(StandardCharsets.UTF_8));
-        out.flush();
+    /**
+     * 通过 FileChannel.transferTo 发送文件，目标为SocketChannel时由内核直接拷贝（零拷贝）
+     */
+    public static void transferFile(FileChannel fileChannel, WritableByteChannel target) throws IOException {
+        long position = 0;
+        long size = fileChannel.size();
+        while (position < size) {
+            position += fileChannel.transferTo(position, size - position, target);
+        }
     }
 
+    /**
+     * 从InputStream中解析一个响应，基于 {@link MyHttpParser} 的适配
+     *
+     * @param inputStream
+     * @return 解析失败或连接关闭时返回null
+     */
     public static MyHttpResp parseResp(InputStream inputStream) {
-        try {
-            BufferedInputStream bis = new BufferedInputStream(inputStream);
-            String respLine;
-            while ((respLine = readLine(bis)) != null) {
-                if (respLine.isEmpty()) {
-                    continue;
-                }
+        return parseResp(inputStream, MyHttpParser.UNLIMITED_BODY_BYTES);
+    }
 
-                String[] respLineParts = respLine.split(" ", 3);
-                if (respLineParts.length < 3) {
-                    continue;
-                }
-                MyHttpResp myHttpResp = new MyHttpResp(Integer.parseInt(respLineParts[1]), respLineParts[2]);
-                myHttpResp.setVersion(respLineParts[0]);
-
-                // 响应头
-                String headerLine;
-                while ((headerLine = readLine(bis)) != null && !headerLine.isEmpty()) {
-                    String[] headerParts = headerLine.split(":\\s*", 2);
-                    if (headerParts.length == 2) {
-                        myHttpResp.addHeader(headerParts[0], headerParts[1]);
-                    }
-                }
+    /**
+     * @param maxBodyBytes 响应体最大字节数，超过时解析失败
+     */
+    public static MyHttpResp parseResp(InputStream inputStream, int maxBodyBytes) {
+        MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.RESPONSE, MyHttpParser.DEFAULT_MAX_HEAD_BYTES, maxBodyBytes);
+        return parse(inputStream, parser::parseResp, null);
+    }
 
-                // 响应体
-                if (myHttpResp.containsHeader(CONTENT_LENGTH)) {
-                    int contentLength = Integer.parseInt(myHttpResp.getHeader(CONTENT_LENGTH));
-                    myHttpResp.setBody(readBody(bis, contentLength));
-                }
-                return myHttpResp;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * 从InputStream中解析响应行和响应头，响应体通过 MyHttpResp.getBodyStream() 流式读取
+     * 没有 Content-Length 且不是分块编码时，响应体读取到连接关闭
+     *
+     * @param inputStream
+     * @return 解析失败或连接关闭时返回null
+     */
+    public static MyHttpResp parseRespStreaming(InputStream inputStream) {
+        MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.RESPONSE);
+        ByteBuffer[] leftover = new ByteBuffer[1];
+        MyHttpResp myHttpResp = parse(inputStream, parser::parseRespHead, buffer -> leftover[0] = buffer);
+        if (null == myHttpResp) {
+            return null;
         }
-        return null;
+        long bodyLength = bodyLength(myHttpResp.getHeader(TRANSFER_ENCODING), myHttpResp.getHeader(CONTENT_LENGTH), -1);
+        boolean untilEof = bodyLength < 0 && !isChunked(myHttpResp.getHeader(TRANSFER_ENCODING));
+        return myHttpResp.setBodyStream(bodyStream(inputStream, leftover[0], bodyLength, untilEof), bodyLength);
+    }
+
+    private static boolean isChunked(String transferEncoding) {
+        return null != transferEncoding && transferEncoding.trim().toLowerCase().endsWith(CHUNKED);
+    }
+
+    /**
+     * @return 报文体长度，分块编码返回-1，没有声明长度时返回defaultLength
+     */
+    private static long bodyLength(String transferEncoding, String contentLength, long defaultLength) {
+        if (isChunked(transferEncoding)) {
+            return -1;
+        }
+        if (null == contentLength) {
+            return defaultLength;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return defaultLength;
+        }
+    }
+
+    /**
+     * 先读取解析头部时多读取的字节，再读取底层输入流
+     */
+    private static InputStream bodyStream(InputStream inputStream, ByteBuffer leftover, long bodyLength, boolean untilEof) {
+        InputStream in = new BufferedInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(leftover.array(), leftover.arrayOffset() + leftover.position(), leftover.remaining()),
+                inputStream));
+        if (untilEof) {
+            return in;
+        }
+        if (bodyLength < 0) {
+            return new ChunkedInputStream(in);
+        }
+        return new FixedLengthInputStream(in, bodyLength);
+    }
+
+    /**
+     * 与 parseResp 相同，但读取超时等异常抛出给调用方处理
+     *
+     * @param inputStream
+     * @return 连接关闭时返回null
+     * @throws IOException
+     */
+    public static MyHttpResp readResp(InputStream inputStream) throws IOException {
+        return readResp(inputStream, MyHttpParser.UNLIMITED_BODY_BYTES);
+    }
+
+    /**
+     * @param maxBodyBytes 响应体最大字节数，超过时抛出 {@link MyHttpParser.ParseException}
+     */
+    public static MyHttpResp readResp(InputStream inputStream, int maxBodyBytes) throws IOException {
+        MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.RESPONSE, MyHttpParser.DEFAULT_MAX_HEAD_BYTES, maxBodyBytes);
+        return read(inputStream, parser::parseResp, null);
     }
 
     public static MyHttpResp send(MyHttpReq myHttpReq, InputStream in, OutputStream out) throws IOException {
@@ -177,15 +329,17 @@ public class MyHttpProtHandler {
     }
 
 
+    /**
+     * 头部名称格式化为每段首字母大写，如 content-length -> Content-Length
+     */
     public static String formatHeaderKey(String headerKey) {
-        String[] strArr = headerKey.split("-");
-        if (strArr.length == 1) {
-            return firstUpper(headerKey);
+        char[] chars = headerKey.toCharArray();
+        boolean upper = true;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = upper ? Character.toUpperCase(chars[i]) : Character.toLowerCase(chars[i]);
+            upper = chars[i] == '-';
         }
-        return Arrays.stream(strArr).map(MyHttpProtHandler::firstUpper)
-                .reduce((str1, str2) -> str1 + "-" + str2)
-                .orElse("");
-
+        return new String(chars);
     }
 
     public static String firstUpper(String str) {
@@ -195,33 +349,44 @@ public class MyHttpProtHandler {
         return str.substring(0, 1).toUpperCase() + str.substring(1).toLowerCase();
     }
 
-    private static String readLine(BufferedInputStream bis) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int c;
-        while ((c = bis.read()) != -1) {
-            if (c == '\n') {
-                break;
-            }
-            if (c != '\r') {
-                baos.write(c);
-            }
+    /**
+     * @param leftoverConsumer 解析成功后接收缓冲区中未解析的字节（读模式），可为null
+     */
+    private static <T> T parse(InputStream inputStream, ParseFunction<T> parseFunction, Consumer<ByteBuffer> leftoverConsumer) {
+        try {
+            return read(inputStream, parseFunction, leftoverConsumer);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return baos.toString(StandardCharsets.UTF_8.name());
+        return null;
     }
 
-    private static String readBody(BufferedInputStream bis, int contentLength) throws IOException {
-        if (contentLength <= 0) {
-            return null;
-        }
-        byte[] bodyBuffer = new byte[contentLength];
-        int bytesRead;
-        int totalBytesRead = 0;
-        while (totalBytesRead < contentLength && (bytesRead = bis.read(bodyBuffer, totalBytesRead, contentLength - totalBytesRead)) != -1) {
-            totalBytesRead += bytesRead;
-        }
-        if (totalBytesRead == contentLength) {
-            return new String(bodyBuffer, StandardCharsets.UTF_8);
+    private static <T> T read(InputStream inputStream, ParseFunction<T> parseFunction, Consumer<ByteBuffer> leftoverConsumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        int readBytes;
+        while ((readBytes = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) != -1) {
+            buffer.position(buffer.position() + readBytes);
+            buffer.flip();
+            T t = parseFunction.parse(buffer);
+            if (null != t) {
+                if (null != leftoverConsumer) {
+                    leftoverConsumer.accept(buffer);
+                }
+                return t;
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // 解析器会限制头部和报文体大小，缓冲区不会超过限制无限增长
+                ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
         }
         return null;
     }
+
+    private interface ParseFunction<T> {
+        T parse(ByteBuffer buffer) throws IOException;
+    }
 }
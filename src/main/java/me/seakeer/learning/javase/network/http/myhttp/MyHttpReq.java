@@ -1,5 +1,6 @@
 package me.seakeer.learning.javase.network.http.myhttp;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -19,6 +20,13 @@ public class MyHttpReq {
     private Map<String, String> headers;
     private String body;
 
+    /**
+     * 流式报文体，设置后优先于body发送；bodyLength为-1表示长度未知，使用 Transfer-Encoding: chunked
+     * 流式解析时，报文体只能从bodyStream读取一次
+     */
+    private InputStream bodyStream;
+    private long bodyLength = -1;
+
     public MyHttpReq(String method) {
         this.method = method.toUpperCase();
         this.headers = new HashMap<>();
@@ -75,6 +83,20 @@ public class MyHttpReq {
         return this;
     }
 
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    public MyHttpReq setBodyStream(InputStream bodyStream, long bodyLength) {
+        this.bodyStream = bodyStream;
+        this.bodyLength = bodyLength;
+        return this;
+    }
+
     public Map<String, String> getParams() {
         return params;
     }
@@ -1,5 +1,7 @@
 package me.seakeer.learning.javase.network.http.myhttp;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -18,6 +20,18 @@ public class MyHttpResp {
     private Map<String, String> headers;
     private String body;
 
+    /**
+     * 流式报文体，设置后优先于body发送；bodyLength为-1表示长度未知，使用 Transfer-Encoding: chunked
+     * 流式解析时，报文体只能从bodyStream读取一次
+     */
+    private InputStream bodyStream;
+    private long bodyLength = -1;
+
+    /**
+     * 文件响应体，使用 FileChannel.transferTo 发送
+     */
+    private Path bodyFile;
+
     public MyHttpResp(int statusCode, String statusMsg) {
         this.statusCode = statusCode;
         this.statusMsg = statusMsg;
@@ -74,6 +88,29 @@ public class MyHttpResp {
         return this;
     }
 
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    public MyHttpResp setBodyStream(InputStream bodyStream, long bodyLength) {
+        this.bodyStream = bodyStream;
+        this.bodyLength = bodyLength;
+        return this;
+    }
+
+    public Path getBodyFile() {
+        return bodyFile;
+    }
+
+    public MyHttpResp setBodyFile(Path bodyFile) {
+        this.bodyFile = bodyFile;
+        return this;
+    }
+
     public MyHttpResp addHeader(String key, String value) {
         this.headers.put(MyHttpProtHandler.formatHeaderKey(key), value);
         return this;
@@ -97,6 +134,10 @@ public class MyHttpResp {
         return myHttpResp;
     }
 
+    public static MyHttpResp file(Path file) {
+        return new MyHttpResp(200, "OK").setBodyFile(file);
+    }
+
     public static MyHttpResp badRequest(String msg) {
         MyHttpResp myHttpResp = new MyHttpResp(400, "Bad Request");
         myHttpResp.setBody(msg);
@@ -1,8 +1,14 @@
 package me.seakeer.learning.javase.network.http.myhttp;
 
+import me.seakeer.learning.javase.multithread.ConnectionExecutors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -10,12 +16,19 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * MyHttpServer;
+ * 基于阻塞ServerSocket，每个连接处理一个请求；高并发持久连接场景使用 {@link MyHttpNioServer}
+ * 线程模式：PLATFORM 使用有界线程池；VIRTUAL 每个连接一个虚拟线程（{@link ConnectionExecutors}），main 方法的第一个参数为 PLATFORM 或 VIRTUAL
+ * 请求体读取完（不超过 maxBodyBytes，超过则响应413）后再回显，读写都有超时（soTimeoutMillis），慢客户端不会一直占用线程
  *
  * @author Seakeer;
  * @date 2024/12/25;
  */
 public class MyHttpServer {
 
+    public static final String MY_HTTP_SERVER_LOG = "[MyHttpServer] ";
+
+    public static final int DEFAULT_SO_TIMEOUT_MILLIS = 30_000;
+
     private volatile boolean running = false;
 
     private final int port;
@@ -24,15 +37,39 @@ public class MyHttpServer {
 
     private ExecutorService executorService;
 
+    private ConnectionExecutors.ThreadMode threadMode = ConnectionExecutors.ThreadMode.PLATFORM;
+
+    private volatile int maxBodyBytes = MyHttpParser.DEFAULT_MAX_BODY_BYTES;
+
+    private volatile int soTimeoutMillis = DEFAULT_SO_TIMEOUT_MILLIS;
+
     public MyHttpServer(int port) {
         this.port = port;
     }
 
+    public MyHttpServer setThreadMode(ConnectionExecutors.ThreadMode threadMode) {
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public MyHttpServer setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+        return this;
+    }
+
+    public MyHttpServer setSoTimeoutMillis(int soTimeoutMillis) {
+        this.soTimeoutMillis = soTimeoutMillis;
+        return this;
+    }
+
     private void init() {
         try {
             this.serverSocket = new ServerSocket(port);
-            this.executorService = new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
-                    new ArrayBlockingQueue<>(32));
+            this.executorService = ConnectionExecutors.newExecutor(threadMode, "http-conn-",
+                    () -> new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(32),
+                            // 队列满时由接收线程处理，降低接收速度而不是抛出RejectedExecutionException
+                            new ThreadPoolExecutor.CallerRunsPolicy()));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -40,11 +77,11 @@ public class MyHttpServer {
 
     private void run() {
         this.running = true;
-        System.out.println("[MyHttpServer] [Running] [Port: " + port + "]");
+        System.out.println(MY_HTTP_SERVER_LOG + "[Running] [Port: " + port + "]");
         while (running) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                executorService.execute(new ClientHandler(clientSocket));
+                executorService.execute(new ClientHandler(clientSocket, maxBodyBytes, soTimeoutMillis));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -59,26 +96,73 @@ public class MyHttpServer {
     static class ClientHandler implements Runnable {
         private final Socket clientSocket;
 
-        public ClientHandler(Socket clientSocket) {
+        private final int maxBodyBytes;
+
+        private final int soTimeoutMillis;
+
+        public ClientHandler(Socket clientSocket, int maxBodyBytes, int soTimeoutMillis) {
             this.clientSocket = clientSocket;
+            this.maxBodyBytes = maxBodyBytes;
+            this.soTimeoutMillis = soTimeoutMillis;
         }
 
         @Override
         public void run() {
-            try {
-                MyHttpReq myHttpReq = MyHttpProtHandler.parseReq(clientSocket.getInputStream());
+            try (Socket socket = clientSocket) {
+                socket.setSoTimeout(soTimeoutMillis);
+                MyHttpReq myHttpReq = MyHttpProtHandler.parseReqStreaming(socket.getInputStream());
                 if (null == myHttpReq) {
-                    MyHttpProtHandler.sendResp(clientSocket.getOutputStream(), MyHttpResp.badRequest("Req Error"));
-                } else {
-                    MyHttpProtHandler.sendResp(clientSocket.getOutputStream(), MyHttpResp.success(myHttpReq.getBody()));
+                    MyHttpProtHandler.sendResp(socket.getOutputStream(), MyHttpResp.badRequest("Req Error"));
+                    return;
                 }
+                // 先读取完整的请求体再响应：边读边回显时，客户端在上传完之前不读取响应，双方的发送缓冲区写满后互相等待
+                byte[] body = myHttpReq.getBodyLength() > maxBodyBytes ? null : readBody(myHttpReq.getBodyStream());
+                if (null == body) {
+                    System.out.println(MY_HTTP_SERVER_LOG + "[Payload Too Large] [RemoteAddr: " + socket.getRemoteSocketAddress() + "] [MaxBodyBytes: " + maxBodyBytes + "]");
+                    MyHttpProtHandler.sendResp(socket.getOutputStream(), payloadTooLarge());
+                    // 不再读取剩余的请求体，半关闭后尽量让客户端收到413
+                    socket.shutdownOutput();
+                    return;
+                }
+                MyHttpProtHandler.sendResp(socket.getOutputStream(), new MyHttpResp(200, "OK")
+                        .setBodyStream(new ByteArrayInputStream(body), body.length));
+            } catch (SocketTimeoutException e) {
+                System.out.println(MY_HTTP_SERVER_LOG + "[Socket Timeout] [RemoteAddr: " + clientSocket.getRemoteSocketAddress() + "] [SoTimeoutMillis: " + soTimeoutMillis + "]");
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+
+        /**
+         * 读取请求体，分块编码的请求体长度未知，读取时检查大小
+         *
+         * @return 超过 maxBodyBytes 时返回null
+         */
+        private byte[] readBody(InputStream bodyStream) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] block = new byte[8192];
+            int readBytes;
+            while ((readBytes = bodyStream.read(block)) != -1) {
+                if (baos.size() + readBytes > maxBodyBytes) {
+                    return null;
+                }
+                baos.write(block, 0, readBytes);
+            }
+            return baos.toByteArray();
+        }
+
+        private static MyHttpResp payloadTooLarge() {
+            return new MyHttpResp(413, "Payload Too Large")
+                    .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE)
+                    .setBody("Payload Too Large");
+        }
     }
 
     public static void main(String[] args) {
-        new MyHttpServer(8080).start();
+        MyHttpServer myHttpServer = new MyHttpServer(8080);
+        if (args.length > 0) {
+            myHttpServer.setThreadMode(ConnectionExecutors.ThreadMode.valueOf(args[0].toUpperCase()));
+        }
+        myHttpServer.start();
     }
 }
@@ -82,6 +82,11 @@ public class MainSslClient {
 
     private MainSslManager sslManager;
 
+    /**
+     * 客户端的会话按SSLContext缓存，重连时复用同一个SSLContext才能恢复会话
+     */
+    private volatile SSLContext sslContext;
+
 
     public MainSslClient(String serverHostname, int serverPort) {
         this.serverHostname = serverHostname;
@@ -153,13 +158,16 @@ public class MainSslClient {
     }
 
     private boolean handshake() throws Exception {
-        // 初始化 SSLContext
-        SSLContext sslContext = MainSslManager.crtSslContext("Client.jks", "seakeer", "SeakeerCaCert.jks", "seakeer");
-        SSLEngine sslEngine = sslContext.createSSLEngine();
+        // 初始化 SSLContext，只创建一次
+        if (null == sslContext) {
+            sslContext = MainSslManager.crtSslContext("Client.jks", "seakeer", "SeakeerCaCert.jks", "seakeer");
+        }
+        // 指定对端的 host:port，客户端按此查找可恢复的会话
+        SSLEngine sslEngine = sslContext.createSSLEngine(serverHostname, serverPort);
         sslEngine.setUseClientMode(true);
         sslManager = new MainSslManager(sslEngine);
         if (sslManager.openHandshake(socketChannel)) {
-            System.out.printf(SSL_CLIENT_LOG + "[Connected] [Server: %s:%d]\n", serverHostname, serverPort);
+            System.out.printf(SSL_CLIENT_LOG + "[Connected] [Server: %s:%d] [Resumed: %s]\n", serverHostname, serverPort, sslManager.isSessionResumed());
             socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
             onConnected();
             return true;
@@ -349,8 +357,7 @@ public class MainSslClient {
 
     private void handlePeerAppBuffer() {
         sslManager.peerAppBuffer.flip();
-        String msgNewPart = MsgEnDecoder.decodeMsg(sslManager.peerAppBuffer);
-        DATA_BUILDER.append(msgNewPart);
+        sslManager.msgDecoder.decode(sslManager.peerAppBuffer, DATA_BUILDER);
         // 粘包拆包处理，得到消息列表
         List<String> msgList = handleServerData();
         // 处理消息
@@ -570,6 +577,7 @@ public class MainSslClient {
                 if (sslClosed) {
                     System.out.println(SSL_CLIENT_LOG + "[CloseHandshake Succeed] [SocketChannelAddr: " + socketChannel.getRemoteAddress() + "]");
                 }
+                sslManager.release();
                 sslManager = null;
             }
             if (null != selector) {
@@ -1,22 +1,32 @@
 package me.seakeer.learning.javase.network.ssltls;
 
 import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.MsgStreamDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
 
 import javax.net.ssl.*;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * SslManager;
  * 1. 维护SslEngine的缓冲区，实现缓冲区复用，非多线程安全
  * 2. 提供SSL握手的实现
  * 3. 提供SSL写的通用实现，读因为需要处理业务逻辑，由服务端和客户端分别实现
+ * 4. 所有SSLEngine共享一个有界的线程池执行握手的委托任务（NEED_TASK），连接数不影响线程数
+ * 5. crtSslContext 配置服务端的会话缓存和会话票据，重连的客户端复用同一个SSLContext时可以恢复会话，跳过完整握手
+ * 6. 批量写：多条消息合并到myAppBuffer后加密成尽量满的TLS记录，多条记录一次写入Socket；写不完的数据留到下一次 OP_WRITE
+ * 7. 非阻塞握手：beginHandshake + advanceHandshake 在需要等待I/O或委托任务时立即返回，由事件循环在可读、可写、任务完成时继续推进；
+ * openHandshake 和 closeHandshake 仍是循环直到完成的阻塞握手
  *
  * @author Seakeer;
  * @date 2025/6/3;
@@ -26,7 +36,32 @@ public class MainSslManager {
     public static final String SSL_HANDSHAKE_LOG = "[SslHandshake]";
 
     // 握手超时时间（毫秒）
-    private static final long HANDSHAKE_TIMEOUT_MS = 5_000;
+    public static final long HANDSHAKE_TIMEOUT_MS = 5_000;
+
+    /**
+     * 默认的会话缓存数量
+     */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 10_000;
+
+    /**
+     * 默认的会话有效期（秒）
+     */
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+
+    /**
+     * 批量写时一批消息最多加密成的TLS记录数，决定myAppBuffer和myNetBuffer扩容的上限
+     */
+    private static final int WRITE_BATCH_RECORDS = 4;
+
+    private static final int TASK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicInteger TASK_THREAD_INDEX = new AtomicInteger();
+
+    /**
+     * 所有SSLEngine共享的握手委托任务（NEED_TASK）执行线程池
+     * 线程数和队列长度都有上限，队列满时由握手线程自己执行
+     */
+    private static final ThreadPoolExecutor DELEGATED_TASK_EXECUTOR = crtDelegatedTaskExecutor();
 
 
     /**
@@ -44,6 +79,21 @@ public class MainSslManager {
          */
         DONE,
 
+        /**
+         * 非阻塞握手：需要等待通道可读
+         */
+        WAIT_READ,
+
+        /**
+         * 非阻塞握手：需要等待通道可写，未写完的数据保留在myNetBuffer中
+         */
+        WAIT_WRITE,
+
+        /**
+         * 非阻塞握手：委托任务在线程池中执行，全部完成后回调
+         */
+        WAIT_TASK,
+
         /**
          * 超时，则中断握手过程
          */
@@ -62,6 +112,11 @@ public class MainSslManager {
          */
         DONE,
 
+        /**
+         * 加密后的数据没有写完（Socket发送缓冲区已满），剩余数据保留在myNetBuffer中，等待下一次 OP_WRITE 继续写
+         */
+        PENDING,
+
         /**
          * 关闭了
          */
@@ -73,20 +128,23 @@ public class MainSslManager {
         ERROR;
     }
 
-    // 握手过程NEED_TASK的任务执行线程池
-    private final ExecutorService TASK_THREAD_POOL = new ThreadPoolExecutor(2, 8,
-            60, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(24),
-            new ThreadPoolExecutor.CallerRunsPolicy()
-    );
-
-
     protected SSLEngine sslEngine;
-    // 缓冲区复用，避免频繁创建
+    // 缓冲区复用，避免频繁创建；缓冲区从ByteBufferPool申请，连接关闭后通过release()归还
     protected ByteBuffer myAppBuffer;
     protected ByteBuffer myNetBuffer;
     protected ByteBuffer peerAppBuffer;
     protected ByteBuffer peerNetBuffer;
+    // 每个连接一个流式解码器，被拆包截断的多字节字符留在peerAppBuffer中等待下次解码
+    protected final MsgStreamDecoder msgDecoder = new MsgStreamDecoder();
+
+    // 批量写时放不进当前批次的消息，留到下一批
+    private byte[] carryMsgBytes;
+
+    // 开始握手的时间，用于判断会话是否为恢复的会话
+    private long handshakeStartMillis;
+
+    // 是否正在进行非阻塞握手
+    private volatile boolean handshaking;
 
     public MainSslManager(SSLEngine sslEngine) {
         this.sslEngine = sslEngine;
@@ -116,6 +174,30 @@ public class MainSslManager {
 
     public static SSLContext crtSslContext(String keystorePath, String keystorePassword,
                                            String truststorePath, String truststorePassword) throws Exception {
+        return crtSslContext(keystorePath, keystorePassword, truststorePath, truststorePassword,
+                DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS, true);
+    }
+
+    /**
+     * 创建SSLContext，并配置会话缓存
+     * 1. 会话缓存按SSLContext隔离：服务端缓存会话ID对应的会话；客户端按 host:port 缓存会话，
+     * 需复用同一个SSLContext并通过 createSSLEngine(host, port) 创建SSLEngine才能恢复会话
+     * 2. 会话票据（RFC 5077）由服务端加密会话状态交给客户端保存，服务端不需要缓存会话，JDK 13+ 支持；
+     * 开关是JVM级别的系统属性，只在JSSE初始化之前设置有效
+     *
+     * @param sessionCacheSize      会话缓存数量，0表示不限制
+     * @param sessionTimeoutSeconds 会话有效期（秒），0表示不过期
+     * @param sessionTicketEnabled  是否启用会话票据
+     * @return
+     * @throws Exception
+     */
+    public static SSLContext crtSslContext(String keystorePath, String keystorePassword,
+                                           String truststorePath, String truststorePassword,
+                                           int sessionCacheSize, int sessionTimeoutSeconds,
+                                           boolean sessionTicketEnabled) throws Exception {
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", String.valueOf(sessionTicketEnabled));
+        System.setProperty("jdk.tls.client.enableSessionTicketExtension", String.valueOf(sessionTicketEnabled));
+
         // 加载密钥库
         KeyStore keyStore = KeyStore.getInstance("JKS");
         keyStore.load(MainSslManager.class.getClassLoader().getResourceAsStream(keystorePath), keystorePassword.toCharArray());
@@ -134,6 +216,10 @@ public class MainSslManager {
         // 初始化 SSLContext
         SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
         sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        for (SSLSessionContext sessionContext : new SSLSessionContext[]{sslContext.getServerSessionContext(), sslContext.getClientSessionContext()}) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
         SSLEngine sslEngine = sslContext.createSSLEngine();
         sslEngine.setEnabledProtocols(new String[]{"TLSv1.2"});
         sslEngine.setEnabledCipherSuites(sslEngine.getSupportedCipherSuites());
@@ -149,6 +235,7 @@ public class MainSslManager {
      */
     public boolean openHandshake(SocketChannel socketChannel) {
         try {
+            handshakeStartMillis = System.currentTimeMillis();
             sslEngine.beginHandshake();
             handshaking(socketChannel);
             return sslEngine.getSession().isValid();
@@ -183,11 +270,16 @@ public class MainSslManager {
 
         // 循环执行握手流程，根据结果决定是否退出循环
         while (true) {
-            HandshakingResult result = doHandshake(socketChannel, startTimeMillis);
+            // 超时则中断握手
+            HandshakingResult result = System.currentTimeMillis() - startTimeMillis > HANDSHAKE_TIMEOUT_MS
+                    ? HandshakingResult.TIMEOUT : doHandshake(socketChannel, startTimeMillis, null);
             // 耗时统计
             long costMillis = System.currentTimeMillis() - startTimeMillis;
             switch (result) {
+                // 阻塞握手不等待事件，继续循环
                 case DOING:
+                case WAIT_READ:
+                case WAIT_WRITE:
                     continue;
 
                 case DONE:
@@ -204,11 +296,71 @@ public class MainSslManager {
         }
     }
 
-    private HandshakingResult doHandshake(SocketChannel socketChannel, long startTimeMillis) {
+    /**
+     * 开始非阻塞握手，之后由事件循环调用 advanceHandshake 推进
+     * 超时由调用方检查（如时间轮），超时后直接关闭连接即可
+     */
+    public void beginHandshake() throws SSLException {
+        handshakeStartMillis = System.currentTimeMillis();
+        handshaking = true;
+        sslEngine.beginHandshake();
+    }
+
+    /**
+     * 推进非阻塞握手，直到握手完成、失败或需要等待事件；不会阻塞调用线程
+     * 1. WAIT_READ / WAIT_WRITE：等待通道可读 / 可写后再次调用
+     * 2. WAIT_TASK：委托任务全部完成后在线程池线程中回调 tasksDoneCallback，回调应把连接交回事件循环线程再次调用
+     * 3. DONE：握手完成，握手后到达的应用数据保留在peerNetBuffer（写模式）中；ERROR：握手失败或对端在握手中关闭了连接，需关闭连接
+     *
+     * @param socketChannel     非阻塞模式的通道
+     * @param tasksDoneCallback 委托任务完成的回调
+     * @return
+     */
+    public HandshakingResult advanceHandshake(SocketChannel socketChannel, Runnable tasksDoneCallback) {
+        while (true) {
+            HandshakingResult result = doHandshake(socketChannel, handshakeStartMillis, tasksDoneCallback);
+            // 握手中对端关闭连接时，closeInbound/closeOutbound 后引擎也会进入 NOT_HANDSHAKING，不能当作握手完成
+            if (HandshakingResult.DONE.equals(result) && (sslEngine.isInboundDone() || sslEngine.isOutboundDone())) {
+                result = HandshakingResult.ERROR;
+            }
+            switch (result) {
+                case DOING:
+                    continue;
+                case WAIT_READ:
+                case WAIT_WRITE:
+                case WAIT_TASK:
+                    return result;
+                case DONE:
+                    handshaking = false;
+                    myAppBuffer.clear();
+                    peerAppBuffer.clear();
+                    myNetBuffer.clear();
+                    System.out.printf(SSL_HANDSHAKE_LOG + "[%s] [Cost: %dms]\n", result.name(), System.currentTimeMillis() - handshakeStartMillis);
+                    return result;
+                default:
+                    handshaking = false;
+                    clearBuffer();
+                    System.out.printf(SSL_HANDSHAKE_LOG + "[%s] [Cost: %dms]\n", result.name(), System.currentTimeMillis() - handshakeStartMillis);
+                    return HandshakingResult.ERROR;
+            }
+        }
+    }
+
+    /**
+     * 是否正在进行非阻塞握手
+     */
+    public boolean isHandshaking() {
+        return handshaking;
+    }
+
+    /**
+     * @param tasksDoneCallback 为null表示阻塞握手，在当前线程等待委托任务完成
+     */
+    private HandshakingResult doHandshake(SocketChannel socketChannel, long startTimeMillis, Runnable tasksDoneCallback) {
         try {
-            // 超时则中断握手
-            if (System.currentTimeMillis() - startTimeMillis > HANDSHAKE_TIMEOUT_MS) {
-                return HandshakingResult.TIMEOUT;
+            // 先发送上一次没有写完的握手数据
+            if (!flushMyNetBuffer(socketChannel)) {
+                return HandshakingResult.WAIT_WRITE;
             }
 
             HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
@@ -223,7 +375,7 @@ public class MainSslManager {
 
                 // 需要执行任务
                 case NEED_TASK:
-                    return handleNeedTask();
+                    return null == tasksDoneCallback ? handleNeedTask(startTimeMillis) : handleNeedTaskAsync(tasksDoneCallback);
 
                 // 握手完成 & 没有在进行握手
                 case FINISHED:
@@ -245,30 +397,48 @@ public class MainSslManager {
         int packetBufferSize = engine.getSession().getPacketBufferSize();
 
         if (myAppBuffer == null || myAppBuffer.capacity() < appBufferSize) {
-            myAppBuffer = ByteBuffer.allocate(appBufferSize);
+            ByteBufferPool.DEFAULT.release(myAppBuffer);
+            myAppBuffer = ByteBufferPool.DEFAULT.acquire(appBufferSize);
         } else {
             myAppBuffer.clear();
         }
 
         if (peerAppBuffer == null || peerAppBuffer.capacity() < appBufferSize) {
-            peerAppBuffer = ByteBuffer.allocate(appBufferSize);
+            ByteBufferPool.DEFAULT.release(peerAppBuffer);
+            peerAppBuffer = ByteBufferPool.DEFAULT.acquire(appBufferSize);
         } else {
             peerAppBuffer.clear();
         }
 
         if (myNetBuffer == null || myNetBuffer.capacity() < packetBufferSize) {
-            myNetBuffer = ByteBuffer.allocate(packetBufferSize);
+            ByteBufferPool.DEFAULT.release(myNetBuffer);
+            myNetBuffer = ByteBufferPool.DEFAULT.acquire(packetBufferSize);
         } else {
             myNetBuffer.clear();
         }
 
         if (peerNetBuffer == null || peerNetBuffer.capacity() < packetBufferSize) {
-            peerNetBuffer = ByteBuffer.allocate(packetBufferSize);
+            ByteBufferPool.DEFAULT.release(peerNetBuffer);
+            peerNetBuffer = ByteBufferPool.DEFAULT.acquire(packetBufferSize);
         } else {
             peerNetBuffer.clear();
         }
     }
 
+    /**
+     * 连接关闭后将缓冲区归还到ByteBufferPool，之后不能再使用该SslManager
+     */
+    public void release() {
+        ByteBufferPool.DEFAULT.release(myAppBuffer);
+        ByteBufferPool.DEFAULT.release(peerAppBuffer);
+        ByteBufferPool.DEFAULT.release(myNetBuffer);
+        ByteBufferPool.DEFAULT.release(peerNetBuffer);
+        myAppBuffer = null;
+        peerAppBuffer = null;
+        myNetBuffer = null;
+        peerNetBuffer = null;
+    }
+
     private void clearBuffer() {
         myAppBuffer.clear();
         peerAppBuffer.clear();
@@ -283,12 +453,10 @@ public class MainSslManager {
             switch (result.getStatus()) {
                 // 表示数据加密完成
                 case OK:
-                    // 发送加密后的数据
-                    myNetBuffer.flip();
-                    while (myNetBuffer.hasRemaining()) {
-                        socketChannel.write(myNetBuffer);
+                    // 发送加密后的数据，发送缓冲区已满时等待可写
+                    if (!flushMyNetBuffer(socketChannel)) {
+                        return HandshakingResult.WAIT_WRITE;
                     }
-                    myNetBuffer.clear();
                     // 发送数据完成后，需要等待对方响应，所以继续进行握手
                     return HandshakingResult.DOING;
 
@@ -309,14 +477,12 @@ public class MainSslManager {
                 case CLOSED:
                     // 如果出站已经关闭，还需要将加密后的数据发送出去，即发送close_notify通知对端
                     try {
-                        myNetBuffer.flip();
-                        while (myNetBuffer.hasRemaining()) {
-                            socketChannel.write(myNetBuffer);
-                        }
-                        myNetBuffer.clear();
                         // close_notify通知对端后，需要等待对端会进行响应，将peerNetBuffer清空以确保接收到正确的响应
                         // 之后将进入NEED_UNWRAP流程，读取对端响应
                         peerNetBuffer.clear();
+                        if (!flushMyNetBuffer(socketChannel)) {
+                            return HandshakingResult.WAIT_WRITE;
+                        }
                         return HandshakingResult.DOING;
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -379,7 +545,8 @@ public class MainSslManager {
                 // 如果是没有数据，即意味着bytesRead = 0，则可能是还没读取到数据，需要继续读取数据进行解密
                 case BUFFER_UNDERFLOW:
                     handleUnWrapPeerNetBufferUnderflow();
-                    return HandshakingResult.DOING;
+                    // 没有读到新数据，等待可读
+                    return bytesRead == 0 ? HandshakingResult.WAIT_READ : HandshakingResult.DOING;
 
                 // 表示读取到了对端的关闭连接请求close_notify，则进行连接关闭
                 case CLOSED:
@@ -406,29 +573,89 @@ public class MainSslManager {
         }
     }
 
-    private HandshakingResult handleNeedTask() {
+    private HandshakingResult handleNeedTask(long startTimeMillis) {
+        // 提交到共享线程池并等待完成，避免握手循环在 NEED_TASK 状态空转
+        List<Future<?>> futureList = new ArrayList<>(2);
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            futureList.add(DELEGATED_TASK_EXECUTOR.submit(task));
+        }
+        try {
+            for (Future<?> future : futureList) {
+                long remainingMillis = HANDSHAKE_TIMEOUT_MS - (System.currentTimeMillis() - startTimeMillis);
+                future.get(Math.max(remainingMillis, 0), TimeUnit.MILLISECONDS);
+            }
+            return HandshakingResult.DOING;
+        } catch (TimeoutException e) {
+            return HandshakingResult.TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return HandshakingResult.ERROR;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return HandshakingResult.ERROR;
+        }
+    }
+
+    private HandshakingResult handleNeedTaskAsync(Runnable tasksDoneCallback) {
+        List<Runnable> taskList = new ArrayList<>(2);
         Runnable task;
         while ((task = sslEngine.getDelegatedTask()) != null) {
-            TASK_THREAD_POOL.execute(task);
+            taskList.add(task);
+        }
+        if (taskList.isEmpty()) {
+            return HandshakingResult.DOING;
         }
-        return HandshakingResult.DOING;
+        // 最后一个完成的任务负责回调
+        AtomicInteger remainingTasks = new AtomicInteger(taskList.size());
+        for (Runnable delegatedTask : taskList) {
+            DELEGATED_TASK_EXECUTOR.execute(() -> {
+                try {
+                    delegatedTask.run();
+                } finally {
+                    if (remainingTasks.decrementAndGet() == 0) {
+                        tasksDoneCallback.run();
+                    }
+                }
+            });
+        }
+        return HandshakingResult.WAIT_TASK;
+    }
+
+    /**
+     * 当前会话是否为恢复的会话（会话ID或会话票据），恢复的会话创建于本次握手之前
+     */
+    public boolean isSessionResumed() {
+        return sslEngine.getSession().getCreationTime() < handshakeStartMillis;
+    }
+
+    /**
+     * 共享线程池中已完成的委托任务数
+     */
+    public static long getDelegatedTaskCount() {
+        return DELEGATED_TASK_EXECUTOR.getCompletedTaskCount();
+    }
+
+    private static ThreadPoolExecutor crtDelegatedTaskExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(TASK_THREADS, TASK_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(TASK_THREADS * 64),
+                r -> {
+                    Thread thread = new Thread(r, "SslDelegatedTask-" + TASK_THREAD_INDEX.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public static ByteBuffer enlargeBuffer(ByteBuffer buffer, int sessionProposedCapacity) {
         // 确定目标容量
         int newCapacity = sessionProposedCapacity > buffer.capacity() ? sessionProposedCapacity : buffer.capacity() * 2;
 
-        // 创建新缓冲区并复制原有数据
-        ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
-
-        // 如果缓冲区有剩余数据，则复制剩余数据
-        if (buffer.position() > 0) {
-            // 切换为读模式，准备复制剩余数据
-            buffer.flip();
-            // 复制剩余数据
-            newBuffer.put(buffer);
-        }
-        return newBuffer;
+        // 从ByteBufferPool申请新缓冲区并复制原有数据，原缓冲区归还到ByteBufferPool
+        return ByteBufferPool.DEFAULT.enlarge(buffer, newCapacity);
     }
 
     public ByteBuffer handleUnWrapPeerNetBufferUnderflow() {
@@ -441,46 +668,114 @@ public class MainSslManager {
     }
 
 
-    public WriteResult write(SocketChannel socketChannel, String msg) {
+    /**
+     * 批量写，取出队列中的消息，合并加密后写入Socket，直到队列为空或Socket发送缓冲区已满
+     * 1. 一批消息的明文不超过 WRITE_BATCH_RECORDS 个TLS记录，SSLEngine每次wrap生成一个尽量满的记录
+     * 2. myNetBuffer 容纳多个记录后再写Socket，减少系统调用；myNetBuffer满时先写出再继续加密
+     * 3. socketChannel.write 返回0时返回PENDING，未写完的密文保留在myNetBuffer，未加密的明文保留在myAppBuffer，
+     * 下一次调用（OP_WRITE）先写完上次剩余的数据；消息一旦从队列取出就由SslManager负责发送
+     * 没有取出的消息留在队列中，因此队列需在多次调用之间保留（每个连接一个队列），不能使用临时队列
+     * 两次调用之间 myAppBuffer 和 myNetBuffer 都处于写模式，position之前是待处理的数据
+     *
+     * @param msgQueue          待发送的消息队列
+     * @param wrappedMsgHandler 消息进入批次时回调，可为null
+     * @return
+     */
+    public WriteResult write(SocketChannel socketChannel, Queue<String> msgQueue, Consumer<String> wrappedMsgHandler) {
         try {
-            // 将要发送的消息写入myAppBuffer中, 如果myAppBuffer容量不够则先扩容
+            int appBufferSize = sslEngine.getSession().getApplicationBufferSize();
+            int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+            if (myNetBuffer.capacity() < packetBufferSize * WRITE_BATCH_RECORDS) {
+                myNetBuffer = ByteBufferPool.DEFAULT.enlarge(myNetBuffer, packetBufferSize * WRITE_BATCH_RECORDS);
+            }
             while (true) {
-                int msgBytes = MsgEnDecoder.encodeMsg(msg + SslServer.DELIMITER, myAppBuffer);
-                if (msgBytes > 0) {
-                    enlargeMyAppBuffer(msgBytes);
-                } else {
-                    break;
+                // 先写完上次剩余的密文
+                if (!flushMyNetBuffer(socketChannel)) {
+                    return WriteResult.PENDING;
                 }
-            }
-            while (myAppBuffer.hasRemaining()) {
-                // 加密数据
-                SSLEngineResult wrapResult = sslEngine.wrap(myAppBuffer, myNetBuffer);
-                switch (wrapResult.getStatus()) {
-                    case OK:
-                        myNetBuffer.flip();
-                        while (myNetBuffer.hasRemaining()) {
-                            int writeBytes = socketChannel.write(myNetBuffer);
-                            if (writeBytes <= 0) {
+                if (myAppBuffer.position() == 0 && !fillMyAppBuffer(msgQueue, appBufferSize * WRITE_BATCH_RECORDS, wrappedMsgHandler)) {
+                    return WriteResult.DONE;
+                }
+                myAppBuffer.flip();
+                try {
+                    while (myAppBuffer.hasRemaining()) {
+                        SSLEngineResult wrapResult = sslEngine.wrap(myAppBuffer, myNetBuffer);
+                        switch (wrapResult.getStatus()) {
+                            case OK:
+                                break;
+                            case CLOSED:
+                                return WriteResult.CLOSED;
+                            case BUFFER_OVERFLOW:
+                                // myNetBuffer 已有记录则先写出腾出空间，否则扩容
+                                if (myNetBuffer.position() == 0) {
+                                    enlargeMyNetBuffer();
+                                } else if (!flushMyNetBuffer(socketChannel)) {
+                                    return WriteResult.PENDING;
+                                }
+                                break;
+                            default:
                                 return WriteResult.ERROR;
-                            }
                         }
-                        myNetBuffer.clear();
-                        break;
-                    case CLOSED:
-                        return WriteResult.CLOSED;
-                    case BUFFER_OVERFLOW:
-                        // 加密数据超过Buffer容量，则扩容后再次进行加密
-                        enlargeMyNetBuffer();
-                        break;
-                    default:
-                        return WriteResult.ERROR;
+                    }
+                } finally {
+                    myAppBuffer.compact();
                 }
             }
-            myAppBuffer.clear();
-            return WriteResult.DONE;
         } catch (Exception e) {
             e.printStackTrace();
             return WriteResult.ERROR;
         }
     }
+
+    /**
+     * 从队列中取出消息写入myAppBuffer，直到总字节数达到maxBatchBytes
+     * 单条消息超过maxBatchBytes时myAppBuffer扩容后单独成为一批
+     *
+     * @return 是否取到了消息
+     */
+    private boolean fillMyAppBuffer(Queue<String> msgQueue, int maxBatchBytes, Consumer<String> wrappedMsgHandler) {
+        while (true) {
+            byte[] msgBytes = carryMsgBytes;
+            carryMsgBytes = null;
+            if (null == msgBytes) {
+                String msg = msgQueue.poll();
+                if (null == msg) {
+                    break;
+                }
+                msgBytes = (msg + SslServer.DELIMITER).getBytes(MsgEnDecoder.CHARSET);
+                if (null != wrappedMsgHandler) {
+                    wrappedMsgHandler.accept(msg);
+                }
+            }
+            if (myAppBuffer.position() > 0 && myAppBuffer.position() + msgBytes.length > maxBatchBytes) {
+                carryMsgBytes = msgBytes;
+                break;
+            }
+            if (myAppBuffer.remaining() < msgBytes.length) {
+                myAppBuffer = ByteBufferPool.DEFAULT.enlarge(myAppBuffer, Math.max(myAppBuffer.position() + msgBytes.length, myAppBuffer.capacity() * 2));
+            }
+            myAppBuffer.put(msgBytes);
+        }
+        return myAppBuffer.position() > 0;
+    }
+
+    /**
+     * 把myNetBuffer中的密文写入Socket
+     *
+     * @return 是否全部写完；没写完时剩余数据compact到myNetBuffer开头
+     */
+    private boolean flushMyNetBuffer(SocketChannel socketChannel) throws IOException {
+        if (myNetBuffer.position() == 0) {
+            return true;
+        }
+        myNetBuffer.flip();
+        while (myNetBuffer.hasRemaining()) {
+            if (socketChannel.write(myNetBuffer) <= 0) {
+                myNetBuffer.compact();
+                return false;
+            }
+        }
+        myNetBuffer.clear();
+        return true;
+    }
 }
@@ -1,6 +1,7 @@
 package me.seakeer.learning.javase.network.ssltls;
 
-import me.seakeer.learning.javase.network.MsgEnDecoder;
+
+import me.seakeer.learning.javase.network.timer.HashedTimerWheel;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -17,6 +18,8 @@ import java.util.concurrent.*;
 
 /**
  * SslServer;
+ * 握手在Selector线程中以非阻塞方式进行：每个连接的握手随 OP_READ / OP_WRITE 事件和委托任务完成推进，
+ * 一个慢速或恶意的客户端不会阻塞其他连接；握手超时由时间轮检查
  *
  * @author Seakeer;
  * @date 2024/10/29;
@@ -38,12 +41,33 @@ public class MainSslServer {
 
     private volatile boolean running = false;
 
+    private volatile Thread selectorThread;
+
+    /**
+     * 时间轮的刻度（毫秒），也是Selector的最长等待时间
+     */
+    private static final long TIMER_TICK_MILLIS = 100;
+
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private volatile HashedTimerWheel timerWheel;
+
+    /**
+     * 正在握手的连接的握手超时任务
+     */
+    private final Map<SocketChannel, HashedTimerWheel.Timeout> SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 委托任务已完成、等待Selector线程继续握手的连接
+     */
+    private final Queue<SelectionKey> HANDSHAKE_TASK_DONE_QUEUE = new ConcurrentLinkedQueue<>();
+
     private final Map<SocketChannel, String> SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, SocketChannel> CLIENT_ID_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
     private final Map<SocketChannel, MainSslManager> SOCKET_CHANNEL_SSL_MANAGER_MAP = new ConcurrentHashMap<>();
 
     /**
-     * 发送消息时，如果Channel不可写，则缓存消息到待发送消息队列
+     * 每个连接的待发送消息队列，所有消息都先入队，只在Selector线程中加密写出，保证消息顺序且不会丢失
      */
     private final Map<SocketChannel, ConcurrentLinkedQueue<String>> SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP = new ConcurrentHashMap<>();
     private final Map<SocketChannel, StringBuilder> SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP = new ConcurrentHashMap<>();
@@ -155,6 +179,7 @@ public class MainSslServer {
             ServerSocket serverSocket = serverSocketChannel.socket();
             serverSocket.bind(new InetSocketAddress(port));
             selector = Selector.open();
+            timerWheel = new HashedTimerWheel(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE);
             serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
             return true;
         } catch (Exception e) {
@@ -165,13 +190,12 @@ public class MainSslServer {
 
     private void run() {
         running = true;
+        selectorThread = Thread.currentThread();
         System.out.println(SSL_SERVER_LOG + "[Running]");
         while (running) {
             try {
-                int keysNum = selector.select(1000);
-                if (keysNum <= 0) {
-                    continue;
-                }
+                // 最多等待一个刻度，保证时间轮按时推进
+                selector.select(TIMER_TICK_MILLIS);
                 Set<SelectionKey> selectionKeys = selector.selectedKeys();
                 Iterator<SelectionKey> iterator = selectionKeys.iterator();
                 while (iterator.hasNext()) {
@@ -183,6 +207,12 @@ public class MainSslServer {
                     }
                     if (selectionKey.isAcceptable()) {
                         handleOpAccept();
+                        continue;
+                    }
+                    // 握手中的连接，可读或可写都继续推进握手
+                    if (isHandshaking(selectionKey)) {
+                        handleHandshake(selectionKey);
+                        continue;
                     }
                     if (selectionKey.isReadable()) {
                         handleOpRead(selectionKey);
@@ -191,6 +221,8 @@ public class MainSslServer {
                         handleOpWrite(selectionKey);
                     }
                 }
+                handleHandshakeTaskDone();
+                timerWheel.advance(System.currentTimeMillis());
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -207,32 +239,139 @@ public class MainSslServer {
             SSLEngine sslEngine = sslContext.createSSLEngine();
             sslEngine.setUseClientMode(false);
             MainSslManager sslManager = new MainSslManager(sslEngine);
+            // 注册后由事件驱动握手，握手完成前不处理业务读写
+            SelectionKey selectionKey = socketChannel.register(selector, 0, sslManager);
+            SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.put(socketChannel,
+                    timerWheel.schedule(MainSslManager.HANDSHAKE_TIMEOUT_MS, () -> handleHandshakeTimeout(selectionKey)));
             // 开始 SSL/TLS 握手
-            if (sslManager.openHandshake(socketChannel)) {
-                System.out.println(SSL_SERVER_LOG + "[Handshake Succeed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
-                // 注册客户端通道
-                socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, sslManager);
-                SOCKET_CHANNEL_SSL_MANAGER_MAP.put(socketChannel, sslManager);
-            } else {
-                System.out.println(SSL_SERVER_LOG + "[Handshake Failed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
-                closeConnection(socketChannel, sslManager);
+            sslManager.beginHandshake();
+            handleHandshake(selectionKey);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isHandshaking(SelectionKey selectionKey) {
+        MainSslManager sslManager = (MainSslManager) selectionKey.attachment();
+        return null != sslManager && sslManager.isHandshaking();
+    }
+
+    /**
+     * 推进握手，根据结果设置关注的事件
+     */
+    private void handleHandshake(SelectionKey selectionKey) {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        MainSslManager sslManager = (MainSslManager) selectionKey.attachment();
+        MainSslManager.HandshakingResult result = sslManager.advanceHandshake(socketChannel, () -> {
+            // 在委托任务线程中回调，交回Selector线程继续握手
+            HANDSHAKE_TASK_DONE_QUEUE.offer(selectionKey);
+            selectionKey.selector().wakeup();
+        });
+        try {
+            switch (result) {
+                case WAIT_READ:
+                    selectionKey.interestOps(SelectionKey.OP_READ);
+                    break;
+                case WAIT_WRITE:
+                    selectionKey.interestOps(SelectionKey.OP_WRITE);
+                    break;
+                case WAIT_TASK:
+                    selectionKey.interestOps(0);
+                    break;
+                case DONE:
+                    cancelHandshakeTimeout(socketChannel);
+                    System.out.println(SSL_SERVER_LOG + "[Handshake Succeed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
+                    SOCKET_CHANNEL_SSL_MANAGER_MAP.put(socketChannel, sslManager);
+                    selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    // 客户端可能紧跟着握手发送了应用数据，已读到peerNetBuffer中
+                    if (sslManager.peerNetBuffer.position() > 0) {
+                        StringBuilder dataBuilder = new StringBuilder();
+                        handlePeerNetBuffer(socketChannel, sslManager, dataBuilder);
+                        if (dataBuilder.length() > 0) {
+                            SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.put(socketChannel, dataBuilder);
+                        }
+                    }
+                    break;
+                default:
+                    System.out.println(SSL_SERVER_LOG + "[Handshake Failed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
+                    closeHandshakingConnection(socketChannel, sslManager);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            closeHandshakingConnection(socketChannel, sslManager);
+        }
+    }
+
+    private void handleHandshakeTaskDone() {
+        SelectionKey selectionKey;
+        while ((selectionKey = HANDSHAKE_TASK_DONE_QUEUE.poll()) != null) {
+            if (selectionKey.isValid() && isHandshaking(selectionKey)) {
+                handleHandshake(selectionKey);
             }
+        }
+    }
+
+    /**
+     * 时间轮到期回调，在Selector线程中执行
+     */
+    private void handleHandshakeTimeout(SelectionKey selectionKey) {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.remove(socketChannel);
+        if (!isHandshaking(selectionKey)) {
+            return;
+        }
+        System.out.println(SSL_SERVER_LOG + "[Handshake Timeout] " + "[ClientAddr: " + socketChannel.socket().getRemoteSocketAddress() + "]");
+        closeHandshakingConnection(socketChannel, (MainSslManager) selectionKey.attachment());
+    }
+
+    private void cancelHandshakeTimeout(SocketChannel socketChannel) {
+        HashedTimerWheel.Timeout timeout = SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.remove(socketChannel);
+        if (null != timeout) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 握手没有完成的连接直接关闭，不进行关闭握手
+     */
+    private void closeHandshakingConnection(SocketChannel socketChannel, MainSslManager sslManager) {
+        cancelHandshakeTimeout(socketChannel);
+        try {
+            socketChannel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        sslManager.release();
     }
 
     private void handleOpWrite(SelectionKey selectionKey) {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
         MainSslManager sslManager = (MainSslManager) selectionKey.attachment();
-        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.getOrDefault(socketChannel, new ConcurrentLinkedQueue<>());
-        String msg;
-        while ((msg = msgQueue.peek()) != null) {
-            if (doSend(socketChannel, sslManager, msg)) {
-                msgQueue.poll();
-            } else {
+        if (sslManager == null) {
+            return;
+        }
+        flush(socketChannel, sslManager);
+    }
+
+    /**
+     * 批量加密发送队列中的消息，只在Selector线程中调用
+     * PENDING表示Socket发送缓冲区已满，已取出的消息由SslManager保留，剩余的消息留在队列中，等待下一次 OP_WRITE
+     */
+    private void flush(SocketChannel socketChannel, MainSslManager sslManager) {
+        // 服务停止时缓冲区已归还
+        if (!running) {
+            return;
+        }
+        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.computeIfAbsent(socketChannel, k -> new ConcurrentLinkedQueue<>());
+        MainSslManager.WriteResult writeResult = sslManager.write(socketChannel, msgQueue,
+                msg -> System.out.printf(SSL_SERVER_LOG + "[Send Msg Succeed] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg));
+        switch (writeResult) {
+            case CLOSED:
+            case ERROR:
+                handleDisconnect(socketChannel, sslManager);
+                break;
+            default:
                 break;
-            }
         }
     }
 
@@ -321,8 +460,7 @@ public class MainSslServer {
 
     private void handlePeerAppBuffer(SocketChannel socketChannel, MainSslManager sslManager, StringBuilder dataBuilder) {
         sslManager.peerAppBuffer.flip();
-        String msgNewPart = MsgEnDecoder.decodeMsg(sslManager.peerAppBuffer);
-        dataBuilder.append(msgNewPart);
+        sslManager.msgDecoder.decode(sslManager.peerAppBuffer, dataBuilder);
         // 粘包拆包处理，得到消息列表
         List<String> msgList = handleClientData(dataBuilder);
         // 处理消息
@@ -474,9 +612,10 @@ public class MainSslServer {
 
     private void closeConnection(SocketChannel socketChannel, MainSslManager sslManager) {
         try {
-            boolean sslClosed = sslManager.closeHandshake(socketChannel, sslManager.sslEngine);
+            // 只尽力发送close_notify，不等待对端的close_notify，不会阻塞Selector线程
+            boolean sslClosed = null != sslManager && SslHandler.sendCloseNotify(socketChannel, sslManager.sslEngine);
             if (sslClosed) {
-                System.out.println(SSL_SERVER_LOG + "[CloseHandshake Succeed] [SocketChannelAddr: " + socketChannel.getRemoteAddress() + "]");
+                System.out.println(SSL_SERVER_LOG + "[CloseNotify Sent] [SocketChannelAddr: " + socketChannel.getRemoteAddress() + "]");
             }
             socketChannel.close();
         } catch (Exception e) {
@@ -485,11 +624,17 @@ public class MainSslServer {
     }
 
     private void clearData(SocketChannel socketChannel, String clientId) {
-        CLIENT_ID_SOCKET_CHANNEL_MAP.remove(clientId);
+        // 未认证的连接没有clientId
+        if (null != clientId) {
+            CLIENT_ID_SOCKET_CHANNEL_MAP.remove(clientId);
+        }
         SOCKET_CHANNEL_CLIENT_ID_MAP.remove(socketChannel);
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.remove(socketChannel);
         SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.remove(socketChannel);
-        SOCKET_CHANNEL_SSL_MANAGER_MAP.remove(socketChannel);
+        MainSslManager sslManager = SOCKET_CHANNEL_SSL_MANAGER_MAP.remove(socketChannel);
+        if (null != sslManager) {
+            sslManager.release();
+        }
     }
 
     public void closeClient(String clientId) {
@@ -504,9 +649,19 @@ public class MainSslServer {
     }
 
     public void closeAllClient() {
+        for (SocketChannel socketChannel : SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.keySet()) {
+            SelectionKey selectionKey = null == selector ? null : socketChannel.keyFor(selector);
+            if (null != selectionKey && selectionKey.attachment() instanceof MainSslManager) {
+                closeHandshakingConnection(socketChannel, (MainSslManager) selectionKey.attachment());
+            }
+        }
+        SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.clear();
+        HANDSHAKE_TASK_DONE_QUEUE.clear();
         for (Map.Entry<SocketChannel, MainSslManager> socketChannelSSLEngineEntry : SOCKET_CHANNEL_SSL_MANAGER_MAP.entrySet()) {
             closeConnection(socketChannelSSLEngineEntry.getKey(), socketChannelSSLEngineEntry.getValue());
+            socketChannelSSLEngineEntry.getValue().release();
         }
+        SOCKET_CHANNEL_SSL_MANAGER_MAP.clear();
         SOCKET_CHANNEL_CLIENT_ID_MAP.clear();
         CLIENT_ID_SOCKET_CHANNEL_MAP.clear();
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.clear();
@@ -526,44 +681,23 @@ public class MainSslServer {
         return send(socketChannel, SOCKET_CHANNEL_SSL_MANAGER_MAP.get(socketChannel), msg);
     }
 
+    /**
+     * 消息放入连接的待发送队列，可在任意线程调用；在Selector线程中调用时立即尝试写出，否则由Selector线程在 OP_WRITE 时写出
+     */
     private boolean send(SocketChannel socketChannel, MainSslManager sslManager, String msg) {
-        if (doSend(socketChannel, sslManager, msg)) {
-            return true;
-        }
-        if (!SOCKET_CHANNEL_CLIENT_ID_MAP.containsKey(socketChannel)) {
+        if (null == sslManager || !socketChannel.isOpen()) {
             System.out.println(SSL_SERVER_LOG + "[Send Msg Failed] [InvalidSocketChannel] [Msg: " + msg + "]");
             return false;
         }
-        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.getOrDefault(socketChannel, new ConcurrentLinkedQueue<>());
-        msgQueue.offer(msg);
-        SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.put(socketChannel, msgQueue);
-        System.out.printf(SSL_SERVER_LOG + "[Send Msg Queued] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg);
-        return true;
-    }
-
-    private boolean doSend(SocketChannel socketChannel, MainSslManager sslManager, String msg) {
-        if (write(socketChannel, sslManager, msg)) {
-            System.out.printf(SSL_SERVER_LOG + "[Send Msg Succeed] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean write(SocketChannel socketChannel, MainSslManager sslManager, String msg) {
-        if (sslManager == null) {
-            return false;
-        }
-        MainSslManager.WriteResult writeResult = sslManager.write(socketChannel, msg);
-        switch (writeResult) {
-            case DONE:
-                return true;
-            case ERROR:
-                return false;
-            case CLOSED:
-                handleDisconnect(socketChannel, sslManager);
-                return false;
-            default:
-                return false;
+        SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.computeIfAbsent(socketChannel, k -> new ConcurrentLinkedQueue<>()).offer(msg);
+        if (Thread.currentThread() == selectorThread) {
+            flush(socketChannel, sslManager);
+        } else {
+            Selector currentSelector = selector;
+            if (null != currentSelector) {
+                currentSelector.wakeup();
+            }
         }
+        return true;
     }
 }
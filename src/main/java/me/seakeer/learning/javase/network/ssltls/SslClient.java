@@ -1,6 +1,7 @@
 package me.seakeer.learning.javase.network.ssltls;
 
 import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
 import me.seakeer.learning.javase.network.tcp.TcpServer;
 
 import javax.net.ssl.SSLContext;
@@ -435,8 +436,8 @@ public class SslClient {
         if (sslEngine == null) {
             return false;
         }
+        ByteBuffer appOutBuffer = MsgEnDecoder.encodeMsg(msg + SslServer.DELIMITER);
         try {
-            ByteBuffer appOutBuffer = MsgEnDecoder.encodeMsg(msg + SslServer.DELIMITER);
             // 通过SSLEngine加密数据
             ByteBuffer netOutBuffer = sslWrapBuffer(sslEngine, appOutBuffer);
             if (null == netOutBuffer) {
@@ -453,6 +454,8 @@ public class SslClient {
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            ByteBufferPool.DEFAULT.release(appOutBuffer);
         }
     }
 
@@ -5,13 +5,11 @@ import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * SslHandler;
+ * openHandshake 和 closeHandshake 是循环直到完成或超时（HANDSHAKE_TIMEOUT）的阻塞握手，只用于客户端等独占线程的场景；
+ * 服务端的Selector线程使用 {@link MainSslManager} 的非阻塞握手（beginHandshake + advanceHandshake），关闭时只调用 sendCloseNotify
  *
  * @author Seakeer;
  * @date 2025/6/3;
@@ -46,13 +44,6 @@ public class SslHandler {
         ERROR;
     }
 
-    // 握手过程NEED_TASK的任务执行线程池
-    protected ExecutorService executor = new ThreadPoolExecutor(2, 8,
-            60, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(24),
-            new ThreadPoolExecutor.CallerRunsPolicy()
-    );
-
     // 缓冲区复用，避免频繁创建
     protected ByteBuffer myAppBuffer;
     protected ByteBuffer myNetBuffer;
@@ -125,6 +116,31 @@ public class SslHandler {
         }
     }
 
+    /**
+     * 关闭出站并尽力发送一次close_notify，不等待对端的close_notify，不会阻塞（非阻塞通道）
+     * 发送close_notify后直接关闭连接是允许的，发起关闭的一方不需要等待对端响应
+     *
+     * @param socketChannel
+     * @param engine
+     * @return true表示close_notify已全部写出
+     */
+    public static boolean sendCloseNotify(SocketChannel socketChannel, SSLEngine engine) {
+        try {
+            engine.closeOutbound();
+            ByteBuffer myNetBuffer = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            SSLEngineResult result = engine.wrap(ByteBuffer.allocate(0), myNetBuffer);
+            if (result.getStatus() != SSLEngineResult.Status.CLOSED) {
+                return false;
+            }
+            myNetBuffer.flip();
+            socketChannel.write(myNetBuffer);
+            return !myNetBuffer.hasRemaining();
+        } catch (Exception e) {
+            System.out.println(SSL_HANDSHAKE_LOG + "[Send CloseNotify Failed] [Error: " + e.getMessage() + "]");
+            return false;
+        }
+    }
+
     private void handshaking(SocketChannel socketChannel, SSLEngine engine) {
 
         // 记录开始时间，用于超时判定
@@ -156,10 +172,10 @@ public class SslHandler {
 
     private HandshakingResult doHandshake(SocketChannel socketChannel, SSLEngine engine, long startTimeMillis) {
         try {
-            // 超时则中断握手
-//            if (System.currentTimeMillis() - startTimeMillis > HANDSHAKE_TIMEOUT) {
-//                return HandshakingResult.TIMEOUT;
-//            }
+            // 超时则中断握手，对端不响应时不会一直循环
+            if (System.currentTimeMillis() - startTimeMillis > HANDSHAKE_TIMEOUT) {
+                return HandshakingResult.TIMEOUT;
+            }
 
             HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
             switch (handshakeStatus) {
@@ -344,9 +360,10 @@ public class SslHandler {
     }
 
     private HandshakingResult handleNeedTask(SSLEngine engine) {
+        // 阻塞握手在当前线程执行委托任务，提交到线程池后立即返回会在 NEED_TASK 状态空转
         Runnable task;
         while ((task = engine.getDelegatedTask()) != null) {
-            executor.execute(task);
+            task.run();
         }
         return HandshakingResult.DOING;
     }
@@ -0,0 +1,114 @@
+package me.seakeer.learning.javase.network.ssltls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SslHandshakeBenchmark;
+ * 本地启动 MainSslServer，多个线程反复建立连接、握手、断开，对比两种方式的握手吞吐量
+ * 1. Full：createSSLEngine() 不指定对端，客户端无法查找缓存的会话，每次都是完整握手
+ * 2. Resumed：复用同一个SSLContext，createSSLEngine(host, port) 创建SSLEngine，第一次之后恢复会话
+ * 两种方式共用同一个客户端SSLContext，耗时不包含加载密钥库，包含建立连接和关闭握手；
+ * 服务端在Selector线程中以非阻塞方式握手，委托任务在共享线程池中并行执行
+ * 参数：[握手次数] [并发数]
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class SslHandshakeBenchmark {
+
+    public static final String SSL_HANDSHAKE_BENCHMARK_LOG = "[SslHandshakeBenchmark] ";
+
+    private static final String HOST = "127.0.0.1";
+
+    private static final int PORT = 9091;
+
+    private static final int WARMUP_HANDSHAKES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int handshakes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        MainSslServer sslServer = new MainSslServer(PORT);
+        new Thread(sslServer::start, "MainSslServer").start();
+        Thread.sleep(1000);
+
+        SSLContext sslContext = MainSslManager.crtSslContext("Client.jks", "seakeer", "SeakeerCaCert.jks", "seakeer");
+        run(sslContext, WARMUP_HANDSHAKES, concurrency, false);
+        run(sslContext, WARMUP_HANDSHAKES, concurrency, true);
+
+        long[] full = run(sslContext, handshakes, concurrency, false);
+        long[] resumed = run(sslContext, handshakes, concurrency, true);
+        print("Full", handshakes, concurrency, full);
+        print("Resumed", handshakes, concurrency, resumed);
+        System.out.printf(SSL_HANDSHAKE_BENCHMARK_LOG + "[Speedup: %.2fx] [DelegatedTasks: %d]\n",
+                (double) full[0] / resumed[0], MainSslManager.getDelegatedTaskCount());
+        sslServer.stop();
+        System.exit(0);
+    }
+
+    private static void print(String mode, int handshakes, int concurrency, long[] result) {
+        System.out.printf(SSL_HANDSHAKE_BENCHMARK_LOG + "[%s] [Handshakes: %d] [Concurrency: %d] [Succeed: %d] [Resumed: %d] " +
+                        "[Throughput: %.1f/s] [Avg: %.2f ms]\n",
+                mode, handshakes, concurrency, result[1], result[2],
+                handshakes * 1e9 / result[0], result[0] / 1e6 * concurrency / handshakes);
+    }
+
+    /**
+     * @return [总耗时纳秒, 成功次数, 恢复会话次数]
+     */
+    private static long[] run(SSLContext sslContext, int handshakes, int concurrency, boolean resume) throws Exception {
+        AtomicInteger remaining = new AtomicInteger(handshakes);
+        AtomicInteger succeed = new AtomicInteger();
+        AtomicInteger resumed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Callable<Void>> taskList = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            taskList.add(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    handshake(sslContext, resume, succeed, resumed);
+                }
+                return null;
+            });
+        }
+        long startNanos = System.nanoTime();
+        for (Future<Void> future : executor.invokeAll(taskList)) {
+            future.get();
+        }
+        long costNanos = System.nanoTime() - startNanos;
+        executor.shutdown();
+        return new long[]{costNanos, succeed.get(), resumed.get()};
+    }
+
+    private static void handshake(SSLContext sslContext, boolean resume, AtomicInteger succeed, AtomicInteger resumed) {
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(HOST, PORT))) {
+            socketChannel.configureBlocking(false);
+            SSLEngine sslEngine = resume ? sslContext.createSSLEngine(HOST, PORT) : sslContext.createSSLEngine();
+            sslEngine.setUseClientMode(true);
+            MainSslManager sslManager = new MainSslManager(sslEngine);
+            try {
+                if (sslManager.openHandshake(socketChannel)) {
+                    succeed.incrementAndGet();
+                    if (sslManager.isSessionResumed()) {
+                        resumed.incrementAndGet();
+                    }
+                    // 正常关闭，发送 close_notify，会话保持可恢复
+                    sslManager.closeHandshake(socketChannel, sslEngine);
+                }
+            } finally {
+                sslManager.release();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
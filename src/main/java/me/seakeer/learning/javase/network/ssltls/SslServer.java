@@ -1,6 +1,9 @@
 package me.seakeer.learning.javase.network.ssltls;
 
 import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+import me.seakeer.learning.javase.network.timer.HashedTimerWheel;
+import me.seakeer.learning.javase.network.timer.IdleStateTracker;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -30,6 +33,16 @@ public class SslServer {
     public static final String SSL_SERVER_LOG = "[SslServer] ";
     public static final String CMD_LIST = "[START, RESTART, STOP, SHUTDOWN, TO $CLIENT_ID $MSG, CLOSE $CLIENT_ID]";
 
+    /**
+     * 默认超过该时间没有向客户端写出数据时发送PING
+     */
+    public static final long DEFAULT_PING_INTERVAL_MILLIS = 30_000;
+
+    /**
+     * 默认超过该时间没有收到客户端数据时关闭连接，即连续3次PING没有响应
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000;
+
     private final int port;
 
     private volatile ServerSocketChannel serverSocketChannel;
@@ -40,6 +53,38 @@ public class SslServer {
 
     private volatile boolean running = false;
 
+    /**
+     * 写空闲时发送PING的间隔，0表示不发送，在启动前设置
+     */
+    private volatile long pingIntervalMillis = DEFAULT_PING_INTERVAL_MILLIS;
+
+    /**
+     * 读空闲超时时间，超时关闭连接，0表示不关闭，在启动前设置
+     */
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    /**
+     * 连接的空闲检测，在Selector线程中推进
+     */
+    private volatile IdleStateTracker<SocketChannel> idleStateTracker;
+
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * 握手超时检测，在Selector线程中推进，刻度与空闲检测相同
+     */
+    private volatile HashedTimerWheel timerWheel;
+
+    /**
+     * 正在握手的连接的握手超时任务
+     */
+    private final Map<SocketChannel, HashedTimerWheel.Timeout> SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 委托任务已完成、等待Selector线程继续握手的连接
+     */
+    private final Queue<SelectionKey> HANDSHAKE_TASK_DONE_QUEUE = new ConcurrentLinkedQueue<>();
+
     private final Map<SocketChannel, String> SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, SocketChannel> CLIENT_ID_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
     private final Map<SocketChannel, SSLEngine> SOCKET_CHANNEL_SSL_ENGINE_MAP = new ConcurrentHashMap<>();
@@ -49,11 +94,22 @@ public class SslServer {
      */
     private final Map<SocketChannel, ConcurrentLinkedQueue<String>> SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP = new ConcurrentHashMap<>();
     private final Map<SocketChannel, StringBuilder> SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP = new ConcurrentHashMap<>();
+    private final Map<SocketChannel, IdleStateTracker.Handle<SocketChannel>> SOCKET_CHANNEL_IDLE_HANDLE_MAP = new ConcurrentHashMap<>();
 
     public SslServer(int port) {
         this.port = port;
     }
 
+    public SslServer setPingIntervalMillis(long pingIntervalMillis) {
+        this.pingIntervalMillis = pingIntervalMillis;
+        return this;
+    }
+
+    public SslServer setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
     public static void main(String[] args) {
         SslServer tcpServer = new SslServer(9090);
         cmd(tcpServer);
@@ -158,6 +214,8 @@ public class SslServer {
             serverSocket.bind(new InetSocketAddress(port));
             selector = Selector.open();
             serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+            idleStateTracker = new IdleStateTracker<>(idleTimeoutMillis, pingIntervalMillis, this::handleIdle);
+            timerWheel = new HashedTimerWheel(idleStateTracker.getTickMillis(), TIMER_WHEEL_SIZE);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -170,7 +228,12 @@ public class SslServer {
         System.out.println(SSL_SERVER_LOG + "[Running]");
         while (running) {
             try {
-                int keysNum = selector.select(1000);
+                // 最多等待一个刻度，保证空闲检测按时推进
+                int keysNum = selector.select(idleStateTracker.getTickMillis());
+                long nowMillis = System.currentTimeMillis();
+                idleStateTracker.advance(nowMillis);
+                timerWheel.advance(nowMillis);
+                handleHandshakeTaskDone();
                 if (keysNum <= 0) {
                     continue;
                 }
@@ -185,6 +248,12 @@ public class SslServer {
                     }
                     if (selectionKey.isAcceptable()) {
                         handleOpAccept();
+                        continue;
+                    }
+                    // 握手中的连接，可读或可写都继续推进握手
+                    if (isHandshaking(selectionKey)) {
+                        handleHandshake(selectionKey);
+                        continue;
                     }
                     if (selectionKey.isReadable()) {
                         handleOpRead(selectionKey);
@@ -208,19 +277,114 @@ public class SslServer {
             // 创建 SSLEngine
             SSLEngine sslEngine = sslContext.createSSLEngine();
             sslEngine.setUseClientMode(false);
+            // 握手期间附件为MainSslManager，由事件驱动的非阻塞握手推进，握手完成后附件换为SSLEngine
+            MainSslManager sslManager = new MainSslManager(sslEngine);
+            SelectionKey selectionKey = socketChannel.register(selector, 0, sslManager);
+            SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.put(socketChannel,
+                    timerWheel.schedule(MainSslManager.HANDSHAKE_TIMEOUT_MS, () -> handleHandshakeTimeout(selectionKey)));
             // 开始 SSL/TLS 握手
-            if (new SslHandler().openHandshake(socketChannel, sslEngine)) {
-                System.out.println(SSL_SERVER_LOG + "[Handshake Succeed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
-                // 注册客户端通道
-                socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, sslEngine);
-                SOCKET_CHANNEL_SSL_ENGINE_MAP.put(socketChannel, sslEngine);
-            } else {
-                System.out.println(SSL_SERVER_LOG + "[Handshake Failed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
-                socketChannel.close();
+            sslManager.beginHandshake();
+            handleHandshake(selectionKey);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isHandshaking(SelectionKey selectionKey) {
+        Object attachment = selectionKey.attachment();
+        return attachment instanceof MainSslManager && ((MainSslManager) attachment).isHandshaking();
+    }
+
+    /**
+     * 推进握手，根据结果设置关注的事件，不会阻塞Selector线程
+     */
+    private void handleHandshake(SelectionKey selectionKey) {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        MainSslManager sslManager = (MainSslManager) selectionKey.attachment();
+        MainSslManager.HandshakingResult result = sslManager.advanceHandshake(socketChannel, () -> {
+            // 在委托任务线程中回调，交回Selector线程继续握手
+            HANDSHAKE_TASK_DONE_QUEUE.offer(selectionKey);
+            selectionKey.selector().wakeup();
+        });
+        try {
+            switch (result) {
+                case WAIT_READ:
+                    selectionKey.interestOps(SelectionKey.OP_READ);
+                    break;
+                case WAIT_WRITE:
+                    selectionKey.interestOps(SelectionKey.OP_WRITE);
+                    break;
+                case WAIT_TASK:
+                    selectionKey.interestOps(0);
+                    break;
+                case DONE:
+                    cancelHandshakeTimeout(socketChannel);
+                    System.out.println(SSL_SERVER_LOG + "[Handshake Succeed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
+                    SSLEngine sslEngine = sslManager.sslEngine;
+                    selectionKey.attach(sslEngine);
+                    selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    SOCKET_CHANNEL_SSL_ENGINE_MAP.put(socketChannel, sslEngine);
+                    SOCKET_CHANNEL_IDLE_HANDLE_MAP.put(socketChannel, idleStateTracker.register(socketChannel));
+                    // 客户端可能紧跟着握手发送了应用数据，已读到peerNetBuffer中
+                    if (sslManager.peerNetBuffer.position() > 0) {
+                        StringBuilder dataBuilder = new StringBuilder();
+                        handlePeerNetBuffer(socketChannel, sslEngine, sslManager.peerNetBuffer, sslManager.peerAppBuffer, dataBuilder);
+                        if (dataBuilder.length() > 0) {
+                            SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.put(socketChannel, dataBuilder);
+                        }
+                    }
+                    sslManager.release();
+                    break;
+                default:
+                    System.out.println(SSL_SERVER_LOG + "[Handshake Failed] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
+                    closeHandshakingConnection(socketChannel, sslManager);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            closeHandshakingConnection(socketChannel, sslManager);
+        }
+    }
+
+    private void handleHandshakeTaskDone() {
+        SelectionKey selectionKey;
+        while ((selectionKey = HANDSHAKE_TASK_DONE_QUEUE.poll()) != null) {
+            if (selectionKey.isValid() && isHandshaking(selectionKey)) {
+                handleHandshake(selectionKey);
             }
+        }
+    }
+
+    /**
+     * 时间轮到期回调，在Selector线程中执行
+     */
+    private void handleHandshakeTimeout(SelectionKey selectionKey) {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.remove(socketChannel);
+        if (!isHandshaking(selectionKey)) {
+            return;
+        }
+        System.out.println(SSL_SERVER_LOG + "[Handshake Timeout] " + "[ClientAddr: " + socketChannel.socket().getRemoteSocketAddress() + "]");
+        closeHandshakingConnection(socketChannel, (MainSslManager) selectionKey.attachment());
+    }
+
+    private void cancelHandshakeTimeout(SocketChannel socketChannel) {
+        HashedTimerWheel.Timeout timeout = SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.remove(socketChannel);
+        if (null != timeout) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 握手没有完成的连接直接关闭，不进行关闭握手
+     */
+    private void closeHandshakingConnection(SocketChannel socketChannel, MainSslManager sslManager) {
+        cancelHandshakeTimeout(socketChannel);
+        try {
+            socketChannel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        sslManager.release();
     }
 
     private void handleOpWrite(SelectionKey selectionKey) {
@@ -284,12 +448,17 @@ public class SslServer {
 
 
     private void handleOpRead(SelectionKey selectionKey) {
+        // 从ByteBufferPool申请的缓冲区，处理完成后归还；处理过程中扩容产生的新缓冲区为堆缓冲区，由GC回收
+        ByteBuffer pooledPeerNetBuffer = null;
+        ByteBuffer pooledPeerAppBuffer = null;
         try {
             SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
             SSLEngine sslEngine = (SSLEngine) selectionKey.attachment();
             // 可改为给每个客户端分配缓冲区来处理数据
-            ByteBuffer peerNetBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
-            ByteBuffer peerAppBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+            pooledPeerNetBuffer = ByteBufferPool.DEFAULT.acquire(sslEngine.getSession().getPacketBufferSize());
+            pooledPeerAppBuffer = ByteBufferPool.DEFAULT.acquire(sslEngine.getSession().getApplicationBufferSize());
+            ByteBuffer peerNetBuffer = pooledPeerNetBuffer;
+            ByteBuffer peerAppBuffer = pooledPeerAppBuffer;
             // ByteBuffer peerNetBuffer = ByteBuffer.allocate(8);
             // ByteBuffer peerAppBuffer = ByteBuffer.allocate(8);
 
@@ -298,8 +467,12 @@ public class SslServer {
             StringBuilder dataBuilder = SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.getOrDefault(socketChannel, new StringBuilder());
 
             // 循环读取数据到peerNetBuffer
+            IdleStateTracker.Handle<SocketChannel> idleHandle = SOCKET_CHANNEL_IDLE_HANDLE_MAP.get(socketChannel);
             int bytesRead;
             while ((bytesRead = socketChannel.read(peerNetBuffer)) > 0) {
+                if (null != idleHandle) {
+                    idleHandle.touchRead();
+                }
                 // 处理读取到到的peerNetBuffer：解密、粘包拆包处理、处理业务逻辑等
                 peerNetBuffer = handlePeerNetBuffer(socketChannel, sslEngine, peerNetBuffer, peerAppBuffer, dataBuilder);
                 // 返回结果为null表示处理有问题则中断读取：连接关闭、处理异常等。
@@ -325,6 +498,9 @@ public class SslServer {
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            ByteBufferPool.DEFAULT.release(pooledPeerNetBuffer);
+            ByteBufferPool.DEFAULT.release(pooledPeerAppBuffer);
         }
     }
 
@@ -407,6 +583,40 @@ public class SslServer {
         }
     }
 
+    /**
+     * 处理空闲连接，在Selector线程中调用
+     * 1. 写空闲：发送PING，客户端响应PONG后连接不再读空闲
+     * 2. 读空闲：客户端已失效或为半开连接，不进行关闭握手，直接关闭连接
+     *
+     * @param handle
+     * @param idleState
+     */
+    private void handleIdle(IdleStateTracker.Handle<SocketChannel> handle, IdleStateTracker.IdleState idleState) {
+        SocketChannel socketChannel = handle.getConnection();
+        if (!socketChannel.isOpen()) {
+            handle.cancel();
+            return;
+        }
+        String clientId = SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel);
+        switch (idleState) {
+            case WRITER_IDLE:
+                ping(socketChannel);
+                break;
+            case READER_IDLE:
+                System.out.printf(SSL_SERVER_LOG + "[Idle Timeout] [ClientId: %s] [IdleMillis: %d]\n",
+                        clientId, System.currentTimeMillis() - handle.getLastReadMillis());
+                try {
+                    socketChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                clearData(socketChannel, clientId);
+                break;
+            default:
+                break;
+        }
+    }
+
     private void handleClientMsgList(SocketChannel socketChannel, List<String> msgList) {
         if (null == msgList || msgList.isEmpty()) {
             return;
@@ -552,9 +762,10 @@ public class SslServer {
 
     private void closeConnection(SocketChannel socketChannel, SSLEngine sslEngine) {
         try {
-            boolean sslClosed = new SslHandler().closeHandshake(socketChannel, sslEngine);
+            // 只尽力发送close_notify，不等待对端的close_notify，不会阻塞Selector线程
+            boolean sslClosed = SslHandler.sendCloseNotify(socketChannel, sslEngine);
             if (sslClosed) {
-                System.out.println(SSL_SERVER_LOG + "[CloseHandshake Succeed] [SocketChannelAddr: " + socketChannel.getRemoteAddress() + "]");
+                System.out.println(SSL_SERVER_LOG + "[CloseNotify Sent] [SocketChannelAddr: " + socketChannel.getRemoteAddress() + "]");
             }
             socketChannel.close();
         } catch (Exception e) {
@@ -563,11 +774,17 @@ public class SslServer {
     }
 
     private void clearData(SocketChannel socketChannel, String clientId) {
-        CLIENT_ID_SOCKET_CHANNEL_MAP.remove(clientId);
+        if (null != clientId) {
+            CLIENT_ID_SOCKET_CHANNEL_MAP.remove(clientId);
+        }
         SOCKET_CHANNEL_CLIENT_ID_MAP.remove(socketChannel);
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.remove(socketChannel);
         SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.remove(socketChannel);
         SOCKET_CHANNEL_SSL_ENGINE_MAP.remove(socketChannel);
+        IdleStateTracker.Handle<SocketChannel> idleHandle = SOCKET_CHANNEL_IDLE_HANDLE_MAP.remove(socketChannel);
+        if (null != idleHandle) {
+            idleHandle.cancel();
+        }
     }
 
     public void closeClient(String clientId) {
@@ -582,6 +799,14 @@ public class SslServer {
     }
 
     public void closeAllClient() {
+        for (SocketChannel socketChannel : SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.keySet()) {
+            SelectionKey selectionKey = null == selector ? null : socketChannel.keyFor(selector);
+            if (null != selectionKey && selectionKey.attachment() instanceof MainSslManager) {
+                closeHandshakingConnection(socketChannel, (MainSslManager) selectionKey.attachment());
+            }
+        }
+        SOCKET_CHANNEL_HANDSHAKE_TIMEOUT_MAP.clear();
+        HANDSHAKE_TASK_DONE_QUEUE.clear();
         for (Map.Entry<SocketChannel, SSLEngine> socketChannelSSLEngineEntry : SOCKET_CHANNEL_SSL_ENGINE_MAP.entrySet()) {
             closeConnection(socketChannelSSLEngineEntry.getKey(), socketChannelSSLEngineEntry.getValue());
         }
@@ -589,6 +814,8 @@ public class SslServer {
         CLIENT_ID_SOCKET_CHANNEL_MAP.clear();
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.clear();
         SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.clear();
+        SOCKET_CHANNEL_IDLE_HANDLE_MAP.values().forEach(IdleStateTracker.Handle::cancel);
+        SOCKET_CHANNEL_IDLE_HANDLE_MAP.clear();
     }
 
     public boolean send(String clientId, String msg) {
@@ -631,9 +858,11 @@ public class SslServer {
         if (sslEngine == null) {
             return false;
         }
+        // 从ByteBufferPool申请的缓冲区，发送完成后归还；加密过程中扩容产生的新缓冲区为堆缓冲区，由GC回收
+        ByteBuffer myAppBuffer = MsgEnDecoder.encodeMsg(msg + DELIMITER);
+        ByteBuffer pooledMyNetBuffer = ByteBufferPool.DEFAULT.acquire(sslEngine.getSession().getPacketBufferSize());
         try {
-            ByteBuffer myAppBuffer = MsgEnDecoder.encodeMsg(msg + DELIMITER);
-            ByteBuffer myNetBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            ByteBuffer myNetBuffer = pooledMyNetBuffer;
             // ByteBuffer myNetBuffer = ByteBuffer.allocate(8);
 
             // WRAP通常一次处理16KB的数据，通过循环处理，直到myAppBuffer没有剩余数据
@@ -649,10 +878,17 @@ public class SslServer {
                     socketChannel.write(myNetBuffer);
                 }
             }
+            IdleStateTracker.Handle<SocketChannel> idleHandle = SOCKET_CHANNEL_IDLE_HANDLE_MAP.get(socketChannel);
+            if (null != idleHandle) {
+                idleHandle.touchWrite();
+            }
             return true;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            ByteBufferPool.DEFAULT.release(myAppBuffer);
+            ByteBufferPool.DEFAULT.release(pooledMyNetBuffer);
         }
     }
 
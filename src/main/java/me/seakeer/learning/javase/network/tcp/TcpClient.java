@@ -1,6 +1,9 @@
 package me.seakeer.learning.javase.network.tcp;
 
-import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+import me.seakeer.learning.javase.network.codec.DelimiterFrameCodec;
+import me.seakeer.learning.javase.network.codec.FrameCodec;
+import me.seakeer.learning.javase.network.codec.LengthFieldFrameCodec;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -32,6 +35,11 @@ public class TcpClient {
 
     private final int serverPort;
 
+    /**
+     * 帧编解码器，用于处理粘包拆包，需与服务端保持一致
+     */
+    private final FrameCodec frameCodec;
+
     private volatile SocketChannel socketChannel;
 
     private volatile Selector selector;
@@ -70,15 +78,27 @@ public class TcpClient {
     private volatile ScheduledExecutorService keepAliveThreadPool;
 
     /**
-     * 主要用于存储因粘包拆包导致的不完整的消息
+     * 接收缓冲区，主要用于存储因粘包拆包导致的不完整的帧
      */
-    public static final StringBuilder DATA_BUILDER = new StringBuilder();
+    private ByteBuffer receivingBuffer;
 
     private static final ConcurrentLinkedQueue<String> SENDING_MSG_QUEUE = new ConcurrentLinkedQueue<>();
 
+    /**
+     * 已编码但还没有发送完的帧，发送缓冲区已满时保留剩余部分，可写时继续发送，发送完才归还；只在 flush 中访问
+     */
+    private ByteBuffer sendingBuffer;
+
+    private String sendingMsg;
+
     public TcpClient(String serverHostname, int serverPort) {
+        this(serverHostname, serverPort, LengthFieldFrameCodec.varint());
+    }
+
+    public TcpClient(String serverHostname, int serverPort, FrameCodec frameCodec) {
         this.serverHostname = serverHostname;
         this.serverPort = serverPort;
+        this.frameCodec = frameCodec;
     }
 
     public static void main(String[] args) {
@@ -114,7 +134,7 @@ public class TcpClient {
                         tcpClient.stop();
                         return;
                     default:
-                        if (cmd.contains(TcpServer.DELIMITER)) {
+                        if (tcpClient.frameCodec instanceof DelimiterFrameCodec && cmd.contains(TcpServer.DELIMITER)) {
                             System.out.println(TCP_CLIENT_LOG + "[ContainsDelimiter]");
                         }
                         tcpClient.send(cmd);
@@ -131,6 +151,9 @@ public class TcpClient {
             socketChannel.configureBlocking(false);
             boolean connected = socketChannel.connect(new InetSocketAddress(serverHostname, serverPort));
             Selector selector = Selector.open();
+            // 新连接不能沿用旧连接中不完整的帧
+            ByteBufferPool.DEFAULT.release(receivingBuffer);
+            receivingBuffer = ByteBufferPool.DEFAULT.acquire(TcpServer.RECEIVING_BUFFER_INIT_SIZE);
             if (connected) {
                 System.out.printf(TCP_CLIENT_LOG + "[Connected] [Server: %s:%d]\n", serverHostname, serverPort);
                 socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
@@ -165,6 +188,7 @@ public class TcpClient {
             status = -1;
             keepAliveThreadPool.shutdownNow();
             SENDING_MSG_QUEUE.clear();
+            discardSendingBuffer();
             if (null != selector) {
                 selector.close();
                 selector = null;
@@ -173,6 +197,8 @@ public class TcpClient {
                 socketChannel.close();
                 socketChannel = null;
             }
+            ByteBufferPool.DEFAULT.release(receivingBuffer);
+            receivingBuffer = null;
             System.out.println(TCP_CLIENT_LOG + "[Stopped]");
         } catch (Exception e) {
             e.printStackTrace();
@@ -256,32 +282,33 @@ public class TcpClient {
     }
 
     private void handleOpWrite() {
-        String msg;
-        while ((msg = SENDING_MSG_QUEUE.peek()) != null) {
-            if (write(msg)) {
-                SENDING_MSG_QUEUE.poll();
-            } else {
-                break;
-            }
-        }
+        flush();
     }
 
     private void handleOpRead() {
         try {
-            ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
             int bytesRead;
-            while ((bytesRead = socketChannel.read(buffer)) > 0) {
-                buffer.flip();
-                String msgNewPart = MsgEnDecoder.decodeMsg(buffer);
-                DATA_BUILDER.append(msgNewPart);
-                // 粘包拆包处理，得到消息列表
-                List<String> msgList = handleServerData(DATA_BUILDER);
+            while ((bytesRead = socketChannel.read(receivingBuffer)) > 0) {
+                receivingBuffer.flip();
+                // 粘包拆包处理，直接从缓冲区中解码出完整的帧
+                List<String> msgList = new ArrayList<>();
+                frameCodec.decode(receivingBuffer, msgList);
+                // 不完整的帧移动到缓冲区头部，等待后续数据
+                receivingBuffer.compact();
                 handleServerMsgList(msgList);
+                // 缓冲区已满说明当前帧大于缓冲区，需扩容，帧的最大长度由FrameCodec限制
+                if (!receivingBuffer.hasRemaining()) {
+                    receivingBuffer = ByteBufferPool.DEFAULT.enlarge(receivingBuffer, receivingBuffer.capacity() * 2);
+                }
             }
             if (bytesRead == -1) {
                 System.out.println(TCP_CLIENT_LOG + "[Disconnected] [Will Try Reconnect]");
                 reconnect();
             }
+        } catch (FrameCodec.FrameException e) {
+            // 帧已错乱，无法继续解码，重新建立连接
+            System.out.println(TCP_CLIENT_LOG + "[Invalid Frame] [Will Try Reconnect] [Reason: " + e.getMessage() + "]");
+            reconnect();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -326,43 +353,57 @@ public class TcpClient {
         System.out.printf(TCP_CLIENT_LOG + "[Received Msg] [From: %s] [Msg: %s]\n", fromMsgArr[1], fromMsgArr[2]);
     }
 
-    private List<String> handleServerData(StringBuilder dataBuilder) {
-        List<String> msgList = new ArrayList<>();
-        int delimiterIndex;
-        while ((delimiterIndex = dataBuilder.indexOf(TcpServer.DELIMITER)) != -1) {
-            String msg = dataBuilder.substring(0, delimiterIndex);
-            msgList.add(msg);
-            dataBuilder.delete(0, delimiterIndex + TcpServer.DELIMITER.length());
-        }
-        return msgList;
-    }
-
 
     public boolean send(String msg) {
         if (null == socketChannel) {
             return false;
         }
-        if (write(msg)) {
-            return true;
-        }
         SENDING_MSG_QUEUE.offer(msg);
+        flush();
         return true;
     }
 
-    private boolean write(String msg) {
-        ByteBuffer byteBuffer = MsgEnDecoder.encodeMsg(msg + TcpServer.DELIMITER);
+    /**
+     * 按顺序发送队列中的消息，可在任意线程调用，加锁保证帧不会交错
+     * 帧没有发送完（发送缓冲区已满）时保留剩余部分，下次可写时从断点继续发送，不能重新编码整个帧，否则之后的帧全部错位
+     */
+    private synchronized void flush() {
+        SocketChannel channel = socketChannel;
+        if (null == channel || !channel.isConnected()) {
+            return;
+        }
         try {
-            while (byteBuffer.hasRemaining()) {
-                int writeBytes = socketChannel.write(byteBuffer);
-                if (writeBytes <= 0) {
-                    return false;
+            while (true) {
+                if (null == sendingBuffer) {
+                    String msg = SENDING_MSG_QUEUE.poll();
+                    if (null == msg) {
+                        return;
+                    }
+                    sendingBuffer = frameCodec.encode(msg);
+                    sendingMsg = msg;
                 }
+                channel.write(sendingBuffer);
+                if (sendingBuffer.hasRemaining()) {
+                    return;
+                }
+                System.out.println(TCP_CLIENT_LOG + "[Send Msg] [Msg: " + sendingMsg + "]");
+                ByteBufferPool.DEFAULT.release(sendingBuffer);
+                sendingBuffer = null;
+                sendingMsg = null;
             }
-            System.out.println(TCP_CLIENT_LOG + "[Send Msg] [Msg: " + msg + "]");
-            return true;
         } catch (IOException e) {
             e.printStackTrace();
-            return false;
+        }
+    }
+
+    /**
+     * 连接断开后没有发送完的帧不能在新连接上继续发送，丢弃
+     */
+    private synchronized void discardSendingBuffer() {
+        if (null != sendingBuffer) {
+            ByteBufferPool.DEFAULT.release(sendingBuffer);
+            sendingBuffer = null;
+            sendingMsg = null;
         }
     }
 
@@ -379,6 +420,7 @@ public class TcpClient {
             }
             reconnectCount++;
             socketChannel.close();
+            discardSendingBuffer();
             selector.close();
             System.out.println(TCP_CLIENT_LOG + "[Reconnecting] [ReconnectCount: " + reconnectCount + "]");
             return connect();
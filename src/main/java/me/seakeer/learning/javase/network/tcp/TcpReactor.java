@@ -0,0 +1,329 @@
+package me.seakeer.learning.javase.network.tcp;
+
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+import me.seakeer.learning.javase.network.timer.IdleStateTracker;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TcpReactor;
+ * 一个Selector + 一个线程的事件循环
+ * 1. 主Reactor：只负责OP_ACCEPT，接收连接后轮询分配给从Reactor
+ * 2. 从Reactor：负责已分配连接的OP_READ和OP_WRITE
+ * 单Reactor模式下，主Reactor同时承担从Reactor的工作
+ * 每个Reactor有自己的空闲检测，只跟踪分配给自己的连接，在事件循环中推进
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class TcpReactor implements Runnable {
+
+    private final String name;
+
+    private final TcpServer tcpServer;
+
+    private final Selector selector;
+
+    private final Metrics metrics = new Metrics();
+
+    private final IdleStateTracker<SocketChannel> idleStateTracker;
+
+    /**
+     * 由其他线程（主Reactor）分配过来的连接，需要在本Reactor线程中注册到Selector
+     * 避免跨线程register时与select()互相阻塞
+     */
+    private final ConcurrentLinkedQueue<SocketChannel> PENDING_SOCKET_CHANNEL_QUEUE = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 由其他线程发送了消息的连接，需要在本Reactor线程中进行发送
+     */
+    private final ConcurrentLinkedQueue<SocketChannel> FLUSHING_SOCKET_CHANNEL_QUEUE = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 在本Reactor线程中发送了消息的连接，只在本Reactor线程中访问
+     * 同一次事件循环中多次发送只标记一次，处理完所有事件后统一发送，多条消息合并为一次写
+     */
+    private final Set<SocketChannel> DIRTY_SOCKET_CHANNEL_SET = new LinkedHashSet<>();
+
+    private volatile Thread thread;
+
+    /**
+     * 事件循环结束后计数归零，停止服务时等待Reactor线程不再访问连接的缓冲区
+     */
+    private final CountDownLatch terminatedLatch = new CountDownLatch(1);
+
+    TcpReactor(String name, TcpServer tcpServer) throws IOException {
+        this.name = name;
+        this.tcpServer = tcpServer;
+        this.selector = Selector.open();
+        this.idleStateTracker = new IdleStateTracker<>(tcpServer.getIdleTimeoutMillis(), tcpServer.getPingIntervalMillis(),
+                (handle, idleState) -> tcpServer.handleIdle(handle, idleState));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在新线程中启动事件循环，用于从Reactor
+     */
+    void start() {
+        Thread reactorThread = new Thread(this, name);
+        reactorThread.start();
+    }
+
+    /**
+     * 分配连接给本Reactor，可在任意线程调用
+     *
+     * @param socketChannel
+     */
+    void register(SocketChannel socketChannel) {
+        metrics.connections.incrementAndGet();
+        if (inReactorThread()) {
+            doRegister(socketChannel);
+            return;
+        }
+        PENDING_SOCKET_CHANNEL_QUEUE.offer(socketChannel);
+        selector.wakeup();
+    }
+
+    /**
+     * 请求发送连接中待发送的消息，可在任意线程调用
+     * 在本Reactor线程中调用时只标记连接，在本次事件循环结束前统一发送
+     *
+     * @param socketChannel
+     */
+    void requestFlush(SocketChannel socketChannel) {
+        if (inReactorThread()) {
+            DIRTY_SOCKET_CHANNEL_SET.add(socketChannel);
+            return;
+        }
+        FLUSHING_SOCKET_CHANNEL_QUEUE.offer(socketChannel);
+        selector.wakeup();
+    }
+
+    void deregister() {
+        metrics.connections.decrementAndGet();
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * 等待事件循环结束，需先将服务置为停止并唤醒Selector；事件循环未启动或在本Reactor线程中调用时直接返回
+     *
+     * @param timeoutMillis
+     * @return 事件循环是否已结束
+     */
+    boolean awaitTermination(long timeoutMillis) {
+        if (null == thread || inReactorThread()) {
+            return true;
+        }
+        try {
+            return terminatedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    void close() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        System.out.println(TcpServer.TCP_SERVER_LOG + "[Reactor Running] [Reactor: " + name + "]");
+        while (tcpServer.isRunning() && selector.isOpen()) {
+            try {
+                // 最多等待一个刻度，保证空闲检测按时推进
+                selector.select(idleStateTracker.getTickMillis());
+                // 从select()返回到处理完所有事件的耗时即为一次事件循环的耗时
+                long loopStartNanos = System.nanoTime();
+                idleStateTracker.advance(System.currentTimeMillis());
+                registerPendingSocketChannel();
+                flushPendingSocketChannel();
+                Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                Iterator<SelectionKey> iterator = selectionKeys.iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    // 移除当前处理的 SelectionKey
+                    iterator.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
+                    if (selectionKey.isAcceptable()) {
+                        tcpServer.handleOpAccept();
+                    }
+                    if (selectionKey.isValid() && selectionKey.isReadable()) {
+                        tcpServer.handleOpRead(this, selectionKey);
+                    }
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        tcpServer.handleOpWrite(this, selectionKey);
+                    }
+                }
+                flushDirtySocketChannel();
+                metrics.recordLoop(System.nanoTime() - loopStartNanos);
+            } catch (ClosedSelectorException e) {
+                // 服务停止时Selector被关闭，退出事件循环
+                break;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        // Reactor线程即将结束，线程本地缓存的缓冲区移到全局缓存
+        ByteBufferPool.DEFAULT.trimThreadLocalCache();
+        System.out.println(TcpServer.TCP_SERVER_LOG + "[Reactor Stopped] [Reactor: " + name + "]");
+        terminatedLatch.countDown();
+    }
+
+    private void registerPendingSocketChannel() {
+        SocketChannel socketChannel;
+        while ((socketChannel = PENDING_SOCKET_CHANNEL_QUEUE.poll()) != null) {
+            doRegister(socketChannel);
+        }
+    }
+
+    private void flushPendingSocketChannel() {
+        SocketChannel socketChannel;
+        while ((socketChannel = FLUSHING_SOCKET_CHANNEL_QUEUE.poll()) != null) {
+            doFlush(socketChannel);
+        }
+    }
+
+    private void flushDirtySocketChannel() {
+        if (DIRTY_SOCKET_CHANNEL_SET.isEmpty()) {
+            return;
+        }
+        Iterator<SocketChannel> iterator = DIRTY_SOCKET_CHANNEL_SET.iterator();
+        while (iterator.hasNext()) {
+            SocketChannel socketChannel = iterator.next();
+            iterator.remove();
+            doFlush(socketChannel);
+        }
+    }
+
+    private void doFlush(SocketChannel socketChannel) {
+        SelectionKey selectionKey = socketChannel.keyFor(selector);
+        // 连接还没有注册到Selector（注册时会处理）或者已经关闭
+        if (null == selectionKey || !selectionKey.isValid()) {
+            return;
+        }
+        tcpServer.flush(this, selectionKey);
+    }
+
+    private void doRegister(SocketChannel socketChannel) {
+        try {
+            // 只关注OP_READ，有待发送数据时才关注OP_WRITE；附件为空闲检测的句柄
+            SelectionKey selectionKey = socketChannel.register(selector, SelectionKey.OP_READ, idleStateTracker.register(socketChannel));
+            // 注册前可能已有消息入队
+            tcpServer.flush(this, selectionKey);
+        } catch (ClosedChannelException e) {
+            // 注册前客户端已经断开
+            metrics.connections.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[Reactor: " + name + "] " + metrics;
+    }
+
+    /**
+     * Reactor指标：连接数，收发字节数，事件循环耗时
+     */
+    public static class Metrics {
+
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private final LongAdder bytesIn = new LongAdder();
+
+        private final LongAdder bytesOut = new LongAdder();
+
+        private final AtomicLong loopCount = new AtomicLong();
+
+        private final AtomicLong loopNanosTotal = new AtomicLong();
+
+        private final AtomicLong loopNanosMax = new AtomicLong();
+
+        public void addBytesIn(long bytes) {
+            bytesIn.add(bytes);
+        }
+
+        public void addBytesOut(long bytes) {
+            bytesOut.add(bytes);
+        }
+
+        void recordLoop(long costNanos) {
+            loopCount.incrementAndGet();
+            loopNanosTotal.addAndGet(costNanos);
+            // 只有Reactor线程写入，无需CAS
+            if (costNanos > loopNanosMax.get()) {
+                loopNanosMax.set(costNanos);
+            }
+        }
+
+        public int getConnections() {
+            return connections.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long getLoopCount() {
+            return loopCount.get();
+        }
+
+        public long getLoopAvgMicros() {
+            long count = loopCount.get();
+            return count == 0 ? 0 : loopNanosTotal.get() / count / 1000;
+        }
+
+        public long getLoopMaxMicros() {
+            return loopNanosMax.get() / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[Connections: %d, BytesIn: %d, BytesOut: %d, LoopCount: %d, LoopAvg: %dus, LoopMax: %dus]",
+                    getConnections(), getBytesIn(), getBytesOut(), getLoopCount(), getLoopAvgMicros(), getLoopMaxMicros());
+        }
+    }
+}
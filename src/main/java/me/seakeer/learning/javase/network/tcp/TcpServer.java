@@ -1,17 +1,21 @@
 package me.seakeer.learning.javase.network.tcp;
 
-import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+import me.seakeer.learning.javase.network.codec.DelimiterFrameCodec;
+import me.seakeer.learning.javase.network.codec.FrameCodec;
+import me.seakeer.learning.javase.network.codec.LengthFieldFrameCodec;
+import me.seakeer.learning.javase.network.timer.IdleStateTracker;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TcpServer;
@@ -23,32 +27,140 @@ public class TcpServer {
 
     public static final String DELIMITER = "v^";
 
+    /**
+     * 每个连接接收缓冲区的初始大小，不足时按需扩容
+     */
+    public static final int RECEIVING_BUFFER_INIT_SIZE = 1024;
+
+    /**
+     * 默认每次可写事件最多发送的字节数
+     */
+    public static final int DEFAULT_WRITE_BYTES_BUDGET = 64 * 1024;
+
+    /**
+     * 一次聚集写最多合并的缓冲区数量
+     */
+    private static final int MAX_GATHERING_BUFFERS = 256;
+
+    /**
+     * 停止服务时等待每个Reactor线程退出事件循环的最长时间
+     */
+    private static final long REACTOR_TERMINATION_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * 默认超过该时间没有向客户端写出数据时发送PING
+     */
+    public static final long DEFAULT_PING_INTERVAL_MILLIS = 30_000;
+
+    /**
+     * 默认超过该时间没有收到客户端数据时关闭连接，即连续3次PING没有响应
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000;
+
     public static final String TCP_SERVER_LOG = "[TcpServer] ";
-    public static final String CMD_LIST = "[START, RESTART, STOP, SHUTDOWN, TO $CLIENT_ID $MSG]";
+    public static final String CMD_LIST = "[START, RESTART, STOP, SHUTDOWN, METRICS, TO $CLIENT_ID $MSG]";
 
     private final int port;
 
+    /**
+     * 从Reactor数量，0表示单Reactor模式，即由主Reactor处理所有事件
+     */
+    private final int subReactorCount;
+
+    /**
+     * 帧编解码器，用于处理粘包拆包，需与客户端保持一致
+     */
+    private final FrameCodec frameCodec;
+
+    /**
+     * 每次可写事件最多发送的字节数，避免单个连接长时间占用Reactor线程
+     */
+    private volatile int writeBytesBudget = DEFAULT_WRITE_BYTES_BUDGET;
+
+    /**
+     * 写空闲时发送PING的间隔，0表示不发送，在启动前设置
+     */
+    private volatile long pingIntervalMillis = DEFAULT_PING_INTERVAL_MILLIS;
+
+    /**
+     * 读空闲超时时间，超时关闭连接，0表示不关闭，在启动前设置
+     */
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
     private volatile ServerSocketChannel serverSocketChannel;
 
-    private volatile Selector selector;
+    /**
+     * 主Reactor，负责接收连接
+     */
+    private volatile TcpReactor mainReactor;
+
+    /**
+     * 从Reactor，负责连接的读写
+     */
+    private volatile TcpReactor[] subReactors = new TcpReactor[0];
+
+    private final AtomicInteger nextSubReactorIndex = new AtomicInteger();
 
     private volatile boolean running = false;
 
     private final Map<SocketChannel, String> SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, SocketChannel> CLIENT_ID_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
+    private final Map<SocketChannel, TcpReactor> SOCKET_CHANNEL_REACTOR_MAP = new ConcurrentHashMap<>();
 
     /**
-     * 发送消息时，如果Channel不可写，则缓存消息到待发送消息队列
+     * 待发送消息队列，任意线程发送消息时都先入队，由连接所属的Reactor线程批量发送
      */
     private final Map<SocketChannel, ConcurrentLinkedQueue<String>> SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP = new ConcurrentHashMap<>();
-    private final Map<SocketChannel, StringBuilder> SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 已编码但没有发送完的帧，即上一次聚集写只写出了一部分，只由连接所属的Reactor线程访问
+     */
+    private final Map<SocketChannel, ArrayDeque<ByteBuffer>> SOCKET_CHANNEL_SENDING_BUFFER_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 接收缓冲区，保存因粘包拆包导致的不完整的帧
+     */
+    private final Map<SocketChannel, ByteBuffer> SOCKET_CHANNEL_RECEIVING_BUFFER_MAP = new ConcurrentHashMap<>();
 
     public TcpServer(int port) {
+        this(port, 0);
+    }
+
+    public TcpServer(int port, int subReactorCount) {
+        this(port, subReactorCount, LengthFieldFrameCodec.varint());
+    }
+
+    public TcpServer(int port, int subReactorCount, FrameCodec frameCodec) {
         this.port = port;
+        this.subReactorCount = Math.max(subReactorCount, 0);
+        this.frameCodec = frameCodec;
+    }
+
+    public TcpServer setWriteBytesBudget(int writeBytesBudget) {
+        this.writeBytesBudget = writeBytesBudget;
+        return this;
+    }
+
+    public TcpServer setPingIntervalMillis(long pingIntervalMillis) {
+        this.pingIntervalMillis = pingIntervalMillis;
+        return this;
+    }
+
+    public TcpServer setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    long getPingIntervalMillis() {
+        return pingIntervalMillis;
+    }
+
+    long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
     }
 
     public static void main(String[] args) {
-        TcpServer tcpServer = new TcpServer(9090);
+        TcpServer tcpServer = new TcpServer(9090, Runtime.getRuntime().availableProcessors());
         cmd(tcpServer);
     }
 
@@ -75,9 +187,12 @@ public class TcpServer {
                     case "SHUTDOWN":
                         tcpServer.stop();
                         return;
+                    case "METRICS":
+                        tcpServer.printMetrics();
+                        break;
                     default:
                         if (cmd.startsWith("TO ")) {
-                            if (cmd.contains(DELIMITER)) {
+                            if (tcpServer.frameCodec instanceof DelimiterFrameCodec && cmd.contains(DELIMITER)) {
                                 System.out.println(TCP_SERVER_LOG + "[ContainsDelimiter]");
                             }
                             String[] msgParts = cmd.split(" ", 3);
@@ -110,16 +225,28 @@ public class TcpServer {
         try {
             System.out.println(TCP_SERVER_LOG + "[Stopping]");
             running = false;
+            // 先等待Reactor线程退出事件循环，再关闭连接并归还缓冲区，否则Reactor线程可能仍在读写已归还的缓冲区
+            boolean terminated = awaitReactorTermination();
             closeAllClient();
             SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.clear();
-            SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.clear();
+            if (terminated) {
+                SOCKET_CHANNEL_SENDING_BUFFER_MAP.values().forEach(this::releaseSendingBuffer);
+                SOCKET_CHANNEL_RECEIVING_BUFFER_MAP.values().forEach(ByteBufferPool.DEFAULT::release);
+            }
+            // 有Reactor线程没有按时退出时不归还缓冲区，交给GC回收
+            SOCKET_CHANNEL_SENDING_BUFFER_MAP.clear();
+            SOCKET_CHANNEL_RECEIVING_BUFFER_MAP.clear();
             if (null != serverSocketChannel) {
                 serverSocketChannel.close();
                 serverSocketChannel = null;
             }
-            if (null != selector) {
-                selector.close();
-                selector = null;
+            for (TcpReactor subReactor : subReactors) {
+                subReactor.close();
+            }
+            subReactors = new TcpReactor[0];
+            if (null != mainReactor) {
+                mainReactor.close();
+                mainReactor = null;
             }
             System.out.println(TCP_SERVER_LOG + "[Stopped]");
         } catch (IOException e) {
@@ -127,6 +254,27 @@ public class TcpServer {
         }
     }
 
+    /**
+     * 唤醒所有Reactor并等待其退出事件循环
+     *
+     * @return 是否所有Reactor都已退出
+     */
+    private boolean awaitReactorTermination() {
+        List<TcpReactor> reactors = new ArrayList<>(Arrays.asList(subReactors));
+        if (null != mainReactor) {
+            reactors.add(mainReactor);
+        }
+        reactors.forEach(TcpReactor::wakeup);
+        boolean terminated = true;
+        for (TcpReactor reactor : reactors) {
+            if (!reactor.awaitTermination(REACTOR_TERMINATION_TIMEOUT_MILLIS)) {
+                System.out.println(TCP_SERVER_LOG + "[Reactor Termination Timeout] [Reactor: " + reactor.getName() + "]");
+                terminated = false;
+            }
+        }
+        return terminated;
+    }
+
     public void restart() {
         System.out.println(TCP_SERVER_LOG + "[Restarting]");
         stop();
@@ -139,8 +287,13 @@ public class TcpServer {
             serverSocketChannel.configureBlocking(false);
             ServerSocket serverSocket = serverSocketChannel.socket();
             serverSocket.bind(new InetSocketAddress(port));
-            selector = Selector.open();
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+            mainReactor = new TcpReactor("TcpServer-MainReactor", this);
+            serverSocketChannel.register(mainReactor.getSelector(), SelectionKey.OP_ACCEPT);
+            TcpReactor[] reactors = new TcpReactor[subReactorCount];
+            for (int i = 0; i < subReactorCount; i++) {
+                reactors[i] = new TcpReactor("TcpServer-SubReactor-" + i, this);
+            }
+            subReactors = reactors;
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -148,97 +301,201 @@ public class TcpServer {
 
     private void run() {
         running = true;
-        System.out.println(TCP_SERVER_LOG + "[Running]");
-        while (running) {
-            try {
-                int keysNum = selector.select(1000);
-                if (keysNum <= 0) {
-                    continue;
-                }
-                Set<SelectionKey> selectionKeys = selector.selectedKeys();
-                Iterator<SelectionKey> iterator = selectionKeys.iterator();
-                while (iterator.hasNext()) {
-                    SelectionKey selectionKey = iterator.next();
-                    // 移除当前处理的 SelectionKey
-                    iterator.remove();
-                    if (!selectionKey.isValid()) {
-                        continue;
-                    }
-                    if (selectionKey.isAcceptable()) {
-                        handleOpAccept();
-                    }
-                    if (selectionKey.isReadable()) {
-                        handleOpRead(selectionKey);
-                    }
-                    if (selectionKey.isValid() && selectionKey.isWritable()) {
-                        handleOpWrite(selectionKey);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        System.out.println(TCP_SERVER_LOG + "[Running] [SubReactorCount: " + subReactors.length + "]");
+        for (TcpReactor subReactor : subReactors) {
+            subReactor.start();
         }
+        // 主Reactor在当前线程运行
+        mainReactor.run();
+    }
+
+    boolean isRunning() {
+        return running;
     }
 
-    private void handleOpAccept() {
+    public void printMetrics() {
+        if (null == mainReactor) {
+            System.out.println(TCP_SERVER_LOG + "[Metrics] [NotRunning]");
+            return;
+        }
+        System.out.println(TCP_SERVER_LOG + "[Metrics] " + mainReactor);
+        for (TcpReactor subReactor : subReactors) {
+            System.out.println(TCP_SERVER_LOG + "[Metrics] " + subReactor);
+        }
+        System.out.println(TCP_SERVER_LOG + "[Metrics] [ByteBufferPool] " + ByteBufferPool.DEFAULT);
+    }
+
+    /**
+     * 轮询选择从Reactor，单Reactor模式下返回主Reactor
+     *
+     * @return
+     */
+    private TcpReactor nextReactor() {
+        TcpReactor[] reactors = subReactors;
+        if (reactors.length == 0) {
+            return mainReactor;
+        }
+        return reactors[(nextSubReactorIndex.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+    }
+
+    void handleOpAccept() {
         try {
             SocketChannel socketChannel = serverSocketChannel.accept();
+            if (null == socketChannel) {
+                return;
+            }
             socketChannel.configureBlocking(false);
-            socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-            System.out.println(TCP_SERVER_LOG + "[Accepted Client] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
+            TcpReactor reactor = nextReactor();
+            SOCKET_CHANNEL_REACTOR_MAP.put(socketChannel, reactor);
+            reactor.register(socketChannel);
+            System.out.println(TCP_SERVER_LOG + "[Accepted Client] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "] [Reactor: " + reactor.getName() + "]");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void handleOpWrite(SelectionKey selectionKey) {
+    void handleOpWrite(TcpReactor reactor, SelectionKey selectionKey) {
+        flush(reactor, selectionKey);
+    }
+
+    /**
+     * 发送待发送的数据，只能在连接所属的Reactor线程中调用
+     * 1. 将上次没有发送完的帧和待发送消息队列中的消息合并，通过一次聚集写发送，总字节数不超过writeBytesBudget
+     * 2. 仍有待发送数据时才关注OP_WRITE，否则取消关注，避免Selector空转
+     *
+     * @param reactor
+     * @param selectionKey
+     */
+    void flush(TcpReactor reactor, SelectionKey selectionKey) {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.getOrDefault(socketChannel, new ConcurrentLinkedQueue<>());
+        ArrayDeque<ByteBuffer> bufferQueue = SOCKET_CHANNEL_SENDING_BUFFER_MAP.computeIfAbsent(socketChannel, k -> new ArrayDeque<>());
+        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.get(socketChannel);
+
+        // 在预算内编码待发送消息，追加到没有发送完的帧之后
+        long pendingBytes = 0;
+        for (ByteBuffer buffer : bufferQueue) {
+            pendingBytes += buffer.remaining();
+        }
         String msg;
-        while ((msg = msgQueue.peek()) != null) {
-            if (send(socketChannel, msg)) {
-                msgQueue.poll();
-                System.out.printf(TCP_SERVER_LOG + "[Send Msg] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg);
-            } else {
-                break;
+        while (null != msgQueue && pendingBytes < writeBytesBudget && bufferQueue.size() < MAX_GATHERING_BUFFERS
+                && (msg = msgQueue.poll()) != null) {
+            ByteBuffer buffer = frameCodec.encode(msg);
+            pendingBytes += buffer.remaining();
+            bufferQueue.offer(buffer);
+        }
+
+        if (!bufferQueue.isEmpty()) {
+            try {
+                ByteBuffer[] buffers = bufferQueue.toArray(new ByteBuffer[0]);
+                long writeBytes = socketChannel.write(buffers);
+                reactor.getMetrics().addBytesOut(writeBytes);
+                if (writeBytes > 0) {
+                    idleHandle(selectionKey).touchWrite();
+                }
+            } catch (IOException e) {
+                System.out.printf(TCP_SERVER_LOG + "[Send Msg Failed] [ClientId: %s] [Reason: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), e.getMessage());
+                try {
+                    handleDisconnect(socketChannel);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+                return;
+            }
+            // 归还已经发送完的帧，没有发送完的帧保留到下次可写时继续发送
+            while (!bufferQueue.isEmpty() && !bufferQueue.peek().hasRemaining()) {
+                ByteBufferPool.DEFAULT.release(bufferQueue.poll());
             }
         }
+
+        boolean hasPending = !bufferQueue.isEmpty() || (null != msgQueue && !msgQueue.isEmpty());
+        if (!selectionKey.isValid()) {
+            return;
+        }
+        int interestOps = selectionKey.interestOps();
+        if (hasPending && (interestOps & SelectionKey.OP_WRITE) == 0) {
+            selectionKey.interestOps(interestOps | SelectionKey.OP_WRITE);
+        } else if (!hasPending && (interestOps & SelectionKey.OP_WRITE) != 0) {
+            selectionKey.interestOps(interestOps & ~SelectionKey.OP_WRITE);
+        }
     }
 
-    private void handleOpRead(SelectionKey selectionKey) throws IOException {
+    void handleOpRead(TcpReactor reactor, SelectionKey selectionKey) throws IOException {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
 
-        // 主要用于存储因粘包拆包导致的不完整的消息
-        StringBuilder dataBuilder = SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.getOrDefault(socketChannel, new StringBuilder());
+        // 接收缓冲区处于写模式，其中可能保留着上一次没有处理完的不完整的帧
+        ByteBuffer buffer = SOCKET_CHANNEL_RECEIVING_BUFFER_MAP.computeIfAbsent(socketChannel, k -> ByteBufferPool.DEFAULT.acquire(RECEIVING_BUFFER_INIT_SIZE));
         int bytesRead;
         while ((bytesRead = socketChannel.read(buffer)) > 0) {
+            reactor.getMetrics().addBytesIn(bytesRead);
+            idleHandle(selectionKey).touchRead();
             buffer.flip();
 
-            // 将读取的字节进行解码，得到解码后的数据
-            String msgNewPart = MsgEnDecoder.decodeMsg(buffer);
-            dataBuilder.append(msgNewPart);
-
-            // 粘包拆包处理，得到消息列表
-            List<String> msgList = handleClientData(dataBuilder);
+            // 粘包拆包处理，直接从缓冲区中解码出完整的帧
+            List<String> msgList = new ArrayList<>();
+            try {
+                frameCodec.decode(buffer, msgList);
+            } catch (FrameCodec.FrameException e) {
+                System.out.printf(TCP_SERVER_LOG + "[Invalid Frame] [ClientId: %s] [Reason: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), e.getMessage());
+                handleDisconnect(socketChannel);
+                return;
+            }
+            // 不完整的帧移动到缓冲区头部，等待后续数据
+            buffer.compact();
 
             // 处理消息
             handleClientMsgList(socketChannel, msgList);
+            if (!socketChannel.isOpen()) {
+                return;
+            }
+
+            // 缓冲区已满说明当前帧大于缓冲区，需扩容，帧的最大长度由FrameCodec限制
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBufferPool.DEFAULT.enlarge(buffer, buffer.capacity() * 2);
+                SOCKET_CHANNEL_RECEIVING_BUFFER_MAP.put(socketChannel, buffer);
+            }
         }
         if (bytesRead == -1) {
             handleDisconnect(socketChannel);
-        } else if (bytesRead == 0) {
-            if (dataBuilder.length() > 0) {
-                // 缓存没有处理完成的部分，即客户端进行了拆包发送，服务端收到的不是一条完整的消息
-                // 需要等待下一次可读时，获取剩余数据进行处理
-                SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.put(socketChannel, dataBuilder);
-            } else {
-                // 是完整的消息，则可以移除该缓存
-                SOCKET_CHANNEL_RECEIVING_MSG_PART_MAP.remove(socketChannel);
-            }
         }
     }
 
+    /**
+     * 处理空闲连接，在连接所属的Reactor线程中调用
+     * 1. 写空闲：发送PING，客户端响应PONG后连接不再读空闲
+     * 2. 读空闲：客户端已失效或为半开连接，关闭连接
+     *
+     * @param handle
+     * @param idleState
+     */
+    void handleIdle(IdleStateTracker.Handle<SocketChannel> handle, IdleStateTracker.IdleState idleState) {
+        SocketChannel socketChannel = handle.getConnection();
+        if (!socketChannel.isOpen()) {
+            handle.cancel();
+            return;
+        }
+        switch (idleState) {
+            case WRITER_IDLE:
+                ping(socketChannel);
+                break;
+            case READER_IDLE:
+                System.out.printf(TCP_SERVER_LOG + "[Idle Timeout] [ClientId: %s] [IdleMillis: %d]\n",
+                        SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), System.currentTimeMillis() - handle.getLastReadMillis());
+                try {
+                    handleDisconnect(socketChannel);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IdleStateTracker.Handle<SocketChannel> idleHandle(SelectionKey selectionKey) {
+        return (IdleStateTracker.Handle<SocketChannel>) selectionKey.attachment();
+    }
+
     private void handleClientMsgList(SocketChannel socketChannel, List<String> msgList) {
         if (null == msgList || msgList.isEmpty()) {
             return;
@@ -268,7 +525,7 @@ public class TcpServer {
                         }
                     } else {
                         System.out.println(TCP_SERVER_LOG + "[Not Auth] " + "[ClientAddr: " + socketChannel.getRemoteAddress() + "]");
-                        socketChannel.close();
+                        handleDisconnect(socketChannel);
                     }
             }
         } catch (Exception e) {
@@ -297,23 +554,6 @@ public class TcpServer {
     }
 
 
-    /**
-     * 使用分隔符来处理粘包拆包问题，返回消息列表
-     *
-     * @param dataBuilder
-     * @return
-     */
-    private List<String> handleClientData(StringBuilder dataBuilder) {
-        List<String> msgList = new ArrayList<>();
-        int delimiterIndex;
-        while ((delimiterIndex = dataBuilder.indexOf(DELIMITER)) != -1) {
-            String msg = dataBuilder.substring(0, delimiterIndex);
-            msgList.add(msg);
-            dataBuilder.delete(0, delimiterIndex + DELIMITER.length());
-        }
-        return msgList;
-    }
-
     private boolean isAuthed(SocketChannel socketChannel) {
         return SOCKET_CHANNEL_CLIENT_ID_MAP.containsKey(socketChannel);
     }
@@ -366,20 +606,42 @@ public class TcpServer {
             CLIENT_ID_SOCKET_CHANNEL_MAP.remove(clientId);
         }
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.remove(socketChannel);
+        releaseSendingBuffer(SOCKET_CHANNEL_SENDING_BUFFER_MAP.remove(socketChannel));
+        ByteBufferPool.DEFAULT.release(SOCKET_CHANNEL_RECEIVING_BUFFER_MAP.remove(socketChannel));
+        TcpReactor reactor = SOCKET_CHANNEL_REACTOR_MAP.remove(socketChannel);
+        if (null != reactor) {
+            reactor.deregister();
+            SelectionKey selectionKey = socketChannel.keyFor(reactor.getSelector());
+            if (null != selectionKey) {
+                idleHandle(selectionKey).cancel();
+            }
+        }
         socketChannel.close();
         System.out.printf(TCP_SERVER_LOG + "[ClientDisconnected] [ClientId: %s]\n", clientId);
     }
 
+    private void releaseSendingBuffer(ArrayDeque<ByteBuffer> bufferQueue) {
+        if (null == bufferQueue) {
+            return;
+        }
+        ByteBuffer buffer;
+        while ((buffer = bufferQueue.poll()) != null) {
+            ByteBufferPool.DEFAULT.release(buffer);
+        }
+    }
+
     public void closeAllClient() {
-        for (SocketChannel socketChannel : SOCKET_CHANNEL_CLIENT_ID_MAP.keySet()) {
+        for (Map.Entry<SocketChannel, TcpReactor> entry : SOCKET_CHANNEL_REACTOR_MAP.entrySet()) {
+            entry.getValue().deregister();
             try {
-                socketChannel.close();
+                entry.getKey().close();
             } catch (IOException ioe) {
                 ioe.printStackTrace();
             }
         }
         SOCKET_CHANNEL_CLIENT_ID_MAP.clear();
         CLIENT_ID_SOCKET_CHANNEL_MAP.clear();
+        SOCKET_CHANNEL_REACTOR_MAP.clear();
     }
 
     public boolean send(String clientId, String msg) {
@@ -391,31 +653,21 @@ public class TcpServer {
         return send(socketChannel, msg);
     }
 
+    /**
+     * 消息入队，由连接所属的Reactor发送：在Reactor线程中则立即发送，否则唤醒Reactor发送
+     *
+     * @param socketChannel
+     * @param msg
+     * @return
+     */
     private boolean send(SocketChannel socketChannel, String msg) {
-        if (write(socketChannel, msg)) {
-            System.out.printf(TCP_SERVER_LOG + "[Send Msg Succeed] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg);
-            return true;
-        }
-        ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.getOrDefault(socketChannel, new ConcurrentLinkedQueue<>());
-        msgQueue.offer(msg);
-        SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.put(socketChannel, msgQueue);
-        System.out.printf(TCP_SERVER_LOG + "[Send Msg Queued] [ClientId: %s] [Msg: %s]\n", SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel), msg);
-        return true;
-    }
-
-    private boolean write(SocketChannel socketChannel, String msg) {
-        ByteBuffer byteBuffer = MsgEnDecoder.encodeMsg(msg + DELIMITER);
-        try {
-            while (byteBuffer.hasRemaining()) {
-                int writeBytes = socketChannel.write(byteBuffer);
-                if (writeBytes <= 0) {
-                    return false;
-                }
-            }
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
+        TcpReactor reactor = SOCKET_CHANNEL_REACTOR_MAP.get(socketChannel);
+        if (null == reactor) {
+            System.out.printf(TCP_SERVER_LOG + "[Send Msg Failed] [InvalidSocketChannel] [Msg: %s]\n", msg);
             return false;
         }
+        SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.computeIfAbsent(socketChannel, k -> new ConcurrentLinkedQueue<>()).offer(msg);
+        reactor.requestFlush(socketChannel);
+        return true;
     }
 }
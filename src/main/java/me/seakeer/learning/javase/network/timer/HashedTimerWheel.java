@@ -0,0 +1,169 @@
+package me.seakeer.learning.javase.network.timer;
+
+import java.util.ArrayDeque;
+
+/**
+ * HashedTimerWheel;
+ * 哈希时间轮，用于大量连接的超时检测（握手超时、空闲超时等）
+ * 1. 时间按 tickMillis 划分为刻度，到期刻度对 wheelSize 取模得到所在的槽，添加定时任务 O(1)
+ * 2. 没有自己的线程，由事件循环（Selector线程）周期性调用 advance(nowMillis) 推进，到期的任务在调用线程中执行
+ * 3. 取消只设置标记，在所在的槽被推进时移除，因此 cancel 可以在任意线程调用
+ * 精度为一个刻度：任务在到期后的第一个刻度被执行，不会提前执行
+ * <p>
+ * 使用约定：schedule 和 advance 只能在同一个线程（事件循环线程）中调用
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class HashedTimerWheel {
+
+    public static final String HASHED_TIMER_WHEEL_LOG = "[HashedTimerWheel] ";
+
+    private final long tickMillis;
+
+    private final int mask;
+
+    private final ArrayDeque<Timeout>[] wheel;
+
+    private final long startMillis;
+
+    /**
+     * 下一个待处理的刻度，之前的刻度都已处理
+     */
+    private long currentTick;
+
+    private int pendingTimeouts;
+
+    /**
+     * @param tickMillis 刻度的时长（毫秒）
+     * @param wheelSize  槽的数量，向上取整为2的幂；到期时间超过一圈的任务在槽中等待多圈
+     */
+    public HashedTimerWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        }
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        // 不能直接创建泛型数组，只在这一处抑制警告，数组中只会放入 ArrayDeque<Timeout>
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Timeout>[] slots = (ArrayDeque<Timeout>[]) new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.wheel = slots;
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 添加定时任务
+     *
+     * @param delayMillis 延迟时间（毫秒）
+     * @param task        到期后在事件循环线程中执行的任务
+     * @return 可用于取消任务的句柄
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long deadlineMillis = System.currentTimeMillis() + Math.max(delayMillis, 0);
+        // 向上取整，保证任务不会提前执行；已经过去的刻度放入下一个待处理的刻度
+        long deadlineTick = Math.max((deadlineMillis - startMillis + tickMillis - 1) / tickMillis, currentTick);
+        Timeout timeout = new Timeout(deadlineTick, task);
+        wheel[(int) (deadlineTick & mask)].offer(timeout);
+        pendingTimeouts++;
+        return timeout;
+    }
+
+    /**
+     * 推进时间轮到 nowMillis，执行所有到期且未取消的任务
+     *
+     * @return 执行的任务数
+     */
+    public int advance(long nowMillis) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        int expired = 0;
+        // 落后超过一圈时，每个槽只需要处理一次
+        long lastTick = Math.min(targetTick, currentTick + mask);
+        for (; currentTick <= lastTick; currentTick++) {
+            expired += expireBucket(wheel[(int) (currentTick & mask)], targetTick);
+        }
+        currentTick = Math.max(currentTick, targetTick + 1);
+        return expired;
+    }
+
+    private int expireBucket(ArrayDeque<Timeout> bucket, long targetTick) {
+        int expired = 0;
+        // 任务执行时可能向同一个槽添加新任务，只处理推进前已有的任务
+        for (int i = bucket.size(); i > 0; i--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.cancelled) {
+                pendingTimeouts--;
+                continue;
+            }
+            if (timeout.deadlineTick > targetTick) {
+                // 还需要等待多圈
+                bucket.offer(timeout);
+                continue;
+            }
+            pendingTimeouts--;
+            timeout.expired = true;
+            expired++;
+            try {
+                timeout.task.run();
+            } catch (Exception e) {
+                System.out.println(HASHED_TIMER_WHEEL_LOG + "[Task Exception]");
+                e.printStackTrace();
+            }
+        }
+        return expired;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * 还没有被处理的任务数，包括已取消但还没有被移除的任务
+     */
+    public int getPendingTimeouts() {
+        return pendingTimeouts;
+    }
+
+    public static class Timeout {
+
+        private final long deadlineTick;
+
+        private final Runnable task;
+
+        private volatile boolean cancelled;
+
+        private volatile boolean expired;
+
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        /**
+         * 取消任务，可在任意线程调用
+         *
+         * @return false表示任务已经执行或已经取消
+         */
+        public boolean cancel() {
+            if (cancelled || expired) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package me.seakeer.learning.javase.network.timer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * IdleStateTracker;
+ * 基于 {@link HashedTimerWheel} 的连接空闲检测，用于服务端主动心跳和关闭空闲（半开）连接
+ * 1. 每个连接一个 {@link Handle}，读写时只更新最后读/写时间，O(1) 且不操作时间轮
+ * 2. 每个连接在时间轮中最多有一个读空闲检查和一个写空闲检查，检查到期时才比较最后读/写时间：
+ * 空闲时间已达到阈值则通知 {@link IdleHandler} 并重新计时，否则按剩余时间重新添加检查
+ * 因此检查次数与连接数和空闲阈值有关，与读写次数无关，10万连接、30秒阈值每秒只有几千次检查
+ * 3. 没有自己的线程，由事件循环（或一个定时线程）周期性调用 advance(nowMillis) 推进，IdleHandler 在推进的线程中执行
+ * 读写时间使用 advance 时缓存的时间，精度为一个刻度
+ * <p>
+ * register、touchRead、touchWrite、cancel 可以在任意线程调用，advance 只能在同一个线程中调用
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class IdleStateTracker<C> {
+
+    public static final String IDLE_STATE_TRACKER_LOG = "[IdleStateTracker] ";
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    /**
+     * 默认槽的数量，刻度为100毫秒时一圈约102秒，常用的空闲阈值不需要等待多圈
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    private final HashedTimerWheel timerWheel;
+
+    /**
+     * 读空闲阈值（毫秒），0表示不检测
+     */
+    private final long readerIdleMillis;
+
+    /**
+     * 写空闲阈值（毫秒），0表示不检测
+     */
+    private final long writerIdleMillis;
+
+    private final IdleHandler<C> idleHandler;
+
+    /**
+     * 其他线程注册的连接，在 advance 时添加到时间轮
+     */
+    private final ConcurrentLinkedQueue<Handle<C>> PENDING_HANDLE_QUEUE = new ConcurrentLinkedQueue<>();
+
+    private volatile long nowMillis = System.currentTimeMillis();
+
+    public IdleStateTracker(long readerIdleMillis, long writerIdleMillis, IdleHandler<C> idleHandler) {
+        this(readerIdleMillis, writerIdleMillis, idleHandler, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public IdleStateTracker(long readerIdleMillis, long writerIdleMillis, IdleHandler<C> idleHandler, long tickMillis, int wheelSize) {
+        if (readerIdleMillis < 0 || writerIdleMillis < 0) {
+            throw new IllegalArgumentException("readerIdleMillis and writerIdleMillis must not be negative");
+        }
+        this.readerIdleMillis = readerIdleMillis;
+        this.writerIdleMillis = writerIdleMillis;
+        this.idleHandler = idleHandler;
+        this.timerWheel = new HashedTimerWheel(tickMillis, wheelSize);
+    }
+
+    /**
+     * 开始跟踪连接，可在任意线程调用，在下一次 advance 时开始计时
+     *
+     * @return 连接的句柄，读写时调用 touchRead/touchWrite，连接关闭时调用 cancel
+     */
+    public Handle<C> register(C connection) {
+        Handle<C> handle = new Handle<>(this, connection);
+        PENDING_HANDLE_QUEUE.offer(handle);
+        return handle;
+    }
+
+    /**
+     * 推进到 nowMillis，检查到期的连接，空闲的连接在当前线程中交给 IdleHandler
+     *
+     * @return 到期的检查数
+     */
+    public int advance(long nowMillis) {
+        this.nowMillis = nowMillis;
+        Handle<C> handle;
+        while ((handle = PENDING_HANDLE_QUEUE.poll()) != null) {
+            if (handle.cancelled) {
+                continue;
+            }
+            if (readerIdleMillis > 0) {
+                scheduleReaderIdleCheck(handle, readerIdleMillis);
+            }
+            if (writerIdleMillis > 0) {
+                scheduleWriterIdleCheck(handle, writerIdleMillis);
+            }
+        }
+        return timerWheel.advance(nowMillis);
+    }
+
+    /**
+     * 推进的时间间隔，事件循环的 select 超时不应大于该值
+     */
+    public long getTickMillis() {
+        return timerWheel.getTickMillis();
+    }
+
+    public int getPendingTimeouts() {
+        return timerWheel.getPendingTimeouts();
+    }
+
+    private void scheduleReaderIdleCheck(Handle<C> handle, long delayMillis) {
+        timerWheel.schedule(delayMillis, () -> checkReaderIdle(handle));
+    }
+
+    private void scheduleWriterIdleCheck(Handle<C> handle, long delayMillis) {
+        timerWheel.schedule(delayMillis, () -> checkWriterIdle(handle));
+    }
+
+    private void checkReaderIdle(Handle<C> handle) {
+        if (handle.cancelled) {
+            return;
+        }
+        long idleMillis = nowMillis - handle.lastReadMillis;
+        if (idleMillis < readerIdleMillis) {
+            // 期间有读，按剩余时间重新检查
+            scheduleReaderIdleCheck(handle, readerIdleMillis - idleMillis);
+            return;
+        }
+        scheduleReaderIdleCheck(handle, readerIdleMillis);
+        fireIdle(handle, IdleState.READER_IDLE);
+    }
+
+    private void checkWriterIdle(Handle<C> handle) {
+        if (handle.cancelled) {
+            return;
+        }
+        long idleMillis = nowMillis - handle.lastWriteMillis;
+        if (idleMillis < writerIdleMillis) {
+            scheduleWriterIdleCheck(handle, writerIdleMillis - idleMillis);
+            return;
+        }
+        scheduleWriterIdleCheck(handle, writerIdleMillis);
+        fireIdle(handle, IdleState.WRITER_IDLE);
+    }
+
+    private void fireIdle(Handle<C> handle, IdleState idleState) {
+        try {
+            idleHandler.onIdle(handle, idleState);
+        } catch (Exception e) {
+            System.out.println(IDLE_STATE_TRACKER_LOG + "[IdleHandler Exception] [IdleState: " + idleState + "]");
+            e.printStackTrace();
+        }
+    }
+
+    public enum IdleState {
+        /**
+         * 超过 readerIdleMillis 没有读到数据
+         */
+        READER_IDLE,
+        /**
+         * 超过 writerIdleMillis 没有写出数据
+         */
+        WRITER_IDLE
+    }
+
+    public interface IdleHandler<C> {
+
+        /**
+         * 连接空闲，在推进时间轮的线程中调用；连接保持空闲时每隔一个阈值调用一次，直到句柄被取消
+         */
+        void onIdle(Handle<C> handle, IdleState idleState);
+    }
+
+    public static class Handle<C> {
+
+        private final IdleStateTracker<C> tracker;
+
+        private final C connection;
+
+        private volatile long lastReadMillis;
+
+        private volatile long lastWriteMillis;
+
+        private volatile boolean cancelled;
+
+        private Handle(IdleStateTracker<C> tracker, C connection) {
+            this.tracker = tracker;
+            this.connection = connection;
+            this.lastReadMillis = tracker.nowMillis;
+            this.lastWriteMillis = tracker.nowMillis;
+        }
+
+        public C getConnection() {
+            return connection;
+        }
+
+        public void touchRead() {
+            lastReadMillis = tracker.nowMillis;
+        }
+
+        public void touchWrite() {
+            lastWriteMillis = tracker.nowMillis;
+        }
+
+        public long getLastReadMillis() {
+            return lastReadMillis;
+        }
+
+        public long getLastWriteMillis() {
+            return lastWriteMillis;
+        }
+
+        /**
+         * 停止跟踪，连接关闭时调用；时间轮中的检查到期时被丢弃
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
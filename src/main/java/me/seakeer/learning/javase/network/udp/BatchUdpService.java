@@ -0,0 +1,457 @@
+package me.seakeer.learning.javase.network.udp;
+
+import me.seakeer.learning.javase.network.MsgEnDecoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BatchUdpService;
+ * 高吞吐的UDP服务：Selector线程只负责批量接收，数据报交给工作线程处理
+ * 1. 每次可读最多接收 batchSize 个数据报，接收缓冲区只在启动时申请一次
+ * 2. 每个工作线程一个环形缓冲区（单生产者单消费者），槽位预先分配，接收时拷贝到槽位中，不创建对象
+ * 3. 按发送方地址分配工作线程，同一发送方的数据报按接收顺序处理；环形缓冲区满时丢弃并计数，和内核缓冲区满时一样
+ * 4. 对端地址不做DNS解析；发送使用调用方解析好的 InetSocketAddress，字符串编码到线程本地的缓冲区
+ * 超过 maxDatagramBytes 的数据报会被截断
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class BatchUdpService {
+
+    public static final String BATCH_UDP_SERVICE_LOG = "[BatchUdpService] ";
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public static final int DEFAULT_RING_SIZE = 4096;
+
+    public static final int DEFAULT_MAX_DATAGRAM_BYTES = 2048;
+
+    public static final int DEFAULT_WORKER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    public static final int DEFAULT_SOCKET_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 工作线程没有数据时最长的等待时间，生产者发布数据时会唤醒
+     */
+    private static final long WORKER_PARK_NANOS = 1_000_000;
+
+    /**
+     * 发送字符串时每个线程复用的编码器和缓冲区
+     */
+    private static final ThreadLocal<CharsetEncoder> SEND_ENCODER = ThreadLocal.withInitial(MsgEnDecoder.CHARSET::newEncoder);
+
+    private static final ThreadLocal<ByteBuffer> SEND_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DEFAULT_MAX_DATAGRAM_BYTES));
+
+    private final int port;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int ringSize = DEFAULT_RING_SIZE;
+
+    private int maxDatagramBytes = DEFAULT_MAX_DATAGRAM_BYTES;
+
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+
+    private int socketBufferBytes = DEFAULT_SOCKET_BUFFER_BYTES;
+
+    private DatagramHandler datagramHandler = (sender, data) -> {
+    };
+
+    private volatile DatagramChannel datagramChannel;
+
+    private volatile Selector selector;
+
+    private volatile boolean running = false;
+
+    private DatagramRing[] rings;
+
+    private ByteBuffer receiveBuffer;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final LongAdder handledCount = new LongAdder();
+
+    /**
+     * 处理数据报，在工作线程中回调
+     */
+    @FunctionalInterface
+    public interface DatagramHandler {
+
+        /**
+         * @param sender 发送方地址
+         * @param data   读模式的缓冲区，是环形缓冲区的槽位，只在回调期间有效，需要保留时由处理器拷贝
+         */
+        void onDatagram(InetSocketAddress sender, ByteBuffer data);
+    }
+
+    public BatchUdpService(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int senderThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int datagramBytes = 64;
+
+        BatchUdpService batchUdpService = new BatchUdpService(8899);
+        new Thread(batchUdpService::start, "BatchUdpService").start();
+        Thread.sleep(500);
+
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", 8899);
+        LongAdder sentCount = new LongAdder();
+        long deadlineMillis = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] senders = new Thread[senderThreads];
+        for (int i = 0; i < senderThreads; i++) {
+            senders[i] = new Thread(() -> {
+                try (DatagramChannel channel = DatagramChannel.open()) {
+                    // connect后发送不再检查目标地址
+                    channel.connect(target);
+                    ByteBuffer data = ByteBuffer.allocateDirect(datagramBytes);
+                    while (System.currentTimeMillis() < deadlineMillis) {
+                        for (int j = 0; j < 1000; j++) {
+                            data.clear();
+                            channel.write(data);
+                        }
+                        sentCount.add(1000);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "UdpSender-" + i);
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        Thread.sleep(200);
+        System.out.printf(BATCH_UDP_SERVICE_LOG + "[Benchmark] [Senders: %d] [DatagramBytes: %d] [Sent: %.0f/s] " +
+                        "[Received: %.0f/s] [Handled: %.0f/s] [Dropped: %d]\n",
+                senderThreads, datagramBytes, sentCount.sum() / (double) seconds,
+                batchUdpService.getReceivedCount() / (double) seconds,
+                batchUdpService.getHandledCount() / (double) seconds, batchUdpService.getDroppedCount());
+        batchUdpService.stop();
+    }
+
+    public BatchUdpService setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param ringSize 每个工作线程的环形缓冲区槽位数，向上取整为2的幂
+     */
+    public BatchUdpService setRingSize(int ringSize) {
+        this.ringSize = ringSize;
+        return this;
+    }
+
+    public BatchUdpService setMaxDatagramBytes(int maxDatagramBytes) {
+        this.maxDatagramBytes = maxDatagramBytes;
+        return this;
+    }
+
+    public BatchUdpService setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public BatchUdpService setSocketBufferBytes(int socketBufferBytes) {
+        this.socketBufferBytes = socketBufferBytes;
+        return this;
+    }
+
+    public BatchUdpService setDatagramHandler(DatagramHandler datagramHandler) {
+        this.datagramHandler = datagramHandler;
+        return this;
+    }
+
+    public void start() {
+        if (running) {
+            System.out.println(BATCH_UDP_SERVICE_LOG + "[AlreadyRunning] [Port: " + port + "]");
+            return;
+        }
+        System.out.println(BATCH_UDP_SERVICE_LOG + "[Starting]");
+        if (init()) {
+            run();
+        } else {
+            System.out.println(BATCH_UDP_SERVICE_LOG + "[Init Failed]");
+        }
+    }
+
+    public void stop() {
+        System.out.println(BATCH_UDP_SERVICE_LOG + "[Stopping]");
+        running = false;
+        try {
+            if (null != selector) {
+                selector.wakeup();
+            }
+            if (null != rings) {
+                for (DatagramRing ring : rings) {
+                    LockSupport.unpark(ring.worker);
+                }
+            }
+            if (null != datagramChannel) {
+                datagramChannel.close();
+                datagramChannel = null;
+            }
+            System.out.println(BATCH_UDP_SERVICE_LOG + "[Stopped]");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 发送数据报，可在任意线程调用
+     *
+     * @param target 解析好的目标地址
+     * @param data   读模式的缓冲区
+     * @return false表示发送缓冲区已满，数据报没有发送
+     */
+    public boolean send(InetSocketAddress target, ByteBuffer data) {
+        try {
+            return datagramChannel.send(data, target) > 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public boolean send(InetSocketAddress target, String data) {
+        ByteBuffer buffer = SEND_BUFFER.get();
+        buffer.clear();
+        CharsetEncoder encoder = SEND_ENCODER.get().reset();
+        CoderResult coderResult = encoder.encode(CharBuffer.wrap(data), buffer, true);
+        if (coderResult.isOverflow()) {
+            System.out.println(BATCH_UDP_SERVICE_LOG + "[Send Failed] [Datagram Too Large]");
+            return false;
+        }
+        encoder.flush(buffer);
+        buffer.flip();
+        return send(target, buffer);
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getHandledCount() {
+        return handledCount.sum();
+    }
+
+    private boolean init() {
+        try {
+            selector = Selector.open();
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.configureBlocking(false);
+            datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, socketBufferBytes);
+            datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, socketBufferBytes);
+            datagramChannel.bind(new InetSocketAddress(port));
+            datagramChannel.register(selector, SelectionKey.OP_READ);
+            receiveBuffer = ByteBuffer.allocateDirect(maxDatagramBytes);
+            rings = new DatagramRing[workerThreads];
+            for (int i = 0; i < workerThreads; i++) {
+                rings[i] = new DatagramRing(ringSize, maxDatagramBytes);
+            }
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void run() {
+        running = true;
+        for (int i = 0; i < rings.length; i++) {
+            DatagramRing ring = rings[i];
+            ring.worker = new Thread(() -> work(ring), "BatchUdpWorker-" + i);
+            ring.worker.setDaemon(true);
+            ring.worker.start();
+        }
+        System.out.println(BATCH_UDP_SERVICE_LOG + "[Running] [Port: " + port + "] [Workers: " + rings.length + "]");
+        while (running) {
+            try {
+                selector.select(1000);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (selectionKey.isValid() && selectionKey.isReadable()) {
+                        handleOpRead();
+                    }
+                }
+            } catch (Exception e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        selector = null;
+    }
+
+    /**
+     * 批量接收，本次接收的数据报全部放入环形缓冲区后再统一发布、唤醒工作线程
+     */
+    private void handleOpRead() throws IOException {
+        int received = 0;
+        int dropped = 0;
+        InetSocketAddress sender;
+        while (received + dropped < batchSize) {
+            receiveBuffer.clear();
+            if ((sender = (InetSocketAddress) datagramChannel.receive(receiveBuffer)) == null) {
+                break;
+            }
+            receiveBuffer.flip();
+            DatagramRing ring = rings[(sender.hashCode() & Integer.MAX_VALUE) % rings.length];
+            if (ring.offer(sender, receiveBuffer)) {
+                received++;
+            } else {
+                dropped++;
+            }
+        }
+        for (DatagramRing ring : rings) {
+            ring.publish();
+        }
+        receivedCount.lazySet(receivedCount.get() + received);
+        if (dropped > 0) {
+            droppedCount.addAndGet(dropped);
+        }
+    }
+
+    private void work(DatagramRing ring) {
+        while (running) {
+            int handled = ring.drain(datagramHandler);
+            if (handled > 0) {
+                handledCount.add(handled);
+            } else {
+                ring.await();
+            }
+        }
+    }
+
+    /**
+     * 单生产者（Selector线程）单消费者（工作线程）的环形缓冲区
+     * 生产者写入若干槽位后通过 publish 一次发布，消费者处理完一批后一次归还
+     */
+    private static final class DatagramRing {
+
+        private final ByteBuffer[] slots;
+
+        private final InetSocketAddress[] senders;
+
+        private final int mask;
+
+        /**
+         * 已发布的写入位置，消费者可以读到这里
+         */
+        private final AtomicLong head = new AtomicLong();
+
+        /**
+         * 已归还的读取位置，生产者可以写到这里加容量
+         */
+        private final AtomicLong tail = new AtomicLong();
+
+        /**
+         * 生产者私有：下一个写入位置和缓存的读取位置，减少读取volatile变量
+         */
+        private long producerHead;
+
+        private long cachedTail;
+
+        private volatile boolean waiting;
+
+        private Thread worker;
+
+        private DatagramRing(int ringSize, int maxDatagramBytes) {
+            int size = Integer.highestOneBit(ringSize);
+            if (size < ringSize) {
+                size <<= 1;
+            }
+            this.mask = size - 1;
+            this.slots = new ByteBuffer[size];
+            this.senders = new InetSocketAddress[size];
+            // 所有槽位来自一个直接缓冲区的切片
+            ByteBuffer memory = ByteBuffer.allocateDirect(size * maxDatagramBytes);
+            for (int i = 0; i < size; i++) {
+                memory.limit((i + 1) * maxDatagramBytes).position(i * maxDatagramBytes);
+                slots[i] = memory.slice();
+            }
+        }
+
+        private boolean offer(InetSocketAddress sender, ByteBuffer data) {
+            if (producerHead - cachedTail > mask) {
+                cachedTail = tail.get();
+                if (producerHead - cachedTail > mask) {
+                    return false;
+                }
+            }
+            int index = (int) (producerHead & mask);
+            ByteBuffer slot = slots[index];
+            slot.clear();
+            slot.put(data);
+            slot.flip();
+            senders[index] = sender;
+            producerHead++;
+            return true;
+        }
+
+        private void publish() {
+            if (producerHead == head.get()) {
+                return;
+            }
+            // volatile写之后读取waiting，和消费者的先写waiting后读head配对，不会漏掉唤醒
+            head.set(producerHead);
+            if (waiting) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        private int drain(DatagramHandler datagramHandler) {
+            long start = tail.get();
+            long end = head.get();
+            for (long i = start; i < end; i++) {
+                int index = (int) (i & mask);
+                try {
+                    datagramHandler.onDatagram(senders[index], slots[index]);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            if (end > start) {
+                tail.lazySet(end);
+            }
+            return (int) (end - start);
+        }
+
+        private void await() {
+            waiting = true;
+            if (tail.get() == head.get()) {
+                LockSupport.parkNanos(this, WORKER_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package me.seakeer.learning.javase.network.udp;
+
+import me.seakeer.learning.javase.network.MsgEnDecoder;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * ReliableUdpService;
+ * 基于 UdpService 的可靠有序传输，适合低延迟的遥测数据
+ * 1. 每个对端地址一个 {@link ReliableUdpSession}，收到第一个分段或第一次发送时创建
+ * 2. 分段作为二进制 Datagram 通过 UdpService 发送，通道暂不可写时进入 UdpService 的待发送队列
+ * 3. 一个定时线程每 UPDATE_INTERVAL_MILLIS 毫秒更新所有会话：发送ACK、重传，移除失效的会话
+ * 消息在 UdpService 的Selector线程中按顺序交给 messageHandler
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class ReliableUdpService {
+
+    public static final String RELIABLE_UDP_SERVICE_LOG = "[ReliableUdpService] ";
+
+    private static final long UPDATE_INTERVAL_MILLIS = 10;
+
+    private static final long START_TIMEOUT_MILLIS = 3_000;
+
+    private final int port;
+
+    private final UdpService udpService = new UdpService();
+
+    private final Map<InetSocketAddress, ReliableUdpSession> ADDRESS_SESSION_MAP = new ConcurrentHashMap<>();
+
+    private volatile BiConsumer<InetSocketAddress, byte[]> messageHandler = (address, message) ->
+            System.out.printf(RELIABLE_UDP_SERVICE_LOG + "[Received Msg] [From: %s] [Msg: %s]\n", address, new String(message, MsgEnDecoder.CHARSET));
+
+    private volatile ScheduledExecutorService updateExecutor;
+
+    /**
+     * 模拟丢包率，只用于演示和测试，发出的数据报按该概率丢弃
+     */
+    private volatile double simulatedLossRate;
+
+    public ReliableUdpService(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double lossRate = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+
+        ReliableUdpService sender = new ReliableUdpService(9301).setSimulatedLossRate(lossRate);
+        ReliableUdpService receiver = new ReliableUdpService(9302).setSimulatedLossRate(lossRate);
+        CountDownLatch received = new CountDownLatch(messages);
+        long[] latencyMillis = new long[messages];
+        int[] expectedIndex = {0};
+        receiver.setMessageHandler((address, message) -> {
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            int index = buffer.getInt();
+            if (index != expectedIndex[0]++) {
+                System.out.printf(RELIABLE_UDP_SERVICE_LOG + "[Out Of Order] [Expected: %d] [Actual: %d]\n", expectedIndex[0] - 1, index);
+            }
+            latencyMillis[index] = System.currentTimeMillis() - buffer.getLong();
+            received.countDown();
+        });
+        sender.start();
+        receiver.start();
+
+        InetSocketAddress receiverAddress = new InetSocketAddress("127.0.0.1", 9302);
+        long startMillis = System.currentTimeMillis();
+        for (int i = 0; i < messages; i++) {
+            // 每100条消息中有一条需要分片
+            ByteBuffer message = ByteBuffer.allocate(i % 100 == 0 ? 5000 : 64);
+            message.putInt(i).putLong(System.currentTimeMillis());
+            sender.send(receiverAddress, message.array());
+            Thread.sleep(i % 50 == 0 ? 1 : 0);
+        }
+        boolean completed = received.await(30, TimeUnit.SECONDS);
+        long costMillis = System.currentTimeMillis() - startMillis;
+        long[] sortedLatency = Arrays.copyOf(latencyMillis, messages - (int) received.getCount());
+        Arrays.sort(sortedLatency);
+        ReliableUdpSession session = sender.getSession(receiverAddress);
+        System.out.printf(RELIABLE_UDP_SERVICE_LOG + "[Demo] [Completed: %s] [Messages: %d] [LossRate: %.2f] [Cost: %dms] " +
+                        "[Latency P50: %dms, P99: %dms, Max: %dms] [Segments: %d] [Retransmits: %d] [FastRetransmits: %d] [Srtt: %dms] [Rto: %dms]\n",
+                completed, sortedLatency.length, lossRate, costMillis,
+                percentile(sortedLatency, 0.5), percentile(sortedLatency, 0.99), percentile(sortedLatency, 1),
+                session.getSentSegments(), session.getRetransmits(), session.getFastRetransmits(), session.getSrtt(), session.getRto());
+        sender.stop();
+        receiver.stop();
+        System.exit(0);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1)];
+    }
+
+    public ReliableUdpService setMessageHandler(BiConsumer<InetSocketAddress, byte[]> messageHandler) {
+        this.messageHandler = messageHandler;
+        return this;
+    }
+
+    public ReliableUdpService setSimulatedLossRate(double simulatedLossRate) {
+        this.simulatedLossRate = simulatedLossRate;
+        return this;
+    }
+
+    /**
+     * 在新线程中启动 UdpService，等待其开始运行后启动会话更新线程
+     */
+    public void start() throws InterruptedException {
+        udpService.setDatagramHandler(this::onDatagram);
+        new Thread(() -> udpService.start(port), "ReliableUdpService-" + port).start();
+        long deadlineMillis = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (!udpService.isRunning() && System.currentTimeMillis() < deadlineMillis) {
+            Thread.sleep(10);
+        }
+        updateExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ReliableUdpUpdate-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        updateExecutor.scheduleAtFixedRate(this::update, UPDATE_INTERVAL_MILLIS, UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        System.out.println(RELIABLE_UDP_SERVICE_LOG + "[Started] [Port: " + port + "]");
+    }
+
+    public void stop() {
+        if (null != updateExecutor) {
+            updateExecutor.shutdownNow();
+            updateExecutor = null;
+        }
+        udpService.stop();
+        ADDRESS_SESSION_MAP.clear();
+    }
+
+    /**
+     * 可靠地发送一条消息，消息超过MTU时自动分片
+     *
+     * @param address 解析好的对端地址
+     * @return false表示和该对端的会话已失效
+     */
+    public boolean send(InetSocketAddress address, byte[] message) {
+        return getSession(address).send(message);
+    }
+
+    public boolean send(InetSocketAddress address, String message) {
+        return send(address, message.getBytes(MsgEnDecoder.CHARSET));
+    }
+
+    public ReliableUdpSession getSession(InetSocketAddress address) {
+        return ADDRESS_SESSION_MAP.computeIfAbsent(address, key -> new ReliableUdpSession(
+                packet -> output(key, packet),
+                message -> messageHandler.accept(key, message)));
+    }
+
+    private void output(InetSocketAddress address, byte[] packet) {
+        if (simulatedLossRate > 0 && ThreadLocalRandom.current().nextDouble() < simulatedLossRate) {
+            return;
+        }
+        udpService.send(new UdpService.Datagram(address, packet));
+    }
+
+    private void onDatagram(UdpService.Datagram datagram) {
+        getSession(datagram.getAddress()).input(datagram.getBytes(), System.currentTimeMillis());
+    }
+
+    private void update() {
+        long nowMillis = System.currentTimeMillis();
+        for (Map.Entry<InetSocketAddress, ReliableUdpSession> entry : ADDRESS_SESSION_MAP.entrySet()) {
+            try {
+                entry.getValue().update(nowMillis);
+                if (entry.getValue().isDead()) {
+                    ADDRESS_SESSION_MAP.remove(entry.getKey());
+                    System.out.println(RELIABLE_UDP_SERVICE_LOG + "[Session Dead] [Address: " + entry.getKey() + "]");
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package me.seakeer.learning.javase.network.udp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * ReliableUdpSession;
+ * 和一个对端之间的可靠有序会话（参考KCP），线程安全；不直接收发数据报，通过 output 发出分段，通过 input 输入收到的分段
+ * 1. 序号：每个分段一个递增的序号sn（32位，允许回绕），接收方在接收窗口内按序号缓存，按发送顺序交付消息
+ * 2. 确认：每个分段携带累计确认una；接收方处理完一个数据报后立即把收到的序号放入ACK分段（选择确认），发送方只重传没有被确认的分段
+ * 3. 重传：按RFC 6298 计算RTO，超时重传并按1.5倍退避；被后续分段的确认跳过 FAST_RESEND 次的分段立即快速重传，不等待超时
+ * 4. 拥塞控制：慢启动 + 拥塞避免，发生重传时窗口减半，同一窗口内的多次丢包只减一次，避免随机丢包使窗口持续降到1；
+ * 在途分段数同时受发送窗口和对端接收窗口限制
+ * 5. 分片：超过MTU的消息拆成多个分段，frg 表示后面还有多少个分段，最多 MAX_FRAGMENTS 个
+ * 丢失的分段只阻塞它之后的消息，快速重传和较小的最小RTO用来缩短阻塞时间；一个分段重传 DEAD_LINK 次后会话失效
+ * <p>
+ * 分段格式（大端序）：cmd(1) frg(1) wnd(2) sn(4) una(4) len(2) data(len)，ACK分段的data是被确认的序号列表
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class ReliableUdpSession {
+
+    private static final byte CMD_DATA = 1;
+
+    private static final byte CMD_ACK = 2;
+
+    public static final int HEADER_BYTES = 14;
+
+    public static final int DEFAULT_MTU = 1400;
+
+    public static final int DEFAULT_SEND_WINDOW = 128;
+
+    /**
+     * 接收窗口，需为2的幂
+     */
+    public static final int DEFAULT_RECEIVE_WINDOW = 256;
+
+    public static final int MAX_FRAGMENTS = 255;
+
+    private static final long INITIAL_RTO_MILLIS = 200;
+
+    private static final long MIN_RTO_MILLIS = 30;
+
+    private static final long MAX_RTO_MILLIS = 5_000;
+
+    /**
+     * 被后续分段的确认跳过多少次后快速重传
+     */
+    private static final int FAST_RESEND = 2;
+
+    /**
+     * 单个分段最多发送的次数
+     */
+    private static final int DEAD_LINK = 20;
+
+    private final Consumer<byte[]> output;
+
+    private final Consumer<byte[]> messageHandler;
+
+    private final int mtu;
+
+    private final int sendWindow;
+
+    private final int receiveWindow;
+
+    // 发送方状态
+    private int sndNxt;
+
+    private final ArrayDeque<Segment> sendQueue = new ArrayDeque<>();
+
+    /**
+     * 已发送、未确认的分段，按序号排列
+     */
+    private final ArrayDeque<Segment> sendBuffer = new ArrayDeque<>();
+
+    /**
+     * 初始拥塞窗口
+     */
+    private static final int INITIAL_CWND = 4;
+
+    private double cwnd = INITIAL_CWND;
+
+    private int ssthresh;
+
+    /**
+     * 上一次减小窗口时的 sndNxt，之前发出的分段丢失不再减小窗口
+     */
+    private int recoverySn;
+
+    private int remoteWindow = DEFAULT_RECEIVE_WINDOW;
+
+    private long srtt;
+
+    private long rttvar;
+
+    private long rto = INITIAL_RTO_MILLIS;
+
+    // 接收方状态
+    private int rcvNxt;
+
+    private final Segment[] receiveBuffer;
+
+    private int receiveBuffered;
+
+    private final ByteArrayOutputStream messageBaos = new ByteArrayOutputStream();
+
+    private int[] ackList = new int[16];
+
+    private int ackCount;
+
+    private boolean dead;
+
+    // 统计
+    private long sentSegments;
+
+    private long retransmits;
+
+    private long fastRetransmits;
+
+    private long deliveredMessages;
+
+    /**
+     * @param output         发出一个分段（一个数据报），在持有会话锁时调用，不能阻塞
+     * @param messageHandler 按顺序交付完整的消息，在调用 input 的线程中回调，不持有会话锁
+     */
+    public ReliableUdpSession(Consumer<byte[]> output, Consumer<byte[]> messageHandler) {
+        this(output, messageHandler, DEFAULT_MTU, DEFAULT_SEND_WINDOW, DEFAULT_RECEIVE_WINDOW);
+    }
+
+    public ReliableUdpSession(Consumer<byte[]> output, Consumer<byte[]> messageHandler,
+                              int mtu, int sendWindow, int receiveWindow) {
+        if (Integer.bitCount(receiveWindow) != 1 || mtu <= HEADER_BYTES + 4) {
+            throw new IllegalArgumentException("receiveWindow must be a power of 2 and mtu must exceed header");
+        }
+        this.output = output;
+        this.messageHandler = messageHandler;
+        this.mtu = mtu;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+        this.receiveBuffer = new Segment[receiveWindow];
+        this.ssthresh = sendWindow;
+    }
+
+    /**
+     * 发送一条消息，新分段在拥塞窗口允许时立即发出
+     *
+     * @return false表示会话已失效
+     */
+    public boolean send(byte[] message) {
+        int mss = mtu - HEADER_BYTES;
+        int count = Math.max(1, (message.length + mss - 1) / mss);
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Message length " + message.length + " exceeds " + MAX_FRAGMENTS * mss);
+        }
+        synchronized (this) {
+            if (dead) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                int from = i * mss;
+                byte[] data = Arrays.copyOfRange(message, from, Math.min(from + mss, message.length));
+                sendQueue.offer(new Segment(count - 1 - i, data));
+            }
+            flushData(System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * 输入收到的一个数据报，完整的消息按顺序交给 messageHandler
+     */
+    public void input(byte[] packet, long nowMillis) {
+        List<byte[]> messageList;
+        synchronized (this) {
+            messageList = doInput(packet, nowMillis);
+        }
+        for (byte[] message : messageList) {
+            messageHandler.accept(message);
+        }
+    }
+
+    /**
+     * 周期性调用（如每10毫秒）：发出积累的ACK，发送新分段，重传超时或需要快速重传的分段
+     */
+    public synchronized void update(long nowMillis) {
+        flushAck();
+        flushData(nowMillis);
+    }
+
+    public synchronized boolean isDead() {
+        return dead;
+    }
+
+    /**
+     * 待发送和未确认的分段数
+     */
+    public synchronized int getPendingSegments() {
+        return sendQueue.size() + sendBuffer.size();
+    }
+
+    public synchronized long getRto() {
+        return rto;
+    }
+
+    public synchronized long getSrtt() {
+        return srtt;
+    }
+
+    public synchronized int getCwnd() {
+        return (int) cwnd;
+    }
+
+    public synchronized long getSentSegments() {
+        return sentSegments;
+    }
+
+    public synchronized long getRetransmits() {
+        return retransmits;
+    }
+
+    public synchronized long getFastRetransmits() {
+        return fastRetransmits;
+    }
+
+    public synchronized long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    private List<byte[]> doInput(byte[] packet, long nowMillis) {
+        if (packet.length < HEADER_BYTES) {
+            return Collections.emptyList();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+        byte cmd = buffer.get();
+        int frg = buffer.get() & 0xFF;
+        int wnd = buffer.getShort() & 0xFFFF;
+        int sn = buffer.getInt();
+        int una = buffer.getInt();
+        int len = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < len) {
+            return Collections.emptyList();
+        }
+        remoteWindow = wnd;
+        int oldPending = sendBuffer.size();
+        // 先处理选择确认再处理累计确认，被逐个确认的分段才能用于计算RTT
+        if (CMD_ACK == cmd) {
+            int maxAckSn = una - 1;
+            for (int i = 0; i < len / 4; i++) {
+                int ackSn = buffer.getInt();
+                ackSegment(ackSn, nowMillis);
+                if (ackSn - maxAckSn > 0) {
+                    maxAckSn = ackSn;
+                }
+            }
+            countFastAck(maxAckSn);
+        }
+        removeUna(una);
+        int acked = oldPending - sendBuffer.size();
+        if (acked > 0) {
+            increaseCwnd(acked);
+            // 窗口向前移动，立即发送等待中的分段
+            if (!sendQueue.isEmpty()) {
+                flushData(nowMillis);
+            }
+        }
+        if (CMD_DATA != cmd) {
+            return Collections.emptyList();
+        }
+        // 窗口内和已交付的分段都需要确认，避免发送方重复重传
+        if (sn - (rcvNxt + receiveWindow) >= 0) {
+            return Collections.emptyList();
+        }
+        addAck(sn);
+        flushAck();
+        if (sn - rcvNxt < 0) {
+            return Collections.emptyList();
+        }
+        int index = sn & (receiveWindow - 1);
+        if (null == receiveBuffer[index]) {
+            byte[] data = new byte[len];
+            buffer.get(data);
+            receiveBuffer[index] = new Segment(frg, data);
+            receiveBuffered++;
+        }
+        return deliver();
+    }
+
+    /**
+     * 把连续到达的分段按顺序重组为消息
+     */
+    private List<byte[]> deliver() {
+        List<byte[]> messageList = null;
+        Segment segment;
+        while ((segment = receiveBuffer[rcvNxt & (receiveWindow - 1)]) != null) {
+            receiveBuffer[rcvNxt & (receiveWindow - 1)] = null;
+            receiveBuffered--;
+            rcvNxt++;
+            messageBaos.write(segment.data, 0, segment.data.length);
+            if (segment.frg == 0) {
+                if (null == messageList) {
+                    messageList = new ArrayList<>(2);
+                }
+                messageList.add(messageBaos.toByteArray());
+                messageBaos.reset();
+                deliveredMessages++;
+            }
+        }
+        return null == messageList ? Collections.emptyList() : messageList;
+    }
+
+    private int sndUna() {
+        return sendBuffer.isEmpty() ? sndNxt : sendBuffer.peekFirst().sn;
+    }
+
+    private void removeUna(int una) {
+        while (!sendBuffer.isEmpty() && sendBuffer.peekFirst().sn - una < 0) {
+            sendBuffer.pollFirst();
+        }
+    }
+
+    private void ackSegment(int sn, long nowMillis) {
+        Iterator<Segment> iterator = sendBuffer.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.sn == sn) {
+                // Karn算法：只用没有重传过的分段计算RTT
+                if (segment.xmit == 1) {
+                    updateRto(nowMillis - segment.ts);
+                }
+                iterator.remove();
+                return;
+            }
+            if (segment.sn - sn > 0) {
+                return;
+            }
+        }
+    }
+
+    private void countFastAck(int maxAckSn) {
+        for (Segment segment : sendBuffer) {
+            if (segment.sn - maxAckSn >= 0) {
+                return;
+            }
+            segment.fastack++;
+        }
+    }
+
+    private void updateRto(long rtt) {
+        if (srtt == 0) {
+            srtt = Math.max(rtt, 1);
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = Math.max((7 * srtt + rtt) / 8, 1);
+        }
+        rto = Math.min(Math.max(srtt + Math.max(10, 4 * rttvar), MIN_RTO_MILLIS), MAX_RTO_MILLIS);
+    }
+
+    /**
+     * 每确认一个分段，慢启动阶段窗口加1，拥塞避免阶段加 1/cwnd
+     */
+    private void increaseCwnd(int acked) {
+        for (int i = 0; i < acked; i++) {
+            cwnd += cwnd < ssthresh ? 1 : 1 / cwnd;
+        }
+        cwnd = Math.min(cwnd, sendWindow);
+    }
+
+    private void addAck(int sn) {
+        if (ackCount == ackList.length) {
+            ackList = Arrays.copyOf(ackList, ackCount * 2);
+        }
+        ackList[ackCount++] = sn;
+    }
+
+    private void flushAck() {
+        int maxAcksPerSegment = (mtu - HEADER_BYTES) / 4;
+        for (int from = 0; from < ackCount; from += maxAcksPerSegment) {
+            int count = Math.min(maxAcksPerSegment, ackCount - from);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * 4);
+            writeHeader(buffer, CMD_ACK, 0, 0, count * 4);
+            for (int i = from; i < from + count; i++) {
+                buffer.putInt(ackList[i]);
+            }
+            output.accept(buffer.array());
+        }
+        ackCount = 0;
+    }
+
+    private void flushData(long nowMillis) {
+        if (dead) {
+            return;
+        }
+        // 流量控制：最早未确认的分段到最新分段的跨度不超过发送窗口和对端接收窗口，对端窗口为0时仍允许一个分段，避免死锁
+        // 拥塞控制：只统计没有被确认的分段（选择确认），一个丢失的分段不会阻塞后续分段的发送
+        int window = Math.min(sendWindow, Math.max(remoteWindow, 1));
+        while (!sendQueue.isEmpty() && sndNxt - sndUna() < window && sendBuffer.size() < (int) cwnd) {
+            Segment segment = sendQueue.poll();
+            segment.sn = sndNxt++;
+            sendBuffer.offer(segment);
+        }
+        boolean lost = false;
+        for (Segment segment : sendBuffer) {
+            if (segment.xmit == 0) {
+                segment.rto = rto;
+            } else if (nowMillis - segment.resendAt >= 0) {
+                retransmits++;
+                segment.rto = Math.min(segment.rto + segment.rto / 2, MAX_RTO_MILLIS);
+                lost |= segment.sn - recoverySn >= 0;
+            } else if (segment.fastack >= FAST_RESEND) {
+                fastRetransmits++;
+                segment.fastack = 0;
+                lost |= segment.sn - recoverySn >= 0;
+            } else {
+                continue;
+            }
+            segment.xmit++;
+            segment.ts = nowMillis;
+            segment.resendAt = nowMillis + segment.rto;
+            output(segment);
+            if (segment.xmit >= DEAD_LINK) {
+                dead = true;
+            }
+        }
+        if (lost) {
+            ssthresh = Math.max(sendBuffer.size() / 2, 2);
+            cwnd = ssthresh;
+            recoverySn = sndNxt;
+        }
+    }
+
+    private void output(Segment segment) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + segment.data.length);
+        writeHeader(buffer, CMD_DATA, segment.frg, segment.sn, segment.data.length);
+        buffer.put(segment.data);
+        sentSegments++;
+        output.accept(buffer.array());
+    }
+
+    private void writeHeader(ByteBuffer buffer, byte cmd, int frg, int sn, int len) {
+        buffer.put(cmd)
+                .put((byte) frg)
+                .putShort((short) Math.max(receiveWindow - receiveBuffered, 0))
+                .putInt(sn)
+                .putInt(rcvNxt)
+                .putShort((short) len);
+    }
+
+    private static class Segment {
+
+        private final int frg;
+
+        private final byte[] data;
+
+        private int sn;
+
+        /**
+         * 发送次数
+         */
+        private int xmit;
+
+        /**
+         * 最近一次发送的时间
+         */
+        private long ts;
+
+        private long resendAt;
+
+        private long rto;
+
+        /**
+         * 被后续分段的确认跳过的次数
+         */
+        private int fastack;
+
+        private Segment(int frg, byte[] data) {
+            this.frg = frg;
+            this.data = data;
+        }
+    }
+}
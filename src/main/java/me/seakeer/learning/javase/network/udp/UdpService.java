@@ -1,6 +1,7 @@
 package me.seakeer.learning.javase.network.udp;
 
 import me.seakeer.learning.javase.network.MsgEnDecoder;
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -13,10 +14,16 @@ import java.util.Iterator;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 /**
  * UdpService;
  * UDP服务，支持发送和接收数据报
+ * 1. 接收缓冲区在启动时申请一次，每次可读时复用；对端地址只取IP字符串，不做反向DNS解析
+ * 2. Datagram 缓存解析后的地址，重试发送时不再重复解析主机名
+ * 3. Datagram 可以携带二进制数据，接收到的数据报交给 datagramHandler 处理，可在其上实现可靠传输（见 {@link ReliableUdpService}）
+ * 4. 只有待发送队列不为空时才关注 OP_WRITE，避免UDP通道始终可写导致Selector空转
+ * 高吞吐的场景见 {@link BatchUdpService}
  *
  * @author Seakeer;
  * @date 2024/10/19;
@@ -35,9 +42,21 @@ public class UdpService {
 
     private static final int DEFAULT_PORT = 8888;
 
+    /**
+     * 需要能容纳一个MTU大小的数据报
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 2048;
+
+    /**
+     * 只在Selector线程中使用的接收缓冲区
+     */
+    private ByteBuffer receiveBuffer;
+
     private volatile boolean running = false;
 
-    private static final ConcurrentLinkedQueue<Datagram> SENDING_DATAGRAM_QUEUE = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Datagram> SENDING_DATAGRAM_QUEUE = new ConcurrentLinkedQueue<>();
+
+    private volatile Consumer<Datagram> datagramHandler = this::receive;
 
     public static void main(String[] args) {
         UdpService udpService = new UdpService();
@@ -117,12 +136,30 @@ public class UdpService {
                 selector.close();
                 selector = null;
             }
+            ByteBufferPool.DEFAULT.release(receiveBuffer);
+            receiveBuffer = null;
             System.out.println(UDP_SERVICE_LOG + "[Stopped]");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 设置接收到数据报的处理器，在Selector线程中回调，默认输出日志
+     */
+    public UdpService setDatagramHandler(Consumer<Datagram> datagramHandler) {
+        this.datagramHandler = datagramHandler;
+        return this;
+    }
+
     public void restart() {
         stop();
         start(this.port == 0 ? DEFAULT_PORT : this.port);
@@ -135,7 +172,10 @@ public class UdpService {
             this.datagramChannel = DatagramChannel.open();
             datagramChannel.configureBlocking(false);
             datagramChannel.bind(new InetSocketAddress(this.port));
-            datagramChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            if (null == receiveBuffer) {
+                receiveBuffer = ByteBufferPool.DEFAULT.acquire(RECEIVE_BUFFER_SIZE);
+            }
+            datagramChannel.register(selector, SelectionKey.OP_READ);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -146,8 +186,13 @@ public class UdpService {
         System.out.println(UDP_SERVICE_LOG + "[Running] [Port: " + this.port + "]");
         while (running) {
             try {
-                selector.select(1000);
-                Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                // stop() 会在其他线程中关闭并置空 selector
+                Selector currentSelector = selector;
+                if (null == currentSelector) {
+                    break;
+                }
+                currentSelector.select(1000);
+                Set<SelectionKey> selectionKeys = currentSelector.selectedKeys();
                 Iterator<SelectionKey> iterator = selectionKeys.iterator();
                 while (iterator.hasNext()) {
                     SelectionKey selectionKey = iterator.next();
@@ -159,38 +204,49 @@ public class UdpService {
                         handleOpRead();
                     }
                     if (selectionKey.isValid() && selectionKey.isWritable()) {
-                        handleOpWrite();
+                        handleOpWrite(selectionKey);
                     }
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                if (running) {
+                    e.printStackTrace();
+                }
             }
         }
     }
 
     private void handleOpRead() {
+        ByteBuffer buffer = receiveBuffer;
         try {
-            ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
             InetSocketAddress addr;
+            buffer.clear();
             while ((addr = (InetSocketAddress) datagramChannel.receive(buffer)) != null) {
                 buffer.flip();
-                String data = MsgEnDecoder.decodeMsg(buffer);
-                receive(new Datagram(addr.getHostName(), addr.getPort(), data));
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                buffer.clear();
+                // 每个数据报独立处理，文本在使用时才解码
+                datagramHandler.accept(new Datagram(addr, bytes));
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void handleOpWrite() {
+    private void handleOpWrite(SelectionKey selectionKey) {
         Datagram datagram;
         while ((datagram = SENDING_DATAGRAM_QUEUE.peek()) != null) {
-            if (send(datagram)) {
+            if (write(datagram)) {
                 SENDING_DATAGRAM_QUEUE.poll();
             } else {
-                break;
+                return;
             }
         }
+        selectionKey.interestOps(SelectionKey.OP_READ);
+        // 取消关注后又有数据报入队，则重新关注
+        if (!SENDING_DATAGRAM_QUEUE.isEmpty()) {
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
     }
 
     private void receive(Datagram datagram) {
@@ -202,16 +258,24 @@ public class UdpService {
     }
 
     public boolean send(Datagram datagram) {
-        if (write(datagram)) {
+        // 队列中已有数据报时排队，保证发送顺序
+        if (SENDING_DATAGRAM_QUEUE.isEmpty() && write(datagram)) {
             return true;
         }
         SENDING_DATAGRAM_QUEUE.offer(datagram);
+        Selector currentSelector = selector;
+        DatagramChannel currentChannel = datagramChannel;
+        SelectionKey selectionKey = null == currentSelector || null == currentChannel ? null : currentChannel.keyFor(currentSelector);
+        if (null != selectionKey && selectionKey.isValid()) {
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            currentSelector.wakeup();
+        }
         return true;
     }
 
     private boolean write(Datagram datagram) {
-        ByteBuffer byteBuffer = MsgEnDecoder.encodeMsg(datagram.getData());
-        SocketAddress socketAddress = new InetSocketAddress(datagram.getHostname(), datagram.getPort());
+        ByteBuffer byteBuffer = null == datagram.getBytes() ? MsgEnDecoder.encodeMsg(datagram.getData()) : ByteBuffer.wrap(datagram.getBytes());
+        SocketAddress socketAddress = datagram.getAddress();
         try {
             while (byteBuffer.hasRemaining()) {
                 int writeBytes = datagramChannel.send(byteBuffer, socketAddress);
@@ -219,11 +283,18 @@ public class UdpService {
                     return false;
                 }
             }
-            System.out.println(UDP_SERVICE_LOG + "[Send Datagram] " + datagram);
+            // 二进制数据报（如可靠传输层的分段）不输出日志
+            if (null == datagram.getBytes()) {
+                System.out.println(UDP_SERVICE_LOG + "[Send Datagram] " + datagram);
+            }
             return true;
         } catch (IOException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            if (null == datagram.getBytes()) {
+                ByteBufferPool.DEFAULT.release(byteBuffer);
+            }
         }
     }
 
@@ -231,6 +302,14 @@ public class UdpService {
         private String hostname;
         private int port;
         private String data;
+        /**
+         * 二进制数据，不为null时发送二进制数据，data 在第一次获取时由其解码
+         */
+        private byte[] bytes;
+        /**
+         * 解析后的地址，第一次使用时解析，修改主机名或端口后重新解析
+         */
+        private InetSocketAddress address;
 
         public Datagram(String hostname, int port, String data) {
             this.hostname = hostname;
@@ -238,12 +317,34 @@ public class UdpService {
             this.data = data;
         }
 
+        public Datagram(InetSocketAddress address, String data) {
+            this.hostname = address.getHostString();
+            this.port = address.getPort();
+            this.address = address;
+            this.data = data;
+        }
+
+        public Datagram(InetSocketAddress address, byte[] bytes) {
+            this.hostname = address.getHostString();
+            this.port = address.getPort();
+            this.address = address;
+            this.bytes = bytes;
+        }
+
+        public InetSocketAddress getAddress() {
+            if (null == address) {
+                address = new InetSocketAddress(hostname, port);
+            }
+            return address;
+        }
+
         public String getHostname() {
             return hostname;
         }
 
         public Datagram setHostname(String hostname) {
             this.hostname = hostname;
+            this.address = null;
             return this;
         }
 
@@ -253,21 +354,30 @@ public class UdpService {
 
         public Datagram setPort(int port) {
             this.port = port;
+            this.address = null;
             return this;
         }
 
         public String getData() {
+            if (null == data && null != bytes) {
+                data = new String(bytes, MsgEnDecoder.CHARSET);
+            }
             return data;
         }
 
         public Datagram setData(String data) {
             this.data = data;
+            this.bytes = null;
             return this;
         }
 
+        public byte[] getBytes() {
+            return bytes;
+        }
+
         @Override
         public String toString() {
-            return String.format("[Hostname: %s, Port: %d, Data: %s]", hostname, port, data);
+            return String.format("[Hostname: %s, Port: %d, Data: %s]", hostname, port, getData());
         }
     }
 }
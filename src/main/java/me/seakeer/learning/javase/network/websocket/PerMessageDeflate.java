@@ -0,0 +1,417 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PerMessageDeflate;
+ * WebSocket permessage-deflate 压缩扩展（RFC 7692），每个连接一个实例
+ * 1. 协商：客户端在 Sec-WebSocket-Extensions 中提供 permessage-deflate，服务端选择第一个可接受的提议并在响应中确认
+ * 2. 上下文接管：no_context_takeover 的方向每条消息后重置压缩器/解压器，使用池化的 Deflater/Inflater，用完归还；
+ * 保留上下文的方向在连接存续期间独占一个实例，连接关闭时归还
+ * 3. 窗口大小：java.util.zip 只支持15位窗口，对方要求 server_max_window_bits < 15 时拒绝该提议；
+ * 解压器可以解压任意不超过15位窗口的数据，因此不需要限制对方的窗口
+ * 4. 压缩的消息第一个帧设置RSV1，数据为 deflate + SYNC_FLUSH 去掉末尾的 00 00 FF FF；解压时补回
+ * 5. 统计：原始字节数、压缩后字节数、压缩/解压耗时，用于权衡带宽和CPU
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class PerMessageDeflate {
+
+    public static final String SEC_WEB_SOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+
+    public static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+
+    public static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    /**
+     * java.util.zip 使用的窗口大小
+     */
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * 小于该长度的消息不压缩，压缩收益小于开销
+     */
+    public static final int DEFAULT_MIN_COMPRESS_BYTES = 64;
+
+    private static final int MAX_POOLED = 256;
+
+    private static final byte[] SYNC_FLUSH_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private static final ConcurrentLinkedQueue<Deflater> DEFLATER_POOL = new ConcurrentLinkedQueue<>();
+
+    private static final ConcurrentLinkedQueue<Inflater> INFLATER_POOL = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger DEFLATER_POOL_SIZE = new AtomicInteger();
+
+    private static final AtomicInteger INFLATER_POOL_SIZE = new AtomicInteger();
+
+    private final boolean server;
+
+    private final boolean serverNoContextTakeover;
+
+    private final boolean clientNoContextTakeover;
+
+    private final int level;
+
+    /**
+     * 保留上下文时独占的压缩器/解压器
+     */
+    private Deflater deflater;
+
+    private Inflater inflater;
+
+    private final LongAdder rawBytesOut = new LongAdder();
+
+    private final LongAdder compressedBytesOut = new LongAdder();
+
+    private final LongAdder compressNanos = new LongAdder();
+
+    private final LongAdder compressedBytesIn = new LongAdder();
+
+    private final LongAdder rawBytesIn = new LongAdder();
+
+    private final LongAdder decompressNanos = new LongAdder();
+
+    private PerMessageDeflate(boolean server, boolean serverNoContextTakeover, boolean clientNoContextTakeover, int level) {
+        this.server = server;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.level = level;
+    }
+
+    /**
+     * 服务端：从客户端的提议中选择第一个可接受的
+     * 服务端总是声明 server_no_context_takeover：压缩器可以池化，广播的消息只需压缩一次，慢消费者丢弃消息也不会破坏压缩上下文
+     *
+     * @param extensionsHeader      客户端的 Sec-WebSocket-Extensions
+     * @param clientContextTakeover 是否允许客户端保留压缩上下文，允许时服务端每个连接独占一个解压器
+     * @param level                 压缩级别
+     * @return 没有可接受的提议时返回null
+     */
+    public static PerMessageDeflate negotiate(String extensionsHeader, boolean clientContextTakeover, int level) {
+        if (null == extensionsHeader) {
+            return null;
+        }
+        for (String offer : extensionsHeader.split(",")) {
+            String[] params = offer.split(";");
+            if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(params[0].trim())) {
+                continue;
+            }
+            boolean acceptable = true;
+            boolean clientNoContextTakeover = !clientContextTakeover;
+            for (int i = 1; i < params.length; i++) {
+                String[] nameValue = params[i].trim().split("=", 2);
+                String name = nameValue[0].trim();
+                String value = nameValue.length > 1 ? nameValue[1].trim().replace("\"", "") : null;
+                if (CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name)) {
+                    clientNoContextTakeover = true;
+                } else if (SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+                    // 无法缩小压缩窗口
+                    acceptable = null != value && parseWindowBits(value) == MAX_WINDOW_BITS;
+                } else if (!SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name) && !CLIENT_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+                    // 未知参数
+                    acceptable = false;
+                }
+                if (!acceptable) {
+                    break;
+                }
+            }
+            if (acceptable) {
+                return new PerMessageDeflate(true, true, clientNoContextTakeover, level);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 客户端的提议
+     */
+    public static String offerHeader() {
+        return PERMESSAGE_DEFLATE;
+    }
+
+    /**
+     * 客户端：解析服务端的响应
+     *
+     * @param extensionsHeader 服务端的 Sec-WebSocket-Extensions
+     * @param level            压缩级别
+     * @return 服务端没有启用时返回null
+     * @throws IOException 响应中有客户端无法接受的参数，需断开连接
+     */
+    public static PerMessageDeflate accept(String extensionsHeader, int level) throws IOException {
+        if (null == extensionsHeader || extensionsHeader.trim().isEmpty()) {
+            return null;
+        }
+        String[] params = extensionsHeader.split(";");
+        if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(params[0].trim())) {
+            throw new IOException("Unsupported Extension: " + extensionsHeader);
+        }
+        boolean serverNoContextTakeover = false;
+        boolean clientNoContextTakeover = false;
+        for (int i = 1; i < params.length; i++) {
+            String name = params[i].trim().split("=", 2)[0].trim();
+            if (SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name)) {
+                serverNoContextTakeover = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name)) {
+                clientNoContextTakeover = true;
+            } else if (!SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+                // 客户端没有提议 client_max_window_bits，服务端不能要求
+                throw new IOException("Unsupported Extension Param: " + extensionsHeader);
+            }
+        }
+        return new PerMessageDeflate(false, serverNoContextTakeover, clientNoContextTakeover, level);
+    }
+
+    /**
+     * 服务端的响应
+     */
+    public String responseHeader() {
+        StringBuilder header = new StringBuilder(PERMESSAGE_DEFLATE);
+        if (serverNoContextTakeover) {
+            header.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (clientNoContextTakeover) {
+            header.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        return header.toString();
+    }
+
+    public boolean shouldCompress(int length) {
+        return length >= DEFAULT_MIN_COMPRESS_BYTES;
+    }
+
+    /**
+     * 本端发送方向是否保留压缩上下文
+     */
+    public boolean isLocalContextTakeover() {
+        return server ? !serverNoContextTakeover : !clientNoContextTakeover;
+    }
+
+    private boolean isPeerContextTakeover() {
+        return server ? !clientNoContextTakeover : !serverNoContextTakeover;
+    }
+
+    /**
+     * 压缩一条消息，保留上下文时需按发送顺序调用
+     *
+     * @param data
+     * @return 压缩后的数据，已去掉末尾的 00 00 FF FF
+     */
+    public synchronized byte[] compress(byte[] data) {
+        long startNanos = System.nanoTime();
+        byte[] compressed;
+        if (isLocalContextTakeover()) {
+            if (null == deflater) {
+                deflater = acquireDeflater(level);
+            }
+            compressed = deflate(deflater, data);
+        } else {
+            compressed = compressShared(data, level);
+        }
+        compressNanos.add(System.nanoTime() - startNanos);
+        recordCompressed(data.length, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * 不保留上下文的压缩，结果与连接无关，可供多个连接共享（如广播）
+     */
+    public static byte[] compressShared(byte[] data, int level) {
+        Deflater sharedDeflater = acquireDeflater(level);
+        try {
+            return deflate(sharedDeflater, data);
+        } finally {
+            releaseDeflater(sharedDeflater);
+        }
+    }
+
+    /**
+     * 记录发送的原始字节数和压缩后的字节数，共享压缩结果时由调用方记录
+     */
+    public void recordCompressed(int rawBytes, int compressedBytes) {
+        rawBytesOut.add(rawBytes);
+        compressedBytesOut.add(compressedBytes);
+    }
+
+    /**
+     * 解压一条消息，只在读取数据的线程中按接收顺序调用
+     *
+     * @param payload       压缩的数据
+     * @param maxPayloadLen 解压后的最大长度，防止压缩炸弹
+     * @return
+     * @throws WebSocketEnDecoder.FrameException 数据格式错误或解压后超过最大长度
+     */
+    public byte[] decompress(ByteBuffer payload, int maxPayloadLen) throws WebSocketEnDecoder.FrameException {
+        long startNanos = System.nanoTime();
+        int compressedLen = payload.remaining();
+        byte[] input = new byte[compressedLen + SYNC_FLUSH_TAIL.length];
+        payload.duplicate().get(input, 0, compressedLen);
+        System.arraycopy(SYNC_FLUSH_TAIL, 0, input, compressedLen, SYNC_FLUSH_TAIL.length);
+
+        boolean takeover = isPeerContextTakeover();
+        Inflater currentInflater = takeover ? (null != inflater ? inflater : (inflater = acquireInflater())) : acquireInflater();
+        try {
+            currentInflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(compressedLen * 4, 64));
+            byte[] block = new byte[Math.min(Math.max(compressedLen * 4, 64), 16 * 1024)];
+            while (true) {
+                int inflateBytes = currentInflater.inflate(block);
+                if (inflateBytes > 0) {
+                    out.write(block, 0, inflateBytes);
+                    if (out.size() > maxPayloadLen) {
+                        throw new WebSocketEnDecoder.FrameException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG, "Inflated length exceeds max payload length " + maxPayloadLen);
+                    }
+                } else if (currentInflater.needsInput() || currentInflater.finished() || currentInflater.needsDictionary()) {
+                    break;
+                }
+            }
+            compressedBytesIn.add(compressedLen);
+            rawBytesIn.add(out.size());
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new WebSocketEnDecoder.FrameException("Invalid Deflate Data: " + e.getMessage());
+        } finally {
+            if (!takeover) {
+                releaseInflater(currentInflater);
+            }
+            decompressNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 连接关闭时归还独占的压缩器/解压器
+     */
+    public synchronized void close() {
+        if (null != deflater) {
+            releaseDeflater(deflater);
+            deflater = null;
+        }
+        if (null != inflater) {
+            releaseInflater(inflater);
+            inflater = null;
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] block = new byte[Math.min(data.length + 64, 16 * 1024)];
+        int deflateBytes;
+        do {
+            // SYNC_FLUSH 输出所有已输入的数据，输出缓冲区写满时需继续调用
+            deflateBytes = deflater.deflate(block, 0, block.length, Deflater.SYNC_FLUSH);
+            out.write(block, 0, deflateBytes);
+        } while (deflateBytes == block.length);
+        byte[] compressed = out.toByteArray();
+        int length = compressed.length;
+        if (length >= SYNC_FLUSH_TAIL.length && compressed[length - 4] == 0 && compressed[length - 3] == 0
+                && compressed[length - 2] == (byte) 0xFF && compressed[length - 1] == (byte) 0xFF) {
+            length -= SYNC_FLUSH_TAIL.length;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(compressed, 0, result, 0, length);
+        return result;
+    }
+
+    private static Deflater acquireDeflater(int level) {
+        Deflater pooled = DEFLATER_POOL.poll();
+        if (null == pooled) {
+            return new Deflater(level, true);
+        }
+        DEFLATER_POOL_SIZE.decrementAndGet();
+        pooled.setLevel(level);
+        return pooled;
+    }
+
+    private static void releaseDeflater(Deflater released) {
+        released.reset();
+        if (DEFLATER_POOL_SIZE.incrementAndGet() <= MAX_POOLED) {
+            DEFLATER_POOL.offer(released);
+        } else {
+            DEFLATER_POOL_SIZE.decrementAndGet();
+            released.end();
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        Inflater pooled = INFLATER_POOL.poll();
+        if (null == pooled) {
+            return new Inflater(true);
+        }
+        INFLATER_POOL_SIZE.decrementAndGet();
+        return pooled;
+    }
+
+    private static void releaseInflater(Inflater released) {
+        released.reset();
+        if (INFLATER_POOL_SIZE.incrementAndGet() <= MAX_POOLED) {
+            INFLATER_POOL.offer(released);
+        } else {
+            INFLATER_POOL_SIZE.decrementAndGet();
+            released.end();
+        }
+    }
+
+    private static int parseWindowBits(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public long getRawBytesOut() {
+        return rawBytesOut.sum();
+    }
+
+    public long getCompressedBytesOut() {
+        return compressedBytesOut.sum();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getRawBytesIn() {
+        return rawBytesIn.sum();
+    }
+
+    public long getCompressedBytesIn() {
+        return compressedBytesIn.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * 发送方向的压缩率（压缩后/原始）
+     */
+    public double getCompressionRatio() {
+        long raw = rawBytesOut.sum();
+        return raw == 0 ? 1.0 : (double) compressedBytesOut.sum() / raw;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + responseHeader() + "]" +
+                " [Out: " + getRawBytesOut() + " -> " + getCompressedBytesOut() + " Bytes, " + getCompressNanos() / 1000 + " us]" +
+                " [In: " + getCompressedBytesIn() + " -> " + getRawBytesIn() + " Bytes, " + getDecompressNanos() / 1000 + " us]" +
+                String.format(" [Ratio: %.2f]", getCompressionRatio());
+    }
+}
@@ -4,10 +4,10 @@ import me.seakeer.learning.javase.network.http.myhttp.MyHttpProtHandler;
 import me.seakeer.learning.javase.network.http.myhttp.MyHttpReq;
 import me.seakeer.learning.javase.network.http.myhttp.MyHttpResp;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Base64;
@@ -16,11 +16,14 @@ import java.util.Scanner;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 /**
  * WebSocketClient;
  * WebSocket协议客户端
  * 基于JAVA BIO，支持心跳保活，断线重连
+ * 握手时提议 permessage-deflate，服务端同意后压缩发送的文本消息，解压RSV1置位的消息
+ * 数据帧流式解码，设置 binaryMessageListener 后二进制消息边接收边交给监听器
  *
  * @author Seakeer;
  * @date 2024/12/29;
@@ -36,6 +39,8 @@ public class WebSocketClient {
 
     private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
     private final String serverHostname;
 
     private final int serverPort;
@@ -45,6 +50,16 @@ public class WebSocketClient {
      */
     private volatile Socket socket;
 
+    /**
+     * 握手时协商的压缩扩展，服务端没有同意时为null
+     */
+    private volatile PerMessageDeflate perMessageDeflate;
+
+    /**
+     * 流式接收二进制消息的监听器，为null时二进制消息聚合后处理
+     */
+    private volatile WebSocketMessageListener binaryMessageListener;
+
     /**
      * 定时保活线程池
      */
@@ -83,6 +98,11 @@ public class WebSocketClient {
         this.serverPort = serverPort;
     }
 
+    public WebSocketClient setBinaryMessageListener(WebSocketMessageListener binaryMessageListener) {
+        this.binaryMessageListener = binaryMessageListener;
+        return this;
+    }
+
     public static void main(String[] args) {
         WebSocketClient webSocketClient = new WebSocketClient("127.0.0.1", 9999);
         cmd(webSocketClient);
@@ -145,6 +165,7 @@ public class WebSocketClient {
                 socket.close();
                 socket = null;
             }
+            closePerMessageDeflate();
             System.out.println(WEB_SOCKET_CLIENT_LOG + "[Stopped]");
         } catch (Exception e) {
             e.printStackTrace();
@@ -170,7 +191,9 @@ public class WebSocketClient {
             MyHttpReq req = genWebSocketHandshakeReq();
             MyHttpResp resp = MyHttpProtHandler.send(req, socket.getInputStream(), socket.getOutputStream());
             if (webSocketHandshakeOk(req, resp)) {
-                System.out.println(WEB_SOCKET_CLIENT_LOG + "[Handshake Success]");
+                closePerMessageDeflate();
+                perMessageDeflate = PerMessageDeflate.accept(resp.getHeader(PerMessageDeflate.SEC_WEB_SOCKET_EXTENSIONS), Deflater.DEFAULT_COMPRESSION);
+                System.out.println(WEB_SOCKET_CLIENT_LOG + "[Handshake Success] [PerMessageDeflate: " + perMessageDeflate + "]");
                 onConnected();
                 return true;
             } else {
@@ -247,8 +270,16 @@ public class WebSocketClient {
             if (socket == null) {
                 return false;
             }
-            socket.getOutputStream().write(WebSocketEnDecoder.encode(WebSocketFrame.clientTextFrame(msg)));
-            socket.getOutputStream().flush();
+            byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+            // 保留压缩上下文时，压缩顺序必须与发送顺序一致
+            synchronized (this) {
+                PerMessageDeflate deflate = perMessageDeflate;
+                WebSocketFrame frame = null != deflate && deflate.shouldCompress(data.length)
+                        ? WebSocketFrame.clientTextFrame(deflate.compress(data), true)
+                        : WebSocketFrame.clientTextFrame(data, false);
+                socket.getOutputStream().write(WebSocketEnDecoder.encode(frame));
+                socket.getOutputStream().flush();
+            }
             System.out.println(WEB_SOCKET_CLIENT_LOG + "[Send Msg] [Msg: " + msg + "]");
             return true;
         } catch (Exception e) {
@@ -302,62 +333,67 @@ public class WebSocketClient {
      */
     private void receivingMsg() {
         try {
-            BufferedInputStream bis = new BufferedInputStream(socket.getInputStream());
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream oneFrameBaos = new ByteArrayOutputStream();
-            ByteArrayOutputStream oneDataBaos = new ByteArrayOutputStream();
-            while (true) {
-                int bytesRead = bis.read(buffer);
+            InputStream in = socket.getInputStream();
+            WebSocketStreamDecoder decoder = new WebSocketStreamDecoder(new WebSocketMessageAggregator(perMessageDeflate,
+                    WebSocketEnDecoder.DEFAULT_MAX_PAYLOAD_LEN, binaryMessageListener) {
+
+                @Override
+                protected void onMessage(byte[] data, boolean text) {
+                    handleOneData(data, text);
+                }
+
+                @Override
+                public void onControlFrame(WebSocketFrame frame) throws IOException {
+                    switch (frame.getOpCode()) {
+                        case CLOSE_FRAME:
+                            byte[] closeFrame = WebSocketEnDecoder.encode(WebSocketFrame.clientCloseFrame());
+                            socket.getOutputStream().write(closeFrame);
+                            socket.getOutputStream().flush();
+                            break;
+                        case PING_FRAME:
+                            handleServerPing();
+                            break;
+                        case PONG_FRAME:
+                            handleServerPong();
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            });
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (!decoder.isCloseReceived()) {
+                int bytesRead = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
                 if (bytesRead == -1) {
                     System.out.println(WEB_SOCKET_CLIENT_LOG + "[Disconnected]");
                     reconnect();
                     break;
                 }
-                oneFrameBaos.write(buffer, 0, bytesRead);
-
-                // 尝试解码当前帧
-                WebSocketFrame frame = WebSocketEnDecoder.decode(oneFrameBaos.toByteArray());
-                if (frame == null) {
-                    continue;
-                }
-                oneFrameBaos.reset();
-
-                switch (frame.getOpCode()) {
-                    case CLOSE_FRAME:
-                        byte[] closeFrame = WebSocketEnDecoder.encode(WebSocketFrame.clientCloseFrame());
-                        socket.getOutputStream().write(closeFrame);
-                        socket.getOutputStream().flush();
-                        return;
-                    case TEXT_FRAME:
-                    case BINARY_FRAME:
-                        oneDataBaos.write(frame.deMaskPayload());
-                        if (frame.isFin()) {
-                            handleOneData(oneDataBaos.toByteArray(), WebSocketFrame.OpCode.TEXT_FRAME.equals(frame.getOpCode()));
-                            oneDataBaos.reset();
-                        }
-                        break;
-                    case PING_FRAME:
-                        handleServerPing();
-                        break;
-                    case PONG_FRAME:
-                        handleServerPong();
-                        break;
-                    default:
-                        break;
-                }
+                buffer.position(buffer.position() + bytesRead);
+                buffer.flip();
+                decoder.decode(buffer);
+                buffer.compact();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void closePerMessageDeflate() {
+        PerMessageDeflate deflate = perMessageDeflate;
+        perMessageDeflate = null;
+        if (null != deflate) {
+            deflate.close();
+        }
+    }
+
     private void handleServerPing() {
         System.out.println(WEB_SOCKET_CLIENT_LOG + "[Received Server Ping]");
         pong();
     }
 
 
-    private void handleOneData(byte[] byteArray, boolean textFrame) throws IOException {
+    private void handleOneData(byte[] byteArray, boolean textFrame) {
         if (textFrame) {
             String msg = new String(byteArray, StandardCharsets.UTF_8);
             if (msg.startsWith("FROM ")) {
@@ -400,7 +436,8 @@ public class WebSocketClient {
                 .addHeader("Connection", "Upgrade")
                 .addHeader("Sec-WebSocket-Protocol", "chat")
                 .addHeader("Sec-WebSocket-Key", secWebSocketKey)
-                .addHeader("Sec-WebSocket-Version", "13");
+                .addHeader("Sec-WebSocket-Version", "13")
+                .addHeader(PerMessageDeflate.SEC_WEB_SOCKET_EXTENSIONS, PerMessageDeflate.offerHeader());
     }
 
     private String genSecWebSocketKey() {
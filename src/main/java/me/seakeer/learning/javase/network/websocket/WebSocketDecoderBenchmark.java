@@ -0,0 +1,151 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WebSocketDecoderBenchmark;
+ * 对比两种数据帧解码方式的耗时和内存分配，输入为客户端发送的带掩码的文本帧，每次读取1024字节
+ * 1. Legacy：原 handleClientWebSocketData 的实现，ByteArrayOutputStream 累积数据，每次尝试解码都 toByteArray 拷贝，
+ * decode(byte[]) 再拷贝数据部分，deMaskPayload 逐字节去除掩码并拷贝
+ * 2. InPlace：decode(ByteBuffer) 在累积数据的缓冲区中原地解析帧头，按8字节去除掩码，数据部分为缓冲区切片
+ * 简单的预热 + 计时，不依赖JMH，结果仅用于相对比较；内存分配通过 com.sun.management.ThreadMXBean 统计
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class WebSocketDecoderBenchmark {
+
+    private static final int READ_SIZE = 1024;
+
+    private static final int STREAM_BYTES = 4 * 1024 * 1024;
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int MEASURE_ROUNDS = 20;
+
+    private static final int[] PAYLOAD_SIZES = {16, 1024, 60 * 1024};
+
+    private static long checksum = 0;
+
+    public static void main(String[] args) {
+        for (int payloadSize : PAYLOAD_SIZES) {
+            byte[] stream = genFrameStream(payloadSize);
+            int frameCount = frameCount(stream);
+
+            long[] legacy = measure(stream, true);
+            long[] inPlace = measure(stream, false);
+
+            System.out.printf("[WebSocketDecoderBenchmark] [PayloadSize: %d] [Frames: %d] " +
+                            "[Legacy: %d ns/frame, %d B/frame] [InPlace: %d ns/frame, %d B/frame] [Speedup: %.2fx]\n",
+                    payloadSize, frameCount,
+                    legacy[0] / frameCount, legacy[1] / frameCount,
+                    inPlace[0] / frameCount, inPlace[1] / frameCount,
+                    (double) legacy[0] / inPlace[0]);
+        }
+        System.out.println("[WebSocketDecoderBenchmark] [Checksum: " + checksum + "]");
+    }
+
+    /**
+     * @return [每轮耗时纳秒, 每轮分配字节]
+     */
+    private static long[] measure(byte[] stream, boolean legacy) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(stream, legacy);
+        }
+        long startBytes = allocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            run(stream, legacy);
+        }
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+        return new long[]{nanos / MEASURE_ROUNDS, bytes / MEASURE_ROUNDS};
+    }
+
+    private static void run(byte[] stream, boolean legacy) {
+        try {
+            if (legacy) {
+                runLegacy(stream);
+            } else {
+                runInPlace(stream);
+            }
+        } catch (WebSocketEnDecoder.FrameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void runLegacy(byte[] stream) {
+        ByteArrayOutputStream oneFrameBaos = new ByteArrayOutputStream();
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            oneFrameBaos.write(stream, offset, Math.min(READ_SIZE, stream.length - offset));
+            while (true) {
+                WebSocketFrame frame = WebSocketEnDecoder.decode(oneFrameBaos.toByteArray());
+                if (frame == null) {
+                    break;
+                }
+                byte[] remainingData = oneFrameBaos.toByteArray();
+                int frameLength = (int) frame.getFrameLengthBytes();
+                oneFrameBaos.reset();
+                oneFrameBaos.write(remainingData, frameLength, remainingData.length - frameLength);
+                byte[] payload = frame.deMaskPayload();
+                checksum += payload[payload.length - 1];
+            }
+        }
+    }
+
+    private static void runInPlace(byte[] stream) throws WebSocketEnDecoder.FrameException {
+        ByteBuffer buffer = ByteBuffer.allocate(128 * 1024);
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            buffer.put(stream, offset, Math.min(READ_SIZE, stream.length - offset));
+            buffer.flip();
+            WebSocketFrame frame;
+            while ((frame = WebSocketEnDecoder.decode(buffer, WebSocketEnDecoder.DEFAULT_MAX_PAYLOAD_LEN)) != null) {
+                ByteBuffer payload = frame.getPayloadBuffer();
+                checksum += payload.get(payload.limit() - 1);
+            }
+            buffer.compact();
+        }
+    }
+
+    private static byte[] genFrameStream(int payloadSize) {
+        StringBuilder payloadBuilder = new StringBuilder(payloadSize);
+        while (payloadBuilder.length() < payloadSize) {
+            payloadBuilder.append((char) ('a' + payloadBuilder.length() % 26));
+        }
+        String payload = payloadBuilder.toString();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(STREAM_BYTES + payloadSize);
+        while (baos.size() < STREAM_BYTES) {
+            byte[] frame = WebSocketEnDecoder.encode(WebSocketFrame.clientTextFrame(payload));
+            baos.write(frame, 0, frame.length);
+        }
+        return baos.toByteArray();
+    }
+
+    private static int frameCount(byte[] stream) {
+        ByteBuffer buffer = ByteBuffer.wrap(stream.clone());
+        int count = 0;
+        try {
+            WebSocketFrame frame;
+            while ((frame = WebSocketEnDecoder.decode(buffer, WebSocketEnDecoder.DEFAULT_MAX_PAYLOAD_LEN)) != null) {
+                if (frame.getPayloadLen() > 0 && !new String(frame.deMaskPayload(), StandardCharsets.UTF_8).startsWith("abc")) {
+                    throw new IllegalStateException("decode result mismatch");
+                }
+                count++;
+            }
+        } catch (WebSocketEnDecoder.FrameException e) {
+            throw new IllegalStateException(e);
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
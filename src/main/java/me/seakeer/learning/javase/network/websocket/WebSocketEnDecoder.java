@@ -1,5 +1,8 @@
 package me.seakeer.learning.javase.network.websocket;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * WebSocketEnDecoder;
  * WebSocket数据帧编解码器
@@ -25,6 +28,109 @@ package me.seakeer.learning.javase.network.websocket;
  */
 public class WebSocketEnDecoder {
 
+    /**
+     * 默认的数据部分最大长度
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_LEN = 1024 * 1024;
+
+    /**
+     * 从累积数据的缓冲区（读模式）中原地解码一个数据帧
+     * 1. 直接从缓冲区读取帧头，不拷贝缓冲区
+     * 2. 在缓冲区中原地去除掩码，每次处理8个字节
+     * 3. 帧的数据部分是缓冲区的切片，只在缓冲区的内容被覆盖之前有效，需要保留时由调用方拷贝
+     * 解码出一个帧后position移动到下一个帧的起始位置；数据不完整时返回null，position不变
+     * 缓冲区需为默认的大端序
+     *
+     * @param buffer        读模式的缓冲区
+     * @param maxPayloadLen 数据部分的最大长度，帧头声明的长度超过时抛出异常，不必等待数据读完
+     * @return 数据帧，数据不完整时返回null
+     * @throws FrameException 数据部分超过最大长度
+     */
+    public static WebSocketFrame decode(ByteBuffer buffer, int maxPayloadLen) throws FrameException {
+        int start = buffer.position();
+        WebSocketFrame header = decodeHeader(buffer);
+        if (null == header) {
+            return null;
+        }
+        long payloadLen = header.getPayloadLen();
+        if (payloadLen > maxPayloadLen) {
+            buffer.position(start);
+            throw new FrameException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG, "Payload length " + payloadLen + " exceeds max payload length " + maxPayloadLen);
+        }
+        if (buffer.remaining() < payloadLen) {
+            buffer.position(start);
+            return null;
+        }
+
+        int payloadStart = buffer.position();
+        int payloadEnd = payloadStart + (int) payloadLen;
+        if (header.isMask()) {
+            WebSocketFrame.maskInPlace(buffer, payloadStart, (int) payloadLen, header.getMaskKey());
+        }
+        int limit = buffer.limit();
+        buffer.limit(payloadEnd);
+        ByteBuffer payloadBuffer = buffer.slice();
+        buffer.limit(limit).position(payloadEnd);
+
+        return new WebSocketFrame(header.isFin(), header.isRsv1(), header.isRsv2(), header.isRsv3(),
+                header.getOpCode(), header.isMask(), payloadLen, header.getMaskKey(), payloadBuffer);
+    }
+
+    /**
+     * 从缓冲区（读模式）中解码帧头，不包含数据部分
+     * 帧头完整时position移动到数据部分的起始位置；不完整时返回null，position不变
+     *
+     * @param buffer 读模式的缓冲区
+     * @return 只有帧头的数据帧，payloadLen 为帧头声明的长度
+     * @throws FrameException 64位长度的最高位不为0，或操作码为保留的操作码
+     */
+    static WebSocketFrame decodeHeader(ByteBuffer buffer) throws FrameException {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        if (available < 2) {
+            return null;
+        }
+
+        int firstByte = buffer.get(start);
+        WebSocketFrame.OpCode opCode = WebSocketFrame.OpCode.fromCode(firstByte & 0x0F);
+        if (null == opCode || opCode.isReserved()) {
+            throw new FrameException("Unsupported opcode " + (firstByte & 0x0F));
+        }
+        int secondByte = buffer.get(start + 1);
+        boolean mask = (secondByte & 0x80) != 0;
+        long payloadLen = secondByte & 0x7F;
+        int headerLength = 2;
+
+        if (payloadLen == 126) {
+            if (available < 4) {
+                return null;
+            }
+            payloadLen = buffer.getShort(start + 2) & 0xFFFF;
+            headerLength = 4;
+        } else if (payloadLen == 127) {
+            if (available < 10) {
+                return null;
+            }
+            payloadLen = buffer.getLong(start + 2);
+            headerLength = 10;
+            if (payloadLen < 0) {
+                throw new FrameException("Payload length most significant bit must be 0");
+            }
+        }
+
+        int maskKey = 0;
+        if (mask) {
+            if (available < headerLength + 4) {
+                return null;
+            }
+            maskKey = buffer.getInt(start + headerLength);
+            headerLength += 4;
+        }
+        buffer.position(start + headerLength);
+        return new WebSocketFrame((firstByte & 0x80) != 0, (firstByte & 0x40) != 0, (firstByte & 0x20) != 0, (firstByte & 0x10) != 0,
+                opCode, mask, payloadLen, maskKey, (byte[]) null);
+    }
+
     public static WebSocketFrame decode(byte[] data) {
         // 数据至少包含两个字节
         if (data == null || data.length < 2) {
@@ -43,7 +149,7 @@ public class WebSocketEnDecoder {
         // 解析第二个字节
         int secondByte = data[1];
         boolean mask = (secondByte & 0x80) != 0;
-        int payloadLen = secondByte & 0x7F;
+        long payloadLen = secondByte & 0x7F;
 
         int headerLength = 2;
         int maskKey = 0;
@@ -59,14 +165,14 @@ public class WebSocketEnDecoder {
             if (data.length < 10) {
                 return null;
             }
-            payloadLen = (int) (((long) (data[2] & 0xFF) << 56) |
+            payloadLen = ((long) (data[2] & 0xFF) << 56) |
                     ((long) (data[3] & 0xFF) << 48) |
                     ((long) (data[4] & 0xFF) << 40) |
                     ((long) (data[5] & 0xFF) << 32) |
                     ((long) (data[6] & 0xFF) << 24) |
                     ((data[7] & 0xFF) << 16) |
                     ((data[8] & 0xFF) << 8) |
-                    (data[9] & 0xFF));
+                    (data[9] & 0xFF);
             headerLength = 10;
         }
 
@@ -82,77 +188,94 @@ public class WebSocketEnDecoder {
             headerLength += 4;
         }
 
-        // 复制 Payload 数据
-        byte[] payload = new byte[payloadLen];
-        if (data.length < headerLength + payloadLen) {
+        // 复制 Payload 数据，先检查长度，避免按帧头声明的长度分配内存
+        if (data.length - headerLength < payloadLen) {
             return null;
         }
-        System.arraycopy(data, headerLength, payload, 0, payloadLen);
+        byte[] payload = new byte[(int) payloadLen];
+        System.arraycopy(data, headerLength, payload, 0, payload.length);
 
         return new WebSocketFrame(fin, rsv1, rsv2, rsv3, opCode, mask, payloadLen, maskKey, payload);
     }
 
     public static byte[] encode(WebSocketFrame frame) {
-        int headerLength = 2;
-        int payloadLen = frame.getPayloadLen();
-        Integer maskKey = frame.getMaskKey();
+        byte[] header = encodeHeader(frame.isFin(), frame.isRsv1(), frame.getOpCode(), frame.getPayloadLen(),
+                frame.isMask() ? frame.getMaskKey() : null);
+        header[0] |= (frame.isRsv2() ? 0x20 : 0) | (frame.isRsv3() ? 0x10 : 0);
         byte[] payload = frame.getPayload();
+        byte[] frameData = new byte[header.length + (int) frame.getPayloadLen()];
+        System.arraycopy(header, 0, frameData, 0, header.length);
+        if (payload != null) {
+            System.arraycopy(payload, 0, frameData, header.length, (int) frame.getPayloadLen());
+        }
+        return frameData;
+    }
 
+    /**
+     * 编码帧头，用于流式发送：先写帧头，再分段写入（已覆盖掩码的）数据部分，数据部分可超过2GB
+     *
+     * @param fin        是否为消息的最后一个帧
+     * @param rsv1       压缩的消息在第一个帧设置
+     * @param opCode
+     * @param payloadLen 数据部分长度
+     * @param maskKey    掩码，为null时不设置MASK
+     * @return 帧头
+     */
+    public static byte[] encodeHeader(boolean fin, boolean rsv1, WebSocketFrame.OpCode opCode, long payloadLen, Integer maskKey) {
+        int headerLength = 2;
         // 计算扩展 Payload 长度
-        if (payloadLen >= 126) {
+        if (payloadLen > 65535) {
+            headerLength += 8;
+        } else if (payloadLen >= 126) {
             headerLength += 2;
-            if (payloadLen > 65535) {
-                headerLength += 6;
-            }
         }
-
         // 处理掩码键
-        if (frame.isMask()) {
+        if (null != maskKey) {
             headerLength += 4;
         }
-
-        byte[] frameData = new byte[headerLength + payloadLen];
-        int index = 0;
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
 
         // 设置第一个字节
-        int firstByte = (frame.isFin() ? 0x80 : 0) |
-                (frame.isRsv1() ? 0x40 : 0) |
-                (frame.isRsv2() ? 0x20 : 0) |
-                (frame.isRsv3() ? 0x10 : 0) |
-                frame.getOpCode().getCode();
-        frameData[index++] = (byte) firstByte;
-
-        // 设置第二个字节
-        int secondByte = (frame.isMask() ? 0x80 : 0) |
-                (payloadLen < 126 ? payloadLen : (payloadLen > 65535 ? 127 : 126));
-        frameData[index++] = (byte) secondByte;
-
-        // 设置扩展 Payload 长度
-        if (payloadLen == 126) {
-            frameData[index++] = (byte) ((payloadLen >> 8) & 0xFF);
-            frameData[index++] = (byte) (payloadLen & 0xFF);
-        } else if (payloadLen > 65535) {
-            frameData[index++] = (byte) ((payloadLen >> 56) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 48) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 40) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 32) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 24) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 16) & 0xFF);
-            frameData[index++] = (byte) ((payloadLen >> 8) & 0xFF);
-            frameData[index++] = (byte) (payloadLen & 0xFF);
+        header.put((byte) ((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opCode.getCode()));
+
+        // 设置第二个字节和扩展 Payload 长度，大端序
+        int maskBit = null != maskKey ? 0x80 : 0;
+        if (payloadLen > 65535) {
+            header.put((byte) (maskBit | 127)).putLong(payloadLen);
+        } else if (payloadLen >= 126) {
+            header.put((byte) (maskBit | 126)).putShort((short) payloadLen);
+        } else {
+            header.put((byte) (maskBit | payloadLen));
         }
 
         // 设置掩码键
-        if (frame.isMask()) {
-            frameData[index++] = (byte) ((maskKey >> 24) & 0xFF);
-            frameData[index++] = (byte) ((maskKey >> 16) & 0xFF);
-            frameData[index++] = (byte) ((maskKey >> 8) & 0xFF);
-            frameData[index++] = (byte) (maskKey & 0xFF);
+        if (null != maskKey) {
+            header.putInt(maskKey);
         }
+        return header.array();
+    }
 
-        if (payload != null) {
-            System.arraycopy(payload, 0, frameData, index, payloadLen);
+    /**
+     * 数据帧格式错误或超过最大长度
+     * closeCode 为关闭连接时回复的状态码，默认 1002（协议错误）
+     */
+    public static class FrameException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int closeCode;
+
+        public FrameException(String message) {
+            this(WebSocketFrame.CLOSE_PROTOCOL_ERROR, message);
+        }
+
+        public FrameException(int closeCode, String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+
+        public int getCloseCode() {
+            return closeCode;
         }
-        return frameData;
     }
 }
@@ -1,5 +1,7 @@
 package me.seakeer.learning.javase.network.websocket;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 
@@ -30,6 +32,21 @@ import java.security.SecureRandom;
  */
 public class WebSocketFrame {
 
+    /**
+     * 关闭帧的状态码：正常关闭
+     */
+    public static final int CLOSE_NORMAL = 1000;
+
+    /**
+     * 关闭帧的状态码：协议错误
+     */
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+
+    /**
+     * 关闭帧的状态码：消息太大，无法处理
+     */
+    public static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
     private final boolean fin;
 
     private final boolean rsv1;
@@ -43,9 +60,9 @@ public class WebSocketFrame {
     private final boolean mask;
 
     /**
-     * 数据帧的数据部分长度，单位为字节
+     * 数据帧的数据部分长度，单位为字节，协议允许最大 2^63 - 1
      */
-    private final int payloadLen;
+    private final long payloadLen;
 
     /**
      * 掩码，可为null(服务端发给客户端的数据帧)
@@ -58,8 +75,14 @@ public class WebSocketFrame {
      */
     private final byte[] payload;
 
+    /**
+     * 从ByteBuffer解码出的数据帧的数据部分，已在原缓冲区中去除掩码，是原缓冲区的切片而非拷贝
+     * 只在原缓冲区的内容被覆盖（compact/clear后继续读取）之前有效
+     */
+    private final ByteBuffer payloadBuffer;
+
     public WebSocketFrame(boolean fin, OpCode opCode, boolean mask,
-                          int payloadLen, Integer maskKey, byte[] payload) {
+                          long payloadLen, Integer maskKey, byte[] payload) {
         this.fin = fin;
         this.rsv1 = false;
         this.rsv2 = false;
@@ -69,11 +92,12 @@ public class WebSocketFrame {
         this.payloadLen = payloadLen;
         this.maskKey = maskKey;
         this.payload = payload;
+        this.payloadBuffer = null;
     }
 
     public WebSocketFrame(boolean fin, boolean rsv1, boolean rsv2, boolean rsv3,
                           OpCode opCode, boolean mask,
-                          int payloadLen, Integer maskKey, byte[] payload) {
+                          long payloadLen, Integer maskKey, byte[] payload) {
         this.rsv1 = rsv1;
         this.rsv2 = rsv2;
         this.rsv3 = rsv3;
@@ -83,6 +107,22 @@ public class WebSocketFrame {
         this.payloadLen = payloadLen;
         this.maskKey = maskKey;
         this.payload = payload;
+        this.payloadBuffer = null;
+    }
+
+    public WebSocketFrame(boolean fin, boolean rsv1, boolean rsv2, boolean rsv3,
+                          OpCode opCode, boolean mask,
+                          long payloadLen, Integer maskKey, ByteBuffer payloadBuffer) {
+        this.rsv1 = rsv1;
+        this.rsv2 = rsv2;
+        this.rsv3 = rsv3;
+        this.fin = fin;
+        this.opCode = opCode;
+        this.mask = mask;
+        this.payloadLen = payloadLen;
+        this.maskKey = maskKey;
+        this.payload = null;
+        this.payloadBuffer = payloadBuffer;
     }
 
     public boolean isFin() {
@@ -109,7 +149,7 @@ public class WebSocketFrame {
         return mask;
     }
 
-    public int getPayloadLen() {
+    public long getPayloadLen() {
         return payloadLen;
     }
 
@@ -121,6 +161,18 @@ public class WebSocketFrame {
         return payload;
     }
 
+    /**
+     * 获取去除掩码后的数据部分，不拷贝：
+     * 从ByteBuffer解码的帧直接返回原缓冲区切片的视图，其他帧包装 deMaskPayload() 的结果
+     */
+    public ByteBuffer getPayloadBuffer() {
+        if (null != payloadBuffer) {
+            return payloadBuffer.duplicate();
+        }
+        byte[] deMaskPayload = deMaskPayload();
+        return null == deMaskPayload ? ByteBuffer.allocate(0) : ByteBuffer.wrap(deMaskPayload);
+    }
+
     /**
      * 解码掩码数据
      */
@@ -128,16 +180,66 @@ public class WebSocketFrame {
         if (payloadLen <= 0) {
             return null;
         }
-        byte[] deMaskPayload = new byte[payloadLen];
-        System.arraycopy(payload, 0, deMaskPayload, 0, payloadLen);
+        // 只有帧头的帧（流式解码）没有数据部分
+        if (null == payloadBuffer && null == payload) {
+            return null;
+        }
+        byte[] deMaskPayload = new byte[(int) payloadLen];
+        if (null != payloadBuffer) {
+            // 已在原缓冲区中去除掩码
+            payloadBuffer.duplicate().get(deMaskPayload);
+            return deMaskPayload;
+        }
+        System.arraycopy(payload, 0, deMaskPayload, 0, deMaskPayload.length);
         if (mask) {
-            for (int i = 0; i < payloadLen; i++) {
-                deMaskPayload[i] = (byte) (payload[i] ^ (maskKey >> ((i % 4) * 8) & 0xFF));
+            for (int i = 0; i < deMaskPayload.length; i++) {
+                deMaskPayload[i] = (byte) (payload[i] ^ maskByte(maskKey, i));
             }
         }
         return deMaskPayload;
     }
 
+    /**
+     * 第i个字节使用的掩码字节，掩码按网络字节序（高字节在前）依次作用于数据的每个字节
+     */
+    private static int maskByte(int maskKey, int i) {
+        return (maskKey >>> ((3 - (i & 3)) << 3)) & 0xFF;
+    }
+
+    /**
+     * 在缓冲区中原地去除（或覆盖）掩码，每次处理8个字节
+     *
+     * @param buffer  数据所在的缓冲区，使用绝对位置读写，不改变position和limit
+     * @param offset  数据在缓冲区中的起始位置
+     * @param length  数据长度
+     * @param maskKey 掩码
+     */
+    public static void maskInPlace(ByteBuffer buffer, int offset, int length, int maskKey) {
+        maskInPlace(buffer, offset, length, maskKey, 0);
+    }
+
+    /**
+     * 在缓冲区中原地去除（或覆盖）掩码，数据是帧的数据部分从 maskOffset 开始的一段，用于流式解码
+     *
+     * @param maskOffset 数据在帧的数据部分中的偏移量，决定第一个字节使用的掩码字节
+     */
+    public static void maskInPlace(ByteBuffer buffer, int offset, int length, int maskKey, long maskOffset) {
+        // 旋转掩码，使第一个字节对应掩码的最高字节
+        maskKey = Integer.rotateLeft(maskKey, (int) (maskOffset & 3) << 3);
+        // 按数据起始位置对齐的8字节掩码，大端序下与逐字节掩码等价
+        long longMask = ((long) maskKey << 32) | (maskKey & 0xFFFFFFFFL);
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            longMask = Long.reverseBytes(longMask);
+        }
+        int i = 0;
+        for (int longEnd = length & ~7; i < longEnd; i += 8) {
+            buffer.putLong(offset + i, buffer.getLong(offset + i) ^ longMask);
+        }
+        for (; i < length; i++) {
+            buffer.put(offset + i, (byte) (buffer.get(offset + i) ^ maskByte(maskKey, i)));
+        }
+    }
+
     public static int genMaskKey() {
         return SECURE_RANDOM.nextInt();
     }
@@ -152,7 +254,7 @@ public class WebSocketFrame {
     public static byte[] mask(byte[] bytes, int maskKey) {
         byte[] maskedBytes = new byte[bytes.length];
         for (int i = 0; i < bytes.length; i++) {
-            maskedBytes[i] = (byte) (bytes[i] ^ ((maskKey >> ((i % 4) * 8)) & 0xFF));
+            maskedBytes[i] = (byte) (bytes[i] ^ maskByte(maskKey, i));
         }
         return maskedBytes;
     }
@@ -160,10 +262,10 @@ public class WebSocketFrame {
     /**
      * 获取整个数据帧长度，单位为字节
      */
-    public int getFrameLengthBytes() {
+    public long getFrameLengthBytes() {
 
         // 至少 2 字节的帧头
-        int frameLength = 2;
+        long frameLength = 2;
 
         if (payloadLen >= 126) {
             if (payloadLen <= 65535) {
@@ -219,6 +321,13 @@ public class WebSocketFrame {
             return code;
         }
 
+        /**
+         * 是否为协议保留的操作码，收到保留的操作码需以 1002 关闭连接
+         */
+        public boolean isReserved() {
+            return name().startsWith("RSV_");
+        }
+
         public static OpCode fromCode(int code) {
             for (OpCode opCode : OpCode.values()) {
                 if (opCode.code == code) {
@@ -234,10 +343,26 @@ public class WebSocketFrame {
         return new WebSocketFrame(true, OpCode.TEXT_FRAME, false, payloadBytes.length, null, payloadBytes);
     }
 
+    /**
+     * @param payloadBytes 消息数据，compressed为true时是压缩后的数据
+     * @param compressed   是否经过 permessage-deflate 压缩，压缩的消息设置RSV1
+     */
+    public static WebSocketFrame serverTextFrame(byte[] payloadBytes, boolean compressed) {
+        return new WebSocketFrame(true, compressed, false, false, OpCode.TEXT_FRAME, false, payloadBytes.length, null, payloadBytes);
+    }
+
     public static WebSocketFrame serverCloseFrame() {
         return new WebSocketFrame(true, OpCode.CLOSE_FRAME, false, 0, null, null);
     }
 
+    /**
+     * 带状态码的关闭帧，数据部分为2个字节的状态码（大端序）
+     */
+    public static WebSocketFrame serverCloseFrame(int statusCode) {
+        byte[] payloadBytes = new byte[]{(byte) (statusCode >> 8), (byte) statusCode};
+        return new WebSocketFrame(true, OpCode.CLOSE_FRAME, false, payloadBytes.length, null, payloadBytes);
+    }
+
     public static WebSocketFrame serverPingFrame() {
         return new WebSocketFrame(true, OpCode.PING_FRAME, false, 0, null, null);
     }
@@ -246,12 +371,28 @@ public class WebSocketFrame {
         return new WebSocketFrame(true, OpCode.PONG_FRAME, false, 0, null, null);
     }
 
+    /**
+     * 回复PING的PONG帧，数据部分与PING帧相同
+     *
+     * @param payload PING帧（已去除掩码）的数据部分
+     */
+    public static WebSocketFrame serverPongFrame(ByteBuffer payload) {
+        byte[] payloadBytes = new byte[payload.remaining()];
+        payload.get(payloadBytes);
+        return new WebSocketFrame(true, OpCode.PONG_FRAME, false, payloadBytes.length, null, payloadBytes);
+    }
+
     public static WebSocketFrame clientTextFrame(String payload) {
         byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
         int maskKey = genMaskKey();
         return new WebSocketFrame(true, OpCode.TEXT_FRAME, true, payloadBytes.length, maskKey, mask(payloadBytes, maskKey));
     }
 
+    public static WebSocketFrame clientTextFrame(byte[] payloadBytes, boolean compressed) {
+        int maskKey = genMaskKey();
+        return new WebSocketFrame(true, compressed, false, false, OpCode.TEXT_FRAME, true, payloadBytes.length, maskKey, mask(payloadBytes, maskKey));
+    }
+
     public static WebSocketFrame clientCloseFrame() {
         return new WebSocketFrame(true, OpCode.CLOSE_FRAME, true, 0, genMaskKey(), null);
     }
@@ -0,0 +1,116 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * WebSocketMessageAggregator;
+ * 把流式接收的数据聚合成完整消息的监听器
+ * 1. 文本消息和压缩的消息聚合后回调 onMessage，聚合的字节数不超过 maxAggregateBytes
+ * 2. 未压缩的二进制消息在设置了 binaryStreamListener 时直接流式转发，不在堆中聚合；否则同样聚合
+ * 3. 未分片且一次到达的消息直接拷贝，不经过聚合的字节流
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public abstract class WebSocketMessageAggregator implements WebSocketMessageListener {
+
+    /**
+     * 聚合的消息存放在数组中，最大字节数不能超过数组的长度限制
+     */
+    public static final int MAX_AGGREGATE_BYTES = Integer.MAX_VALUE - 8;
+
+    private final PerMessageDeflate perMessageDeflate;
+
+    private final int maxAggregateBytes;
+
+    private final WebSocketMessageListener binaryStreamListener;
+
+    /**
+     * 存储一条消息的字节输出流，只在消息的数据分多次到达时使用
+     */
+    private final ByteArrayOutputStream messageBaos = new ByteArrayOutputStream();
+
+    private boolean text;
+
+    private boolean compressed;
+
+    private boolean streaming;
+
+    /**
+     * @param perMessageDeflate    握手时协商的压缩扩展，可为null
+     * @param maxAggregateBytes    聚合的消息（压缩的消息为解压后）的最大字节数
+     * @param binaryStreamListener 流式接收二进制消息的监听器，可为null
+     */
+    protected WebSocketMessageAggregator(PerMessageDeflate perMessageDeflate, int maxAggregateBytes,
+                                         WebSocketMessageListener binaryStreamListener) {
+        this.perMessageDeflate = perMessageDeflate;
+        this.maxAggregateBytes = maxAggregateBytes;
+        this.binaryStreamListener = binaryStreamListener;
+    }
+
+    /**
+     * 收到一条完整的消息
+     *
+     * @param data 消息内容，压缩的消息已解压
+     * @param text 是否为文本消息
+     */
+    protected abstract void onMessage(byte[] data, boolean text) throws IOException;
+
+    @Override
+    public void onMessageStart(boolean text, boolean compressed) throws IOException {
+        if (compressed && null == perMessageDeflate) {
+            throw new WebSocketEnDecoder.FrameException("RSV1 Set Without Extension");
+        }
+        this.text = text;
+        this.compressed = compressed;
+        this.streaming = !text && !compressed && null != binaryStreamListener;
+        messageBaos.reset();
+        if (streaming) {
+            binaryStreamListener.onMessageStart(false, false);
+        }
+    }
+
+    @Override
+    public void onMessageData(ByteBuffer data, boolean last) throws IOException {
+        if (streaming) {
+            binaryStreamListener.onMessageData(data, last);
+            return;
+        }
+        if ((long) messageBaos.size() + data.remaining() > maxAggregateBytes) {
+            throw new WebSocketEnDecoder.FrameException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG, "Message length exceeds max aggregate bytes " + maxAggregateBytes);
+        }
+        if (last && messageBaos.size() == 0) {
+            onCompleted(data);
+            return;
+        }
+        write(data);
+        if (last) {
+            ByteBuffer message = ByteBuffer.wrap(messageBaos.toByteArray());
+            messageBaos.reset();
+            onCompleted(message);
+        }
+    }
+
+    private void onCompleted(ByteBuffer message) throws IOException {
+        byte[] data;
+        if (compressed) {
+            data = perMessageDeflate.decompress(message, maxAggregateBytes);
+        } else {
+            data = new byte[message.remaining()];
+            message.get(data);
+        }
+        onMessage(data, text);
+    }
+
+    private void write(ByteBuffer data) {
+        if (data.hasArray()) {
+            messageBaos.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            messageBaos.write(bytes, 0, bytes.length);
+        }
+    }
+}
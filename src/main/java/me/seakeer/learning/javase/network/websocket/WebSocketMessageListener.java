@@ -0,0 +1,40 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * WebSocketMessageListener;
+ * 流式接收消息的监听器，由 WebSocketStreamDecoder 回调
+ * 一条消息依次回调：onMessageStart 一次，onMessageData 一次或多次（最后一次 last 为true）；
+ * 控制帧可能穿插在同一消息的分片之间
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+@FunctionalInterface
+public interface WebSocketMessageListener {
+
+    /**
+     * 收到消息的第一个帧
+     *
+     * @param text       是否为文本消息
+     * @param compressed 是否为压缩的消息（RSV1）
+     */
+    default void onMessageStart(boolean text, boolean compressed) throws IOException {
+    }
+
+    /**
+     * 收到消息的一段数据，已去除掩码
+     *
+     * @param data 读模式的缓冲区，是读取缓冲区的切片，只在回调期间有效，需要保留时由监听器拷贝
+     * @param last 是否为消息的最后一段数据
+     */
+    void onMessageData(ByteBuffer data, boolean last) throws IOException;
+
+    /**
+     * 收到完整的控制帧（CLOSE、PING、PONG），数据部分不超过125字节
+     */
+    default void onControlFrame(WebSocketFrame frame) throws IOException {
+    }
+}
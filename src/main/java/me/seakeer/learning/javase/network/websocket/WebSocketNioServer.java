@@ -0,0 +1,963 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import me.seakeer.learning.javase.network.buffer.ByteBufferPool;
+import me.seakeer.learning.javase.network.http.myhttp.MyHttpParser;
+import me.seakeer.learning.javase.network.http.myhttp.MyHttpProtHandler;
+import me.seakeer.learning.javase.network.http.myhttp.MyHttpReq;
+import me.seakeer.learning.javase.network.http.myhttp.MyHttpResp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * WebSocketNioServer;
+ * 基于Selector的非阻塞WebSocket服务端，协议处理与 {@link WebSocketServer} 相同（AUTH 认证、TO 转发、PING/PONG、CLOSE）
+ * 1. 一个接收线程 + 若干Worker线程，每个Worker一个Selector，握手和数据帧处理都在Worker的事件循环中完成，不为连接创建线程
+ * 2. 每个连接一个状态机：HANDSHAKE（解析HTTP升级请求）-> OPEN（收发数据帧）-> CLOSING（写完关闭帧后关闭）
+ * 3. 空闲连接不持有读缓冲区：每个Worker共享一个读缓冲区，只有读到不完整的握手请求或数据帧时，才为连接从缓冲池中分配缓冲区保存剩余字节
+ * 4. 发送可在任意线程调用，帧进入连接的发送队列，由所属Worker聚集写出，写不完时才关注OP_WRITE
+ * 5. 空闲超时：连接超过 idleTimeoutMillis 没有读写则关闭，客户端默认每30秒发送一次PING
+ * 6. 主题广播：客户端发送 SUB/UNSUB $TOPIC 订阅或取消订阅，broadcast 把消息编码一次为只读缓冲区，各会话共享其内容
+ * 7. 每个会话的发送队列有字节数上限，慢消费者按 slowConsumerPolicy 丢弃、断开或合并（同一主题只保留最新的消息）
+ * 8. permessage-deflate：服务端不保留压缩上下文，广播的消息只压缩一次；是否允许客户端保留压缩上下文可配置，不允许时解压器也是池化的
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class WebSocketNioServer {
+
+    public static final String WEB_SOCKET_NIO_SERVER_LOG = "[WebSocketNioServer] ";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 200_000;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000;
+
+    public static final int DEFAULT_MAX_FRAME_BYTES = WebSocketEnDecoder.DEFAULT_MAX_PAYLOAD_LEN;
+
+    public static final int DEFAULT_MAX_MESSAGE_BYTES = 4 * WebSocketEnDecoder.DEFAULT_MAX_PAYLOAD_LEN;
+
+    private static final int WORKER_READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int PENDING_BUFFER_INIT_SIZE = 1024;
+
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    public static final long DEFAULT_MAX_OUTBOUND_BYTES = 256 * 1024;
+
+    private final int port;
+
+    private final int workerCount;
+
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private volatile int maxFrameBytes = DEFAULT_MAX_FRAME_BYTES;
+
+    /**
+     * 一条消息（所有分片合并后，解压后）的最大字节数，超过则以 1009 关闭连接
+     */
+    private volatile int maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+
+    private volatile long maxOutboundBytes = DEFAULT_MAX_OUTBOUND_BYTES;
+
+    private volatile WebSocketOutboundQueue.SlowConsumerPolicy slowConsumerPolicy = WebSocketOutboundQueue.SlowConsumerPolicy.DROP;
+
+    private volatile boolean perMessageDeflateEnabled = true;
+
+    /**
+     * 是否允许客户端保留压缩上下文，允许时压缩率更高，但每个会话独占一个解压器
+     */
+    private volatile boolean clientContextTakeover = false;
+
+    private volatile int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private volatile boolean running = false;
+
+    private ServerSocketChannel serverSocketChannel;
+
+    private Worker[] workers;
+
+    private final AtomicInteger nextWorkerIndex = new AtomicInteger();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * 认证通过的会话
+     */
+    private final Map<String, WebSocketSession> CLIENT_ID_SESSION_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 主题 -> 订阅的会话
+     */
+    private final Map<String, Set<WebSocketSession>> TOPIC_SESSION_MAP = new ConcurrentHashMap<>();
+
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+
+    private final AtomicLong coalescedFrameCount = new AtomicLong();
+
+    private final AtomicLong slowConsumerDisconnectCount = new AtomicLong();
+
+    public WebSocketNioServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public WebSocketNioServer(int port, int workerCount) {
+        this.port = port;
+        this.workerCount = Math.max(workerCount, 1);
+    }
+
+    public WebSocketNioServer setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public WebSocketNioServer setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public WebSocketNioServer setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+        return this;
+    }
+
+    public WebSocketNioServer setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    /**
+     * 每个会话发送队列的最大字节数
+     */
+    public WebSocketNioServer setMaxOutboundBytes(long maxOutboundBytes) {
+        this.maxOutboundBytes = maxOutboundBytes;
+        return this;
+    }
+
+    public WebSocketNioServer setSlowConsumerPolicy(WebSocketOutboundQueue.SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    public WebSocketNioServer setPerMessageDeflateEnabled(boolean perMessageDeflateEnabled) {
+        this.perMessageDeflateEnabled = perMessageDeflateEnabled;
+        return this;
+    }
+
+    public WebSocketNioServer setClientContextTakeover(boolean clientContextTakeover) {
+        this.clientContextTakeover = clientContextTakeover;
+        return this;
+    }
+
+    public WebSocketNioServer setDeflateLevel(int deflateLevel) {
+        this.deflateLevel = deflateLevel;
+        return this;
+    }
+
+    /**
+     * 会话的压缩统计，未认证或没有启用压缩时返回null
+     */
+    public PerMessageDeflate getPerMessageDeflate(String clientId) {
+        WebSocketSession session = CLIENT_ID_SESSION_MAP.get(clientId);
+        return null == session ? null : session.perMessageDeflate;
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    public long getCoalescedFrameCount() {
+        return coalescedFrameCount.get();
+    }
+
+    public long getSlowConsumerDisconnectCount() {
+        return slowConsumerDisconnectCount.get();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getAuthedCount() {
+        return CLIENT_ID_SESSION_MAP.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public static void main(String[] args) {
+        new WebSocketNioServer(9999).start();
+    }
+
+    private void init() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port), 4096);
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("WebSocketNioServer-Worker-" + i);
+        }
+    }
+
+    /**
+     * 在当前线程中接收连接，直到调用stop()
+     */
+    public void start() {
+        try {
+            init();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        running = true;
+        for (Worker worker : workers) {
+            new Thread(worker, worker.name).start();
+        }
+        System.out.println(WEB_SOCKET_NIO_SERVER_LOG + "[Running] [Port: " + port + "] [Workers: " + workerCount + "]");
+        while (running) {
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                handleAccept(socketChannel);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(WEB_SOCKET_NIO_SERVER_LOG + "[Stopped]");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (null != serverSocketChannel) {
+                serverSocketChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (null != workers) {
+            for (Worker worker : workers) {
+                worker.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * 向认证通过的客户端发送文本消息，可在任意线程调用
+     *
+     * @param clientId
+     * @param msg
+     * @return 是否已进入发送队列
+     */
+    public boolean send(String clientId, String msg) {
+        WebSocketSession session = CLIENT_ID_SESSION_MAP.get(clientId);
+        if (null == session) {
+            System.out.println(WEB_SOCKET_NIO_SERVER_LOG + "[Send Msg Failed] [ClientId: " + clientId + "]" + "Msg: " + msg);
+            return false;
+        }
+        return sendText(session, msg);
+    }
+
+    /**
+     * 订阅主题
+     *
+     * @param clientId
+     * @param topic
+     * @return 客户端是否在线
+     */
+    public boolean subscribe(String clientId, String topic) {
+        WebSocketSession session = CLIENT_ID_SESSION_MAP.get(clientId);
+        if (null == session) {
+            return false;
+        }
+        subscribe(session, topic);
+        return true;
+    }
+
+    public boolean unsubscribe(String clientId, String topic) {
+        WebSocketSession session = CLIENT_ID_SESSION_MAP.get(clientId);
+        if (null == session) {
+            return false;
+        }
+        unsubscribe(session, topic);
+        return true;
+    }
+
+    /**
+     * 向订阅了主题的所有会话广播文本消息，可在任意线程调用
+     * 消息只编码一次，各会话的发送队列中是同一个只读缓冲区的 duplicate()
+     *
+     * @param topic
+     * @param msg
+     * @return 进入发送队列（含合并）的会话数
+     */
+    public int broadcast(String topic, String msg) {
+        Set<WebSocketSession> sessions = TOPIC_SESSION_MAP.get(topic);
+        if (null == sessions || sessions.isEmpty()) {
+            return 0;
+        }
+        return broadcast(sessions, topic, msg);
+    }
+
+    /**
+     * 向所有认证通过的会话广播文本消息
+     */
+    public int broadcast(String msg) {
+        return broadcast(CLIENT_ID_SESSION_MAP.values(), null, msg);
+    }
+
+    private int broadcast(Collection<WebSocketSession> sessions, String topic, String msg) {
+        byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.wrap(WebSocketEnDecoder.encode(WebSocketFrame.serverTextFrame(data, false))).asReadOnlyBuffer();
+        // 服务端不保留压缩上下文，压缩结果与会话无关，第一次需要时压缩一次，所有启用压缩的会话共享
+        ByteBuffer compressedFrame = null;
+        int compressedLen = 0;
+        int count = 0;
+        for (WebSocketSession session : sessions) {
+            PerMessageDeflate perMessageDeflate = session.perMessageDeflate;
+            ByteBuffer sessionFrame = frame;
+            if (null != perMessageDeflate && perMessageDeflate.shouldCompress(data.length)) {
+                if (null == compressedFrame) {
+                    byte[] compressed = PerMessageDeflate.compressShared(data, deflateLevel);
+                    compressedLen = compressed.length;
+                    compressedFrame = ByteBuffer.wrap(WebSocketEnDecoder.encode(WebSocketFrame.serverTextFrame(compressed, true))).asReadOnlyBuffer();
+                }
+                perMessageDeflate.recordCompressed(data.length, compressedLen);
+                sessionFrame = compressedFrame;
+            }
+            if (offer(session, sessionFrame.duplicate(), topic)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean sendText(WebSocketSession session, String msg) {
+        byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+        PerMessageDeflate perMessageDeflate = session.perMessageDeflate;
+        WebSocketFrame frame = null != perMessageDeflate && perMessageDeflate.shouldCompress(data.length)
+                ? WebSocketFrame.serverTextFrame(perMessageDeflate.compress(data), true)
+                : WebSocketFrame.serverTextFrame(data, false);
+        return offer(session, ByteBuffer.wrap(WebSocketEnDecoder.encode(frame)), null);
+    }
+
+    /**
+     * 数据帧进入会话的有界发送队列，队列已满时按慢消费者策略处理
+     *
+     * @return 是否进入发送队列（含合并）
+     */
+    private boolean offer(WebSocketSession session, ByteBuffer frame, String coalesceKey) {
+        if (session.closeRequested.get()) {
+            return false;
+        }
+        switch (session.outboundQueue.offer(frame, coalesceKey, maxOutboundBytes, slowConsumerPolicy)) {
+            case QUEUED:
+                session.worker.requestFlush(session);
+                return true;
+            case COALESCED:
+                coalescedFrameCount.incrementAndGet();
+                session.worker.requestFlush(session);
+                return true;
+            case OVERFLOW:
+                if (session.worker.closeLater(session)) {
+                    slowConsumerDisconnectCount.incrementAndGet();
+                    System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[Slow Consumer Disconnected] [ClientId: %s] [QueuedBytes: %d]\n",
+                            session.clientId, session.outboundQueue.getQueuedBytes());
+                }
+                return false;
+            case DROPPED:
+            default:
+                droppedFrameCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * 控制帧和握手响应不受发送队列长度限制
+     */
+    private void sendControl(WebSocketSession session, byte[] data) {
+        session.outboundQueue.offerControl(ByteBuffer.wrap(data));
+        session.worker.requestFlush(session);
+    }
+
+    private void subscribe(WebSocketSession session, String topic) {
+        session.topics().add(topic);
+        TOPIC_SESSION_MAP.computeIfAbsent(topic, k -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    private void unsubscribe(WebSocketSession session, String topic) {
+        session.topics().remove(topic);
+        // 没有订阅者时移除主题
+        TOPIC_SESSION_MAP.computeIfPresent(topic, (k, sessions) -> sessions.remove(session) && sessions.isEmpty() ? null : sessions);
+    }
+
+    private void handleAccept(SocketChannel socketChannel) throws IOException {
+        if (connectionCount.incrementAndGet() > maxConnections) {
+            connectionCount.decrementAndGet();
+            // 连接数已满，尽力写出503后关闭，不分配给Worker
+            socketChannel.configureBlocking(false);
+            socketChannel.write(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(new MyHttpResp(503, "Service Unavailable")
+                    .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE)
+                    .setBody("Too Many Connections"))));
+            socketChannel.close();
+            return;
+        }
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        Worker worker = workers[Math.abs(nextWorkerIndex.getAndIncrement() % workers.length)];
+        worker.register(socketChannel);
+    }
+
+    private void handleText(WebSocketSession session, String msg) {
+        if (msg.startsWith("AUTH ")) {
+            auth(session, msg);
+        } else if (null != session.clientId) {
+            System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[Received Msg] [ClientId: %s] [Msg: %s]\n", session.clientId, msg);
+            if (msg.startsWith("TO ")) {
+                String[] toClientIdMsg = msg.split(" ", 3);
+                if (toClientIdMsg.length == 3) {
+                    send(toClientIdMsg[1], "FROM " + session.clientId + " " + toClientIdMsg[2]);
+                }
+            } else if (msg.startsWith("SUB ")) {
+                subscribe(session, msg.substring("SUB ".length()).trim());
+            } else if (msg.startsWith("UNSUB ")) {
+                unsubscribe(session, msg.substring("UNSUB ".length()).trim());
+            }
+        } else {
+            System.out.println(WEB_SOCKET_NIO_SERVER_LOG + "[Not Auth] " + "[ClientAddr: " + session.remoteAddress() + "]");
+            session.state = State.CLOSING;
+        }
+    }
+
+    private void auth(WebSocketSession session, String authData) {
+        String[] usernameAndPwdArr = authData.substring("AUTH ".length()).split("=");
+        if (usernameAndPwdArr.length != 2 || !usernameAndPwdArr[0].equals(usernameAndPwdArr[1])) {
+            sendText(session, "AUTH_FAILED:USERNAME_PWD_NOT_MATCH");
+            System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[ClientAuthFailed] [UsernamePwdNotMatch] [SocketChannelAddr: %s]\n",
+                    session.remoteAddress());
+            return;
+        }
+        String username = usernameAndPwdArr[0];
+        WebSocketSession oldSession = CLIENT_ID_SESSION_MAP.put(username, session);
+        if (null != oldSession && oldSession != session) {
+            // 同一客户端重复登录，关闭旧连接
+            oldSession.clientId = null;
+            oldSession.worker.closeLater(oldSession);
+        }
+        session.clientId = username;
+        sendText(session, "AUTH_SUCCESS:" + username);
+        System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[ClientAuthSuccess] [ClientId: %s]\n", username);
+    }
+
+    private enum State {
+
+        /**
+         * 等待HTTP升级请求
+         */
+        HANDSHAKE,
+
+        /**
+         * 握手完成，收发数据帧
+         */
+        OPEN,
+
+        /**
+         * 已决定关闭，写完发送队列后关闭连接
+         */
+        CLOSING
+    }
+
+    /**
+     * 连接状态，作为SelectionKey的附件；除发送队列外只由所属Worker线程访问
+     */
+    private static class WebSocketSession {
+
+        private final SocketChannel socketChannel;
+
+        private final Worker worker;
+
+        private SelectionKey selectionKey;
+
+        private State state = State.HANDSHAKE;
+
+        /**
+         * 只在握手阶段使用，握手完成后释放
+         */
+        private MyHttpParser parser = new MyHttpParser(MyHttpParser.Type.REQUEST);
+
+        /**
+         * 不完整的握手请求或数据帧，写模式；没有剩余字节时为null，归还缓冲池
+         */
+        private ByteBuffer pendingBuffer;
+
+        /**
+         * 分片消息的数据，只在收到非结束帧时创建
+         */
+        private ByteArrayOutputStream fragmentBaos;
+
+        private boolean fragmentText;
+
+        private boolean fragmentCompressed;
+
+        /**
+         * 握手时协商的压缩扩展，没有启用时为null
+         */
+        private volatile PerMessageDeflate perMessageDeflate;
+
+        private final WebSocketOutboundQueue outboundQueue = new WebSocketOutboundQueue();
+
+        /**
+         * 订阅的主题，只在第一次订阅时创建
+         */
+        private volatile Set<String> topics;
+
+        /**
+         * 是否已在Worker的待发送队列中，避免重复入队
+         */
+        private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+        /**
+         * 是否已请求关闭（慢消费者、重复登录）
+         */
+        private final AtomicBoolean closeRequested = new AtomicBoolean(false);
+
+        private volatile String clientId;
+
+        private long lastActiveMillis = System.currentTimeMillis();
+
+        private WebSocketSession(SocketChannel socketChannel, Worker worker) {
+            this.socketChannel = socketChannel;
+            this.worker = worker;
+        }
+
+        private Set<String> topics() {
+            Set<String> topicSet = topics;
+            if (null == topicSet) {
+                synchronized (this) {
+                    topicSet = topics;
+                    if (null == topicSet) {
+                        topicSet = ConcurrentHashMap.newKeySet();
+                        topics = topicSet;
+                    }
+                }
+            }
+            return topicSet;
+        }
+
+        private Object remoteAddress() {
+            return socketChannel.socket().getRemoteSocketAddress();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final String name;
+
+        private final Selector selector;
+
+        private final ConcurrentLinkedQueue<SocketChannel> PENDING_SOCKET_CHANNEL_QUEUE = new ConcurrentLinkedQueue<>();
+
+        private final ConcurrentLinkedQueue<WebSocketSession> FLUSHING_SESSION_QUEUE = new ConcurrentLinkedQueue<>();
+
+        private final ConcurrentLinkedQueue<WebSocketSession> CLOSING_SESSION_QUEUE = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 所有连接共享的读缓冲区
+         */
+        private final ByteBuffer readBuffer = ByteBufferPool.DEFAULT.acquire(WORKER_READ_BUFFER_SIZE);
+
+        private final ByteBuffer[] gatheringBuffers = new ByteBuffer[MAX_GATHERING_BUFFERS];
+
+        private volatile Thread thread;
+
+        private long lastIdleCheckMillis = System.currentTimeMillis();
+
+        private Worker(String name) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+        }
+
+        private void register(SocketChannel socketChannel) {
+            PENDING_SOCKET_CHANNEL_QUEUE.offer(socketChannel);
+            selector.wakeup();
+        }
+
+        /**
+         * 请求写出会话发送队列中的数据，可在任意线程调用
+         */
+        private void requestFlush(WebSocketSession session) {
+            if (Thread.currentThread() == thread) {
+                flush(session);
+                return;
+            }
+            if (session.flushRequested.compareAndSet(false, true)) {
+                FLUSHING_SESSION_QUEUE.offer(session);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * 请求关闭会话，可在任意线程调用，之后不再接收发给该会话的数据帧
+         *
+         * @return 是否是第一次请求关闭
+         */
+        private boolean closeLater(WebSocketSession session) {
+            if (!session.closeRequested.compareAndSet(false, true)) {
+                return false;
+            }
+            if (Thread.currentThread() == thread) {
+                close(session);
+            } else {
+                CLOSING_SESSION_QUEUE.offer(session);
+                selector.wakeup();
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                try {
+                    selector.select(Math.min(idleTimeoutMillis, 1000));
+                    registerPendingSocketChannel();
+                    flushPendingSession();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        WebSocketSession session = (WebSocketSession) selectionKey.attachment();
+                        if (selectionKey.isValid() && selectionKey.isReadable()) {
+                            handleRead(session);
+                        }
+                        if (selectionKey.isValid() && selectionKey.isWritable()) {
+                            flush(session);
+                        }
+                    }
+                    closeIdleSession();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey selectionKey : selector.keys()) {
+                close((WebSocketSession) selectionKey.attachment());
+            }
+            ByteBufferPool.DEFAULT.release(readBuffer);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void registerPendingSocketChannel() {
+            SocketChannel socketChannel;
+            while ((socketChannel = PENDING_SOCKET_CHANNEL_QUEUE.poll()) != null) {
+                WebSocketSession session = new WebSocketSession(socketChannel, this);
+                try {
+                    session.selectionKey = socketChannel.register(selector, SelectionKey.OP_READ, session);
+                } catch (ClosedChannelException e) {
+                    connectionCount.decrementAndGet();
+                }
+            }
+        }
+
+        private void flushPendingSession() {
+            WebSocketSession session;
+            while ((session = CLOSING_SESSION_QUEUE.poll()) != null) {
+                close(session);
+            }
+            while ((session = FLUSHING_SESSION_QUEUE.poll()) != null) {
+                session.flushRequested.set(false);
+                flush(session);
+            }
+        }
+
+        private void handleRead(WebSocketSession session) {
+            // 有不完整的数据时读到会话自己的缓冲区，否则读到共享缓冲区
+            ByteBuffer buffer = null != session.pendingBuffer ? session.pendingBuffer : readBuffer;
+            try {
+                int readBytes = session.socketChannel.read(buffer);
+                if (readBytes < 0) {
+                    close(session);
+                    return;
+                }
+                session.lastActiveMillis = System.currentTimeMillis();
+                buffer.flip();
+                if (session.state == State.HANDSHAKE) {
+                    handleHandshake(session, buffer);
+                }
+                if (session.state == State.OPEN) {
+                    handleFrames(session, buffer);
+                }
+                if (!session.socketChannel.isOpen()) {
+                    // 处理过程中连接已关闭，会话的缓冲区已归还
+                    readBuffer.clear();
+                    return;
+                }
+                if (session.state == State.CLOSING) {
+                    // 已决定关闭，丢弃之后的数据
+                    buffer.position(buffer.limit());
+                }
+                keepPending(session, buffer);
+            } catch (MyHttpParser.ParseException e) {
+                // 握手请求格式错误或超过大小限制，丢弃剩余数据，响应对应的状态码后关闭
+                if (buffer == readBuffer) {
+                    readBuffer.clear();
+                } else {
+                    ByteBufferPool.DEFAULT.release(buffer);
+                    session.pendingBuffer = null;
+                }
+                session.outboundQueue.offerControl(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(new MyHttpResp(e.getStatusCode(), e.getMessage())
+                        .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE)
+                        .setBody(e.getMessage()))));
+                session.state = State.CLOSING;
+            } catch (IOException e) {
+                close(session);
+                return;
+            }
+            flush(session);
+        }
+
+        /**
+         * 处理完成后，把缓冲区中剩余的不完整数据保存到会话自己的缓冲区，没有剩余数据时归还
+         */
+        private void keepPending(WebSocketSession session, ByteBuffer buffer) throws IOException {
+            if (buffer == readBuffer) {
+                if (buffer.hasRemaining()) {
+                    session.pendingBuffer = ByteBufferPool.DEFAULT.acquire(Math.max(PENDING_BUFFER_INIT_SIZE, buffer.remaining() * 2));
+                    session.pendingBuffer.put(buffer);
+                }
+                readBuffer.clear();
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                ByteBufferPool.DEFAULT.release(buffer);
+                session.pendingBuffer = null;
+                return;
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // 缓冲区已满说明当前帧大于缓冲区，需扩容
+                if (buffer.capacity() >= maxFrameBytes + 14) {
+                    throw new IOException("Frame Too Large");
+                }
+                session.pendingBuffer = ByteBufferPool.DEFAULT.enlarge(buffer, Math.min(buffer.capacity() * 2, maxFrameBytes + 14));
+            }
+        }
+
+        private void handleHandshake(WebSocketSession session, ByteBuffer buffer) throws IOException {
+            MyHttpReq myHttpReq = session.parser.parseReq(buffer);
+            if (null == myHttpReq) {
+                return;
+            }
+            session.parser = null;
+            if (!WebSocketServer.isWebSocketHandshake(myHttpReq)) {
+                session.outboundQueue.offerControl(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(new MyHttpResp(400, "Bad Request")
+                        .addHeader(MyHttpProtHandler.CONNECTION, MyHttpProtHandler.CLOSE)
+                        .setBody("Not WebSocket Handshake"))));
+                session.state = State.CLOSING;
+                return;
+            }
+            PerMessageDeflate perMessageDeflate = perMessageDeflateEnabled
+                    ? PerMessageDeflate.negotiate(myHttpReq.getHeader(PerMessageDeflate.SEC_WEB_SOCKET_EXTENSIONS), clientContextTakeover, deflateLevel)
+                    : null;
+            MyHttpResp myHttpResp = WebSocketServer.genHandshakeResp(myHttpReq, perMessageDeflate);
+            session.perMessageDeflate = perMessageDeflate;
+            session.outboundQueue.offerControl(ByteBuffer.wrap(MyHttpProtHandler.encodeResp(myHttpResp)));
+            session.state = myHttpResp.getStatusCode() == 101 ? State.OPEN : State.CLOSING;
+        }
+
+        /**
+         * 依次处理缓冲区中所有完整的数据帧，帧在缓冲区中原地解码，数据部分是缓冲区的切片，需在本次处理中使用完
+         */
+        private void handleFrames(WebSocketSession session, ByteBuffer buffer) {
+            try {
+                WebSocketFrame frame;
+                while (session.state == State.OPEN && session.socketChannel.isOpen()
+                        && (frame = WebSocketEnDecoder.decode(buffer, maxFrameBytes)) != null) {
+                    handleFrame(session, frame);
+                }
+            } catch (WebSocketEnDecoder.FrameException e) {
+                System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[Invalid Frame] [ClientId: %s] [CloseCode: %d] [Reason: %s]\n",
+                        session.clientId, e.getCloseCode(), e.getMessage());
+                // 不再需要未完成的分片消息
+                session.fragmentBaos = null;
+                sendControl(session, WebSocketEnDecoder.encode(WebSocketFrame.serverCloseFrame(e.getCloseCode())));
+                session.state = State.CLOSING;
+            }
+        }
+
+        private void handleFrame(WebSocketSession session, WebSocketFrame frame) throws WebSocketEnDecoder.FrameException {
+            switch (frame.getOpCode()) {
+                case CLOSE_FRAME:
+                    sendControl(session, WebSocketEnDecoder.encode(WebSocketFrame.serverCloseFrame()));
+                    session.state = State.CLOSING;
+                    break;
+                case TEXT_FRAME:
+                case BINARY_FRAME:
+                    // 压缩的消息只在第一个帧设置RSV1
+                    if (frame.isRsv1() && null == session.perMessageDeflate) {
+                        throw new WebSocketEnDecoder.FrameException("RSV1 Set Without Extension");
+                    }
+                    // 分片消息未结束前只能收到CONTINUATION帧和控制帧
+                    if (null != session.fragmentBaos) {
+                        throw new WebSocketEnDecoder.FrameException("Message started before previous message finished");
+                    }
+                    if (frame.isFin()) {
+                        // 未分片的消息直接处理，不经过分片缓冲
+                        handleMessage(session, frame.isRsv1() ? inflate(session, frame.getPayloadBuffer()) : frame.getPayloadBuffer(),
+                                WebSocketFrame.OpCode.TEXT_FRAME.equals(frame.getOpCode()));
+                    } else {
+                        session.fragmentBaos = new ByteArrayOutputStream();
+                        session.fragmentText = WebSocketFrame.OpCode.TEXT_FRAME.equals(frame.getOpCode());
+                        session.fragmentCompressed = frame.isRsv1();
+                        appendFragment(session, frame.getPayloadBuffer());
+                    }
+                    break;
+                case CONTINUATION_FRAME:
+                    if (null == session.fragmentBaos) {
+                        throw new WebSocketEnDecoder.FrameException("Continuation frame without message");
+                    }
+                    appendFragment(session, frame.getPayloadBuffer());
+                    if (frame.isFin()) {
+                        ByteBuffer data = ByteBuffer.wrap(session.fragmentBaos.toByteArray());
+                        session.fragmentBaos = null;
+                        handleMessage(session, session.fragmentCompressed ? inflate(session, data) : data, session.fragmentText);
+                    }
+                    break;
+                case PING_FRAME:
+                    // PONG帧需原样带回PING帧的数据
+                    sendControl(session, WebSocketEnDecoder.encode(WebSocketFrame.serverPongFrame(frame.getPayloadBuffer())));
+                    break;
+                case PONG_FRAME:
+                default:
+                    break;
+            }
+        }
+
+        private ByteBuffer inflate(WebSocketSession session, ByteBuffer payload) throws WebSocketEnDecoder.FrameException {
+            return ByteBuffer.wrap(session.perMessageDeflate.decompress(payload, maxMessageBytes));
+        }
+
+        private void appendFragment(WebSocketSession session, ByteBuffer payload) throws WebSocketEnDecoder.FrameException {
+            if ((long) session.fragmentBaos.size() + payload.remaining() > maxMessageBytes) {
+                throw new WebSocketEnDecoder.FrameException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG, "Message length exceeds max message bytes " + maxMessageBytes);
+            }
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            session.fragmentBaos.write(bytes, 0, bytes.length);
+        }
+
+        private void handleMessage(WebSocketSession session, ByteBuffer payload, boolean textFrame) {
+            if (textFrame) {
+                handleText(session, StandardCharsets.UTF_8.decode(payload).toString());
+            } else {
+                System.out.printf(WEB_SOCKET_NIO_SERVER_LOG + "[Received Binary Data] [ClientId: %s] [Data Bytes: %d]\n",
+                        session.clientId, payload.remaining());
+            }
+        }
+
+        /**
+         * 聚集写出发送队列中的数据，写不完时关注OP_WRITE，写完后取消关注；CLOSING状态下写完后关闭连接
+         */
+        private void flush(WebSocketSession session) {
+            SelectionKey selectionKey = session.selectionKey;
+            if (null == selectionKey || !selectionKey.isValid()) {
+                return;
+            }
+            try {
+                // 队列写空后继续发送合并的帧
+                while (!session.outboundQueue.isEmpty() || session.outboundQueue.drainCoalesced()) {
+                    Iterator<ByteBuffer> iterator = session.outboundQueue.iterator();
+                    int count = 0;
+                    while (count < MAX_GATHERING_BUFFERS && iterator.hasNext()) {
+                        gatheringBuffers[count++] = iterator.next();
+                    }
+                    session.socketChannel.write(gatheringBuffers, 0, count);
+                    session.lastActiveMillis = System.currentTimeMillis();
+                    boolean writeAll = !gatheringBuffers[count - 1].hasRemaining();
+                    Arrays.fill(gatheringBuffers, 0, count, null);
+                    // 移除已经写完的帧，没有写完的帧保留到下次可写时继续写
+                    session.outboundQueue.pollWritten();
+                    if (!writeAll) {
+                        // 发送缓冲区已满
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                close(session);
+                return;
+            }
+            if (session.outboundQueue.isEmpty()) {
+                if (session.state == State.CLOSING) {
+                    close(session);
+                    return;
+                }
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            } else {
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void closeIdleSession() {
+            long nowMillis = System.currentTimeMillis();
+            if (nowMillis - lastIdleCheckMillis < Math.min(idleTimeoutMillis, 1000)) {
+                return;
+            }
+            lastIdleCheckMillis = nowMillis;
+            for (SelectionKey selectionKey : selector.keys()) {
+                WebSocketSession session = (WebSocketSession) selectionKey.attachment();
+                if (null != session && nowMillis - session.lastActiveMillis > idleTimeoutMillis) {
+                    close(session);
+                }
+            }
+        }
+
+        private void close(WebSocketSession session) {
+            if (null == session || !session.socketChannel.isOpen()) {
+                return;
+            }
+            if (null != session.selectionKey) {
+                session.selectionKey.cancel();
+            }
+            if (null != session.pendingBuffer) {
+                ByteBufferPool.DEFAULT.release(session.pendingBuffer);
+                session.pendingBuffer = null;
+            }
+            session.outboundQueue.clear();
+            session.fragmentBaos = null;
+            if (null != session.perMessageDeflate) {
+                session.perMessageDeflate.close();
+            }
+            if (null != session.topics) {
+                for (String topic : session.topics) {
+                    unsubscribe(session, topic);
+                }
+            }
+            String clientId = session.clientId;
+            if (null != clientId && CLIENT_ID_SESSION_MAP.remove(clientId, session)) {
+                System.out.println(WEB_SOCKET_NIO_SERVER_LOG + "[Client Disconnected] [ClientId: " + clientId + "]");
+            }
+            connectionCount.decrementAndGet();
+            try {
+                session.socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
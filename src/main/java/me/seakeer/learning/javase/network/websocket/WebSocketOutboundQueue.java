@@ -0,0 +1,179 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocketOutboundQueue;
+ * 单个会话的有界发送队列，任意线程入队，只由会话所属的Worker线程出队写出
+ * 1. 按排队的字节数限制队列长度，控制帧（PONG、CLOSE）不受限制
+ * 2. 队列已满（慢消费者）时按 SlowConsumerPolicy 处理：丢弃新帧、断开连接、或按合并键只保留最新的帧
+ * 3. 入队的帧可以是多个会话共享的只读缓冲区的 duplicate()，内容只编码一次
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class WebSocketOutboundQueue {
+
+    /**
+     * 慢消费者处理策略
+     */
+    public enum SlowConsumerPolicy {
+
+        /**
+         * 丢弃新的帧
+         */
+        DROP,
+
+        /**
+         * 断开连接
+         */
+        DISCONNECT,
+
+        /**
+         * 同一合并键（如广播的主题）只保留最新的帧，队列写空后再发送；没有合并键的帧丢弃
+         */
+        COALESCE
+    }
+
+    public enum OfferResult {
+
+        QUEUED,
+
+        DROPPED,
+
+        COALESCED,
+
+        /**
+         * 队列已满且策略为 DISCONNECT，由调用方断开连接
+         */
+        OVERFLOW
+    }
+
+    private final ConcurrentLinkedQueue<ByteBuffer> frameQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已入队还没有写完的字节数
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /**
+     * 合并键 -> 等待发送的最新的帧，只在第一次合并时创建
+     */
+    private volatile Map<String, ByteBuffer> coalescedFrameMap;
+
+    /**
+     * 数据帧入队
+     *
+     * @param frame           读模式的帧，position为0
+     * @param coalesceKey     合并键，可为null
+     * @param maxQueuedBytes  队列的最大字节数
+     * @param policy          队列已满时的处理策略
+     * @return
+     */
+    OfferResult offer(ByteBuffer frame, String coalesceKey, long maxQueuedBytes, SlowConsumerPolicy policy) {
+        int frameBytes = frame.remaining();
+        if (queuedBytes.addAndGet(frameBytes) <= maxQueuedBytes || frameQueue.isEmpty()) {
+            // 队列为空时总是接收，避免大于上限的帧永远无法发送
+            frameQueue.offer(frame);
+            // 同一合并键之前合并的帧已经过时，不能在这个更新的帧之后再发送
+            Map<String, ByteBuffer> frameMap = coalescedFrameMap;
+            if (null != coalesceKey && null != frameMap) {
+                frameMap.remove(coalesceKey);
+            }
+            return OfferResult.QUEUED;
+        }
+        queuedBytes.addAndGet(-frameBytes);
+        switch (policy) {
+            case DISCONNECT:
+                return OfferResult.OVERFLOW;
+            case COALESCE:
+                if (null != coalesceKey) {
+                    coalescedFrameMap().put(coalesceKey, frame);
+                    return OfferResult.COALESCED;
+                }
+                return OfferResult.DROPPED;
+            case DROP:
+            default:
+                return OfferResult.DROPPED;
+        }
+    }
+
+    /**
+     * 控制帧入队，不受队列长度限制
+     */
+    void offerControl(ByteBuffer frame) {
+        queuedBytes.addAndGet(frame.remaining());
+        frameQueue.offer(frame);
+    }
+
+    Iterator<ByteBuffer> iterator() {
+        return frameQueue.iterator();
+    }
+
+    /**
+     * 移除队列头部已经写完的帧
+     */
+    void pollWritten() {
+        ByteBuffer frame;
+        while ((frame = frameQueue.peek()) != null && !frame.hasRemaining()) {
+            frameQueue.poll();
+            queuedBytes.addAndGet(-frame.limit());
+        }
+    }
+
+    /**
+     * 队列写空后，把合并的帧移入队列
+     *
+     * @return 是否有帧移入
+     */
+    boolean drainCoalesced() {
+        Map<String, ByteBuffer> frameMap = coalescedFrameMap;
+        if (null == frameMap || frameMap.isEmpty()) {
+            return false;
+        }
+        boolean drained = false;
+        for (String coalesceKey : frameMap.keySet()) {
+            ByteBuffer frame = frameMap.remove(coalesceKey);
+            if (null != frame) {
+                offerControl(frame);
+                drained = true;
+            }
+        }
+        return drained;
+    }
+
+    boolean isEmpty() {
+        return frameQueue.isEmpty();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    void clear() {
+        frameQueue.clear();
+        queuedBytes.set(0);
+        if (null != coalescedFrameMap) {
+            coalescedFrameMap.clear();
+        }
+    }
+
+    private Map<String, ByteBuffer> coalescedFrameMap() {
+        Map<String, ByteBuffer> frameMap = coalescedFrameMap;
+        if (null == frameMap) {
+            synchronized (this) {
+                frameMap = coalescedFrameMap;
+                if (null == frameMap) {
+                    frameMap = new ConcurrentHashMap<>();
+                    coalescedFrameMap = frameMap;
+                }
+            }
+        }
+        return frameMap;
+    }
+}
@@ -1,26 +1,35 @@
 package me.seakeer.learning.javase.network.websocket;
 
+import me.seakeer.learning.javase.multithread.ConnectionExecutors;
 import me.seakeer.learning.javase.network.http.myhttp.MyHttpProtHandler;
 import me.seakeer.learning.javase.network.http.myhttp.MyHttpReq;
 import me.seakeer.learning.javase.network.http.myhttp.MyHttpResp;
+import me.seakeer.learning.javase.network.timer.IdleStateTracker;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 
 /**
  * WebSocketServer;
  * WebSocket协议服务端
- * 基于JAVA BIO
+ * 基于JAVA BIO，每个连接占用一个线程；大量连接时使用 {@link WebSocketNioServer}，或使用 VIRTUAL 线程模式（{@link ConnectionExecutors}）每个连接一个虚拟线程
+ * 数据帧流式解码，文本消息聚合后处理；设置 binaryMessageListenerFactory 后，二进制消息边接收边交给监听器，不在堆中聚合
+ * 所有连接共用一个空闲检测，由一个定时线程推进：写空闲时把PING帧交给发送PING的线程池发送，读空闲超时直接关闭连接；定时线程不做阻塞的写
  *
  * @author Seakeer;
  * @date 2024/12/29;
@@ -31,6 +40,23 @@ public class WebSocketServer {
     public static final String WEB_SOCKET_SERVER_LOG = "[WebSocketServer] ";
     public static final String CMD_LIST = "[START, RESTART, STOP, SHUTDOWN, TO $CLIENT_ID $MSG]";
 
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * 发送PING帧的最大线程数，即最多同时有这么多个写阻塞的连接还能不影响其他连接的PING
+     */
+    private static final int MAX_PING_THREADS = 64;
+
+    /**
+     * 默认超过该时间没有向客户端写出数据时发送PING帧
+     */
+    public static final long DEFAULT_PING_INTERVAL_MILLIS = 30_000;
+
+    /**
+     * 默认超过该时间没有收到客户端数据时关闭连接，即连续3次PING没有响应
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 90_000;
+
     /**
      * 服务端端口号
      */
@@ -51,19 +77,122 @@ public class WebSocketServer {
      */
     private volatile ExecutorService handleClientThreadPool;
 
+    /**
+     * 处理连接的线程模式，PLATFORM 使用有界线程池，连接数超过上限时拒绝新连接；在启动前设置
+     */
+    private volatile ConnectionExecutors.ThreadMode threadMode = ConnectionExecutors.ThreadMode.PLATFORM;
+
+    /**
+     * 写空闲时发送PING帧的间隔，0表示不发送，在启动前设置
+     */
+    private volatile long pingIntervalMillis = DEFAULT_PING_INTERVAL_MILLIS;
+
+    /**
+     * 读空闲超时时间，超时关闭连接，0表示不关闭，在启动前设置
+     */
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private volatile IdleStateTracker<Socket> idleStateTracker;
+
+    /**
+     * 推进空闲检测的定时线程
+     */
+    private volatile ScheduledExecutorService idleCheckThreadPool;
+
+    /**
+     * 发送PING帧的有界平台线程池；对端不读取时写会阻塞，阻塞的只是该线程池的线程，读空闲超时关闭连接后写随之结束
+     */
+    private volatile ExecutorService pingThreadPool;
+
     /**
      * 存储认证通过的客户端连接
      */
     private final Map<Socket, String> SOCKET_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, Socket> CLIENT_ID_SOCKET_MAP = new ConcurrentHashMap<>();
 
+    /**
+     * 启用了 permessage-deflate 的连接
+     */
+    private final Map<Socket, PerMessageDeflate> SOCKET_DEFLATE_MAP = new ConcurrentHashMap<>();
+
+    private final Map<Socket, IdleStateTracker.Handle<Socket>> SOCKET_IDLE_HANDLE_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 每个连接的写锁，握手成功后创建，连接断开时移除
+     * 不使用 synchronized：Java 24 之前虚拟线程在 synchronized 中阻塞写（或等待进入）会占住载体线程，几个慢速的对端就能占满所有载体线程
+     */
+    private final Map<Socket, ReentrantLock> SOCKET_WRITE_LOCK_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 正在发送PING帧的连接，每个连接同时只有一个PING在发送，写阻塞的连接最多占用一个发送PING的线程
+     */
+    private final Set<Socket> PINGING_SOCKET_SET = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 是否启用 permessage-deflate 压缩扩展
+     */
+    private volatile boolean perMessageDeflateEnabled = true;
+
+    /**
+     * 单条消息的最大字节数，包括流式接收的二进制消息
+     */
+    private volatile long maxMessageBytes = WebSocketStreamDecoder.DEFAULT_MAX_MESSAGE_BYTES;
+
+    /**
+     * 单个连接累计接收的最大字节数
+     */
+    private volatile long maxConnectionBytes = WebSocketStreamDecoder.DEFAULT_MAX_CONNECTION_BYTES;
+
+    /**
+     * 为每个连接创建流式接收二进制消息的监听器，为null时二进制消息聚合后处理
+     */
+    private volatile Function<Socket, WebSocketMessageListener> binaryMessageListenerFactory;
+
 
     public WebSocketServer(int port) {
         this.port = port;
     }
 
+    public WebSocketServer setPerMessageDeflateEnabled(boolean perMessageDeflateEnabled) {
+        this.perMessageDeflateEnabled = perMessageDeflateEnabled;
+        return this;
+    }
+
+    public WebSocketServer setMaxMessageBytes(long maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    public WebSocketServer setMaxConnectionBytes(long maxConnectionBytes) {
+        this.maxConnectionBytes = maxConnectionBytes;
+        return this;
+    }
+
+    public WebSocketServer setThreadMode(ConnectionExecutors.ThreadMode threadMode) {
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public WebSocketServer setPingIntervalMillis(long pingIntervalMillis) {
+        this.pingIntervalMillis = pingIntervalMillis;
+        return this;
+    }
+
+    public WebSocketServer setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public WebSocketServer setBinaryMessageListenerFactory(Function<Socket, WebSocketMessageListener> binaryMessageListenerFactory) {
+        this.binaryMessageListenerFactory = binaryMessageListenerFactory;
+        return this;
+    }
+
     public static void main(String[] args) {
         WebSocketServer webSocketServer = new WebSocketServer(9999);
+        if (args.length > 0) {
+            webSocketServer.setThreadMode(ConnectionExecutors.ThreadMode.valueOf(args[0].toUpperCase()));
+        }
         cmd(webSocketServer);
     }
 
@@ -123,6 +252,14 @@ public class WebSocketServer {
                 handleClientThreadPool.shutdown();
                 handleClientThreadPool = null;
             }
+            if (idleCheckThreadPool != null) {
+                idleCheckThreadPool.shutdownNow();
+                idleCheckThreadPool = null;
+            }
+            if (pingThreadPool != null) {
+                pingThreadPool.shutdownNow();
+                pingThreadPool = null;
+            }
             if (serverSocket != null) {
                 serverSocket.close();
                 serverSocket = null;
@@ -143,6 +280,9 @@ public class WebSocketServer {
         }
         SOCKET_CLIENT_ID_MAP.clear();
         CLIENT_ID_SOCKET_MAP.clear();
+        SOCKET_IDLE_HANDLE_MAP.values().forEach(IdleStateTracker.Handle::cancel);
+        SOCKET_IDLE_HANDLE_MAP.clear();
+        SOCKET_WRITE_LOCK_MAP.clear();
     }
 
     public void restart() {
@@ -154,7 +294,15 @@ public class WebSocketServer {
     public void init() {
         try {
             this.serverSocket = new ServerSocket(this.port);
-            this.handleClientThreadPool = new ThreadPoolExecutor(8, 16, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(8));
+            this.handleClientThreadPool = ConnectionExecutors.newExecutor(threadMode, "ws-conn-",
+                    () -> new ThreadPoolExecutor(8, 16, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(8)));
+            IdleStateTracker<Socket> tracker = new IdleStateTracker<>(idleTimeoutMillis, pingIntervalMillis, this::handleIdle);
+            this.idleStateTracker = tracker;
+            // 不论线程模式都使用有界的平台线程池：不排队，PING不会等在写阻塞的PING之后；线程都被写阻塞的连接占用时拒绝，本次不发送PING
+            this.pingThreadPool = new ThreadPoolExecutor(0, MAX_PING_THREADS, 10, TimeUnit.SECONDS, new SynchronousQueue<>());
+            this.idleCheckThreadPool = Executors.newSingleThreadScheduledExecutor();
+            this.idleCheckThreadPool.scheduleAtFixedRate(() -> tracker.advance(System.currentTimeMillis()),
+                    tracker.getTickMillis(), tracker.getTickMillis(), TimeUnit.MILLISECONDS);
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
@@ -168,7 +316,12 @@ public class WebSocketServer {
             try {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println(WEB_SOCKET_SERVER_LOG + "[Accepted Client] " + "[ClientAddr: " + clientSocket.getRemoteSocketAddress() + "]");
-                handleClientThreadPool.execute(() -> handleClient(clientSocket));
+                try {
+                    handleClientThreadPool.execute(() -> handleClient(clientSocket));
+                } catch (RejectedExecutionException ree) {
+                    System.out.println(WEB_SOCKET_SERVER_LOG + "[Rejected Client] [TooManyConnections] [ClientAddr: " + clientSocket.getRemoteSocketAddress() + "]");
+                    clientSocket.close();
+                }
             } catch (IOException ioe) {
                 ioe.printStackTrace();
             }
@@ -179,10 +332,18 @@ public class WebSocketServer {
         try {
             MyHttpReq myHttpReq = MyHttpProtHandler.parseReq(clientSocket.getInputStream());
             if (isWebSocketHandshake(myHttpReq)) {
-                MyHttpResp myHttpResp = genHandshakeResp(myHttpReq);
+                PerMessageDeflate perMessageDeflate = perMessageDeflateEnabled
+                        ? PerMessageDeflate.negotiate(myHttpReq.getHeader(PerMessageDeflate.SEC_WEB_SOCKET_EXTENSIONS), false, Deflater.DEFAULT_COMPRESSION)
+                        : null;
+                MyHttpResp myHttpResp = genHandshakeResp(myHttpReq, perMessageDeflate);
                 if (agreeWebSocketHandshake(myHttpResp)) {
                     MyHttpProtHandler.sendResp(clientSocket.getOutputStream(), myHttpResp);
-                    handleClientWebSocketData(clientSocket);
+                    if (null != perMessageDeflate) {
+                        SOCKET_DEFLATE_MAP.put(clientSocket, perMessageDeflate);
+                    }
+                    SOCKET_WRITE_LOCK_MAP.put(clientSocket, new ReentrantLock());
+                    SOCKET_IDLE_HANDLE_MAP.put(clientSocket, idleStateTracker.register(clientSocket));
+                    handleClientWebSocketData(clientSocket, perMessageDeflate);
                 } else {
                     clientSocket.close();
                 }
@@ -194,73 +355,72 @@ public class WebSocketServer {
         }
     }
 
-    private MyHttpResp genHandshakeResp(MyHttpReq myHttpReq) {
+    static MyHttpResp genHandshakeResp(MyHttpReq myHttpReq) {
+        return genHandshakeResp(myHttpReq, null);
+    }
+
+    /**
+     * @param myHttpReq
+     * @param perMessageDeflate 协商成功的压缩扩展，为null时不启用
+     * @return
+     */
+    static MyHttpResp genHandshakeResp(MyHttpReq myHttpReq, PerMessageDeflate perMessageDeflate) {
         try {
             String reqKey = myHttpReq.getHeader("Sec-WebSocket-Key");
             byte[] digest = MessageDigest.getInstance("SHA-1").digest((reqKey + GUID).getBytes(StandardCharsets.UTF_8));
             String secWebSocketAccept = Base64.getEncoder().encodeToString(digest);
-            return new MyHttpResp(101, "Switching Protocols")
+            MyHttpResp myHttpResp = new MyHttpResp(101, "Switching Protocols")
                     .addHeader("Upgrade", "websocket")
                     .addHeader("Connection", "Upgrade")
                     .addHeader("Sec-WebSocket-Accept", secWebSocketAccept);
+            if (null != perMessageDeflate) {
+                myHttpResp.addHeader(PerMessageDeflate.SEC_WEB_SOCKET_EXTENSIONS, perMessageDeflate.responseHeader());
+            }
+            return myHttpResp;
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
             return MyHttpResp.serverError(e.getMessage());
         }
     }
 
-    private boolean isWebSocketHandshake(MyHttpReq myHttpReq) {
+    static boolean isWebSocketHandshake(MyHttpReq myHttpReq) {
         if (null == myHttpReq) {
             return false;
         }
         String upgrade = myHttpReq.getHeader("Upgrade");
-        String connection = myHttpReq.getHeader("Connection".toUpperCase());
-        return "websocket".equalsIgnoreCase(upgrade) && "Upgrade".equalsIgnoreCase(connection);
+        String connection = myHttpReq.getHeader("Connection");
+        if (!"websocket".equalsIgnoreCase(upgrade) || null == connection) {
+            return false;
+        }
+        // Connection 可能包含多个值，如 keep-alive, Upgrade
+        for (String token : connection.split(",")) {
+            if ("Upgrade".equalsIgnoreCase(token.trim())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void handleClientWebSocketData(Socket clientSocket) {
+    private void handleClientWebSocketData(Socket clientSocket, PerMessageDeflate perMessageDeflate) {
         try {
-            BufferedInputStream bis = new BufferedInputStream(clientSocket.getInputStream());
-            byte[] buffer = new byte[1024];
-            // 存储一个数据帧的字节输出流
-            ByteArrayOutputStream oneFrameBaos = new ByteArrayOutputStream();
-            // 存储一条数据的字节输出流，可能包含多个数据帧
-            ByteArrayOutputStream oneDataBaos = new ByteArrayOutputStream();
-            while (true) {
-                int bytesRead = bis.read(buffer);
-                if (bytesRead == -1) {
-                    handleDisconnectClient(clientSocket);
-                    break;
+            InputStream in = clientSocket.getInputStream();
+            Function<Socket, WebSocketMessageListener> listenerFactory = binaryMessageListenerFactory;
+            // 文本消息和压缩的消息需要聚合到数组中，同样受 maxMessageBytes 限制
+            int maxAggregateBytes = (int) Math.min(maxMessageBytes, WebSocketMessageAggregator.MAX_AGGREGATE_BYTES);
+            WebSocketMessageListener listener = new WebSocketMessageAggregator(perMessageDeflate, maxAggregateBytes,
+                    null == listenerFactory ? null : listenerFactory.apply(clientSocket)) {
+
+                @Override
+                protected void onMessage(byte[] data, boolean text) throws IOException {
+                    handleOneData(data, text, clientSocket);
                 }
-                oneFrameBaos.write(buffer, 0, bytesRead);
 
-                while (true) {
-                    // 尝试解码当前帧
-                    WebSocketFrame frame = WebSocketEnDecoder.decode(oneFrameBaos.toByteArray());
-                    if (frame == null) {
-                        // 没有解码出一个数据帧，继续读取数据进行解码
-                        break;
-                    }
-                    byte[] remainingData = oneFrameBaos.toByteArray();
-                    oneFrameBaos.reset();
-                    // 解码出一个帧后，可能多读取了一些字节，需要写入多读取的数据，交给下一个数据帧
-                    oneFrameBaos.write(remainingData, frame.getFrameLengthBytes(), remainingData.length - frame.getFrameLengthBytes());
+                @Override
+                public void onControlFrame(WebSocketFrame frame) throws IOException {
                     switch (frame.getOpCode()) {
                         case CLOSE_FRAME:
-                            sendCloseFrame(clientSocket);
+                            sendCloseFrame(clientSocket, WebSocketFrame.CLOSE_NORMAL);
                             handleDisconnectClient(clientSocket);
-                            return;
-                        case TEXT_FRAME:
-                        case BINARY_FRAME:
-                            // 读取到的数据帧是文本帧或二进制帧，写入到一条数据的字节流中
-                            oneDataBaos.write(frame.deMaskPayload());
-                            if (frame.isFin()) {
-                                // 数据帧是结束帧，说明一条数据读取完毕，可以处理了
-                                handleOneData(oneDataBaos.toByteArray(),
-                                        WebSocketFrame.OpCode.TEXT_FRAME.equals(frame.getOpCode()),
-                                        clientSocket);
-                                oneDataBaos.reset();
-                            }
                             break;
                         case PING_FRAME:
                             handleClientPing(clientSocket);
@@ -272,22 +432,126 @@ public class WebSocketServer {
                             break;
                     }
                 }
+            };
+            WebSocketStreamDecoder decoder = new WebSocketStreamDecoder(listener)
+                    .setMaxMessageBytes(maxMessageBytes)
+                    .setMaxConnectionBytes(maxConnectionBytes);
+            // 读取缓冲区，写模式；已到达的数据部分立即交给监听器，只有不完整的帧头或控制帧保留到下次读取，缓冲区不需要扩容
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            IdleStateTracker.Handle<Socket> idleHandle = SOCKET_IDLE_HANDLE_MAP.get(clientSocket);
+            while (!decoder.isCloseReceived()) {
+                int bytesRead = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (bytesRead == -1) {
+                    handleDisconnectClient(clientSocket);
+                    break;
+                }
+                if (null != idleHandle) {
+                    idleHandle.touchRead();
+                }
+                buffer.position(buffer.position() + bytesRead);
+                buffer.flip();
+                decoder.decode(buffer);
+                buffer.compact();
             }
+        } catch (WebSocketEnDecoder.FrameException e) {
+            System.out.printf(WEB_SOCKET_SERVER_LOG + "[Invalid Frame] [ClientId: %s] [CloseCode: %d] [Reason: %s]\n",
+                    SOCKET_CLIENT_ID_MAP.get(clientSocket), e.getCloseCode(), e.getMessage());
+            sendCloseFrame(clientSocket, e.getCloseCode());
+            handleDisconnectClient(clientSocket);
         } catch (IOException e) {
-            e.printStackTrace();
+            // 空闲超时等原因已在其他线程关闭了连接
+            if (!clientSocket.isClosed()) {
+                e.printStackTrace();
+            }
         }
     }
 
-    private static void sendCloseFrame(Socket clientSocket) {
+    private void sendCloseFrame(Socket clientSocket, int statusCode) {
         try {
-            byte[] closeFrame = WebSocketEnDecoder.encode(WebSocketFrame.serverCloseFrame());
-            clientSocket.getOutputStream().write(closeFrame);
-            clientSocket.getOutputStream().flush();
+            writeFrame(clientSocket, WebSocketEnDecoder.encode(WebSocketFrame.serverCloseFrame(statusCode)));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 写出一个完整的帧；连接线程、其他连接的线程和发送PING的线程都会写，按连接加写锁避免帧交错
+     *
+     * @param clientSocket
+     * @param frame
+     * @throws IOException 写失败或连接已断开
+     */
+    private void writeFrame(Socket clientSocket, byte[] frame) throws IOException {
+        ReentrantLock writeLock = SOCKET_WRITE_LOCK_MAP.get(clientSocket);
+        if (null == writeLock) {
+            throw new SocketException("Socket Disconnected");
+        }
+        writeLock.lock();
+        try {
+            clientSocket.getOutputStream().write(frame);
+            clientSocket.getOutputStream().flush();
+        } finally {
+            writeLock.unlock();
+        }
+        IdleStateTracker.Handle<Socket> idleHandle = SOCKET_IDLE_HANDLE_MAP.get(clientSocket);
+        if (null != idleHandle) {
+            idleHandle.touchWrite();
+        }
+    }
+
+    /**
+     * 处理空闲连接，在空闲检测线程中调用，不能阻塞：一个连接的写阻塞会推迟所有连接的空闲检测
+     * 1. 写空闲：在发送PING的线程池中发送PING帧，客户端响应PONG帧后连接不再读空闲
+     * 2. 读空闲：客户端已失效或为半开连接，直接关闭连接（不获取写锁，不发送CLOSE帧），连接线程的阻塞读和其他线程的阻塞写随之结束
+     *
+     * @param handle
+     * @param idleState
+     */
+    private void handleIdle(IdleStateTracker.Handle<Socket> handle, IdleStateTracker.IdleState idleState) {
+        Socket clientSocket = handle.getConnection();
+        if (clientSocket.isClosed()) {
+            handle.cancel();
+            return;
+        }
+        switch (idleState) {
+            case WRITER_IDLE:
+                ExecutorService executor = pingThreadPool;
+                // 上一个PING还没有写完（对端不读取），不再发送
+                if (null == executor || !PINGING_SOCKET_SET.add(clientSocket)) {
+                    break;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            ping(clientSocket);
+                        } finally {
+                            PINGING_SOCKET_SET.remove(clientSocket);
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    // 发送PING的线程都被占用或服务正在停止
+                    PINGING_SOCKET_SET.remove(clientSocket);
+                }
+                break;
+            case READER_IDLE:
+                System.out.printf(WEB_SOCKET_SERVER_LOG + "[Idle Timeout] [ClientId: %s] [IdleMillis: %d]\n",
+                        SOCKET_CLIENT_ID_MAP.get(clientSocket), System.currentTimeMillis() - handle.getLastReadMillis());
+                handleDisconnectClient(clientSocket);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void ping(Socket clientSocket) {
+        try {
+            writeFrame(clientSocket, WebSocketEnDecoder.encode(WebSocketFrame.serverPingFrame()));
+            System.out.printf(WEB_SOCKET_SERVER_LOG + "[Send Ping] [ClientId: %s]\n", SOCKET_CLIENT_ID_MAP.get(clientSocket));
+        } catch (IOException e) {
+            System.out.printf(WEB_SOCKET_SERVER_LOG + "[Send Ping Failed] [ClientId: %s] [Reason: %s]\n", SOCKET_CLIENT_ID_MAP.get(clientSocket), e.getMessage());
+        }
+    }
+
     private void handleDisconnectClient(Socket clientSocket) {
         if (clientSocket == null) {
             return;
@@ -295,7 +559,19 @@ public class WebSocketServer {
         String clientId = SOCKET_CLIENT_ID_MAP.get(clientSocket);
         System.out.println(WEB_SOCKET_SERVER_LOG + "[Client Disconnected][ClientId: " + clientId + "]");
         SOCKET_CLIENT_ID_MAP.remove(clientSocket);
-        CLIENT_ID_SOCKET_MAP.remove(clientId);
+        if (null != clientId) {
+            CLIENT_ID_SOCKET_MAP.remove(clientId);
+        }
+        IdleStateTracker.Handle<Socket> idleHandle = SOCKET_IDLE_HANDLE_MAP.remove(clientSocket);
+        if (null != idleHandle) {
+            idleHandle.cancel();
+        }
+        SOCKET_WRITE_LOCK_MAP.remove(clientSocket);
+        PerMessageDeflate perMessageDeflate = SOCKET_DEFLATE_MAP.remove(clientSocket);
+        if (null != perMessageDeflate) {
+            System.out.println(WEB_SOCKET_SERVER_LOG + "[PerMessageDeflate] [ClientId: " + clientId + "] " + perMessageDeflate);
+            perMessageDeflate.close();
+        }
         try {
             if (!clientSocket.isClosed()) {
                 clientSocket.close();
@@ -330,8 +606,12 @@ public class WebSocketServer {
             if (null == clientSocket) {
                 return false;
             }
-            clientSocket.getOutputStream().write(WebSocketEnDecoder.encode(WebSocketFrame.clientTextFrame(msg)));
-            clientSocket.getOutputStream().flush();
+            byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+            PerMessageDeflate perMessageDeflate = SOCKET_DEFLATE_MAP.get(clientSocket);
+            WebSocketFrame frame = null != perMessageDeflate && perMessageDeflate.shouldCompress(data.length)
+                    ? WebSocketFrame.clientTextFrame(perMessageDeflate.compress(data), true)
+                    : WebSocketFrame.clientTextFrame(data, false);
+            writeFrame(clientSocket, WebSocketEnDecoder.encode(frame));
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -350,9 +630,7 @@ public class WebSocketServer {
     }
 
     private void pong(Socket clientSocket) throws IOException {
-        byte[] pongFrame = WebSocketEnDecoder.encode(WebSocketFrame.serverPongFrame());
-        clientSocket.getOutputStream().write(pongFrame);
-        clientSocket.getOutputStream().flush();
+        writeFrame(clientSocket, WebSocketEnDecoder.encode(WebSocketFrame.serverPongFrame()));
         System.out.printf(WEB_SOCKET_SERVER_LOG + "[Send Pong] [ClientId: %s]\n", SOCKET_CLIENT_ID_MAP.get(clientSocket));
         System.out.printf(WEB_SOCKET_SERVER_LOG + "[Head Count] [SocketCount: %d; ClientIdCount: %d]\n",
                 SOCKET_CLIENT_ID_MAP.size(),
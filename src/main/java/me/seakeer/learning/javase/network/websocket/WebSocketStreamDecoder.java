@@ -0,0 +1,199 @@
+package me.seakeer.learning.javase.network.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * WebSocketStreamDecoder;
+ * 流式解码器，每个连接一个，非线程安全
+ * 1. 数据帧不必完整：帧头完整后，已到达的数据部分原地去除掩码，立即交给监听器，帧和消息的长度都可超过2GB
+ * 2. 控制帧等待完整后整体回调；读取缓冲区只需容纳一个帧头或一个控制帧（最多 14 + 125 字节）
+ * 3. 按帧头声明的长度检查单条消息的最大字节数和单个连接累计接收的最大字节数，超过时抛出异常，不必等待数据读完
+ * 4. 校验分片顺序：CONTINUATION 之前必须有未结束的消息，未结束的消息之间不能开始新消息，控制帧不能分片
+ * 收到 CLOSE 帧后不再解码
+ *
+ * @author Seakeer;
+ * @date 2026/10/17;
+ */
+public class WebSocketStreamDecoder {
+
+    /**
+     * 默认的单条消息最大字节数
+     */
+    public static final long DEFAULT_MAX_MESSAGE_BYTES = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * 默认的单个连接累计接收的最大字节数，不限制
+     */
+    public static final long DEFAULT_MAX_CONNECTION_BYTES = Long.MAX_VALUE;
+
+    /**
+     * 控制帧的数据部分最大长度
+     */
+    private static final int MAX_CONTROL_PAYLOAD_LEN = 125;
+
+    private final WebSocketMessageListener listener;
+
+    private long maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+
+    private long maxConnectionBytes = DEFAULT_MAX_CONNECTION_BYTES;
+
+    /**
+     * 正在接收数据部分的帧的帧头，为null时等待下一个帧头
+     */
+    private WebSocketFrame frameHeader;
+
+    /**
+     * 当前帧已接收的数据部分字节数
+     */
+    private long frameReceived;
+
+    /**
+     * 当前消息是否未结束（已收到第一个帧，还没有收到FIN）
+     */
+    private boolean inMessage;
+
+    private long messageBytes;
+
+    private long connectionBytes;
+
+    private boolean closeReceived;
+
+    public WebSocketStreamDecoder(WebSocketMessageListener listener) {
+        this.listener = listener;
+    }
+
+    public WebSocketStreamDecoder setMaxMessageBytes(long maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    public WebSocketStreamDecoder setMaxConnectionBytes(long maxConnectionBytes) {
+        this.maxConnectionBytes = maxConnectionBytes;
+        return this;
+    }
+
+    /**
+     * 解码缓冲区中已到达的数据，回调监听器
+     * 返回后缓冲区中剩余的是不完整的帧头或控制帧，需保留到下次读取（compact）
+     *
+     * @param buffer 读模式的缓冲区，需为默认的大端序
+     * @throws WebSocketEnDecoder.FrameException 帧格式错误或超过最大长度
+     * @throws IOException                       监听器抛出的异常
+     */
+    public void decode(ByteBuffer buffer) throws IOException {
+        while (!closeReceived) {
+            if (null == frameHeader) {
+                int start = buffer.position();
+                WebSocketFrame header = WebSocketEnDecoder.decodeHeader(buffer);
+                if (null == header) {
+                    return;
+                }
+                if (isControl(header.getOpCode())) {
+                    buffer.position(start);
+                    if (!decodeControlFrame(header, buffer)) {
+                        return;
+                    }
+                    continue;
+                }
+                startFrame(header);
+            }
+            if (!decodePayload(buffer)) {
+                return;
+            }
+        }
+    }
+
+    public boolean isCloseReceived() {
+        return closeReceived;
+    }
+
+    public long getConnectionBytes() {
+        return connectionBytes;
+    }
+
+    private boolean decodeControlFrame(WebSocketFrame header, ByteBuffer buffer) throws IOException {
+        WebSocketFrame.OpCode opCode = header.getOpCode();
+        if (!WebSocketFrame.OpCode.CLOSE_FRAME.equals(opCode) && !WebSocketFrame.OpCode.PING_FRAME.equals(opCode)
+                && !WebSocketFrame.OpCode.PONG_FRAME.equals(opCode)) {
+            throw new WebSocketEnDecoder.FrameException("Unsupported opcode " + opCode);
+        }
+        if (!header.isFin() || header.getPayloadLen() > MAX_CONTROL_PAYLOAD_LEN) {
+            throw new WebSocketEnDecoder.FrameException("Control frame must not be fragmented or exceed " + MAX_CONTROL_PAYLOAD_LEN + " bytes");
+        }
+        WebSocketFrame frame = WebSocketEnDecoder.decode(buffer, MAX_CONTROL_PAYLOAD_LEN);
+        if (null == frame) {
+            return false;
+        }
+        if (WebSocketFrame.OpCode.CLOSE_FRAME.equals(opCode)) {
+            closeReceived = true;
+        }
+        listener.onControlFrame(frame);
+        return true;
+    }
+
+    private void startFrame(WebSocketFrame header) throws IOException {
+        WebSocketFrame.OpCode opCode = header.getOpCode();
+        boolean continuation = WebSocketFrame.OpCode.CONTINUATION_FRAME.equals(opCode);
+        if (!continuation && !WebSocketFrame.OpCode.TEXT_FRAME.equals(opCode)
+                && !WebSocketFrame.OpCode.BINARY_FRAME.equals(opCode)) {
+            throw new WebSocketEnDecoder.FrameException("Unsupported opcode " + opCode);
+        }
+        if (continuation != inMessage) {
+            throw new WebSocketEnDecoder.FrameException(continuation ? "Continuation frame without message" : "Message started before previous message finished");
+        }
+        long payloadLen = header.getPayloadLen();
+        long totalMessageBytes = continuation ? messageBytes + payloadLen : payloadLen;
+        if (totalMessageBytes < 0 || totalMessageBytes > maxMessageBytes) {
+            throw new WebSocketEnDecoder.FrameException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG, "Message length exceeds max message bytes " + maxMessageBytes);
+        }
+        if (payloadLen > maxConnectionBytes - connectionBytes) {
+            throw new WebSocketEnDecoder.FrameException("Connection received bytes exceed max connection bytes " + maxConnectionBytes);
+        }
+        if (!continuation) {
+            inMessage = true;
+            messageBytes = 0;
+            listener.onMessageStart(WebSocketFrame.OpCode.TEXT_FRAME.equals(opCode), header.isRsv1());
+        }
+        frameHeader = header;
+        frameReceived = 0;
+    }
+
+    /**
+     * @return 当前帧是否已接收完
+     */
+    private boolean decodePayload(ByteBuffer buffer) throws IOException {
+        long frameRemaining = frameHeader.getPayloadLen() - frameReceived;
+        int length = (int) Math.min(frameRemaining, buffer.remaining());
+        if (length == 0 && frameRemaining > 0) {
+            return false;
+        }
+        int start = buffer.position();
+        if (frameHeader.isMask()) {
+            WebSocketFrame.maskInPlace(buffer, start, length, frameHeader.getMaskKey(), frameReceived);
+        }
+        int limit = buffer.limit();
+        buffer.limit(start + length);
+        ByteBuffer data = buffer.slice();
+        buffer.limit(limit).position(start + length);
+
+        frameReceived += length;
+        messageBytes += length;
+        connectionBytes += length;
+        boolean frameFinished = frameReceived == frameHeader.getPayloadLen();
+        boolean last = frameFinished && frameHeader.isFin();
+        if (frameFinished) {
+            frameHeader = null;
+            inMessage = !last;
+        }
+        // 空的非结束帧没有数据需要回调
+        if (length > 0 || last) {
+            listener.onMessageData(data, last);
+        }
+        return frameFinished;
+    }
+
+    private static boolean isControl(WebSocketFrame.OpCode opCode) {
+        return (opCode.getCode() & 0x08) != 0;
+    }
+}
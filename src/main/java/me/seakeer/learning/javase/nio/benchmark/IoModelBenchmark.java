@@ -0,0 +1,483 @@
+package me.seakeer.learning.javase.nio.benchmark;
+
+import me.seakeer.learning.javase.multithread.ConnectionExecutors;
+import me.seakeer.learning.javase.nio.javaiomodel.aio.AioChannelGroupFactory;
+import me.seakeer.learning.javase.nio.javaiomodel.aio.JavaAioServer;
+import me.seakeer.learning.javase.nio.javaiomodel.bio.JavaBioServer;
+import me.seakeer.learning.javase.nio.javaiomodel.nio.JavaNioServer;
+import me.seakeer.learning.javase.nio.simpleiomodel.asyncblocking.AsyncBlockingServer;
+import me.seakeer.learning.javase.nio.simpleiomodel.asyncnoblocking.AsyncNonBlockingServer;
+import me.seakeer.learning.javase.nio.simpleiomodel.syncblocking.SyncBlockingServer;
+import me.seakeer.learning.javase.nio.simpleiomodel.syncnonblocking.SyncNonBlockingServer;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * IoModelBenchmark;
+ * 通过回环地址对 BIO/NIO/AIO 各个服务端进行压测，对比不同I/O模型的吞吐量、延迟、CPU和内存分配
+ * 1. 协议：每条消息为以 "ECHO " 开头、以换行结尾的一行，总长度为 messageSize 字节，服务端原样写回
+ * 2. 压测端基于 Selector，线程数与CPU核数相同，每个连接保持 pipeline 条消息在途，收到一条响应后立即发送下一条
+ * 3. 先预热 WARMUP_SECONDS 秒，然后统计 seconds 秒：
+ * 延迟使用 {@link LatencyHistogram} 记录；CPU和内存分配按线程统计，区分压测端和服务端（进程内启动服务端时）
+ * 参数：<服务端名称 | host:port> [连接数] [消息字节数] [流水线深度] [统计秒数] [线程配置]
+ * 线程配置：进程内启动 BIO 服务端时为连接的线程模式 PLATFORM 或 VIRTUAL；
+ * 启动基于 AsynchronousChannelGroup 的服务端时为线程组 类型[:线程数]，如 FIXED:4、CACHED:8、VIRTUAL，并打印线程组指标
+ * 每次运行只压测一个服务端，不同服务端在不同进程中运行，避免JIT和GC的相互影响
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class IoModelBenchmark {
+
+    public static final String IO_MODEL_BENCHMARK_LOG = "[IoModelBenchmark] ";
+
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private static final int DEFAULT_PORT = 9400;
+
+    private static final int WARMUP_SECONDS = 3;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String, IntConsumer> SERVER_STARTER_MAP = new LinkedHashMap<>();
+
+    /**
+     * 进程内启动的AIO服务端使用的线程组配置
+     */
+    private static AioChannelGroupFactory channelGroupFactory = new AioChannelGroupFactory();
+
+    /**
+     * 进程内启动的BIO服务端处理连接的线程模式
+     */
+    private static ConnectionExecutors.ThreadMode threadMode = ConnectionExecutors.ThreadMode.PLATFORM;
+
+    static {
+        SERVER_STARTER_MAP.put("JavaBioServer", port -> new JavaBioServer(port).setThreadMode(threadMode).start());
+        SERVER_STARTER_MAP.put("JavaNioServer", port -> new JavaNioServer(port).start());
+        SERVER_STARTER_MAP.put("JavaAioServer", port -> new JavaAioServer(port).setChannelGroupFactory(channelGroupFactory).start());
+        SERVER_STARTER_MAP.put("SyncBlockingServer", port -> new SyncBlockingServer(port).setThreadMode(threadMode).start());
+        SERVER_STARTER_MAP.put("SyncNonBlockingServer", port -> new SyncNonBlockingServer(port).start());
+        SERVER_STARTER_MAP.put("AsyncBlockingServer", port -> new AsyncBlockingServer(port).setChannelGroupFactory(channelGroupFactory).start());
+        SERVER_STARTER_MAP.put("AsyncNonBlockingServer", port -> new AsyncNonBlockingServer(port).setChannelGroupFactory(channelGroupFactory).start());
+    }
+
+    private final String host;
+
+    private final int port;
+
+    private final int connections;
+
+    private final int messageSize;
+
+    private final int pipeline;
+
+    private final byte[] message;
+
+    private volatile boolean running = true;
+
+    private volatile boolean recording = false;
+
+    public IoModelBenchmark(String host, int port, int connections, int messageSize, int pipeline) {
+        if (messageSize <= ECHO_PREFIX.length()) {
+            throw new IllegalArgumentException("messageSize must be greater than " + ECHO_PREFIX.length());
+        }
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.messageSize = messageSize;
+        this.pipeline = Math.max(pipeline, 1);
+        this.message = new byte[messageSize];
+        Arrays.fill(message, (byte) 'x');
+        System.arraycopy(ECHO_PREFIX.getBytes(StandardCharsets.US_ASCII), 0, message, 0, ECHO_PREFIX.length());
+        message[messageSize - 1] = '\n';
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println(IO_MODEL_BENCHMARK_LOG + "[Usage] <Server | host:port> [Connections=100] [MessageSize=128] [Pipeline=1] [Seconds=10] [ThreadMode=PLATFORM | ChannelGroup=FIXED:cores]");
+            System.out.println(IO_MODEL_BENCHMARK_LOG + "[Servers] " + SERVER_STARTER_MAP.keySet());
+            return;
+        }
+        String target = args[0];
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int messageSize = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        if (args.length > 5) {
+            String threadConfig = args[5].toUpperCase();
+            if (ConnectionExecutors.ThreadMode.PLATFORM.name().equals(threadConfig) || ConnectionExecutors.ThreadMode.VIRTUAL.name().equals(threadConfig)) {
+                threadMode = ConnectionExecutors.ThreadMode.valueOf(threadConfig);
+            }
+            if (!ConnectionExecutors.ThreadMode.PLATFORM.name().equals(threadConfig)) {
+                channelGroupFactory = AioChannelGroupFactory.parse(threadConfig);
+            }
+        }
+
+        String host = "127.0.0.1";
+        int port = DEFAULT_PORT;
+        IntConsumer serverStarter = SERVER_STARTER_MAP.get(target);
+        if (null != serverStarter) {
+            Thread serverThread = new Thread(() -> serverStarter.accept(DEFAULT_PORT), target);
+            serverThread.setDaemon(true);
+            serverThread.start();
+        } else if (target.contains(":")) {
+            host = target.substring(0, target.lastIndexOf(':'));
+            port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        } else {
+            System.out.println(IO_MODEL_BENCHMARK_LOG + "[Unknown Server] [Server: " + target + "] " + SERVER_STARTER_MAP.keySet());
+            return;
+        }
+        awaitServer(host, port);
+        Result result = new IoModelBenchmark(host, port, connections, messageSize, pipeline).run(seconds);
+        result.print(target, null != serverStarter);
+        if (channelGroupFactory.getMetrics().getHandlerCount() > 0) {
+            System.out.println(IO_MODEL_BENCHMARK_LOG + "[ChannelGroup] " + channelGroupFactory.getMetrics());
+        }
+        System.exit(0);
+    }
+
+    private static void awaitServer(String host, int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                // 只探测端口是否可连接，连接成功后立即关闭
+                new Socket(host, port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("server not available: " + host + ":" + port);
+    }
+
+    public Result run(int seconds) throws Exception {
+        int workerCount = Math.max(1, Math.min(connections, Runtime.getRuntime().availableProcessors()));
+        List<LoadWorker> workerList = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            workerList.add(new LoadWorker("IoModelBenchmark-Worker-" + i));
+        }
+        for (int i = 0; i < connections; i++) {
+            workerList.get(i % workerCount).connect();
+        }
+        for (LoadWorker worker : workerList) {
+            worker.thread.start();
+        }
+        Thread.sleep(WARMUP_SECONDS * 1000L);
+
+        long[] workerThreadIds = workerList.stream().mapToLong(worker -> worker.thread.getId()).toArray();
+        Snapshot start = Snapshot.take(workerThreadIds);
+        channelGroupFactory.getMetrics().reset();
+        recording = true;
+        Thread.sleep(seconds * 1000L);
+        recording = false;
+        Snapshot end = Snapshot.take(workerThreadIds);
+        running = false;
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long errors = 0;
+        for (LoadWorker worker : workerList) {
+            worker.thread.join();
+            histogram.add(worker.histogram);
+            errors += worker.errors;
+        }
+        return new Result(this, histogram, errors, start, end);
+    }
+
+    /**
+     * 压测线程，一个Selector处理分配给自己的连接
+     */
+    private class LoadWorker implements Runnable {
+
+        private final Thread thread;
+
+        private final Selector selector;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final List<Connection> connectionList = new ArrayList<>();
+
+        private long errors;
+
+        LoadWorker(String name) throws IOException {
+            this.thread = new Thread(this, name);
+            this.selector = Selector.open();
+        }
+
+        void connect() throws IOException {
+            SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port));
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socketChannel.configureBlocking(false);
+            Connection connection = new Connection(socketChannel);
+            socketChannel.register(selector, SelectionKey.OP_READ, connection);
+            connectionList.add(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Connection connection : connectionList) {
+                    connection.send(pipeline);
+                    connection.flush(selector);
+                }
+                while (running) {
+                    selector.select(100);
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        Connection connection = (Connection) selectionKey.attachment();
+                        if (selectionKey.isValid() && selectionKey.isReadable()) {
+                            handleRead(connection);
+                        }
+                        if (selectionKey.isValid() && selectionKey.isWritable()) {
+                            connection.flush(selector);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (Connection connection : connectionList) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void handleRead(Connection connection) throws IOException {
+            int bytesRead;
+            while ((bytesRead = connection.socketChannel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                long nowNanos = System.nanoTime();
+                int completed = 0;
+                while (readBuffer.hasRemaining()) {
+                    connection.lineBytes++;
+                    if (readBuffer.get() != '\n') {
+                        continue;
+                    }
+                    if (connection.lineBytes != messageSize) {
+                        errors++;
+                    }
+                    connection.lineBytes = 0;
+                    long latencyNanos = nowNanos - connection.sendNanos[connection.head];
+                    connection.head = (connection.head + 1) % pipeline;
+                    if (recording) {
+                        histogram.record(latencyNanos);
+                    }
+                    completed++;
+                }
+                readBuffer.clear();
+                if (running) {
+                    connection.send(completed);
+                }
+            }
+            if (bytesRead == -1) {
+                errors++;
+                connection.close();
+                return;
+            }
+            connection.flush(selector);
+        }
+    }
+
+    /**
+     * 连接状态，只在所属的压测线程中访问；在途消息按发送顺序响应，发送时间使用环形数组保存
+     */
+    private class Connection {
+
+        private final SocketChannel socketChannel;
+
+        /**
+         * 待发送数据，写模式，最多 pipeline 条消息
+         */
+        private final ByteBuffer sendingBuffer = ByteBuffer.allocateDirect(pipeline * messageSize);
+
+        private final long[] sendNanos = new long[pipeline];
+
+        private int head;
+
+        private int tail;
+
+        /**
+         * 当前响应行已接收的字节数，用于校验响应长度
+         */
+        private int lineBytes;
+
+        Connection(SocketChannel socketChannel) {
+            this.socketChannel = socketChannel;
+        }
+
+        void send(int count) {
+            long nowNanos = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sendingBuffer.put(message);
+                sendNanos[tail] = nowNanos;
+                tail = (tail + 1) % pipeline;
+            }
+        }
+
+        /**
+         * 写出待发送数据，没有写完时关注 OP_WRITE
+         */
+        void flush(Selector selector) throws IOException {
+            if (!socketChannel.isOpen()) {
+                return;
+            }
+            sendingBuffer.flip();
+            socketChannel.write(sendingBuffer);
+            sendingBuffer.compact();
+            SelectionKey selectionKey = socketChannel.keyFor(selector);
+            int interestOps = sendingBuffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (selectionKey.interestOps() != interestOps) {
+                selectionKey.interestOps(interestOps);
+            }
+        }
+
+        void close() {
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 统计开始和结束时的CPU时间、内存分配和GC
+     */
+    private static class Snapshot {
+
+        private long nanos;
+
+        private long processCpuNanos = -1;
+
+        private long clientCpuNanos = -1;
+
+        private long allocatedBytes = -1;
+
+        private long clientAllocatedBytes = -1;
+
+        private long gcCount;
+
+        private long gcMillis;
+
+        static Snapshot take(long[] clientThreadIds) {
+            Snapshot snapshot = new Snapshot();
+            snapshot.nanos = System.nanoTime();
+            OperatingSystemMXBean osMXBean = ManagementFactory.getOperatingSystemMXBean();
+            if (osMXBean instanceof com.sun.management.OperatingSystemMXBean) {
+                snapshot.processCpuNanos = ((com.sun.management.OperatingSystemMXBean) osMXBean).getProcessCpuTime();
+            }
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean.isThreadCpuTimeSupported()) {
+                snapshot.clientCpuNanos = sum(Arrays.stream(clientThreadIds).map(threadMXBean::getThreadCpuTime).toArray());
+            }
+            // 只统计存活的线程，统计期间退出的线程的分配不会被计入
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+                snapshot.allocatedBytes = sum(sunThreadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds()));
+                snapshot.clientAllocatedBytes = sum(sunThreadMXBean.getThreadAllocatedBytes(clientThreadIds));
+            }
+            for (GarbageCollectorMXBean gcMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                snapshot.gcCount += Math.max(gcMXBean.getCollectionCount(), 0);
+                snapshot.gcMillis += Math.max(gcMXBean.getCollectionTime(), 0);
+            }
+            return snapshot;
+        }
+
+        private static long sum(long[] values) {
+            long sum = 0;
+            for (long value : values) {
+                // 线程已退出时为-1
+                sum += Math.max(value, 0);
+            }
+            return sum;
+        }
+    }
+
+    public static class Result {
+
+        private final IoModelBenchmark benchmark;
+
+        private final LatencyHistogram histogram;
+
+        private final long errors;
+
+        private final Snapshot start;
+
+        private final Snapshot end;
+
+        private Result(IoModelBenchmark benchmark, LatencyHistogram histogram, long errors, Snapshot start, Snapshot end) {
+            this.benchmark = benchmark;
+            this.histogram = histogram;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        public double getThroughput() {
+            return histogram.getTotalCount() * 1e9 / (end.nanos - start.nanos);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * @param inProcessServer 服务端是否在当前进程中，是则进程的CPU和内存分配减去压测端的即为服务端的
+         */
+        public void print(String target, boolean inProcessServer) {
+            double seconds = (end.nanos - start.nanos) / 1e9;
+            long messages = histogram.getTotalCount();
+            System.out.printf(IO_MODEL_BENCHMARK_LOG + "[Server: %s] [Connections: %d] [MessageSize: %dB] [Pipeline: %d] [Seconds: %.1f] [Errors: %d]\n",
+                    target, benchmark.connections, benchmark.messageSize, benchmark.pipeline, seconds, errors);
+            System.out.printf(IO_MODEL_BENCHMARK_LOG + "[Throughput] [%.0f msg/s] [%.2f MB/s]\n",
+                    getThroughput(), getThroughput() * benchmark.messageSize / 1024 / 1024);
+            System.out.printf(IO_MODEL_BENCHMARK_LOG + "[Latency us] [Mean: %.1f] [P50: %.1f] [P99: %.1f] [P999: %.1f] [Max: %.1f]\n",
+                    histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+            if (start.processCpuNanos >= 0 && start.clientCpuNanos >= 0) {
+                long processCpuNanos = end.processCpuNanos - start.processCpuNanos;
+                long clientCpuNanos = end.clientCpuNanos - start.clientCpuNanos;
+                System.out.printf(IO_MODEL_BENCHMARK_LOG + "[Cpu cores] [Process: %.2f] [Client: %.2f]%s [CpuPerMsg: %.2f us]\n",
+                        processCpuNanos / 1e9 / seconds, clientCpuNanos / 1e9 / seconds,
+                        inProcessServer ? String.format(" [Server: %.2f]", (processCpuNanos - clientCpuNanos) / 1e9 / seconds) : "",
+                        messages == 0 ? 0 : (inProcessServer ? processCpuNanos - clientCpuNanos : processCpuNanos) / 1000.0 / messages);
+            }
+            if (start.allocatedBytes >= 0) {
+                long allocatedBytes = end.allocatedBytes - start.allocatedBytes;
+                long clientAllocatedBytes = end.clientAllocatedBytes - start.clientAllocatedBytes;
+                long serverAllocatedBytes = allocatedBytes - clientAllocatedBytes;
+                System.out.printf(IO_MODEL_BENCHMARK_LOG + "[Allocation] [Client: %.2f MB/s]%s [Gc: %d times, %d ms]\n",
+                        clientAllocatedBytes / seconds / 1024 / 1024,
+                        inProcessServer ? String.format(" [Server: %.2f MB/s, %d B/msg]", serverAllocatedBytes / seconds / 1024 / 1024,
+                                messages == 0 ? 0 : serverAllocatedBytes / messages) : "",
+                        end.gcCount - start.gcCount, end.gcMillis - start.gcMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package me.seakeer.learning.javase.nio.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * LatencyHistogram;
+ * 仿照 HdrHistogram 的对数线性直方图，记录 O(1)，占用固定内存（约30KB），不依赖第三方库
+ * 1. 小于 2^(SUB_BUCKET_BITS+1) 的值每个值一个桶，精确记录
+ * 2. 更大的值按最高位分组，每组再线性划分为 2^SUB_BUCKET_BITS 个桶，相对误差不超过 1/64（约1.6%）
+ * 非线程安全，每个线程使用自己的直方图，结束后通过 add 合并
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 可以记录 long 范围内的所有非负值
+     */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+
+    private long totalCount;
+
+    private long totalValue;
+
+    private long minValue = Long.MAX_VALUE;
+
+    private long maxValue;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        totalValue += value;
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalValue = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    /**
+     * @param percentile 0 到 100，如 99.9
+     * @return 不小于该百分比的记录值所在桶的最大值，与 HdrHistogram 一样返回桶的上界
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(totalCount * Math.min(percentile, 100) / 100));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMinValue() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalValue / totalCount;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT << 1) {
+            return (int) value;
+        }
+        // value >>> shift 落在 [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT) 内
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT << 1) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
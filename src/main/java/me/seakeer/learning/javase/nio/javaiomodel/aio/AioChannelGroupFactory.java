@@ -0,0 +1,387 @@
+package me.seakeer.learning.javase.nio.javaiomodel.aio;
+
+import me.seakeer.learning.javase.multithread.ConnectionExecutors;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.CompletionHandler;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AioChannelGroupFactory;
+ * 创建 AsynchronousChannelGroup，可配置线程池类型和线程数，并统计完成处理器的指标，用于根据CPU核数调整线程组大小
+ * 1. FIXED：固定 threadCount 个线程，每个线程既等待I/O事件也直接执行完成处理器，没有任务队列；完成处理器不能阻塞
+ * 2. CACHED：JDK内部线程（默认1个，-Dsun.nio.ch.internalThreadPoolSize）等待I/O事件，完成处理器作为任务提交到线程池执行
+ * 线程池按需创建最多 threadCount 个线程，空闲60秒后回收，超出的任务在队列中排队；完成处理器可以短暂阻塞
+ * 3. VIRTUAL：与 CACHED 相同，但每个完成处理器在新的虚拟线程中执行；通过 {@link ConnectionExecutors} 反射使用 Java 21 的虚拟线程，不支持时退化为 CACHED
+ * 线程名为 前缀+序号，如 aio-0-3，序号从0开始且固定：Linux线程名最长15个字符，名称较短可以通过 /proc/[pid]/task/[tid]/comm 找到线程再用 taskset 绑核
+ * 指标：完成处理器的执行次数、耗时、并发数；CACHED/VIRTUAL 模式下任务的排队数和排队耗时；FIXED/CACHED 模式下线程的利用率
+ * 完成处理器需要通过 {@link Metrics#wrap} 包装才会被统计，嵌套调用（I/O立即完成时在当前线程中直接调用下一个完成处理器）只统计最外层
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class AioChannelGroupFactory {
+
+    public static final String AIO_CHANNEL_GROUP_FACTORY_LOG = "[AioChannelGroupFactory] ";
+
+    private static final AtomicInteger GROUP_INDEX = new AtomicInteger();
+
+    private static final long CACHED_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    public enum PoolType {
+        FIXED, CACHED, VIRTUAL
+    }
+
+    private PoolType poolType = PoolType.FIXED;
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    private String threadNamePrefix;
+
+    private final Metrics metrics = new Metrics();
+
+    public AioChannelGroupFactory setPoolType(PoolType poolType) {
+        this.poolType = poolType;
+        return this;
+    }
+
+    public AioChannelGroupFactory setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public AioChannelGroupFactory setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+        return this;
+    }
+
+    public PoolType getPoolType() {
+        return poolType;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 解析 类型[:线程数] 形式的配置，如 FIXED:4，CACHED，VIRTUAL
+     */
+    public static AioChannelGroupFactory parse(String config) {
+        AioChannelGroupFactory factory = new AioChannelGroupFactory();
+        String[] configParts = config.split(":");
+        factory.setPoolType(PoolType.valueOf(configParts[0].trim().toUpperCase()));
+        if (configParts.length > 1) {
+            factory.setThreadCount(Integer.parseInt(configParts[1].trim()));
+        }
+        return factory;
+    }
+
+    public AsynchronousChannelGroup newChannelGroup() throws IOException {
+        String namePrefix = null != threadNamePrefix ? threadNamePrefix : "aio-" + GROUP_INDEX.getAndIncrement() + "-";
+        PoolType actualPoolType = poolType;
+        ExecutorService executor = null;
+        if (actualPoolType == PoolType.VIRTUAL) {
+            executor = ConnectionExecutors.newVirtualThreadPerTaskExecutor(namePrefix + "v");
+            if (null == executor) {
+                System.out.println(AIO_CHANNEL_GROUP_FACTORY_LOG + "[VirtualThreadUnavailable] [JavaVersion: " + System.getProperty("java.version") + "] [Fallback: " + PoolType.CACHED + "]");
+                actualPoolType = PoolType.CACHED;
+            }
+        }
+        metrics.init(actualPoolType, threadCount);
+        System.out.println(AIO_CHANNEL_GROUP_FACTORY_LOG + "[NewChannelGroup] [PoolType: " + actualPoolType + "] [Threads: " + threadCount + "] [ThreadNamePrefix: " + namePrefix + "]");
+        switch (actualPoolType) {
+            case FIXED:
+                return AsynchronousChannelGroup.withFixedThreadPool(threadCount, newThreadFactory(namePrefix));
+            case CACHED:
+                ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+                        CACHED_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), newThreadFactory(namePrefix));
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                return AsynchronousChannelGroup.withThreadPool(new InstrumentedExecutorService(threadPoolExecutor));
+            default:
+                return AsynchronousChannelGroup.withThreadPool(new InstrumentedExecutorService(executor));
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(String namePrefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadIndex.getAndIncrement());
+            thread.setDaemon(false);
+            thread.setPriority(Thread.NORM_PRIORITY);
+            return thread;
+        };
+    }
+
+    /**
+     * 统计任务从提交到开始执行的排队数和排队耗时，其余操作委托给实际的线程池
+     */
+    private class InstrumentedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private InstrumentedExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            long submitNanos = System.nanoTime();
+            metrics.taskQueued();
+            try {
+                delegate.execute(() -> {
+                    metrics.taskStarted(System.nanoTime() - submitNanos);
+                    task.run();
+                });
+            } catch (RejectedExecutionException e) {
+                metrics.taskRejected();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * 线程组指标，可在任意线程读取
+     */
+    public static class Metrics {
+
+        /**
+         * 当前线程正在执行的完成处理器的嵌套层数
+         */
+        private static final ThreadLocal<int[]> HANDLER_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+        private volatile PoolType poolType = PoolType.FIXED;
+
+        private volatile int threadCount;
+
+        private volatile long startNanos = System.nanoTime();
+
+        private final LongAdder handlerCount = new LongAdder();
+
+        private final LongAdder handlerNanosTotal = new LongAdder();
+
+        private final AtomicLong handlerNanosMax = new AtomicLong();
+
+        private final AtomicInteger activeHandlers = new AtomicInteger();
+
+        private final AtomicInteger activeHandlersMax = new AtomicInteger();
+
+        private final AtomicInteger queuedTasks = new AtomicInteger();
+
+        private final AtomicInteger queuedTasksMax = new AtomicInteger();
+
+        private final LongAdder taskCount = new LongAdder();
+
+        private final LongAdder queueWaitNanosTotal = new LongAdder();
+
+        private final AtomicLong queueWaitNanosMax = new AtomicLong();
+
+        void init(PoolType poolType, int threadCount) {
+            this.poolType = poolType;
+            this.threadCount = threadCount;
+            reset();
+        }
+
+        /**
+         * 清空累计值，如压测预热结束后调用；当前的并发数和排队数保留
+         */
+        public void reset() {
+            handlerCount.reset();
+            handlerNanosTotal.reset();
+            handlerNanosMax.set(0);
+            activeHandlersMax.set(activeHandlers.get());
+            queuedTasksMax.set(queuedTasks.get());
+            taskCount.reset();
+            queueWaitNanosTotal.reset();
+            queueWaitNanosMax.set(0);
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * 包装完成处理器，统计其执行耗时
+         */
+        public <V, A> CompletionHandler<V, A> wrap(CompletionHandler<V, A> handler) {
+            return new CompletionHandler<V, A>() {
+                @Override
+                public void completed(V result, A attachment) {
+                    long startNanos = handlerStarted();
+                    try {
+                        handler.completed(result, attachment);
+                    } finally {
+                        handlerFinished(startNanos);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, A attachment) {
+                    long startNanos = handlerStarted();
+                    try {
+                        handler.failed(exc, attachment);
+                    } finally {
+                        handlerFinished(startNanos);
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return 最外层返回开始时间，嵌套调用返回-1
+         */
+        private long handlerStarted() {
+            if (HANDLER_DEPTH.get()[0]++ > 0) {
+                return -1;
+            }
+            updateMax(activeHandlersMax, activeHandlers.incrementAndGet());
+            return System.nanoTime();
+        }
+
+        private void handlerFinished(long startNanos) {
+            HANDLER_DEPTH.get()[0]--;
+            if (startNanos < 0) {
+                return;
+            }
+            long costNanos = System.nanoTime() - startNanos;
+            activeHandlers.decrementAndGet();
+            handlerCount.increment();
+            handlerNanosTotal.add(costNanos);
+            updateMax(handlerNanosMax, costNanos);
+        }
+
+        private void taskQueued() {
+            updateMax(queuedTasksMax, queuedTasks.incrementAndGet());
+        }
+
+        private void taskStarted(long waitNanos) {
+            queuedTasks.decrementAndGet();
+            taskCount.increment();
+            queueWaitNanosTotal.add(waitNanos);
+            updateMax(queueWaitNanosMax, waitNanos);
+        }
+
+        private void taskRejected() {
+            queuedTasks.decrementAndGet();
+        }
+
+        private static void updateMax(AtomicInteger max, int value) {
+            int current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 被其他线程更新，重试
+            }
+        }
+
+        private static void updateMax(AtomicLong max, long value) {
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 被其他线程更新，重试
+            }
+        }
+
+        public long getHandlerCount() {
+            return handlerCount.sum();
+        }
+
+        public long getHandlerAvgMicros() {
+            long count = handlerCount.sum();
+            return count == 0 ? 0 : handlerNanosTotal.sum() / count / 1000;
+        }
+
+        public long getHandlerMaxMicros() {
+            return handlerNanosMax.get() / 1000;
+        }
+
+        public int getActiveHandlers() {
+            return activeHandlers.get();
+        }
+
+        public int getActiveHandlersMax() {
+            return activeHandlersMax.get();
+        }
+
+        /**
+         * @return 等待执行的完成处理器任务数，FIXED 模式没有任务队列，始终为0
+         */
+        public int getQueueDepth() {
+            return queuedTasks.get();
+        }
+
+        public int getQueueDepthMax() {
+            return queuedTasksMax.get();
+        }
+
+        public long getQueueWaitAvgMicros() {
+            long count = taskCount.sum();
+            return count == 0 ? 0 : queueWaitNanosTotal.sum() / count / 1000;
+        }
+
+        public long getQueueWaitMaxMicros() {
+            return queueWaitNanosMax.get() / 1000;
+        }
+
+        /**
+         * @return 完成处理器的执行时间占线程总时间的百分比，接近100说明线程数不够；VIRTUAL 模式线程数不固定，返回-1
+         */
+        public double getUtilizationPercent() {
+            if (poolType == PoolType.VIRTUAL || threadCount == 0) {
+                return -1;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return elapsedNanos <= 0 ? 0 : handlerNanosTotal.sum() * 100.0 / elapsedNanos / threadCount;
+        }
+
+        @Override
+        public String toString() {
+            String metricsStr = String.format("[PoolType: %s, Threads: %d, Handlers: %d, HandlerAvg: %dus, HandlerMax: %dus, ActiveHandlers: %d, ActiveHandlersMax: %d",
+                    poolType, threadCount, getHandlerCount(), getHandlerAvgMicros(), getHandlerMaxMicros(), getActiveHandlers(), getActiveHandlersMax());
+            if (poolType != PoolType.FIXED) {
+                metricsStr += String.format(", QueueDepth: %d, QueueDepthMax: %d, QueueWaitAvg: %dus, QueueWaitMax: %dus",
+                        getQueueDepth(), getQueueDepthMax(), getQueueWaitAvgMicros(), getQueueWaitMaxMicros());
+            }
+            if (poolType != PoolType.VIRTUAL) {
+                metricsStr += String.format(", Utilization: %.1f%%", getUtilizationPercent());
+            }
+            return metricsStr + "]";
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package me.seakeer.learning.javase.nio.javaiomodel.aio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * AioConnection;
+ * 对 AsynchronousSocketChannel 的封装，消息以换行符分隔，与 BIO 模型的 readLine 协议一致
+ * 1. 出站：任意线程调用 send 将消息放入无锁队列，同一时刻最多只有一个未完成的写操作，
+ * 写完成后在 CompletionHandler 中继续写队列中的消息，多条消息通过一次聚集写发送；避免并发写抛出 WritePendingException
+ * 处理一次读取到的消息时，处理线程发送的消息（如响应）先入队，所有消息处理完后再一起写出
+ * 2. 入站：所有读操作复用同一个读缓冲区，从中解码出完整的行交给 msgHandler，不完整的行保留到下次读取
+ * 读取有两种方式：startRead 通过 CompletionHandler 循环读取；readBlocking 通过 Future 阻塞读取一次，用于每个连接一个线程的模型
+ * 连接关闭时 closeHandler 只被调用一次
+ * 指定 {@link AioChannelGroupFactory.Metrics} 时，读写的完成处理器计入线程组的指标
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class AioConnection {
+
+    public static final String AIO_CONNECTION_LOG = "[AioConnection] ";
+
+    private static final byte DELIMITER = '\n';
+
+    private static final int READ_BUFFER_INIT_SIZE = 1024;
+
+    /**
+     * 单条消息的最大字节数，超过则关闭连接
+     */
+    private static final int MAX_MSG_BYTES = 64 * 1024;
+
+    /**
+     * 一次聚集写最多合并的消息数
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    /**
+     * 待发送的最大字节数，超过说明对端读取太慢，新的消息被丢弃
+     */
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final AsynchronousSocketChannel channel;
+
+    private final BiConsumer<AioConnection, String> msgHandler;
+
+    private final Consumer<AioConnection> closeHandler;
+
+    /**
+     * 读缓冲区，写模式，其中可能保留着上次没有处理完的不完整的行；同一时刻只有一个读操作，不需要同步
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_INIT_SIZE);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> SENDING_BUFFER_QUEUE = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * 是否有未完成的写操作
+     */
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 正在处理读取到的消息的线程，该线程发送消息时只入队，处理完后统一写出
+     */
+    private volatile Thread handlingThread;
+
+    private final CompletionHandler<Integer, ByteBuffer> readHandler;
+
+    private final CompletionHandler<Long, ByteBuffer[]> writeHandler;
+
+    public AioConnection(AsynchronousSocketChannel channel, BiConsumer<AioConnection, String> msgHandler, Consumer<AioConnection> closeHandler) {
+        this(channel, msgHandler, closeHandler, null);
+    }
+
+    public AioConnection(AsynchronousSocketChannel channel, BiConsumer<AioConnection, String> msgHandler, Consumer<AioConnection> closeHandler,
+                         AioChannelGroupFactory.Metrics metrics) {
+        this.channel = channel;
+        this.msgHandler = msgHandler;
+        this.closeHandler = closeHandler;
+        this.readHandler = null == metrics ? newReadHandler() : metrics.wrap(newReadHandler());
+        this.writeHandler = null == metrics ? newWriteHandler() : metrics.wrap(newWriteHandler());
+    }
+
+    private CompletionHandler<Integer, ByteBuffer> newReadHandler() {
+        return new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer result, ByteBuffer attachment) {
+                if (handleRead(result)) {
+                    startRead();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer attachment) {
+                close();
+            }
+        };
+    }
+
+    private CompletionHandler<Long, ByteBuffer[]> newWriteHandler() {
+        return new CompletionHandler<Long, ByteBuffer[]>() {
+            @Override
+            public void completed(Long result, ByteBuffer[] attachment) {
+                pendingBytes.addAndGet(-result);
+                // 没有写完的部分继续写，写完后再写队列中的下一批消息
+                for (int i = 0; i < attachment.length; i++) {
+                    if (attachment[i].hasRemaining()) {
+                        ByteBuffer[] remaining = new ByteBuffer[attachment.length - i];
+                        System.arraycopy(attachment, i, remaining, 0, remaining.length);
+                        write(remaining);
+                        return;
+                    }
+                }
+                writeNext();
+            }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer[] attachment) {
+                writing.set(false);
+                close();
+            }
+        };
+    }
+
+    public AsynchronousSocketChannel getChannel() {
+        return channel;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * 通过 CompletionHandler 循环读取，每次读取完成后处理完整的行并发起下一次读取
+     */
+    public void startRead() {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            channel.read(readBuffer, readBuffer, readHandler);
+        } catch (Exception e) {
+            close();
+        }
+    }
+
+    /**
+     * 通过 Future 阻塞读取一次，处理完整的行
+     *
+     * @return false表示连接已关闭
+     */
+    public boolean readBlocking() {
+        if (closed.get()) {
+            return false;
+        }
+        try {
+            return handleRead(channel.read(readBuffer).get());
+        } catch (Exception e) {
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * @return false表示连接已关闭
+     */
+    private boolean handleRead(int bytesRead) {
+        if (bytesRead == -1) {
+            close();
+            return false;
+        }
+        readBuffer.flip();
+        int lineStart = readBuffer.position();
+        handlingThread = Thread.currentThread();
+        try {
+            for (int i = lineStart; i < readBuffer.limit(); i++) {
+                if (readBuffer.get(i) != DELIMITER) {
+                    continue;
+                }
+                String msg = new String(readBuffer.array(), readBuffer.arrayOffset() + lineStart, i - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                try {
+                    msgHandler.accept(this, msg);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                if (closed.get()) {
+                    return false;
+                }
+            }
+        } finally {
+            handlingThread = null;
+        }
+        if (!SENDING_BUFFER_QUEUE.isEmpty() && writing.compareAndSet(false, true)) {
+            writeNext();
+        }
+        readBuffer.position(lineStart);
+        // 不完整的行移动到缓冲区头部，等待后续数据
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_MSG_BYTES) {
+                System.out.println(AIO_CONNECTION_LOG + "[Msg Too Large] [RemoteAddr: " + getRemoteAddress() + "] [MaxMsgBytes: " + MAX_MSG_BYTES + "]");
+                close();
+                return false;
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_MSG_BYTES));
+            readBuffer.flip();
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        }
+        return true;
+    }
+
+    /**
+     * 发送一条消息，自动添加换行符，可在任意线程调用
+     *
+     * @return false表示连接已关闭或待发送的数据过多
+     */
+    public boolean send(String msg) {
+        byte[] msgBytes = msg.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[msgBytes.length + 1];
+        System.arraycopy(msgBytes, 0, bytes, 0, msgBytes.length);
+        bytes[msgBytes.length] = DELIMITER;
+        return send(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 发送已编码的数据，缓冲区在发送完成前不能被修改
+     */
+    public boolean send(ByteBuffer buffer) {
+        if (closed.get()) {
+            return false;
+        }
+        if (pendingBytes.addAndGet(buffer.remaining()) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-buffer.remaining());
+            System.out.println(AIO_CONNECTION_LOG + "[Send Msg Dropped] [TooManyPendingBytes] [RemoteAddr: " + getRemoteAddress() + "]");
+            return false;
+        }
+        SENDING_BUFFER_QUEUE.offer(buffer);
+        if (Thread.currentThread() != handlingThread && writing.compareAndSet(false, true)) {
+            writeNext();
+        }
+        return true;
+    }
+
+    /**
+     * 写队列中的下一批消息，只能由持有写权限（writing为true）的线程调用
+     */
+    private void writeNext() {
+        while (true) {
+            ByteBuffer first = SENDING_BUFFER_QUEUE.poll();
+            if (null != first) {
+                ByteBuffer[] buffers = new ByteBuffer[Math.min(SENDING_BUFFER_QUEUE.size() + 1, MAX_GATHERING_BUFFERS)];
+                buffers[0] = first;
+                int count = 1;
+                ByteBuffer buffer;
+                while (count < buffers.length && (buffer = SENDING_BUFFER_QUEUE.poll()) != null) {
+                    buffers[count++] = buffer;
+                }
+                if (count < buffers.length) {
+                    ByteBuffer[] polled = new ByteBuffer[count];
+                    System.arraycopy(buffers, 0, polled, 0, count);
+                    buffers = polled;
+                }
+                write(buffers);
+                return;
+            }
+            writing.set(false);
+            // 释放写权限后可能有新消息入队，而入队的线程没有获取到写权限
+            if (SENDING_BUFFER_QUEUE.isEmpty() || !writing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void write(ByteBuffer[] buffers) {
+        if (closed.get()) {
+            writing.set(false);
+            return;
+        }
+        try {
+            channel.write(buffers, 0, buffers.length, 0, TimeUnit.MILLISECONDS, buffers, writeHandler);
+        } catch (Exception e) {
+            writing.set(false);
+            close();
+        }
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        SENDING_BUFFER_QUEUE.clear();
+        pendingBytes.set(0);
+        closeHandler.accept(this);
+    }
+}
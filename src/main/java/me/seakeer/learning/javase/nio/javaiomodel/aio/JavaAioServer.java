@@ -2,20 +2,18 @@ package me.seakeer.learning.javase.nio.javaiomodel.aio;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 
 
 /**
  * JavaAioServer;
+ * 每个连接封装为 {@link AioConnection}：消息以换行符分隔，发送经过队列，广播时多个线程同时发送同一连接也不会抛出 WritePendingException
+ * 线程组由 {@link AioChannelGroupFactory} 创建，默认每个CPU核一个线程；控制台输入 METRICS 打印线程组指标
  *
  * @author Seakeer;
  * @date 2024/10/12;
@@ -26,14 +24,26 @@ public class JavaAioServer {
 
     private AsynchronousServerSocketChannel asyncServerSocketChannel;
 
-    private final Map<AsynchronousSocketChannel, String> ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
-    private final Map<String, AsynchronousSocketChannel> CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
+    /**
+     * 以该前缀开头的消息原样回显给客户端且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private AioChannelGroupFactory channelGroupFactory = new AioChannelGroupFactory();
+
+    private final Map<AioConnection, String> AIO_CONNECTION_CLIENT_ID_MAP = new ConcurrentHashMap<>();
+    private final Map<String, AioConnection> CLIENT_ID_AIO_CONNECTION_MAP = new ConcurrentHashMap<>();
 
 
     public JavaAioServer(int port) {
         this.port = port;
     }
 
+    public JavaAioServer setChannelGroupFactory(AioChannelGroupFactory channelGroupFactory) {
+        this.channelGroupFactory = channelGroupFactory;
+        return this;
+    }
+
     public static void main(String[] args) {
         JavaAioServer server = new JavaAioServer(9090);
         mockSendMsg2Client(server);
@@ -42,7 +52,7 @@ public class JavaAioServer {
 
     private void init() {
         try {
-            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(AsynchronousChannelGroup.withFixedThreadPool(10, Executors.defaultThreadFactory()))
+            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(channelGroupFactory.newChannelGroup())
                     .bind(new InetSocketAddress(port));
             asyncServerSocketChannel = asyncSsc;
         } catch (IOException e) {
@@ -56,11 +66,13 @@ public class JavaAioServer {
     }
 
     private void acceptAndRead() {
-        asyncServerSocketChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Object>() {
+        asyncServerSocketChannel.accept(null, channelGroupFactory.getMetrics().wrap(new CompletionHandler<AsynchronousSocketChannel, Object>() {
             @Override
             public void completed(AsynchronousSocketChannel asc, Object attachment) {
-                handleAccept(asc);
-                handleClientMsg(asc);
+                AioConnection connection = new AioConnection(asc, JavaAioServer.this::handleClientMsg, JavaAioServer.this::handleClientDisconnect,
+                        channelGroupFactory.getMetrics());
+                handleAccept(connection);
+                connection.startRead();
                 acceptAndRead();
             }
 
@@ -68,48 +80,25 @@ public class JavaAioServer {
             public void failed(Throwable exc, Object attachment) {
                 acceptAndRead();
             }
-        });
+        }));
     }
 
 
-    private void handleAccept(AsynchronousSocketChannel asc) {
-        try {
-            System.out.println("[Server][Accepted client: " + asc.getRemoteAddress() + "]");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void handleAccept(AioConnection connection) {
+        System.out.println("[Server][Accepted client: " + connection.getRemoteAddress() + "]");
     }
 
-    private void handleClientMsg(AsynchronousSocketChannel asc) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        asc.read(buffer, buffer, new CompletionHandler<Integer, ByteBuffer>() {
-            @Override
-            public void completed(Integer result, ByteBuffer attachment) {
-                if (result == -1) {
-                    handleClientDisconnect(asc);
-                }
-                if (result == 0) {
-                    return;
-                }
-                attachment.flip();
-                byte[] data = new byte[attachment.remaining()];
-                attachment.get(data);
-                String msg = new String(data, StandardCharsets.UTF_8);
-                System.out.println("[Server] [Received msg: " + msg + "; From Client: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc) + "]");
-                if (msg.startsWith("FROM ")) {
-                    String clientId = msg.substring(5);
-                    ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.put(asc, clientId);
-                    CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.put(clientId, asc);
-                }
-                handleClientMsg(asc);
-            }
-
-            @Override
-            public void failed(Throwable exc, ByteBuffer attachment) {
-                exc.printStackTrace();
-                handleClientDisconnect(asc);
-            }
-        });
+    private void handleClientMsg(AioConnection connection, String msg) {
+        if (msg.startsWith(ECHO_PREFIX)) {
+            connection.send(msg);
+            return;
+        }
+        System.out.println("[Server] [Received msg: " + msg + "; From Client: " + AIO_CONNECTION_CLIENT_ID_MAP.get(connection) + "]");
+        if (msg.startsWith("FROM ")) {
+            String clientId = msg.substring(5);
+            AIO_CONNECTION_CLIENT_ID_MAP.put(connection, clientId);
+            CLIENT_ID_AIO_CONNECTION_MAP.put(clientId, connection);
+        }
     }
 
     public void start() {
@@ -122,6 +111,10 @@ public class JavaAioServer {
             Scanner scanner = new Scanner(System.in);
             while (scanner.hasNext()) {
                 String msg = scanner.nextLine();
+                if ("METRICS".equals(msg)) {
+                    server.printMetrics();
+                    continue;
+                }
                 if (!msg.startsWith("TO ")) {
                     server.sendToAllClient(msg);
                     continue;
@@ -135,56 +128,38 @@ public class JavaAioServer {
         }).start();
     }
 
-    private void sendToAllClient(String msg) {
-        for (AsynchronousSocketChannel socket : ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.keySet()) {
-            write(socket, msg);
+    public void printMetrics() {
+        System.out.println("[Server] [Metrics] [Clients: " + AIO_CONNECTION_CLIENT_ID_MAP.size() + "] " + channelGroupFactory.getMetrics());
+    }
+
+    public void sendToAllClient(String msg) {
+        for (AioConnection connection : AIO_CONNECTION_CLIENT_ID_MAP.keySet()) {
+            write(connection, msg);
         }
     }
 
     public boolean sendMsg(String clientId, String msg) {
-        AsynchronousSocketChannel asc = CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.get(clientId);
-        if (null == asc) {
+        AioConnection connection = CLIENT_ID_AIO_CONNECTION_MAP.get(clientId);
+        if (null == connection) {
             return false;
         }
-        write(asc, msg);
-        System.out.printf("[Server] [Send Msg][To client: %s; msg: %s]\n", clientId, msg);
-        return true;
+        return write(connection, msg);
     }
 
-    private void write(AsynchronousSocketChannel asc, String msg) {
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
-        ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
-        byteBuffer.put(bytes);
-        byteBuffer.flip();
-        asc.write(byteBuffer, null, new CompletionHandler<Integer, Object>() {
-            @Override
-            public void completed(Integer result, Object attachment) {
-                if (result < 0) {
-                    handleClientDisconnect(asc);
-                } else {
-                    System.out.println("[Server] [Send Msg][ClientId: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc) + "]" + " [Msg: " + msg + "]");
-                }
-            }
-
-            @Override
-            public void failed(Throwable exc, Object attachment) {
-                exc.printStackTrace();
-                handleClientDisconnect(asc);
-            }
-        });
+    private boolean write(AioConnection connection, String msg) {
+        if (connection.send(msg)) {
+            System.out.println("[Server] [Send Msg][ClientId: " + AIO_CONNECTION_CLIENT_ID_MAP.get(connection) + "]" + " [Msg: " + msg + "]");
+            return true;
+        }
+        return false;
     }
 
 
-    private void handleClientDisconnect(AsynchronousSocketChannel asc) {
-        try {
-            String clientId = ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.remove(asc);
-            if (clientId != null) {
-                CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.remove(clientId);
-                System.out.println("[Server] [Client disconnected: " + clientId + "]");
-            }
-            asc.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void handleClientDisconnect(AioConnection connection) {
+        String clientId = AIO_CONNECTION_CLIENT_ID_MAP.remove(connection);
+        if (clientId != null) {
+            CLIENT_ID_AIO_CONNECTION_MAP.remove(clientId);
+            System.out.println("[Server] [Client disconnected: " + clientId + "]");
         }
     }
 }
@@ -1,17 +1,24 @@
 package me.seakeer.learning.javase.nio.javaiomodel.bio;
 
+import me.seakeer.learning.javase.multithread.ConnectionExecutors;
+
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * JavaBioServer;
+ * 每个连接一个线程阻塞读取，线程模式可选平台线程或虚拟线程（{@link ConnectionExecutors}），main 方法的第一个参数为 PLATFORM 或 VIRTUAL
  *
  * @author Seakeer;
  * @date 2024/10/12;
@@ -25,6 +32,18 @@ public class JavaBioServer {
 
     private ServerSocket serverSocket;
 
+    /**
+     * 以该前缀开头的行原样回显给客户端且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private ConnectionExecutors.ThreadMode threadMode = ConnectionExecutors.ThreadMode.PLATFORM;
+
+    /**
+     * 处理连接的线程池，每个连接一个线程
+     */
+    private ExecutorService connectionExecutor;
+
     private final Map<Socket, String> SOCKET_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, Socket> CLIENT_ID_SOCKET_MAP = new ConcurrentHashMap<>();
 
@@ -32,8 +51,16 @@ public class JavaBioServer {
         this.port = port;
     }
 
+    public JavaBioServer setThreadMode(ConnectionExecutors.ThreadMode threadMode) {
+        this.threadMode = threadMode;
+        return this;
+    }
+
     public static void main(String[] args) {
         JavaBioServer server = new JavaBioServer(9999);
+        if (args.length > 0) {
+            server.setThreadMode(ConnectionExecutors.ThreadMode.valueOf(args[0].toUpperCase()));
+        }
         mockSendMsg2Client(server);
         server.start();
     }
@@ -61,6 +88,8 @@ public class JavaBioServer {
     public void init() {
         try {
             this.serverSocket = new ServerSocket(this.port);
+            this.connectionExecutor = ConnectionExecutors.newExecutor(threadMode, "bio-conn-",
+                    () -> ConnectionExecutors.newPlatformThreadPerTaskExecutor("bio-conn-"));
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
@@ -81,7 +110,7 @@ public class JavaBioServer {
     }
 
     private void handleClientMsg(Socket clientSocket) {
-        new Thread(() -> doHandleClientMsg(clientSocket)).start();
+        connectionExecutor.execute(() -> doHandleClientMsg(clientSocket));
     }
 
     private void sendToAllClient(String msg) {
@@ -112,8 +141,21 @@ public class JavaBioServer {
     private void doHandleClientMsg(Socket socket) {
         try {
             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            BufferedWriter echoWriter = null;
             String msg;
             while ((msg = bufferedReader.readLine()) != null) {
+                if (msg.startsWith(ECHO_PREFIX)) {
+                    if (null == echoWriter) {
+                        echoWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                    }
+                    echoWriter.write(msg);
+                    echoWriter.write('\n');
+                    // 已读取的数据处理完后才刷新，客户端流水线发送的多条消息合并写出
+                    if (!bufferedReader.ready()) {
+                        echoWriter.flush();
+                    }
+                    continue;
+                }
                 System.out.println("[Server] [Received msg: " + msg + "; From Client: " + SOCKET_CLIENT_ID_MAP.get(socket) + "]");
                 if (msg.startsWith("FROM ")) {
                     String clientId = msg.substring(5);
@@ -123,6 +165,21 @@ public class JavaBioServer {
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            handleClientDisconnect(socket);
+        }
+    }
+
+    private void handleClientDisconnect(Socket socket) {
+        String clientId = SOCKET_CLIENT_ID_MAP.remove(socket);
+        if (null != clientId) {
+            CLIENT_ID_SOCKET_MAP.remove(clientId, socket);
+            System.out.println("[Server] [Client disconnected: " + clientId + "]");
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
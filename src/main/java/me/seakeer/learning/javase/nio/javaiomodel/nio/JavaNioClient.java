@@ -155,7 +155,7 @@ public class JavaNioClient {
     }
 
     private boolean write(String msg) {
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = (msg + "\n").getBytes(StandardCharsets.UTF_8);
         ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
         byteBuffer.put(bytes);
         byteBuffer.flip();
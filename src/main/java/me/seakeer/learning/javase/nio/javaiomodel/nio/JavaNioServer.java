@@ -2,20 +2,24 @@ package me.seakeer.learning.javase.nio.javaiomodel.nio;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousChannelGroup;
-import java.nio.channels.AsynchronousServerSocketChannel;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 /**
  * JavaNioServer;
+ * 一个线程 + 一个Selector 处理所有连接的 OP_ACCEPT、OP_READ、OP_WRITE，与 JavaAioServer 的消息协议相同（以换行符分隔），可以直接替换
+ * 每个连接的读写状态保存在 {@link NioConnection} 中，作为 SelectionKey 的附件，不需要通过Map查找
+ * 1. 读取到的消息在Selector线程中处理，回显的响应先入队，一次读取的消息处理完后再一起写出
+ * 2. 没有写完时注册 OP_WRITE，可写时继续写；其他线程发送的消息放入待发送连接队列，唤醒Selector后在Selector线程中写出
  *
  * @author Seakeer;
  * @date 2024/10/12;
@@ -24,11 +28,21 @@ public class JavaNioServer {
 
     private final int port;
 
-    private AsynchronousServerSocketChannel asyncServerSocketChannel;
+    private ServerSocketChannel serverSocketChannel;
 
-    private final Map<AsynchronousSocketChannel, String> ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
-    private final Map<String, AsynchronousSocketChannel> CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
+    private Selector selector;
 
+    /**
+     * 以该前缀开头的消息原样回显给客户端且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private final Map<String, NioConnection> CLIENT_ID_NIO_CONNECTION_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 由其他线程发送了消息的连接，需要在Selector线程中写出
+     */
+    private final ConcurrentLinkedQueue<NioConnection> FLUSHING_NIO_CONNECTION_QUEUE = new ConcurrentLinkedQueue<>();
 
     public JavaNioServer(int port) {
         this.port = port;
@@ -42,78 +56,108 @@ public class JavaNioServer {
 
     private void init() {
         try {
-            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(AsynchronousChannelGroup.withFixedThreadPool(10, Executors.defaultThreadFactory()))
-                    .bind(new InetSocketAddress(port));
-            asyncServerSocketChannel = asyncSsc;
+            serverSocketChannel = ServerSocketChannel.open();
+            serverSocketChannel.configureBlocking(false);
+            serverSocketChannel.bind(new InetSocketAddress(port));
+            selector = Selector.open();
+            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     private void run() {
-        System.out.println("[Server] [Server is running]");
-        acceptAndRead();
+        while (true) {
+            try {
+                selector.select();
+                flushPendingConnections();
+
+                Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                Iterator<SelectionKey> iterator = selectionKeys.iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
+                    if (selectionKey.isAcceptable()) {
+                        handleOpAccept();
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) selectionKey.attachment();
+                    if (selectionKey.isReadable()) {
+                        handleOpRead(connection);
+                    }
+                    // 读取时连接可能已断开
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        flush(connection);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 
-    private void acceptAndRead() {
-        asyncServerSocketChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Object>() {
-            @Override
-            public void completed(AsynchronousSocketChannel asc, Object attachment) {
-                handleAccept(asc);
-                handleClientMsg(asc);
-                acceptAndRead();
-            }
+    private void handleOpAccept() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            socketChannel.configureBlocking(false);
+            SelectionKey selectionKey = socketChannel.register(selector, SelectionKey.OP_READ);
+            selectionKey.attach(new NioConnection(socketChannel, selectionKey));
+            System.out.println("[Server][Accepted client: " + socketChannel.getRemoteAddress() + "]");
+        }
+    }
 
-            @Override
-            public void failed(Throwable exc, Object attachment) {
-                acceptAndRead();
+    private void handleOpRead(NioConnection connection) {
+        try {
+            if (connection.read(msg -> handleClientMsg(connection, msg)) < 0) {
+                handleClientDisconnect(connection);
+                return;
             }
-        });
+        } catch (IOException e) {
+            System.out.println("[Server] [Read Failed] [ClientId: " + connection.getClientId() + "] [Error: " + e.getMessage() + "]");
+            handleClientDisconnect(connection);
+            return;
+        }
+        if (connection.isOpen()) {
+            flush(connection);
+        }
     }
 
+    private void handleClientMsg(NioConnection connection, String msg) {
+        if (msg.startsWith(ECHO_PREFIX)) {
+            connection.send(msg);
+            return;
+        }
+        System.out.println("[Server] [Received msg: " + msg + "; From Client: " + connection.getClientId() + "]");
+        if (msg.startsWith("FROM ")) {
+            String clientId = msg.substring(5);
+            connection.setClientId(clientId);
+            CLIENT_ID_NIO_CONNECTION_MAP.put(clientId, connection);
+        }
+    }
 
-    private void handleAccept(AsynchronousSocketChannel asc) {
+    private void flush(NioConnection connection) {
         try {
-            System.out.println("[Server][Accepted client: " + asc.getRemoteAddress() + "]");
+            connection.flush();
         } catch (IOException e) {
-            e.printStackTrace();
+            handleClientDisconnect(connection);
         }
     }
 
-    private void handleClientMsg(AsynchronousSocketChannel asc) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        asc.read(buffer, buffer, new CompletionHandler<Integer, ByteBuffer>() {
-            @Override
-            public void completed(Integer result, ByteBuffer attachment) {
-                if (result == -1) {
-                    handleClientDisconnect(asc);
-                }
-                if (result == 0) {
-                    return;
-                }
-                attachment.flip();
-                byte[] data = new byte[attachment.remaining()];
-                attachment.get(data);
-                String msg = new String(data, StandardCharsets.UTF_8);
-                System.out.println("[Server] [Received msg: " + msg + "; From Client: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc) + "]");
-                if (msg.startsWith("FROM ")) {
-                    String clientId = msg.substring(5);
-                    ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.put(asc, clientId);
-                    CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.put(clientId, asc);
-                }
-                handleClientMsg(asc);
-            }
-
-            @Override
-            public void failed(Throwable exc, ByteBuffer attachment) {
-                exc.printStackTrace();
-                handleClientDisconnect(asc);
+    private void flushPendingConnections() {
+        NioConnection connection;
+        while ((connection = FLUSHING_NIO_CONNECTION_QUEUE.poll()) != null) {
+            if (connection.isOpen()) {
+                flush(connection);
             }
-        });
+        }
     }
 
     public void start() {
         init();
+        System.out.println("[Server] [Server is running]");
         run();
     }
 
@@ -127,7 +171,7 @@ public class JavaNioServer {
                     continue;
                 }
                 String[] msgParts = msg.split(" ");
-                if (msgParts.length < 2) {
+                if (msgParts.length < 3) {
                     continue;
                 }
                 server.sendMsg(msgParts[1], msgParts[2]);
@@ -135,56 +179,41 @@ public class JavaNioServer {
         }).start();
     }
 
-    private void sendToAllClient(String msg) {
-        for (AsynchronousSocketChannel socket : ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.keySet()) {
-            write(socket, msg);
+    public void sendToAllClient(String msg) {
+        for (NioConnection connection : CLIENT_ID_NIO_CONNECTION_MAP.values()) {
+            write(connection, msg);
         }
     }
 
     public boolean sendMsg(String clientId, String msg) {
-        AsynchronousSocketChannel asc = CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.get(clientId);
-        if (null == asc) {
+        NioConnection connection = CLIENT_ID_NIO_CONNECTION_MAP.get(clientId);
+        if (null == connection) {
             return false;
         }
-        write(asc, msg);
-        System.out.printf("[Server] [Send Msg][To client: %s; msg: %s]\n", clientId, msg);
-        return true;
+        return write(connection, msg);
     }
 
-    private void write(AsynchronousSocketChannel asc, String msg) {
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
-        ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
-        byteBuffer.put(bytes);
-        byteBuffer.flip();
-        asc.write(byteBuffer, null, new CompletionHandler<Integer, Object>() {
-            @Override
-            public void completed(Integer result, Object attachment) {
-                if (result < 0) {
-                    handleClientDisconnect(asc);
-                } else {
-                    System.out.println("[Server] [Send Msg][ClientId: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc) + "]" + " [Msg: " + msg + "]");
-                }
-            }
-
-            @Override
-            public void failed(Throwable exc, Object attachment) {
-                exc.printStackTrace();
-                handleClientDisconnect(asc);
-            }
-        });
+    /**
+     * 可在任意线程调用，消息入队后由Selector线程写出
+     */
+    private boolean write(NioConnection connection, String msg) {
+        if (!connection.send(msg)) {
+            return false;
+        }
+        if (connection.scheduleFlush()) {
+            FLUSHING_NIO_CONNECTION_QUEUE.offer(connection);
+            selector.wakeup();
+        }
+        System.out.println("[Server] [Send Msg][ClientId: " + connection.getClientId() + "]" + " [Msg: " + msg + "]");
+        return true;
     }
 
-
-    private void handleClientDisconnect(AsynchronousSocketChannel asc) {
-        try {
-            String clientId = ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.remove(asc);
-            if (clientId != null) {
-                CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.remove(clientId);
-                System.out.println("[Server] [Client disconnected: " + clientId + "]");
-            }
-            asc.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void handleClientDisconnect(NioConnection connection) {
+        connection.close();
+        String clientId = connection.getClientId();
+        if (clientId != null) {
+            CLIENT_ID_NIO_CONNECTION_MAP.remove(clientId, connection);
+            System.out.println("[Server] [Client disconnected: " + clientId + "]");
         }
     }
 }
@@ -0,0 +1,239 @@
+package me.seakeer.learning.javase.nio.javaiomodel.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * NioConnection;
+ * 作为 SelectionKey 的附件保存连接的读写状态，消息以换行符分隔，与 BIO 模型的 readLine 协议一致
+ * 1. 读：复用同一个读缓冲区，解码出完整的行交给处理器，不完整的行保留到下次 OP_READ
+ * 2. 写：任意线程调用 send 将消息放入队列，只在Selector线程中调用 flush 聚集写出
+ * 一次没有写完（Socket发送缓冲区已满）时注册 OP_WRITE，剩余部分在可写时继续写，写完后取消 OP_WRITE，避免Selector空转
+ * 待发送的数据超过 WRITE_HIGH_WATER_BYTES 时暂停读取（取消 OP_READ），写完后恢复，不读取响应的客户端不会让服务端无限缓存回显数据
+ * 除 send 外的方法只能在Selector线程中调用
+ *
+ * @author Seakeer;
+ * @date 2026/10/18;
+ */
+public class NioConnection {
+
+    public static final String NIO_CONNECTION_LOG = "[NioConnection] ";
+
+    private static final byte DELIMITER = '\n';
+
+    private static final int READ_BUFFER_INIT_SIZE = 1024;
+
+    /**
+     * 单条消息的最大字节数，超过则关闭连接
+     */
+    private static final int MAX_MSG_BYTES = 64 * 1024;
+
+    /**
+     * 一次聚集写最多合并的消息数
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    /**
+     * 待发送的最大字节数，超过说明对端读取太慢，新的消息被丢弃
+     */
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 待发送的字节数超过该值时暂停读取
+     */
+    private static final long WRITE_HIGH_WATER_BYTES = 256 * 1024;
+
+    private final SocketChannel channel;
+
+    private final SelectionKey selectionKey;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_INIT_SIZE);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> SENDING_BUFFER_QUEUE = new ConcurrentLinkedQueue<>();
+
+    private final ByteBuffer[] gatheringBuffers = new ByteBuffer[MAX_GATHERING_BUFFERS];
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * 是否已放入服务端的待发送连接队列，避免其他线程每次发送都唤醒Selector
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile String clientId;
+
+    public NioConnection(SocketChannel channel, SelectionKey selectionKey) {
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public NioConnection setClientId(String clientId) {
+        this.clientId = clientId;
+        return this;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public boolean isOpen() {
+        return selectionKey.isValid();
+    }
+
+    /**
+     * @return 是否由当前线程负责将连接放入待发送队列
+     */
+    boolean scheduleFlush() {
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * 读取一次并处理读取到的完整的行
+     *
+     * @return 读取的字节数，-1表示对端已关闭
+     * @throws IOException 读取失败或单条消息超过 MAX_MSG_BYTES
+     */
+    public int read(Consumer<String> msgHandler) throws IOException {
+        int bytesRead = channel.read(readBuffer);
+        if (bytesRead <= 0) {
+            return bytesRead;
+        }
+        readBuffer.flip();
+        int lineStart = readBuffer.position();
+        for (int i = lineStart; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) != DELIMITER) {
+                continue;
+            }
+            String msg = new String(readBuffer.array(), readBuffer.arrayOffset() + lineStart, i - lineStart, StandardCharsets.UTF_8);
+            lineStart = i + 1;
+            msgHandler.accept(msg);
+            if (!selectionKey.isValid()) {
+                return bytesRead;
+            }
+        }
+        readBuffer.position(lineStart);
+        // 不完整的行移动到缓冲区头部，等待后续数据
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_MSG_BYTES) {
+                throw new IOException("msg too large, maxMsgBytes: " + MAX_MSG_BYTES);
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_MSG_BYTES));
+            readBuffer.flip();
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * 发送一条消息，自动添加换行符，可在任意线程调用；只入队，由Selector线程调用 flush 写出
+     *
+     * @return false表示连接已关闭或待发送的数据过多
+     */
+    public boolean send(String msg) {
+        byte[] msgBytes = msg.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[msgBytes.length + 1];
+        System.arraycopy(msgBytes, 0, bytes, 0, msgBytes.length);
+        bytes[msgBytes.length] = DELIMITER;
+        return send(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 发送已编码的数据，缓冲区在发送完成前不能被修改
+     */
+    public boolean send(ByteBuffer buffer) {
+        if (!selectionKey.isValid()) {
+            return false;
+        }
+        if (pendingBytes.addAndGet(buffer.remaining()) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-buffer.remaining());
+            System.out.println(NIO_CONNECTION_LOG + "[Send Msg Dropped] [TooManyPendingBytes] [RemoteAddr: " + getRemoteAddress() + "]");
+            return false;
+        }
+        SENDING_BUFFER_QUEUE.offer(buffer);
+        return true;
+    }
+
+    /**
+     * 尽量写出队列中的数据，并根据剩余的数据更新关注的事件
+     *
+     * @return true表示已全部写出
+     */
+    public boolean flush() throws IOException {
+        flushScheduled.set(false);
+        while (!SENDING_BUFFER_QUEUE.isEmpty()) {
+            int count = 0;
+            Iterator<ByteBuffer> iterator = SENDING_BUFFER_QUEUE.iterator();
+            while (count < MAX_GATHERING_BUFFERS && iterator.hasNext()) {
+                gatheringBuffers[count++] = iterator.next();
+            }
+            long bytesWritten = channel.write(gatheringBuffers, 0, count);
+            pendingBytes.addAndGet(-bytesWritten);
+            // 按顺序写出，最后一个缓冲区没有写完说明Socket发送缓冲区已满
+            boolean partial = gatheringBuffers[count - 1].hasRemaining();
+            for (int i = 0; i < count; i++) {
+                gatheringBuffers[i] = null;
+            }
+            // 只移除已经写完的，部分写出的缓冲区保留在队首，其position已前移
+            ByteBuffer head;
+            while ((head = SENDING_BUFFER_QUEUE.peek()) != null && !head.hasRemaining()) {
+                SENDING_BUFFER_QUEUE.poll();
+            }
+            if (partial) {
+                break;
+            }
+        }
+        boolean flushed = SENDING_BUFFER_QUEUE.isEmpty();
+        int interestOps = selectionKey.interestOps();
+        int newInterestOps = flushed ? interestOps & ~SelectionKey.OP_WRITE : interestOps | SelectionKey.OP_WRITE;
+        if (pendingBytes.get() > WRITE_HIGH_WATER_BYTES) {
+            newInterestOps &= ~SelectionKey.OP_READ;
+        } else {
+            newInterestOps |= SelectionKey.OP_READ;
+        }
+        if (newInterestOps != interestOps) {
+            selectionKey.interestOps(newInterestOps);
+        }
+        return flushed;
+    }
+
+    /**
+     * 关闭连接，取消 SelectionKey
+     */
+    public void close() {
+        selectionKey.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        SENDING_BUFFER_QUEUE.clear();
+        pendingBytes.set(0);
+    }
+}
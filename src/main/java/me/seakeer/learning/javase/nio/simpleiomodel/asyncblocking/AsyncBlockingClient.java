@@ -86,7 +86,8 @@ public class AsyncBlockingClient {
         if (asyncSocketChannel == null) {
             return false;
         }
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        // 消息以换行符分隔
+        byte[] bytes = (msg + "\n").getBytes(StandardCharsets.UTF_8);
         ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
         byteBuffer.put(bytes);
         byteBuffer.flip();
@@ -1,21 +1,22 @@
 package me.seakeer.learning.javase.nio.simpleiomodel.asyncblocking;
 
+import me.seakeer.learning.javase.nio.javaiomodel.aio.AioChannelGroupFactory;
+import me.seakeer.learning.javase.nio.javaiomodel.aio.AioConnection;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 
 /**
- * JavaNioServer;
+ * AsyncBlockingServer;
+ * 每个连接一个线程，通过 Future 阻塞读取；写经过 {@link AioConnection} 的发送队列，多个线程同时发送不会抛出 WritePendingException
+ * 线程组由 {@link AioChannelGroupFactory} 创建，只负责执行写的完成处理器；控制台输入 METRICS 打印线程组指标
  *
  * @author Seakeer;
  * @date 2024/10/12;
@@ -26,15 +27,26 @@ public class AsyncBlockingServer {
 
     private AsynchronousServerSocketChannel asyncServerSocketChannel;
 
+    /**
+     * 以该前缀开头的消息原样回显给客户端且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private AioChannelGroupFactory channelGroupFactory = new AioChannelGroupFactory();
 
-    private final Map<AsynchronousSocketChannel, String> ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
-    private final Map<String, AsynchronousSocketChannel> CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
+    private final Map<AioConnection, String> AIO_CONNECTION_CLIENT_ID_MAP = new ConcurrentHashMap<>();
+    private final Map<String, AioConnection> CLIENT_ID_AIO_CONNECTION_MAP = new ConcurrentHashMap<>();
 
 
     public AsyncBlockingServer(int port) {
         this.port = port;
     }
 
+    public AsyncBlockingServer setChannelGroupFactory(AioChannelGroupFactory channelGroupFactory) {
+        this.channelGroupFactory = channelGroupFactory;
+        return this;
+    }
+
     public static void main(String[] args) {
         AsyncBlockingServer server = new AsyncBlockingServer(9090);
         mockSendMsg2Client(server);
@@ -46,6 +58,10 @@ public class AsyncBlockingServer {
             Scanner scanner = new Scanner(System.in);
             while (scanner.hasNext()) {
                 String msg = scanner.nextLine();
+                if ("METRICS".equals(msg)) {
+                    server.printMetrics();
+                    continue;
+                }
                 if (!msg.startsWith("TO ")) {
                     server.sendToAllClient(msg);
                     continue;
@@ -56,15 +72,19 @@ public class AsyncBlockingServer {
         }).start();
     }
 
-    private void sendToAllClient(String msg) {
-        for (AsynchronousSocketChannel socket : ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.keySet()) {
-            write(socket, msg);
+    public void printMetrics() {
+        System.out.println("[Server] [Metrics] [Clients: " + AIO_CONNECTION_CLIENT_ID_MAP.size() + "] " + channelGroupFactory.getMetrics());
+    }
+
+    public void sendToAllClient(String msg) {
+        for (AioConnection connection : AIO_CONNECTION_CLIENT_ID_MAP.keySet()) {
+            write(connection, msg);
         }
     }
 
     private void init() {
         try {
-            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(AsynchronousChannelGroup.withFixedThreadPool(10, Executors.defaultThreadFactory()))
+            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(channelGroupFactory.newChannelGroup())
                     .bind(new InetSocketAddress(port));
             asyncServerSocketChannel = asyncSsc;
         } catch (IOException e) {
@@ -87,35 +107,35 @@ public class AsyncBlockingServer {
 
 
     private void handleClientMsg(AsynchronousSocketChannel asc) {
-        new Thread(() -> doHandleClientMsg(asc)).start();
+        AioConnection connection = new AioConnection(asc, this::handleClientMsg, this::handleClientDisconnect, channelGroupFactory.getMetrics());
+        new Thread(() -> receivingMsg(connection)).start();
     }
 
-    private void doHandleClientMsg(AsynchronousSocketChannel asc) {
-        receivingMsg(asc);
+    private void receivingMsg(AioConnection connection) {
+        // 每次阻塞读取一次，读取到的完整消息在当前线程中处理
+        while (connection.isOpen()) {
+            connection.readBlocking();
+        }
     }
 
-    private void receivingMsg(AsynchronousSocketChannel asc) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        while (true) {
-            Future<Integer> readFuture = asc.read(buffer);
-            try {
-                Integer result = readFuture.get();
-                if (result > 0) {
-                    buffer.flip();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    String msg = new String(data, StandardCharsets.UTF_8);
-                    System.out.println("[Server] [Received msg: " + msg + "; From Client: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc) + "]");
-                    if (msg.startsWith("FROM ")) {
-                        String clientId = msg.substring(5);
-                        ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.put(asc, clientId);
-                        CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.put(clientId, asc);
-                    }
-                }
-                buffer.clear();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    private void handleClientMsg(AioConnection connection, String msg) {
+        if (msg.startsWith(ECHO_PREFIX)) {
+            connection.send(msg);
+            return;
+        }
+        System.out.println("[Server] [Received msg: " + msg + "; From Client: " + AIO_CONNECTION_CLIENT_ID_MAP.get(connection) + "]");
+        if (msg.startsWith("FROM ")) {
+            String clientId = msg.substring(5);
+            AIO_CONNECTION_CLIENT_ID_MAP.put(connection, clientId);
+            CLIENT_ID_AIO_CONNECTION_MAP.put(clientId, connection);
+        }
+    }
+
+    private void handleClientDisconnect(AioConnection connection) {
+        String clientId = AIO_CONNECTION_CLIENT_ID_MAP.remove(connection);
+        if (clientId != null) {
+            CLIENT_ID_AIO_CONNECTION_MAP.remove(clientId);
+            System.out.println("[Server] [Client disconnected: " + clientId + "]");
         }
     }
 
@@ -126,25 +146,19 @@ public class AsyncBlockingServer {
     }
 
     public boolean sendMsg(String clientId, String msg) {
-        AsynchronousSocketChannel asc = CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.get(clientId);
-        if (null == asc) {
+        AioConnection connection = CLIENT_ID_AIO_CONNECTION_MAP.get(clientId);
+        if (null == connection) {
             return false;
         }
-        return write(asc, msg);
+        return write(connection, msg);
     }
 
-    private boolean write(AsynchronousSocketChannel asc, String msg) {
-        try {
-            byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
-            ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
-            byteBuffer.put(bytes);
-            byteBuffer.flip();
-            asc.write(byteBuffer).get();
-            System.out.printf("[Server] [Send Msg][To client: %s; msg: %s]\n", ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.get(asc), msg);
+    private boolean write(AioConnection connection, String msg) {
+        if (connection.send(msg)) {
+            System.out.printf("[Server] [Send Msg][To client: %s; msg: %s]\n", AIO_CONNECTION_CLIENT_ID_MAP.get(connection), msg);
             return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
         }
+        System.out.println("[Server] [Send Msg Failed] [ClientId: " + AIO_CONNECTION_CLIENT_ID_MAP.get(connection) + "] [Msg: " + msg + "]");
+        return false;
     }
 }
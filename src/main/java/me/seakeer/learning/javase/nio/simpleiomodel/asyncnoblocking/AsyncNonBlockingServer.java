@@ -1,21 +1,23 @@
 package me.seakeer.learning.javase.nio.simpleiomodel.asyncnoblocking;
 
+import me.seakeer.learning.javase.nio.javaiomodel.aio.AioChannelGroupFactory;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 
 
 /**
  * AsyncNonBlockingServer;
+ * 线程组由 {@link AioChannelGroupFactory} 创建，默认每个CPU核一个线程；控制台输入 METRICS 打印线程组指标
  *
  * @author Seakeer;
  * @date 2024/10/12;
@@ -26,6 +28,15 @@ public class AsyncNonBlockingServer {
 
     private AsynchronousServerSocketChannel asyncServerSocketChannel;
 
+    /**
+     * 第一次读取的数据以该前缀开头的连接为回显连接：之后读取的数据原样写回且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private AioChannelGroupFactory channelGroupFactory = new AioChannelGroupFactory();
+
+    private final Set<AsynchronousSocketChannel> ECHO_ASYNC_SOCKET_CHANNEL_SET = ConcurrentHashMap.newKeySet();
+
     private final Map<AsynchronousSocketChannel, String> ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP = new ConcurrentHashMap<>();
     private final Map<String, AsynchronousSocketChannel> CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP = new ConcurrentHashMap<>();
 
@@ -34,6 +45,11 @@ public class AsyncNonBlockingServer {
         this.port = port;
     }
 
+    public AsyncNonBlockingServer setChannelGroupFactory(AioChannelGroupFactory channelGroupFactory) {
+        this.channelGroupFactory = channelGroupFactory;
+        return this;
+    }
+
     public static void main(String[] args) {
         AsyncNonBlockingServer server = new AsyncNonBlockingServer(9090);
         mockSendMsg2Client(server);
@@ -42,7 +58,7 @@ public class AsyncNonBlockingServer {
 
     private void init() {
         try {
-            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(AsynchronousChannelGroup.withFixedThreadPool(10, Executors.defaultThreadFactory()))
+            AsynchronousServerSocketChannel asyncSsc = AsynchronousServerSocketChannel.open(channelGroupFactory.newChannelGroup())
                     .bind(new InetSocketAddress(port));
             asyncServerSocketChannel = asyncSsc;
         } catch (IOException e) {
@@ -56,7 +72,7 @@ public class AsyncNonBlockingServer {
     }
 
     private void acceptAndRead() {
-        asyncServerSocketChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Object>() {
+        asyncServerSocketChannel.accept(null, channelGroupFactory.getMetrics().wrap(new CompletionHandler<AsynchronousSocketChannel, Object>() {
             @Override
             public void completed(AsynchronousSocketChannel asc, Object attachment) {
                 handleAccept(asc);
@@ -68,7 +84,7 @@ public class AsyncNonBlockingServer {
             public void failed(Throwable exc, Object attachment) {
                 acceptAndRead();
             }
-        });
+        }));
     }
 
 
@@ -82,16 +98,21 @@ public class AsyncNonBlockingServer {
 
     private void handleClientMsg(AsynchronousSocketChannel asc) {
         ByteBuffer buffer = ByteBuffer.allocate(1024);
-        asc.read(buffer, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+        asc.read(buffer, buffer, channelGroupFactory.getMetrics().wrap(new CompletionHandler<Integer, ByteBuffer>() {
             @Override
             public void completed(Integer result, ByteBuffer attachment) {
                 if (result == -1) {
                     handleClientDisconnect(asc);
+                    return;
                 }
                 if (result == 0) {
                     return;
                 }
                 attachment.flip();
+                if (isEchoMsg(asc, attachment)) {
+                    echo(asc, attachment);
+                    return;
+                }
                 byte[] data = new byte[attachment.remaining()];
                 attachment.get(data);
                 String msg = new String(data, StandardCharsets.UTF_8);
@@ -109,7 +130,44 @@ public class AsyncNonBlockingServer {
                 exc.printStackTrace();
                 handleClientDisconnect(asc);
             }
-        });
+        }));
+    }
+
+    private boolean isEchoMsg(AsynchronousSocketChannel asc, ByteBuffer buffer) {
+        if (ECHO_ASYNC_SOCKET_CHANNEL_SET.contains(asc)) {
+            return true;
+        }
+        if (ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.containsKey(asc) || buffer.remaining() < ECHO_PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < ECHO_PREFIX.length(); i++) {
+            if (buffer.get(buffer.position() + i) != ECHO_PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        ECHO_ASYNC_SOCKET_CHANNEL_SET.add(asc);
+        return true;
+    }
+
+    /**
+     * 写回读取到的数据，写完后再继续读取，同一连接同时只有一个读或写操作
+     */
+    private void echo(AsynchronousSocketChannel asc, ByteBuffer buffer) {
+        asc.write(buffer, buffer, channelGroupFactory.getMetrics().wrap(new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer result, ByteBuffer attachment) {
+                if (attachment.hasRemaining()) {
+                    asc.write(attachment, attachment, this);
+                } else {
+                    handleClientMsg(asc);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer attachment) {
+                handleClientDisconnect(asc);
+            }
+        }));
     }
 
     public void start() {
@@ -122,6 +180,10 @@ public class AsyncNonBlockingServer {
             Scanner scanner = new Scanner(System.in);
             while (scanner.hasNext()) {
                 String msg = scanner.nextLine();
+                if ("METRICS".equals(msg)) {
+                    server.printMetrics();
+                    continue;
+                }
                 if (!msg.startsWith("TO ")) {
                     server.sendToAllClient(msg);
                     continue;
@@ -135,6 +197,10 @@ public class AsyncNonBlockingServer {
         }).start();
     }
 
+    public void printMetrics() {
+        System.out.println("[Server] [Metrics] [Clients: " + ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.size() + "] " + channelGroupFactory.getMetrics());
+    }
+
     private void sendToAllClient(String msg) {
         for (AsynchronousSocketChannel socket : ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.keySet()) {
             write(socket, msg);
@@ -156,7 +222,7 @@ public class AsyncNonBlockingServer {
         ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
         byteBuffer.put(bytes);
         byteBuffer.flip();
-        asc.write(byteBuffer, null, new CompletionHandler<Integer, Object>() {
+        asc.write(byteBuffer, null, channelGroupFactory.getMetrics().wrap(new CompletionHandler<Integer, Object>() {
             @Override
             public void completed(Integer result, Object attachment) {
                 if (result < 0) {
@@ -171,12 +237,13 @@ public class AsyncNonBlockingServer {
                 exc.printStackTrace();
                 handleClientDisconnect(asc);
             }
-        });
+        }));
     }
 
 
     private void handleClientDisconnect(AsynchronousSocketChannel asc) {
         try {
+            ECHO_ASYNC_SOCKET_CHANNEL_SET.remove(asc);
             String clientId = ASYNC_SOCKET_CHANNEL_CLIENT_ID_MAP.remove(asc);
             if (clientId != null) {
                 CLIENT_ID_ASYNC_SOCKET_CHANNEL_MAP.remove(clientId);
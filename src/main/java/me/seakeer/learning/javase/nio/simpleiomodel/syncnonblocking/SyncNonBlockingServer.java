@@ -34,6 +34,18 @@ public class SyncNonBlockingServer {
     private final Map<String, SocketChannel> CLIENT_ID_SOCKE_CHANNELT_MAP = new ConcurrentHashMap<>();
     private final Map<SocketChannel, ConcurrentLinkedQueue<String>> SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP = new ConcurrentHashMap<>();
 
+    /**
+     * 第一条消息以该前缀开头的连接为回显连接：之后读取的数据原样写回且不打印日志，用于 IoModelBenchmark 压测
+     */
+    public static final String ECHO_PREFIX = "ECHO ";
+
+    private static final int ECHO_BUFFER_INIT_SIZE = 4096;
+
+    /**
+     * 回显连接待写回的数据，写模式
+     */
+    private final Map<SocketChannel, ByteBuffer> SOCKET_CHANNEL_ECHO_BUFFER_MAP = new ConcurrentHashMap<>();
+
 
     public SyncNonBlockingServer(int port) {
         this.port = port;
@@ -72,13 +84,17 @@ public class SyncNonBlockingServer {
                     SelectionKey selectionKey = iterator.next();
                     // 移除当前处理的 SelectionKey
                     iterator.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
                     if (selectionKey.isAcceptable()) {
                         handleOpAccept();
                     }
                     if (selectionKey.isReadable()) {
                         handleOpRead(selectionKey);
                     }
-                    if (selectionKey.isWritable()) {
+                    // 读取时连接可能已断开
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
                         handleOpWrite(selectionKey);
                     }
                 }
@@ -88,8 +104,13 @@ public class SyncNonBlockingServer {
         }
     }
 
-    private void handleOpWrite(SelectionKey selectionKey) {
+    private void handleOpWrite(SelectionKey selectionKey) throws IOException {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        ByteBuffer echoBuffer = SOCKET_CHANNEL_ECHO_BUFFER_MAP.get(socketChannel);
+        if (null != echoBuffer) {
+            flushEchoBuffer(socketChannel, echoBuffer);
+            return;
+        }
         ConcurrentLinkedQueue<String> msgQueue = SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.getOrDefault(socketChannel, new ConcurrentLinkedQueue<>());
         String msg;
         while ((msg = msgQueue.peek()) != null) {
@@ -104,6 +125,12 @@ public class SyncNonBlockingServer {
 
     private void handleOpRead(SelectionKey selectionKey) throws IOException {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        if (SOCKET_CHANNEL_ECHO_BUFFER_MAP.containsKey(socketChannel)) {
+            if (!handleEchoMsg(socketChannel)) {
+                handleDisconnect(socketChannel);
+            }
+            return;
+        }
         if (!handleClientMsg(socketChannel)) {
             handleDisconnect(socketChannel);
         }
@@ -121,6 +148,14 @@ public class SyncNonBlockingServer {
             return false;
         }
         String msg = readContent.toString();
+        if (msg.startsWith(ECHO_PREFIX) && !SOCKET_CHANNEL_CLIENT_ID_MAP.containsKey(socketChannel)) {
+            // 切换为回显连接，ECHO消息只包含ASCII字符，解码后再编码不会改变内容
+            ByteBuffer echoBuffer = ByteBuffer.allocate(Math.max(ECHO_BUFFER_INIT_SIZE, msg.length()));
+            echoBuffer.put(msg.getBytes(StandardCharsets.UTF_8));
+            SOCKET_CHANNEL_ECHO_BUFFER_MAP.put(socketChannel, echoBuffer);
+            flushEchoBuffer(socketChannel, echoBuffer);
+            return true;
+        }
         System.out.println("[Server] [Received msg: " + msg + "; From Client: " + SOCKET_CHANNEL_CLIENT_ID_MAP.get(socketChannel) + "]");
         if (msg.startsWith("FROM ")) {
             String clientId = msg.substring(5);
@@ -130,6 +165,42 @@ public class SyncNonBlockingServer {
         return true;
     }
 
+    /**
+     * 读取回显连接的所有数据并尽量写回，没有写完的数据在可写时继续写出
+     *
+     * @param socketChannel
+     * @return false表示连接已关闭
+     * @throws IOException
+     */
+    private boolean handleEchoMsg(SocketChannel socketChannel) throws IOException {
+        ByteBuffer echoBuffer = SOCKET_CHANNEL_ECHO_BUFFER_MAP.get(socketChannel);
+        int bytesRead;
+        while (true) {
+            if (!echoBuffer.hasRemaining()) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(echoBuffer.capacity() * 2);
+                echoBuffer.flip();
+                newBuffer.put(echoBuffer);
+                echoBuffer = newBuffer;
+                SOCKET_CHANNEL_ECHO_BUFFER_MAP.put(socketChannel, echoBuffer);
+            }
+            bytesRead = socketChannel.read(echoBuffer);
+            if (bytesRead <= 0) {
+                break;
+            }
+        }
+        flushEchoBuffer(socketChannel, echoBuffer);
+        return bytesRead != -1;
+    }
+
+    private void flushEchoBuffer(SocketChannel socketChannel, ByteBuffer echoBuffer) throws IOException {
+        if (echoBuffer.position() == 0) {
+            return;
+        }
+        echoBuffer.flip();
+        socketChannel.write(echoBuffer);
+        echoBuffer.compact();
+    }
+
     private void handleDisconnect(SocketChannel socketChannel) throws IOException {
         SelectionKey key = socketChannel.keyFor(selector);
         if (key != null) {
@@ -141,6 +212,9 @@ public class SyncNonBlockingServer {
             CLIENT_ID_SOCKE_CHANNELT_MAP.remove(clientId);
         }
         SOCKET_CHANNEL_SENDING_MSG_QUEUE_MAP.remove(socketChannel);
+        if (null != SOCKET_CHANNEL_ECHO_BUFFER_MAP.remove(socketChannel)) {
+            return;
+        }
         System.out.println("[Server] [Client disconnected: " + clientId + "]");
     }
 